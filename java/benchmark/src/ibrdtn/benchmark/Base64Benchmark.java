@@ -0,0 +1,105 @@
+/*
+ * Base64Benchmark.java
+ *
+ * Copyright (C) 2011 IBR, TU Braunschweig
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package ibrdtn.benchmark;
+
+import ibrdtn.api.Base64;
+import ibrdtn.api.Base64Decoder;
+import ibrdtn.api.NullOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures base64 encoding as done by the PlainSerializer and decoding as done by the DataReceiver and the
+ * PlainDeserializer.
+ *
+ * Run with JMH on the classpath, e.g. java -cp ibrdtnlib.jar:benchmark.jar:jmh.jar org.openjdk.jmh.Main Base64
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class Base64Benchmark {
+
+    @Param({"0", "1024", "65536", "16777216"})
+    public int payloadSize;
+
+    private byte[] payload;
+    private byte[] encoded;
+    private NullOutputStream output;
+    private Base64Decoder decoder;
+
+    @Setup
+    public void setUp() throws IOException {
+        payload = Payloads.random(payloadSize);
+        encoded = Base64.encodeBytes(payload, Base64.DO_BREAK_LINES).getBytes();
+        output = new NullOutputStream();
+        decoder = new Base64Decoder();
+    }
+
+    @Benchmark
+    public long encodeStream() throws IOException {
+        output.reset();
+        Base64.OutputStream base64 = new Base64.OutputStream(output, Base64.ENCODE | Base64.DO_BREAK_LINES);
+        base64.write(payload);
+        base64.flushBase64();
+        return output.getCount();
+    }
+
+    @Benchmark
+    public String encodeBytes() throws IOException {
+        return Base64.encodeBytes(payload, Base64.DO_BREAK_LINES);
+    }
+
+    @Benchmark
+    public long decodeIncremental() throws IOException {
+        output.reset();
+        decoder.reset();
+        decoder.decode(ByteBuffer.wrap(encoded), output);
+        decoder.finish(output);
+        return output.getCount();
+    }
+
+    @Benchmark
+    public long decodeStream() throws IOException {
+        output.reset();
+        Base64.OutputStream base64 = new Base64.OutputStream(output, Base64.DECODE);
+        base64.write(encoded);
+        base64.flushBase64();
+        return output.getCount();
+    }
+
+    @Benchmark
+    public byte[] decodeBytes() throws IOException {
+        return Base64.decode(encoded);
+    }
+}
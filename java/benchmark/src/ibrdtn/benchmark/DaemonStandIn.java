@@ -0,0 +1,480 @@
+/*
+ * DaemonStandIn.java
+ *
+ * Copyright (C) 2011 IBR, TU Braunschweig
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package ibrdtn.benchmark;
+
+import ibrdtn.api.APIConnection;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * An in-memory stand-in for the API of the daemon, used as a reproducible peer for benchmarks and load tests of the
+ * ExtendedClient, EventClient and StreamingClient.
+ *
+ * The stand-in implements the protocol switch of the ClientHandler and the command set of the ExtendedApiHandler
+ * (endpoints, registrations including save / load, bundle put / get / info / load / free / delivered / store / send
+ * and payload get / put). Sent bundles are kept in memory and announced to the subscribed sessions with 602
+ * notifications. Reception and delivery reports (603) and custody signals (604) are generated if the bundle
+ * requests them. Binary bundles and the block commands are not supported.
+ *
+ * Clients connect over TCP on the loopback interface, over a unix domain socket or in-process through connect().
+ * A latency can be injected before each command is answered to emulate a loaded daemon.
+ */
+public class DaemonStandIn implements Closeable, Runnable {
+
+    private static final Logger logger = Logger.getLogger(DaemonStandIn.class.getName());
+    private static final String NODE_NAME = "dtn://standin";
+
+    // seconds between the unix epoch and the DTN epoch (2000-01-01)
+    private static final long DTN_EPOCH = 946684800L;
+
+    private final ServerSocketChannel server;
+    private final Path path;
+
+    private final Map<String, StandInBundle> bundles = new LinkedHashMap<String, StandInBundle>();
+    private final Map<String, StandInRegistration> registrations = new HashMap<String, StandInRegistration>();
+    private final Set<StandInSession> sessions = new HashSet<StandInSession>();
+    private final AtomicLong sequence = new AtomicLong(0);
+    private int handles = 0;
+    private int capacity = 10000;
+    private volatile long latency = 0;
+
+    private DaemonStandIn(ServerSocketChannel server, Path path) {
+        this.server = server;
+        this.path = path;
+
+        if (server != null) {
+            Thread thread = new Thread(this, "DaemonStandIn");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * Creates a stand-in without a listening socket, clients connect with connect().
+     */
+    public static DaemonStandIn inProcess() {
+        return new DaemonStandIn(null, null);
+    }
+
+    /**
+     * Starts a stand-in listening on a free TCP port of the loopback interface.
+     */
+    public static DaemonStandIn tcp() throws IOException {
+        ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.INET);
+        server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        return new DaemonStandIn(server, null);
+    }
+
+    /**
+     * Starts a stand-in listening on a unix domain socket. An existing socket file is replaced.
+     *
+     * @param path the path of the socket file
+     */
+    public static DaemonStandIn unix(Path path) throws IOException {
+        Files.deleteIfExists(path);
+        ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        server.bind(UnixDomainSocketAddress.of(path));
+        return new DaemonStandIn(server, path);
+    }
+
+    /**
+     * @return an unopened in-process connection to this stand-in
+     */
+    public APIConnection connect() {
+        return new StandInConnection(this);
+    }
+
+    /**
+     * @return the TCP port of the stand-in or -1 if it listens on a unix domain socket or not at all
+     */
+    public int getPort() throws IOException {
+        if (server == null || path != null) {
+            return -1;
+        }
+        return ((InetSocketAddress) server.getLocalAddress()).getPort();
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * Sets the time each command waits before it is answered.
+     */
+    public void setLatency(long latency, TimeUnit unit) {
+        this.latency = unit.toNanos(latency);
+    }
+
+    /**
+     * Sets the number of bundles kept in the storage. If the storage is full, the oldest bundle is dropped.
+     */
+    public synchronized void setCapacity(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("invalid capacity");
+        }
+        this.capacity = capacity;
+    }
+
+    /**
+     * @return the number of bundles in the storage
+     */
+    public synchronized int getStoredBundles() {
+        return bundles.size();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (server != null) {
+            server.close();
+        }
+        if (path != null) {
+            Files.deleteIfExists(path);
+        }
+
+        List<StandInSession> open;
+        synchronized (this) {
+            open = new ArrayList<StandInSession>(sessions);
+        }
+        for (StandInSession s : open) {
+            s.close();
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (server.isOpen()) {
+                SocketChannel channel = server.accept();
+                if (path == null) {
+                    channel.socket().setTcpNoDelay(true);
+                }
+                accept(channel, channel);
+            }
+        } catch (IOException e) {
+            if (server.isOpen()) {
+                logger.log(Level.WARNING, "Stand-in daemon failed", e);
+            }
+        }
+    }
+
+    /**
+     * Starts a session on the given channels.
+     */
+    void accept(ReadableByteChannel input, WritableByteChannel output) {
+        Thread session = new Thread(new StandInSession(this, input, output), "DaemonStandIn-Session");
+        session.setDaemon(true);
+        session.start();
+    }
+
+    /**
+     * Waits for the configured latency.
+     */
+    void delay() {
+        long nanos = latency;
+        if (nanos <= 0) {
+            return;
+        }
+
+        long deadline = System.nanoTime() + nanos;
+        while ((nanos = deadline - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(nanos);
+        }
+    }
+
+    String getNodeName() {
+        return NODE_NAME;
+    }
+
+    String getDefaultEndpoint(StandInRegistration registration) {
+        return NODE_NAME + "/" + registration.handle;
+    }
+
+    /**
+     * Creates the registration of a new session, subscribed to its default endpoint.
+     */
+    synchronized StandInRegistration register(StandInSession session) {
+        sessions.add(session);
+
+        StandInRegistration registration = new StandInRegistration("api" + (++handles));
+        registration.session = session;
+        registration.subscriptions.add(getDefaultEndpoint(registration));
+        registrations.put(registration.handle, registration);
+        return registration;
+    }
+
+    /**
+     * Detaches a closed session from its registration. Registrations which have not been saved are removed.
+     */
+    synchronized void release(StandInSession session, StandInRegistration registration) {
+        sessions.remove(session);
+        if (registration != null && registration.session == session) {
+            detach(registration);
+        }
+    }
+
+    private void detach(StandInRegistration registration) {
+        registration.session = null;
+        registration.queue.clear();
+        if (!registration.persistent) {
+            registrations.remove(registration.handle);
+        }
+    }
+
+    synchronized void subscribe(StandInRegistration registration, String eid) {
+        registration.subscriptions.add(eid);
+    }
+
+    synchronized void unsubscribe(StandInRegistration registration, String eid) {
+        registration.subscriptions.remove(eid);
+    }
+
+    synchronized List<String> getSubscriptions(StandInRegistration registration) {
+        return new ArrayList<String>(registration.subscriptions);
+    }
+
+    /**
+     * Makes a registration persistent.
+     *
+     * @param lifetime the lifetime in seconds after the registration is detached, 0 for unlimited
+     */
+    synchronized void save(StandInRegistration registration, long lifetime) {
+        registration.persistent = true;
+        registration.expires = (lifetime > 0) ? System.currentTimeMillis() + lifetime * 1000 : 0;
+    }
+
+    /**
+     * @return the registration with the given handle or null if there is none
+     */
+    synchronized StandInRegistration find(String handle) {
+        StandInRegistration registration = registrations.get(handle);
+        if (registration != null && registration.session == null
+                && registration.isExpired(System.currentTimeMillis())) {
+            registrations.remove(handle);
+            return null;
+        }
+        return registration;
+    }
+
+    /**
+     * Switches a session from its current registration to another one.
+     *
+     * @return false, if the other registration is attached to another session
+     */
+    synchronized boolean attach(StandInSession session, StandInRegistration current, StandInRegistration loaded) {
+        if (loaded.session != null) {
+            return false;
+        }
+
+        detach(current);
+        loaded.session = session;
+        return true;
+    }
+
+    /**
+     * Announces the bundles not yet delivered to the session of a registration, e.g. after it has been loaded.
+     */
+    void announcePending(StandInRegistration registration) {
+        StandInSession session;
+        List<StandInBundle> pending = new ArrayList<StandInBundle>();
+        synchronized (this) {
+            session = registration.session;
+            for (String id : registration.pending) {
+                StandInBundle b = bundles.get(id);
+                if (b != null) {
+                    pending.add(b);
+                }
+            }
+        }
+
+        if (session == null) {
+            return;
+        }
+
+        for (StandInBundle b : pending) {
+            if (session.announce(b)) {
+                delivered(registration, b.getId());
+            }
+        }
+    }
+
+    synchronized StandInBundle get(String id) {
+        return bundles.get(id);
+    }
+
+    synchronized boolean remove(String id) {
+        return bundles.remove(id) != null;
+    }
+
+    /**
+     * Puts a bundle into the storage without announcing it.
+     */
+    synchronized void store(StandInBundle bundle) {
+        bundles.put(bundle.getId(), bundle);
+
+        // drop the oldest bundles if the storage is full
+        Iterator<String> it = bundles.keySet().iterator();
+        while (bundles.size() > capacity) {
+            String id = it.next();
+            it.remove();
+            for (StandInRegistration r : registrations.values()) {
+                r.pending.remove(id);
+            }
+        }
+    }
+
+    /**
+     * Assigns the source and the bundle id like the daemon does for bundles sent through the API.
+     */
+    void prepare(String endpoint, StandInBundle bundle) {
+        bundle.source = endpoint;
+        if (bundle.timestamp == 0) {
+            bundle.timestamp = System.currentTimeMillis() / 1000 - DTN_EPOCH;
+        }
+        bundle.sequenceNumber = sequence.getAndIncrement();
+    }
+
+    /**
+     * Stores a bundle and announces it to all registrations subscribed to its destination.
+     */
+    void send(StandInBundle bundle) {
+        String id = bundle.getId();
+        List<StandInRegistration> receivers = new ArrayList<StandInRegistration>();
+        List<StandInSession> listeners;
+
+        synchronized (this) {
+            store(bundle);
+            for (StandInRegistration r : registrations.values()) {
+                if (r.subscriptions.contains(bundle.destination)) {
+                    r.pending.add(id);
+                    receivers.add(r);
+                }
+            }
+            listeners = new ArrayList<StandInSession>(sessions);
+        }
+
+        if ((bundle.procFlags & StandInBundle.RECEPTION_REPORT) != 0) {
+            report(bundle, "RECEIPT");
+        }
+
+        if ((bundle.procFlags & StandInBundle.CUSTODY_REQUEST) != 0) {
+            notify(bundle.custodian, "604 NOTIFY CUSTODY " + NODE_NAME + " " + bundle.getReportId() + " ACCEPTED "
+                    + time());
+        }
+
+        for (StandInRegistration r : receivers) {
+            StandInSession session;
+            synchronized (this) {
+                session = r.session;
+            }
+            if (session != null && session.announce(bundle)) {
+                delivered(r, id);
+            }
+        }
+
+        for (StandInSession s : listeners) {
+            s.event(bundle);
+        }
+    }
+
+    /**
+     * Marks a bundle as delivered to a registration. The bundle is removed from the storage as soon as no other
+     * registration is waiting for it.
+     *
+     * @return false, if the bundle is not in the storage
+     */
+    boolean delivered(StandInRegistration registration, String id) {
+        StandInBundle bundle;
+        synchronized (this) {
+            bundle = bundles.get(id);
+            if (bundle == null) {
+                return false;
+            }
+
+            registration.pending.remove(id);
+
+            boolean waiting = false;
+            for (StandInRegistration r : registrations.values()) {
+                waiting |= r.pending.contains(id);
+            }
+            if (!waiting) {
+                bundles.remove(id);
+            }
+        }
+
+        if ((bundle.procFlags & StandInBundle.DELIVERY_REPORT) != 0) {
+            report(bundle, "DELIVERY");
+        }
+        return true;
+    }
+
+    private void report(StandInBundle bundle, String status) {
+        notify(bundle.reportto, "603 NOTIFY REPORT " + NODE_NAME + " " + bundle.getReportId() + " 0 " + status + "["
+                + time() + "] ");
+    }
+
+    /**
+     * Writes an administrative notification to all sessions subscribed to the given endpoint.
+     */
+    private void notify(String eid, String line) {
+        if (StandInBundle.NONE.equals(eid)) {
+            return;
+        }
+
+        List<StandInSession> receivers = new ArrayList<StandInSession>();
+        synchronized (this) {
+            for (StandInRegistration r : registrations.values()) {
+                if (r.session != null && r.subscriptions.contains(eid)) {
+                    receivers.add(r.session);
+                }
+            }
+        }
+
+        for (StandInSession s : receivers) {
+            s.notify(line);
+        }
+    }
+
+    private static String time() {
+        long now = System.currentTimeMillis();
+        return (now / 1000 - DTN_EPOCH) + "." + (now % 1000) * 1000000;
+    }
+}
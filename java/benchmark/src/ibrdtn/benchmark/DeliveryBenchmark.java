@@ -0,0 +1,143 @@
+/*
+ * DeliveryBenchmark.java
+ *
+ * Copyright (C) 2011 IBR, TU Braunschweig
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package ibrdtn.benchmark;
+
+import ibrdtn.api.APIConnection;
+import ibrdtn.api.APIException;
+import ibrdtn.api.ExtendedClient;
+import ibrdtn.api.SocketAPIConnection;
+import ibrdtn.api.object.Bundle;
+import ibrdtn.api.object.BundleID;
+import ibrdtn.api.object.PayloadBlock;
+import ibrdtn.api.object.SingletonEndpoint;
+import java.io.IOException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the delivery of a bundle from one ExtendedClient to another through the DaemonStandIn: send, the 602
+ * notification, bundle load, bundle get and bundle delivered. The latency injected by the stand-in emulates the
+ * processing time of a real daemon per command.
+ *
+ * Run with JMH on the classpath, e.g. java -cp ibrdtnlib.jar:benchmark.jar:jmh.jar org.openjdk.jmh.Main Delivery
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DeliveryBenchmark {
+
+    @Param({"inproc", "tcp"})
+    public String transport;
+
+    @Param({"0", "100"})
+    public int latencyMicros;
+
+    @Param({"1024", "65536"})
+    public int payloadSize;
+
+    private DaemonStandIn daemon;
+    private ExtendedClient sender;
+    private ExtendedClient receiver;
+    private ReceivingHandler handler;
+    private Bundle bundle;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, APIException {
+        daemon = transport.equals("tcp") ? DaemonStandIn.tcp() : DaemonStandIn.inProcess();
+        daemon.setLatency(latencyMicros, TimeUnit.MICROSECONDS);
+
+        handler = new ReceivingHandler();
+        receiver = open(null);
+        receiver.setEndpoint("sink");
+
+        sender = open(new Payloads.DiscardingHandler());
+        sender.setEndpoint("source");
+
+        bundle = new Bundle(new SingletonEndpoint("dtn://standin/sink"), 3600);
+        bundle.appendBlock(new PayloadBlock(Payloads.random(payloadSize)));
+    }
+
+    private ExtendedClient open(Payloads.DiscardingHandler h) throws IOException {
+        APIConnection connection = transport.equals("tcp")
+                ? new SocketAPIConnection("127.0.0.1", daemon.getPort()) : daemon.connect();
+
+        ExtendedClient client = new ExtendedClient();
+        client.setConnection(connection);
+        client.setHandler((h == null) ? handler : h);
+        client.open();
+        return client;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        sender.close();
+        receiver.close();
+        daemon.close();
+    }
+
+    @Benchmark
+    public int deliver() throws APIException, InterruptedException {
+        sender.send(bundle);
+
+        BundleID id = handler.ids.take();
+        receiver.loadBundle(id);
+        receiver.getBundle();
+        handler.received.acquire();
+        receiver.markDelivered(id);
+
+        return handler.bundles;
+    }
+
+    /**
+     * Collects the announced bundles and signals the end of each received bundle.
+     */
+    private static class ReceivingHandler extends Payloads.DiscardingHandler {
+
+        final LinkedBlockingQueue<BundleID> ids = new LinkedBlockingQueue<BundleID>();
+        final Semaphore received = new Semaphore(0);
+
+        @Override
+        public void notify(BundleID id) {
+            ids.add(id);
+        }
+
+        @Override
+        public void endBundle() {
+            super.endBundle();
+            received.release();
+        }
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * NotificationBenchmark.java
+ *
+ * Copyright (C) 2011 IBR, TU Braunschweig
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package ibrdtn.benchmark;
+
+import ibrdtn.api.Timestamp;
+import ibrdtn.api.object.BundleID;
+import ibrdtn.api.object.BundleIdMap;
+import ibrdtn.api.object.BundleKey;
+import ibrdtn.api.object.SingletonEndpoint;
+import ibrdtn.api.sab.Custody;
+import ibrdtn.api.sab.StatusReport;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the handling of notifications: parsing of status reports and custody signals and the lookup of bundle
+ * ids, e.g. to match a report with a sent bundle. The regular expressions which were used to parse the notifications
+ * before are measured as a baseline for the tokenizing parsers.
+ *
+ * Run with JMH on the classpath, e.g. java -cp ibrdtnlib.jar:benchmark.jar:jmh.jar org.openjdk.jmh.Main Notification
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NotificationBenchmark {
+
+    private static final int BUNDLES = 1024;
+
+    private static final String REPORT = "NOTIFY REPORT dtn://node-a/app 457894561.12 dtn://node-b/app 0 "
+            + "DELIVERY[457894570.381]";
+    private static final String REPORT_FRAGMENT = "NOTIFY REPORT dtn://node-a/app 457894561.12.1024:512 "
+            + "dtn://node-b/app 0 DELIVERY[457894570.381]";
+    private static final String CUSTODY = "NOTIFY CUSTODY dtn://node-a/app 457894561.12 dtn://node-b/app "
+            + "ACCEPTED 457894570.381";
+
+    private static final String URL = "(\\bdtn://[-a-zA-Z0-9+&@#/%?=~_|!:,.;]*[-a-zA-Z0-9+&@#/%=~_|])";
+    private static final String REPORT_REGEX = "(NOTIFY\\sREPORT)\\s" + URL + "\\s(\\d+)\\.(\\d+)(\\.\\d+:\\d+)?\\s"
+            + URL + "\\s(\\d+)\\s(\\w+)\\[(\\d+)\\.(\\d+)\\](.*)";
+    private static final String CUSTODY_REGEX = "(NOTIFY\\sCUSTODY)\\s" + URL + "\\s(\\d+)\\.(\\d+)(\\.\\d+:\\d+)?\\s"
+            + URL + "\\s(\\w+)\\b(\\((\\d+)\\))?\\s(\\d+)\\.(\\d+)";
+
+    private BundleID[] ids;
+    private BundleID[] lookups;
+    private Map<BundleID, Integer> sent;
+    private BundleKey[] keys;
+    private BundleIdMap<Integer> tracked;
+    private StatusReport[] reports;
+
+    @Setup
+    public void setUp() {
+        ids = new BundleID[BUNDLES];
+        lookups = new BundleID[BUNDLES];
+        sent = new HashMap<BundleID, Integer>();
+        keys = new BundleKey[BUNDLES];
+        tracked = new BundleIdMap<Integer>();
+        reports = new StatusReport[BUNDLES];
+
+        for (int i = 0; i < BUNDLES; i++) {
+            ids[i] = id(i);
+            lookups[i] = id(i);
+            sent.put(ids[i], i);
+            keys[i] = BundleKey.valueOf(lookups[i]);
+            tracked.put(BundleKey.valueOf(ids[i]), i);
+            reports[i] = new StatusReport("NOTIFY REPORT dtn://relay " + (457894561L + i / 16) + "." + i + " dtn://node-"
+                    + (i % 16) + "/app 0 DELIVERY[457894570.381]");
+        }
+    }
+
+    private static BundleID id(int i) {
+        return new BundleID(new SingletonEndpoint("dtn://node-" + (i % 16) + "/app"), new Timestamp(457894561L + i / 16),
+                (long) i);
+    }
+
+    @Benchmark
+    public StatusReport parseStatusReport() {
+        return new StatusReport(REPORT);
+    }
+
+    @Benchmark
+    public StatusReport parseStatusReportFragment() {
+        return new StatusReport(REPORT_FRAGMENT);
+    }
+
+    @Benchmark
+    public Custody parseCustody() {
+        return new Custody(CUSTODY);
+    }
+
+    /**
+     * The former parser, which compiled the pattern for every notification.
+     */
+    @Benchmark
+    public long parseStatusReportRegex() {
+        return parse(Pattern.compile(REPORT_REGEX).matcher(REPORT), 8);
+    }
+
+    @Benchmark
+    public long parseCustodyRegex() {
+        return parse(Pattern.compile(CUSTODY_REGEX).matcher(CUSTODY), 7);
+    }
+
+    /**
+     * Extracts the fields like the former parsers: the source EID, the bundle id and the status group.
+     */
+    private static long parse(Matcher matcher, int group) {
+        matcher.find();
+        SingletonEndpoint source = new SingletonEndpoint(matcher.group(2));
+        long timestamp = Long.parseLong(matcher.group(3));
+        long sequenceNumber = Long.parseLong(matcher.group(4));
+        return source.hashCode() + timestamp + sequenceNumber + matcher.group(group).length();
+    }
+
+    @Benchmark
+    public int bundleIdHashCode() {
+        int hash = 0;
+        for (BundleID id : lookups) {
+            hash += id.hashCode();
+        }
+        return hash;
+    }
+
+    @Benchmark
+    public int bundleIdEquals() {
+        int equal = 0;
+        for (int i = 0; i < BUNDLES; i++) {
+            if (ids[i].equals(lookups[i])) {
+                equal++;
+            }
+        }
+        return equal;
+    }
+
+    @Benchmark
+    public int bundleIdLookup() {
+        int found = 0;
+        for (BundleID id : lookups) {
+            if (sent.get(id) != null) {
+                found++;
+            }
+        }
+        return found;
+    }
+
+    @Benchmark
+    public int bundleKeyLookup() {
+        int found = 0;
+        for (BundleKey key : keys) {
+            if (tracked.get(key) != null) {
+                found++;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Matches delivery reports with the tracked bundles by the fields of the report, without a key object.
+     */
+    @Benchmark
+    public int bundleIdMapReportLookup() {
+        int found = 0;
+        for (StatusReport r : reports) {
+            if (tracked.get(r.getBundleSource(), r.getTimestamp(), r.getSequenceNumber(), BundleKey.NO_FRAGMENT) != null) {
+                found++;
+            }
+        }
+        return found;
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * ParserBenchmark.java
+ *
+ * Copyright (C) 2011 IBR, TU Braunschweig
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package ibrdtn.benchmark;
+
+import ibrdtn.api.DataReceiver;
+import ibrdtn.api.NullOutputStream;
+import ibrdtn.api.PendingResponse;
+import ibrdtn.api.object.Block;
+import ibrdtn.api.object.BlockHeader;
+import ibrdtn.api.object.Bundle;
+import ibrdtn.api.object.PlainDeserializer;
+import ibrdtn.api.sab.SABByteParser;
+import ibrdtn.api.sab.SABException;
+import ibrdtn.api.sab.SABParser;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the parsing of a "bundle get" response. The DataReceiver is driven by the SABByteParser like in the
+ * ExtendedClient, the PlainDeserializer by the line based SABParser.
+ *
+ * Run with JMH on the classpath, e.g. java -cp ibrdtnlib.jar:benchmark.jar:jmh.jar org.openjdk.jmh.Main Parser
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParserBenchmark {
+
+    @Param({"0", "1024", "65536", "16777216"})
+    public int payloadSize;
+
+    private byte[] base64Response;
+    private byte[] rawResponse;
+
+    @Setup
+    public void setUp() throws IOException {
+        byte[] payload = Payloads.random(payloadSize);
+        base64Response = Payloads.bundleResponse(payload, false);
+        rawResponse = Payloads.bundleResponse(payload, true);
+    }
+
+    @Benchmark
+    public long dataReceiverBase64() {
+        return receive(base64Response);
+    }
+
+    @Benchmark
+    public long dataReceiverRaw() {
+        return receive(rawResponse);
+    }
+
+    @Benchmark
+    public Bundle plainDeserializer() {
+        final NullOutputStream payload = new NullOutputStream();
+        PlainDeserializer deserializer = new PlainDeserializer(new PlainDeserializer.Callback() {
+            @Override
+            public OutputStream getBlockDataOutputStream(Bundle bundle, BlockHeader header, int dataLength) {
+                return payload;
+            }
+
+            @Override
+            public Block.Data getBlockData() {
+                return null;
+            }
+        });
+
+        try {
+            new SABParser().parse(new ByteArrayInputStream(base64Response), deserializer);
+        } catch (SABException e) {
+            // end of stream
+        }
+        return deserializer.nextBundle();
+    }
+
+    private static long receive(byte[] response) {
+        Payloads.DiscardingHandler handler = new Payloads.DiscardingHandler();
+        DataReceiver receiver = new DataReceiver(new Object(), handler);
+
+        // the slot of the "bundle get" command
+        receiver.enqueue(new PendingResponse("bundle get"));
+        try {
+            new SABByteParser().parse(new ByteArrayInputStream(response), receiver);
+        } catch (SABException e) {
+            // end of stream
+        }
+        return handler.payload.getCount();
+    }
+}
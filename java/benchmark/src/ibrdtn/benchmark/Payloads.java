@@ -0,0 +1,136 @@
+/*
+ * Payloads.java
+ *
+ * Copyright (C) 2011 IBR, TU Braunschweig
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package ibrdtn.benchmark;
+
+import ibrdtn.api.Base64;
+import ibrdtn.api.NullOutputStream;
+import ibrdtn.api.object.Block;
+import ibrdtn.api.object.Bundle;
+import ibrdtn.api.object.BundleID;
+import ibrdtn.api.sab.CallbackHandler;
+import ibrdtn.api.sab.Custody;
+import ibrdtn.api.sab.StatusReport;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+
+/**
+ * Test data shared by the benchmarks. The payload sizes of the benchmarks with a size matrix are 0 B, 1 KB, 64 KB and
+ * 16 MB.
+ */
+final class Payloads {
+
+    private Payloads() {
+    }
+
+    /**
+     * @param size the number of bytes
+     * @return reproducible random data
+     */
+    static byte[] random(int size) {
+        byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        return data;
+    }
+
+    /**
+     * Builds the response of "bundle get" for a bundle with a single payload block.
+     *
+     * @param payload the payload of the bundle
+     * @param raw true, if the payload should be sent raw instead of base64 encoded
+     * @return the response as sent by the daemon
+     */
+    static byte[] bundleResponse(byte[] payload, boolean raw) throws IOException {
+        String header = "200 BUNDLE GET PLAIN\n"
+                + "Processing flags: 144\n"
+                + "Timestamp: 457894561\n"
+                + "Sequencenumber: 12\n"
+                + "Source: dtn://node-a/app\n"
+                + "Destination: dtn://node-b/app\n"
+                + "Reportto: dtn:none\n"
+                + "Custodian: dtn:none\n"
+                + "Lifetime: 3600\n"
+                + "Blocks: 1\n"
+                + "\n"
+                + "Block: 1\n"
+                + "Flags: LAST_BLOCK\n"
+                + "Length: " + payload.length + "\n"
+                + (raw ? "Encoding: raw\n" : "")
+                + "\n";
+
+        byte[] data = raw ? payload : Base64.encodeBytes(payload, Base64.DO_BREAK_LINES).getBytes();
+        byte[] response = new byte[header.length() + data.length + 2];
+        System.arraycopy(header.getBytes(), 0, response, 0, header.length());
+        System.arraycopy(data, 0, response, header.length(), data.length);
+        response[response.length - 2] = '\n';
+        response[response.length - 1] = '\n';
+        return response;
+    }
+
+    /**
+     * A handler discarding the received payload.
+     */
+    static class DiscardingHandler implements CallbackHandler {
+
+        final NullOutputStream payload = new NullOutputStream();
+        int bundles = 0;
+
+        @Override
+        public void notify(BundleID id) {
+        }
+
+        @Override
+        public void notify(StatusReport r) {
+        }
+
+        @Override
+        public void notify(Custody c) {
+        }
+
+        @Override
+        public void startBundle(Bundle bundle) {
+        }
+
+        @Override
+        public void endBundle() {
+            bundles++;
+        }
+
+        @Override
+        public void startBlock(Block block) {
+        }
+
+        @Override
+        public void endBlock() {
+        }
+
+        @Override
+        public OutputStream startPayload() {
+            return payload;
+        }
+
+        @Override
+        public void endPayload() {
+        }
+
+        @Override
+        public void progress(long pos, long total) {
+        }
+    }
+}
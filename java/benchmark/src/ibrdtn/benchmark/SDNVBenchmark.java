@@ -0,0 +1,132 @@
+/*
+ * SDNVBenchmark.java
+ *
+ * Copyright (C) 2011 IBR, TU Braunschweig
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package ibrdtn.benchmark;
+
+import ibrdtn.api.object.SDNV;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Compares the SDNV objects with the static codec of the SDNV class. Each invocation encodes or decodes a batch of
+ * values of the configured magnitude.
+ *
+ * Run with JMH on the classpath, e.g. java -cp ibrdtnlib.jar:benchmark.jar:jmh.jar org.openjdk.jmh.Main SDNV
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SDNVBenchmark {
+
+    private static final int VALUES = 1024;
+
+    /**
+     * The number of significant bits of the values.
+     */
+    @Param({"7", "32", "63"})
+    public int bits;
+
+    private long[] values;
+    private byte[][] encodedValues;
+    private ByteBuffer encoded;
+    private ByteBuffer buffer;
+    private ByteArrayOutputStream stream;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(1);
+        values = new long[VALUES];
+        encodedValues = new byte[VALUES][];
+        buffer = ByteBuffer.allocate(VALUES * SDNV.MAX_SDNV_BYTES);
+
+        for (int i = 0; i < VALUES; i++) {
+            values[i] = random.nextLong() >>> (Long.SIZE - bits);
+            encodedValues[i] = new SDNV(values[i]).getBytes();
+            SDNV.encode(values[i], buffer);
+        }
+
+        buffer.flip();
+        encoded = buffer.asReadOnlyBuffer();
+        stream = new ByteArrayOutputStream(VALUES * SDNV.MAX_SDNV_BYTES);
+    }
+
+    @Benchmark
+    public void encodeObject(Blackhole bh) {
+        stream.reset();
+        for (long value : values) {
+            byte[] bytes = new SDNV(value).getBytes();
+            stream.write(bytes, 0, bytes.length);
+        }
+        bh.consume(stream.size());
+    }
+
+    @Benchmark
+    public void encodeStatic(Blackhole bh) {
+        buffer.clear();
+        for (long value : values) {
+            SDNV.encode(value, buffer);
+        }
+        bh.consume(buffer.position());
+    }
+
+    @Benchmark
+    public void encodeStream(Blackhole bh) throws IOException {
+        stream.reset();
+        for (long value : values) {
+            SDNV.write(value, stream);
+        }
+        bh.consume(stream.size());
+    }
+
+    @Benchmark
+    public long decodeObject() {
+        long sum = 0;
+        for (byte[] bytes : encodedValues) {
+            sum += new SDNV(bytes).getValue();
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public long decodeStatic() {
+        ByteBuffer data = encoded.duplicate();
+        long sum = 0;
+        while (data.hasRemaining()) {
+            sum += SDNV.decode(data);
+        }
+        return sum;
+    }
+}
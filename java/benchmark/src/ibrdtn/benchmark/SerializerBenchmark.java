@@ -0,0 +1,85 @@
+/*
+ * SerializerBenchmark.java
+ *
+ * Copyright (C) 2011 IBR, TU Braunschweig
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package ibrdtn.benchmark;
+
+import ibrdtn.api.NullOutputStream;
+import ibrdtn.api.Timestamp;
+import ibrdtn.api.object.BinarySerializer;
+import ibrdtn.api.object.Bundle;
+import ibrdtn.api.object.PayloadBlock;
+import ibrdtn.api.object.PlainSerializer;
+import ibrdtn.api.object.SingletonEndpoint;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the serialization of a bundle with a single payload block into the plain format of "bundle put plain"
+ * (base64 encoded) and the binary format of "bundle put binary".
+ *
+ * Run with JMH on the classpath, e.g. java -cp ibrdtnlib.jar:benchmark.jar:jmh.jar org.openjdk.jmh.Main Serializer
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SerializerBenchmark {
+
+    @Param({"0", "1024", "65536", "16777216"})
+    public int payloadSize;
+
+    private Bundle bundle;
+    private NullOutputStream output;
+
+    @Setup
+    public void setUp() {
+        bundle = new Bundle(new SingletonEndpoint("dtn://node-b/app"), 3600);
+        bundle.setSource(new SingletonEndpoint("dtn://node-a/app"));
+        bundle.setTimestamp(new Timestamp(457894561L));
+        bundle.setSequenceNumber(12L);
+        bundle.appendBlock(new PayloadBlock(Payloads.random(payloadSize)));
+        output = new NullOutputStream();
+    }
+
+    @Benchmark
+    public long plain() throws IOException {
+        output.reset();
+        new PlainSerializer(output).serialize(bundle);
+        return output.getCount();
+    }
+
+    @Benchmark
+    public long binary() throws IOException {
+        output.reset();
+        new BinarySerializer(output).serialize(bundle);
+        return output.getCount();
+    }
+}
@@ -0,0 +1,306 @@
+/*
+ * StandInBundle.java
+ *
+ * Copyright (C) 2011 IBR, TU Braunschweig
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package ibrdtn.benchmark;
+
+import ibrdtn.api.Base64;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A bundle held in the register or the storage of the DaemonStandIn. It is read and written in the plain format of
+ * the daemon's PlainSerializer and PlainDeserializer.
+ */
+final class StandInBundle {
+
+    static final String NONE = "dtn:none";
+
+    static final long CUSTODY_REQUEST = 1L << 3;
+    static final long DESTINATION_IS_SINGLETON = 1L << 4;
+    static final long RECEPTION_REPORT = 1L << 14;
+    static final long DELIVERY_REPORT = 1L << 17;
+    static final long DELETION_REPORT = 1L << 18;
+
+    long procFlags = 0;
+    long timestamp = 0;
+    long sequenceNumber = 0;
+    String source = NONE;
+    String destination = NONE;
+    String reportto = NONE;
+    String custodian = NONE;
+    long lifetime = 3600;
+    final List<Block> blocks = new ArrayList<Block>();
+
+    /**
+     * A block of the bundle. The data of the payload block may grow with "payload put".
+     */
+    static final class Block {
+
+        int type;
+        String flags = null;
+        final List<String> eids = new ArrayList<String>();
+        byte[] data = new byte[0];
+        int length = 0;
+
+        /**
+         * Writes data to the given position, the block grows if necessary.
+         */
+        void put(int offset, byte[] chunk) {
+            if (offset + chunk.length > data.length) {
+                data = Arrays.copyOf(data, Math.max(offset + chunk.length, data.length * 2));
+            }
+            System.arraycopy(chunk, 0, data, offset, chunk.length);
+            length = Math.max(length, offset + chunk.length);
+        }
+    }
+
+    /**
+     * @return the bundle id as written by the daemon, i.e. "timestamp sequencenumber source"
+     */
+    String getId() {
+        return timestamp + " " + sequenceNumber + " " + source;
+    }
+
+    /**
+     * @return the bundle id in the format of the report and custody notifications
+     */
+    String getReportId() {
+        return timestamp + "." + sequenceNumber + " " + source;
+    }
+
+    /**
+     * @return a copy of the bundle, the register of the session stays modifiable after "bundle send"
+     */
+    StandInBundle copy() {
+        StandInBundle b = new StandInBundle();
+        b.procFlags = procFlags;
+        b.timestamp = timestamp;
+        b.sequenceNumber = sequenceNumber;
+        b.source = source;
+        b.destination = destination;
+        b.reportto = reportto;
+        b.custodian = custodian;
+        b.lifetime = lifetime;
+        for (Block block : blocks) {
+            Block c = new Block();
+            c.type = block.type;
+            c.flags = block.flags;
+            c.eids.addAll(block.eids);
+            c.data = Arrays.copyOf(block.data, block.length);
+            c.length = block.length;
+            b.blocks.add(c);
+        }
+        return b;
+    }
+
+    Block getPayloadBlock() {
+        for (Block b : blocks) {
+            if (b.type == 1) {
+                return b;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Reads a bundle in plain format.
+     *
+     * @throws IllegalArgumentException if the bundle is malformed
+     * @throws IOException if the stream ended
+     */
+    static StandInBundle read(StandInReader in) throws IOException {
+        StandInBundle bundle = new StandInBundle();
+        int count = 0;
+
+        String line;
+        while ((line = readHeader(in)).length() > 0) {
+            String value = value(line);
+            if (line.startsWith("Processing flags:")) {
+                bundle.procFlags = Long.parseLong(value);
+            } else if (line.startsWith("Timestamp:")) {
+                bundle.timestamp = Long.parseLong(value);
+            } else if (line.startsWith("Sequencenumber:")) {
+                bundle.sequenceNumber = Long.parseLong(value);
+            } else if (line.startsWith("Source:")) {
+                bundle.source = value;
+            } else if (line.startsWith("Destination:")) {
+                bundle.destination = value;
+            } else if (line.startsWith("Reportto:")) {
+                bundle.reportto = value;
+            } else if (line.startsWith("Custodian:")) {
+                bundle.custodian = value;
+            } else if (line.startsWith("Lifetime:")) {
+                bundle.lifetime = Long.parseLong(value);
+            } else if (line.startsWith("Blocks:")) {
+                count = Integer.parseInt(value);
+            }
+        }
+
+        for (int i = 0; i < count; i++) {
+            Block block = new Block();
+            String encoding = "base64";
+
+            while ((line = readHeader(in)).length() > 0) {
+                String value = value(line);
+                if (line.startsWith("Block:")) {
+                    block.type = Integer.parseInt(value);
+                } else if (line.startsWith("Flags:")) {
+                    block.flags = value;
+                } else if (line.startsWith("EID:")) {
+                    block.eids.add(value);
+                } else if (line.startsWith("Length:")) {
+                    block.length = Integer.parseInt(value);
+                } else if (line.startsWith("Encoding:")) {
+                    encoding = value;
+                }
+            }
+
+            if (encoding.equals("raw")) {
+                // the data is followed by a line break and the empty line
+                block.data = readData(in, block.length);
+                readHeader(in);
+                readHeader(in);
+            } else if (encoding.equals("base64")) {
+                block.data = readBase64(in);
+                block.length = block.data.length;
+            } else {
+                throw new IllegalArgumentException("invalid encoding " + encoding);
+            }
+
+            bundle.blocks.add(block);
+        }
+
+        return bundle;
+    }
+
+    /**
+     * Reads the data of "payload put", i.e. the length and encoding header, an empty line and the data.
+     */
+    static byte[] readPayload(StandInReader in) throws IOException {
+        int length = 0;
+        String encoding = "base64";
+
+        String line;
+        while ((line = readHeader(in)).length() > 0) {
+            if (line.startsWith("Length:")) {
+                length = Integer.parseInt(value(line));
+            } else if (line.startsWith("Encoding:")) {
+                encoding = value(line);
+            } else {
+                throw new IllegalArgumentException("unknown block header");
+            }
+        }
+
+        if (encoding.equals("raw")) {
+            return readData(in, length);
+        } else if (encoding.equals("base64")) {
+            return readBase64(in);
+        }
+        throw new IllegalArgumentException("invalid encoding " + encoding);
+    }
+
+    /**
+     * Writes the bundle like "bundle get" or "bundle info" of the daemon.
+     *
+     * @param encoding base64, raw or skip
+     */
+    void write(OutputStream out, String encoding) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        sb.append("Processing flags: ").append(procFlags).append('\n');
+        sb.append("Timestamp: ").append(timestamp).append('\n');
+        sb.append("Sequencenumber: ").append(sequenceNumber).append('\n');
+        sb.append("Source: ").append(source).append('\n');
+        sb.append("Destination: ").append(destination).append('\n');
+        sb.append("Reportto: ").append(reportto).append('\n');
+        sb.append("Custodian: ").append(custodian).append('\n');
+        sb.append("Lifetime: ").append(lifetime).append('\n');
+        sb.append("Blocks: ").append(blocks.size()).append('\n');
+
+        for (Block block : blocks) {
+            sb.append('\n');
+            sb.append("Block: ").append(block.type).append('\n');
+            if (block.flags != null) {
+                sb.append("Flags: ").append(block.flags).append('\n');
+            }
+            for (String eid : block.eids) {
+                sb.append("EID: ").append(eid).append('\n');
+            }
+            out.write(sb.toString().getBytes(StandardCharsets.US_ASCII));
+            sb.setLength(0);
+
+            writeData(out, block.data, 0, block.length, encoding);
+        }
+
+        out.write('\n');
+    }
+
+    /**
+     * Writes the length and encoding header followed by the data, the daemon's PlainSerializer::writeData().
+     */
+    static void writeData(OutputStream out, byte[] data, int offset, int length, String encoding) throws IOException {
+        String header = "Length: " + length + "\nEncoding: " + encoding + "\n";
+        out.write(header.getBytes(StandardCharsets.US_ASCII));
+        if (encoding.equals("skip")) {
+            return;
+        }
+
+        out.write('\n');
+        if (encoding.equals("raw")) {
+            out.write(data, offset, length);
+        } else {
+            out.write(Base64.encodeBytesToBytes(data, offset, length, Base64.DO_BREAK_LINES));
+        }
+        out.write('\n');
+    }
+
+    private static byte[] readBase64(StandInReader in) throws IOException {
+        int[] length = new int[1];
+        byte[] encoded = in.readLines(new byte[1024], length);
+        return Base64.decode(encoded, 0, length[0], Base64.NO_OPTIONS);
+    }
+
+    private static byte[] readData(StandInReader in, int length) throws IOException {
+        byte[] data = new byte[length];
+        int pos = 0;
+        while (pos < length) {
+            int n = in.read(data, pos, length - pos);
+            if (n < 0) {
+                throw new EOFException();
+            }
+            pos += n;
+        }
+        return data;
+    }
+
+    private static String readHeader(StandInReader in) throws IOException {
+        String line = in.readLine();
+        if (line == null) {
+            throw new EOFException();
+        }
+        return line;
+    }
+
+    private static String value(String line) {
+        return line.substring(line.indexOf(':') + 1).trim();
+    }
+}
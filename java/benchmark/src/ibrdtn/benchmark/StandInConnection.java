@@ -0,0 +1,130 @@
+/*
+ * StandInConnection.java
+ *
+ * Copyright (C) 2011 IBR, TU Braunschweig
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package ibrdtn.benchmark;
+
+import ibrdtn.api.ChannelAPIConnection;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Pipe;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * An in-process connection to a DaemonStandIn. The client and the session are connected by two pipes, so no socket
+ * and no network stack is involved.
+ */
+final class StandInConnection implements ChannelAPIConnection {
+
+    private final DaemonStandIn daemon;
+    private Pipe upstream = null;
+    private Pipe downstream = null;
+    private InputStream input = null;
+    private OutputStream output = null;
+
+    StandInConnection(DaemonStandIn daemon) {
+        this.daemon = daemon;
+    }
+
+    @Override
+    public void open() throws IOException {
+        close();
+
+        upstream = Pipe.open();
+        downstream = Pipe.open();
+        daemon.accept(upstream.source(), downstream.sink());
+
+        final Pipe.SourceChannel source = downstream.source();
+        final Pipe.SinkChannel sink = upstream.sink();
+
+        input = new InputStream() {
+            @Override
+            public int read() throws IOException {
+                byte[] b = new byte[1];
+                return (read(b, 0, 1) < 0) ? -1 : (b[0] & 0xff);
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (len == 0) {
+                    return 0;
+                }
+                return source.read(ByteBuffer.wrap(b, off, len));
+            }
+
+            @Override
+            public void close() throws IOException {
+                source.close();
+            }
+        };
+
+        output = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[]{(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+                while (buffer.hasRemaining()) {
+                    sink.write(buffer);
+                }
+            }
+
+            @Override
+            public void close() throws IOException {
+                sink.close();
+            }
+        };
+    }
+
+    @Override
+    public Boolean isConnected() {
+        return upstream != null && upstream.sink().isOpen() && downstream.source().isOpen();
+    }
+
+    @Override
+    public Boolean isClosed() {
+        return !isConnected();
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        return output;
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        return input;
+    }
+
+    @Override
+    public WritableByteChannel getChannel() {
+        return upstream.sink();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (upstream != null) {
+            upstream.sink().close();
+            downstream.source().close();
+        }
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * StandInReader.java
+ *
+ * Copyright (C) 2011 IBR, TU Braunschweig
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package ibrdtn.benchmark;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * An unsynchronized buffered input for the sessions of the DaemonStandIn. Lines are searched in the buffer instead
+ * of reading byte by byte, so the stand-in parses a base64 encoded payload faster than a client produces it and does
+ * not distort the measurements.
+ */
+final class StandInReader {
+
+    private final InputStream in;
+    private final byte[] buffer;
+    private int position = 0;
+    private int limit = 0;
+
+    // the line being read if it spans more than one buffer
+    private byte[] line = new byte[256];
+
+    StandInReader(InputStream in, int size) {
+        this.in = in;
+        this.buffer = new byte[size];
+    }
+
+    /**
+     * @return the next line without the line break or null at the end of the stream
+     */
+    String readLine() throws IOException {
+        int length = 0;
+        while (true) {
+            if (position == limit && !fill()) {
+                return (length == 0) ? null : toString(line, 0, length);
+            }
+
+            int start = position;
+            int end = indexOf(start);
+            if (end >= 0) {
+                position = end + 1;
+                if (length == 0) {
+                    return toString(buffer, start, end - start);
+                }
+                line = append(line, length, buffer, start, end - start);
+                return toString(line, 0, length + end - start);
+            }
+
+            line = append(line, length, buffer, start, limit - start);
+            length += limit - start;
+            position = limit;
+        }
+    }
+
+    /**
+     * Reads lines until an empty line and appends their content without the line breaks. Used for base64 encoded
+     * data, so a carriage return is kept and skipped by the decoder.
+     *
+     * @param data the array for the content, it is replaced by a larger one if necessary
+     * @param length receives the number of bytes read into the array
+     * @return the array holding the content
+     */
+    byte[] readLines(byte[] data, int[] length) throws IOException {
+        int total = 0;
+        int current = 0;
+        while (true) {
+            if (position == limit && !fill()) {
+                throw new EOFException();
+            }
+
+            int start = position;
+            int end = indexOf(start);
+            int n = ((end < 0) ? limit : end) - start;
+
+            data = append(data, total, buffer, start, n);
+            total += n;
+            current += n;
+
+            if (end < 0) {
+                position = limit;
+                continue;
+            }
+
+            position = end + 1;
+            if (current == 0) {
+                length[0] = total;
+                return data;
+            }
+            current = 0;
+        }
+    }
+
+    int read(byte[] b, int off, int len) throws IOException {
+        if (position == limit) {
+            if (len >= buffer.length) {
+                return in.read(b, off, len);
+            }
+            if (!fill()) {
+                return -1;
+            }
+        }
+
+        int n = Math.min(len, limit - position);
+        System.arraycopy(buffer, position, b, off, n);
+        position += n;
+        return n;
+    }
+
+    private int indexOf(int start) {
+        for (int i = start; i < limit; i++) {
+            if (buffer[i] == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private boolean fill() throws IOException {
+        int n = in.read(buffer, 0, buffer.length);
+        if (n < 0) {
+            return false;
+        }
+        position = 0;
+        limit = n;
+        return true;
+    }
+
+    private static byte[] append(byte[] target, int length, byte[] source, int offset, int n) {
+        if (length + n > target.length) {
+            target = Arrays.copyOf(target, Math.max(length + n, target.length * 2));
+        }
+        System.arraycopy(source, offset, target, length, n);
+        return target;
+    }
+
+    private static String toString(byte[] data, int offset, int length) {
+        if (length > 0 && data[offset + length - 1] == '\r') {
+            length--;
+        }
+        return new String(data, offset, length, StandardCharsets.ISO_8859_1);
+    }
+}
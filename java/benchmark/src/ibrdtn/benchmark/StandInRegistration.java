@@ -0,0 +1,52 @@
+/*
+ * StandInRegistration.java
+ *
+ * Copyright (C) 2011 IBR, TU Braunschweig
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package ibrdtn.benchmark;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * The registration of an API session at the DaemonStandIn: the subscribed endpoints and the bundles announced but
+ * not yet delivered. A saved registration outlives its session and can be loaded by another one until it expires,
+ * the pending bundles are announced again to the new session.
+ *
+ * All fields except the queue of "bundle load queue" are guarded by the DaemonStandIn.
+ */
+final class StandInRegistration {
+
+    final String handle;
+    final Set<String> subscriptions = new LinkedHashSet<String>();
+    final Set<String> pending = new LinkedHashSet<String>();
+    final LinkedBlockingQueue<String> queue = new LinkedBlockingQueue<String>();
+    StandInSession session = null;
+    boolean persistent = false;
+    long expires = 0;
+
+    StandInRegistration(String handle) {
+        this.handle = handle;
+    }
+
+    /**
+     * @return true, if the registration has been saved and its lifetime is over
+     */
+    boolean isExpired(long now) {
+        return persistent && expires > 0 && expires < now;
+    }
+}
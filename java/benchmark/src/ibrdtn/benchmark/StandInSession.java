@@ -0,0 +1,659 @@
+/*
+ * StandInSession.java
+ *
+ * Copyright (C) 2011 IBR, TU Braunschweig
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package ibrdtn.benchmark;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A connection to the DaemonStandIn. Like the ClientHandler of the daemon the session starts with the basic command
+ * set and switches to the extended, event or streaming protocol on "protocol &lt;name&gt;".
+ *
+ * Commands are read and answered by the thread of the session. Notifications are written by the thread sending
+ * the bundle, so every write to the client is done while holding the lock of the output stream.
+ */
+final class StandInSession implements Runnable {
+
+    private static final int DEFAULT_CHUNK_SIZE = 4096;
+
+    private final DaemonStandIn daemon;
+    private final ReadableByteChannel input;
+    private final WritableByteChannel output;
+    private final StandInReader in;
+    private final OutputStream out;
+
+    private StandInRegistration registration;
+    private String endpoint;
+    private String encoding = "base64";
+    private StandInBundle register = new StandInBundle();
+    private volatile Mode mode = Mode.BASIC;
+    private volatile Thread thread = null;
+
+    private enum Mode {
+        BASIC, EXTENDED, EVENT, STREAMING
+    }
+
+    StandInSession(DaemonStandIn daemon, ReadableByteChannel input, WritableByteChannel output) {
+        this.daemon = daemon;
+        this.input = input;
+        this.output = output;
+        this.in = new StandInReader(new ChannelReader(input), 64 * 1024);
+        this.out = new BufferedOutputStream(new ChannelWriter(output), 64 * 1024);
+    }
+
+    @Override
+    public void run() {
+        thread = Thread.currentThread();
+        try {
+            registration = daemon.register(this);
+            endpoint = daemon.getDefaultEndpoint(registration);
+
+            respond("IBR-DTN stand-in API 1.0");
+            serve();
+        } catch (IOException e) {
+            // connection closed by the client
+        } catch (InterruptedException e) {
+            // the stand-in has been closed
+        } finally {
+            daemon.release(this, registration);
+            try {
+                input.close();
+                output.close();
+            } catch (IOException e) {
+            }
+        }
+    }
+
+    private void serve() throws IOException, InterruptedException {
+        String line;
+        while ((line = in.readLine()) != null) {
+            String[] cmd = tokenize(line);
+            if (cmd.length == 0) {
+                continue;
+            }
+
+            try {
+                if (cmd[0].equals("protocol")) {
+                    if (cmd[1].equals("extended")) {
+                        mode = Mode.EXTENDED;
+                        respond("200 SWITCHED TO EXTENDED");
+                        daemon.announcePending(registration);
+                        extended();
+                        return;
+                    } else if (cmd[1].equals("event")) {
+                        mode = Mode.EVENT;
+                        respond("200 SWITCHED TO EVENT");
+                        // the event protocol does not expect any further commands
+                        while (in.readLine() != null) {
+                        }
+                        return;
+                    } else if (cmd[1].equals("streaming")) {
+                        respond("200 SWITCHED TO ORDERED STREAM PROTOCOL");
+                        streaming();
+                        return;
+                    } else {
+                        respond("406 UNKNOWN PROTOCOL");
+                    }
+                } else if (cmd[0].equals("set") && cmd[1].equals("endpoint")) {
+                    setEndpoint(cmd[2]);
+                    respond("202 OK");
+                } else if (cmd[0].equals("registration")) {
+                    registration(cmd, "202");
+                } else {
+                    respond("400 UNKNOWN COMMAND");
+                }
+            } catch (RuntimeException e) {
+                respond("400 PROTOCOL ERROR");
+            }
+        }
+    }
+
+    /**
+     * The command set of the ExtendedApiHandler.
+     */
+    private void extended() throws IOException, InterruptedException {
+        String line;
+        while ((line = in.readLine()) != null) {
+            String[] cmd = tokenize(line);
+            if (cmd.length == 0) {
+                continue;
+            }
+
+            daemon.delay();
+
+            try {
+                if (cmd[0].equals("set")) {
+                    if (cmd[1].equals("endpoint")) {
+                        setEndpoint(cmd[2]);
+                        respond("200 OK");
+                    } else if (cmd[1].equals("encoding")) {
+                        if (cmd[2].equals("base64") || cmd[2].equals("raw") || cmd[2].equals("skip")) {
+                            encoding = cmd[2];
+                            respond("200 OK");
+                        } else {
+                            respond("406 INVALID ENCODING");
+                        }
+                    } else {
+                        respond("400 UNKNOWN COMMAND");
+                    }
+                } else if (cmd[0].equals("endpoint")) {
+                    if (cmd[1].equals("add")) {
+                        daemon.subscribe(registration, daemon.getNodeName() + "/" + cmd[2]);
+                        respond("200 OK");
+                    } else if (cmd[1].equals("del")) {
+                        unsubscribe(daemon.getNodeName() + "/" + cmd[2]);
+                        respond("200 OK");
+                    } else if (cmd[1].equals("get")) {
+                        respond("200 ENDPOINT GET " + endpoint);
+                    } else {
+                        respond("400 UNKNOWN COMMAND");
+                    }
+                } else if (cmd[0].equals("registration")) {
+                    registration(cmd, "200");
+                } else if (cmd[0].equals("neighbor") && cmd[1].equals("list")) {
+                    // the stand-in has no neighbors
+                    respond("200 NEIGHBOR LIST\n");
+                } else if (cmd[0].equals("bundle")) {
+                    bundle(cmd);
+                } else if (cmd[0].equals("payload")) {
+                    payload(cmd);
+                } else if (cmd[0].equals("nodename")) {
+                    respond("200 NODENAME " + daemon.getNodeName());
+                } else {
+                    respond("400 UNKNOWN COMMAND");
+                }
+            } catch (RuntimeException e) {
+                respond("400 ERROR");
+            }
+        }
+    }
+
+    private void registration(String[] cmd, String accepted) throws IOException {
+        if (cmd[1].equals("add")) {
+            daemon.subscribe(registration, cmd[2]);
+            respond(accepted + " OK");
+        } else if (cmd[1].equals("del")) {
+            unsubscribe(cmd[2]);
+            respond(accepted + " OK");
+        } else if (cmd[1].equals("list")) {
+            StringBuilder sb = new StringBuilder("200 REGISTRATION LIST\n");
+            for (String eid : daemon.getSubscriptions(registration)) {
+                sb.append(eid).append('\n');
+            }
+            respond(sb.toString());
+        } else if (mode == Mode.EXTENDED && cmd[1].equals("save")) {
+            daemon.save(registration, Long.parseLong(cmd[2]));
+            respond("200 REGISTRATION SAVE " + registration.handle);
+        } else if (mode == Mode.EXTENDED && cmd[1].equals("load")) {
+            StandInRegistration loaded = daemon.find(cmd[2]);
+            if (loaded == null) {
+                respond("503 REGISTRATION NOT FOUND");
+            } else if (!daemon.attach(this, registration, loaded)) {
+                respond("503 REGISTRATION BUSY");
+            } else {
+                registration = loaded;
+                endpoint = daemon.getDefaultEndpoint(registration);
+                respond("200 REGISTRATION LOAD");
+
+                // the pending bundles of the registration are announced to this session now
+                daemon.announcePending(registration);
+            }
+        } else {
+            respond("400 UNKNOWN COMMAND");
+        }
+    }
+
+    private void bundle(String[] cmd) throws IOException, InterruptedException {
+        if (cmd[1].equals("get")) {
+            if (cmd.length == 2 || cmd[2].equals("plain")) {
+                synchronized (out) {
+                    write((cmd.length == 2 ? "200 BUNDLE GET " : "200 BUNDLE GET PLAIN ") + register.getId());
+                    register.write(out, encoding);
+                    out.flush();
+                }
+            } else if (cmd[2].equals("binary") || cmd[2].equals("xml")) {
+                respond("501 FORMAT NOT IMPLEMENTED");
+            } else {
+                respond("400 UNKNOWN FORMAT");
+            }
+        } else if (cmd[1].equals("put")) {
+            if (cmd.length < 3 || !(cmd[2].equals("plain") || cmd[2].equals("binary"))) {
+                respond("400 PLEASE DEFINE THE FORMAT");
+            } else if (cmd[2].equals("binary")) {
+                respond("501 FORMAT NOT IMPLEMENTED");
+            } else {
+                respond("100 PUT BUNDLE PLAIN");
+                try {
+                    register = StandInBundle.read(in);
+                    respond("200 BUNDLE IN REGISTER");
+                } catch (IllegalArgumentException e) {
+                    respond("406 PUT FAILED");
+                }
+            }
+        } else if (cmd[1].equals("load")) {
+            String id;
+            if (cmd[2].equals("queue")) {
+                id = registration.queue.take();
+            } else {
+                id = readBundleID(cmd, 2);
+            }
+
+            StandInBundle b = daemon.get(id);
+            if (b == null) {
+                respond("404 BUNDLE NOT FOUND");
+            } else {
+                register = b.copy();
+                respond("200 BUNDLE LOADED " + id);
+            }
+        } else if (cmd[1].equals("clear")) {
+            register = new StandInBundle();
+            respond("200 BUNDLE CLEARED");
+        } else if (cmd[1].equals("free")) {
+            if (daemon.remove(register.getId())) {
+                register = new StandInBundle();
+                respond("200 BUNDLE FREE SUCCESSFUL");
+            } else {
+                respond("404 BUNDLE NOT FOUND");
+            }
+        } else if (cmd[1].equals("delivered")) {
+            if (daemon.delivered(registration, readBundleID(cmd, 2))) {
+                respond("200 BUNDLE DELIVERED ACCEPTED");
+            } else {
+                respond("404 BUNDLE NOT FOUND");
+            }
+        } else if (cmd[1].equals("store")) {
+            daemon.store(register.copy());
+            respond("200 BUNDLE STORE SUCCESSFUL");
+        } else if (cmd[1].equals("send")) {
+            // the response is written before the notifications caused by the bundle
+            StandInBundle b = register.copy();
+            daemon.prepare(endpoint, b);
+            respond("200 BUNDLE SENT");
+            daemon.send(b);
+        } else if (cmd[1].equals("info")) {
+            synchronized (out) {
+                write("200 BUNDLE INFO " + register.getId());
+                register.write(out, "skip");
+                out.flush();
+            }
+        } else {
+            respond("400 UNKNOWN COMMAND");
+        }
+    }
+
+    /**
+     * Handles "payload [block-offset] get|put|append|clear|length [...]".
+     */
+    private void payload(String[] cmd) throws IOException {
+        int index = 1;
+        StandInBundle.Block block;
+        if (Character.isDigit(cmd[1].charAt(0))) {
+            block = register.blocks.get(Integer.parseInt(cmd[1]));
+            index++;
+        } else {
+            block = register.getPayloadBlock();
+        }
+
+        if (block == null) {
+            throw new IllegalArgumentException("invalid offset or no payload block found");
+        }
+
+        String op = cmd[index];
+        int remaining = cmd.length - (index + 1);
+
+        if (op.equals("get")) {
+            if (remaining == 0) {
+                synchronized (out) {
+                    write("200 PAYLOAD GET");
+                    StandInBundle.writeData(out, block.data, 0, block.length, encoding);
+                    out.write('\n');
+                    out.flush();
+                }
+            } else if (block.type != 1) {
+                respond("406 PAYLOAD GET FAILED INVALID BLOCK TYPE");
+            } else {
+                long offset = Long.parseLong(cmd[index + 1]);
+                long length = (remaining > 1) ? Long.parseLong(cmd[index + 2]) : 0;
+
+                if (offset >= block.length) {
+                    respond("406 PAYLOAD GET FAILED offset out of range");
+                    return;
+                }
+
+                int size = (int) (block.length - offset);
+                if (length > 0 && size > length) {
+                    size = (int) length;
+                }
+
+                synchronized (out) {
+                    write("200 PAYLOAD GET");
+                    StandInBundle.writeData(out, block.data, (int) offset, size, encoding);
+                    out.write('\n');
+                    out.flush();
+                }
+            }
+        } else if (op.equals("put") || op.equals("append")) {
+            String name = op.equals("put") ? "PUT" : "APPEND";
+            if (block.type != 1) {
+                respond("406 PAYLOAD " + name + " FAILED INVALID BLOCK TYPE");
+                return;
+            }
+
+            respond("100 PAYLOAD " + name);
+
+            long offset = block.length;
+            if (op.equals("put") && remaining > 0) {
+                offset = Math.min(Long.parseLong(cmd[index + 1]), block.length);
+            }
+
+            try {
+                block.put((int) offset, StandInBundle.readPayload(in));
+                respond("200 PAYLOAD " + name + " SUCCESSFUL");
+            } catch (IllegalArgumentException e) {
+                respond("406 PAYLOAD " + name + " FAILED");
+            }
+        } else if (op.equals("clear")) {
+            block.data = new byte[0];
+            block.length = 0;
+            respond("200 PAYLOAD CLEAR SUCCESSFUL");
+        } else if (op.equals("length")) {
+            respond("200 PAYLOAD LENGTH\nLength: " + block.length);
+        } else {
+            respond("400 UNKNOWN COMMAND");
+        }
+    }
+
+    /**
+     * The commands of the OrderedStreamHandler. After "connect" the input is cut into bundles of the chunk size and
+     * the payload of received bundles is written to the client.
+     */
+    private void streaming() throws IOException {
+        String destination = null;
+        long lifetime = 3600;
+        int chunkSize = DEFAULT_CHUNK_SIZE;
+
+        String line;
+        while ((line = in.readLine()) != null) {
+            String[] cmd = tokenize(line);
+            if (cmd.length == 0) {
+                continue;
+            }
+
+            daemon.delay();
+
+            try {
+                if (cmd[0].equals("connect")) {
+                    mode = Mode.STREAMING;
+                    respond("100 CONNECTION ESTABLISHED");
+                    daemon.announcePending(registration);
+                    stream(destination, lifetime, chunkSize);
+                    return;
+                } else if (cmd[0].equals("set")) {
+                    if (cmd[1].equals("endpoint")) {
+                        setEndpoint(cmd[2]);
+                        respond("200 OK");
+                    } else if (cmd[1].equals("destination")) {
+                        destination = cmd[2];
+                        respond("200 DESTINATION CHANGED");
+                    } else if (cmd[1].equals("group")) {
+                        destination = cmd[2];
+                        respond("200 DESTINATION GROUP CHANGED");
+                    } else if (cmd[1].equals("lifetime")) {
+                        lifetime = Long.parseLong(cmd[2]);
+                        respond("200 LIFETIME CHANGED");
+                    } else if (cmd[1].equals("chunksize")) {
+                        chunkSize = Integer.parseInt(cmd[2]);
+                        respond("200 CHUNKSIZE CHANGED");
+                    } else if (cmd[1].equals("timeout")) {
+                        // partial chunks are sent at the end of the stream only
+                        respond("200 TIMEOUT CHANGED");
+                    } else {
+                        respond("400 UNKNOWN COMMAND");
+                    }
+                } else {
+                    respond("400 UNKNOWN COMMAND");
+                }
+            } catch (RuntimeException e) {
+                respond("400 ERROR");
+            }
+        }
+    }
+
+    private void stream(String destination, long lifetime, int chunkSize) throws IOException {
+        byte[] chunk = new byte[chunkSize];
+        int length = 0;
+        int n;
+        while ((n = in.read(chunk, length, chunkSize - length)) >= 0) {
+            length += n;
+            if (length == chunkSize) {
+                sendChunk(destination, lifetime, chunk, length);
+                length = 0;
+            }
+        }
+        if (length > 0) {
+            sendChunk(destination, lifetime, chunk, length);
+        }
+    }
+
+    private void sendChunk(String destination, long lifetime, byte[] data, int length) {
+        if (destination == null) {
+            return;
+        }
+
+        StandInBundle b = new StandInBundle();
+        b.destination = destination;
+        b.lifetime = lifetime;
+        StandInBundle.Block payload = new StandInBundle.Block();
+        payload.type = 1;
+        payload.flags = "LAST_BLOCK";
+        payload.put(0, Arrays.copyOf(data, length));
+        b.blocks.add(payload);
+
+        daemon.prepare(endpoint, b);
+        daemon.send(b);
+    }
+
+    /**
+     * Announces a bundle to the client of this session, called by the sending thread.
+     *
+     * @return true, if the bundle has been delivered to the client completely, i.e. in streaming mode
+     */
+    boolean announce(StandInBundle bundle) {
+        try {
+            switch (mode) {
+                case EXTENDED:
+                    registration.queue.add(bundle.getId());
+                    respond("602 NOTIFY BUNDLE " + bundle.getId());
+                    return false;
+                case STREAMING:
+                    StandInBundle.Block payload = bundle.getPayloadBlock();
+                    if (payload != null) {
+                        synchronized (out) {
+                            out.write(payload.data, 0, payload.length);
+                            out.flush();
+                        }
+                    }
+                    return true;
+                default:
+                    return false;
+            }
+        } catch (IOException e) {
+            // the session notices the closed connection on its own
+            return false;
+        }
+    }
+
+    /**
+     * Writes the QueueBundleEvent of a stored bundle to the client of an event session.
+     */
+    void event(StandInBundle bundle) {
+        if (mode != Mode.EVENT) {
+            return;
+        }
+
+        try {
+            respond("Event: QueueBundleEvent\n"
+                    + "Source: " + bundle.source + "\n"
+                    + "Timestamp: " + bundle.timestamp + "\n"
+                    + "Sequencenumber: " + bundle.sequenceNumber + "\n"
+                    + "Lifetime: " + bundle.lifetime + "\n"
+                    + "Procflags: " + bundle.procFlags + "\n"
+                    + "Destination: " + bundle.destination + "\n");
+        } catch (IOException e) {
+        }
+    }
+
+    /**
+     * Writes a notification line (603, 604) to the client of an extended session.
+     */
+    void notify(String line) {
+        if (mode != Mode.EXTENDED) {
+            return;
+        }
+
+        try {
+            respond(line);
+        } catch (IOException e) {
+        }
+    }
+
+    void close() {
+        Thread t = thread;
+        if (t != null) {
+            // a session may wait for "bundle load queue"
+            t.interrupt();
+        }
+        try {
+            input.close();
+            output.close();
+        } catch (IOException e) {
+        }
+    }
+
+    private void setEndpoint(String application) {
+        if (application.length() == 0) {
+            throw new IllegalArgumentException("invalid endpoint");
+        }
+        daemon.unsubscribe(registration, endpoint);
+        endpoint = daemon.getNodeName() + "/" + application;
+        daemon.subscribe(registration, endpoint);
+    }
+
+    private void unsubscribe(String eid) {
+        daemon.unsubscribe(registration, eid);
+
+        // restore the default endpoint if the current one has been removed
+        if (eid.equals(endpoint)) {
+            endpoint = daemon.getDefaultEndpoint(registration);
+            daemon.subscribe(registration, endpoint);
+        }
+    }
+
+    /**
+     * Reads "timestamp sequencenumber [fragmentoffset length] source", the fragment values are ignored.
+     */
+    private static String readBundleID(String[] cmd, int start) {
+        if (cmd.length - start < 3) {
+            throw new IllegalArgumentException("not enough parameters");
+        }
+        long timestamp = Long.parseLong(cmd[start]);
+        long sequence = Long.parseLong(cmd[start + 1]);
+        return timestamp + " " + sequence + " " + cmd[cmd.length - 1];
+    }
+
+    private static String[] tokenize(String line) {
+        line = line.trim();
+        if (line.length() == 0) {
+            return new String[0];
+        }
+        return line.split(" +");
+    }
+
+    private void respond(String line) throws IOException {
+        synchronized (out) {
+            write(line);
+            out.flush();
+        }
+    }
+
+    private void write(String line) throws IOException {
+        out.write(line.getBytes(StandardCharsets.US_ASCII));
+        out.write('\n');
+    }
+
+    /**
+     * Reads from the channel directly, the stream adapters of java.nio.channels.Channels would block the writes of
+     * the notifications while the session waits for a command.
+     */
+    private static class ChannelReader extends InputStream {
+
+        private final ReadableByteChannel channel;
+
+        ChannelReader(ReadableByteChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return (read(b, 0, 1) < 0) ? -1 : (b[0] & 0xff);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            int n;
+            do {
+                n = channel.read(ByteBuffer.wrap(b, off, len));
+            } while (n == 0);
+            return n;
+        }
+    }
+
+    private static class ChannelWriter extends OutputStream {
+
+        private final WritableByteChannel channel;
+
+        ChannelWriter(WritableByteChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+}
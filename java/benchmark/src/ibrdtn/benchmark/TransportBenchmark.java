@@ -0,0 +1,120 @@
+/*
+ * TransportBenchmark.java
+ *
+ * Copyright (C) 2011 IBR, TU Braunschweig
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package ibrdtn.benchmark;
+
+import ibrdtn.api.APIConnection;
+import ibrdtn.api.APIException;
+import ibrdtn.api.ExtendedClient;
+import ibrdtn.api.SocketAPIConnection;
+import ibrdtn.api.UnixDomainSocketAPIConnection;
+import ibrdtn.api.object.Bundle;
+import ibrdtn.api.object.GroupEndpoint;
+import ibrdtn.api.object.PayloadBlock;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the round trip time of API commands over the loopback TCP socket, over a unix domain socket and over the
+ * in-process pipes of the DaemonStandIn. All transports talk to the same stand-in, so the difference is the cost of
+ * the transport only.
+ *
+ * Run with JMH on the classpath, e.g. java -cp ibrdtnlib.jar:benchmark.jar:jmh.jar org.openjdk.jmh.Main Transport
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TransportBenchmark {
+
+    @Param({"tcp", "unix", "inproc"})
+    public String transport;
+
+    @Param({"1024"})
+    public int payloadSize;
+
+    private DaemonStandIn daemon;
+    private Path directory;
+    private ExtendedClient client;
+    private Bundle bundle;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        APIConnection connection;
+        if (transport.equals("unix")) {
+            directory = Files.createTempDirectory("ibrdtn-bench");
+            daemon = DaemonStandIn.unix(directory.resolve("api.sock"));
+            connection = new UnixDomainSocketAPIConnection(daemon.getPath().toString());
+        } else if (transport.equals("inproc")) {
+            daemon = DaemonStandIn.inProcess();
+            connection = daemon.connect();
+        } else {
+            daemon = DaemonStandIn.tcp();
+            connection = new SocketAPIConnection("127.0.0.1", daemon.getPort());
+        }
+
+        client = new ExtendedClient();
+        client.setConnection(connection);
+        client.open();
+
+        bundle = new Bundle(new GroupEndpoint("dtn://benchmark/sink"), 3600);
+        bundle.appendBlock(new PayloadBlock(new byte[payloadSize]));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        client.close();
+        daemon.close();
+        if (directory != null) {
+            Files.deleteIfExists(directory);
+        }
+    }
+
+    /**
+     * A single command and its response.
+     */
+    @Benchmark
+    public void noop() throws APIException {
+        client.noop();
+    }
+
+    /**
+     * Four round trips (clear, put, bundle, send) and the transfer of the payload.
+     */
+    @Benchmark
+    public void send() throws APIException {
+        client.send(bundle);
+    }
+}
@@ -6,11 +6,11 @@ import ibrdtn.api.object.Bundle;
 import ibrdtn.api.object.BundleID;
 import ibrdtn.example.data.Envelope;
 import ibrdtn.example.data.MessageData;
+import ibrdtn.example.data.MessageDataCodec;
 import static ibrdtn.example.api.PayloadType.BYTE;
 import static ibrdtn.example.api.PayloadType.OBJECT;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
 import java.io.PipedInputStream;
 import java.io.PipedOutputStream;
 import java.util.concurrent.ExecutorService;
@@ -164,35 +164,20 @@ public abstract class AbstractAPIHandler implements ibrdtn.api.sab.CallbackHandl
                     break;
 
                 case OBJECT:
-                    ObjectInputStream ois = null;
                     try {
-                        ois = new ObjectInputStream(is);
+                        MessageData messageData = MessageDataCodec.INSTANCE.decode(is);
+                        envelope = new Envelope();
+                        envelope.setBundleID(new BundleID(bundle));
+                        envelope.setData(messageData);
 
-                        Object object = ois.readObject();
+                        logger.log(Level.INFO, "Data received: {0}", envelope);
+                        // Do further processing, for instance
 
-                        // Check object type
-                        String messageType = object.getClass().getCanonicalName();
-                        if (messageType.equals(MessageData.class.getCanonicalName())) {
-
-                            MessageData messageData = (MessageData) object;
-                            envelope = new Envelope();
-                            envelope.setBundleID(new BundleID(bundle));
-                            envelope.setData(messageData);
-
-                            logger.log(Level.INFO, "Data received: {0}", envelope);
-                            // Do further processing, for instance
-
-                        } else {
-                            logger.log(Level.WARNING, "Unknown Message Type ''{0}''", messageType);
-                        }
-
-                    } catch (IOException | ClassNotFoundException ex) {
+                    } catch (IOException ex) {
                         logger.log(Level.SEVERE, "Unable to decode payload");
                     } finally {
                         try {
-                            if (ois != null) {
-                                ois.close();
-                            }
+                            is.close();
                         } catch (IOException ex) {
                             logger.log(Level.SEVERE, "Failed to close streams", ex);
                         }
@@ -1,6 +1,7 @@
 package ibrdtn.example.api;
 
 import ibrdtn.api.APIException;
+import ibrdtn.api.BundleSender;
 import ibrdtn.api.EventClient;
 import ibrdtn.api.ExtendedClient;
 import ibrdtn.api.object.Bundle;
@@ -22,6 +23,7 @@ public class DTNClient {
     private static final Logger logger = Logger.getLogger(DTNClient.class.getName());
     private ExecutorService executor;
     private ExtendedClient exClient = null;
+    private BundleSender sender = null;
     private EventClient eventClient = null;
     private ibrdtn.api.sab.CallbackHandler sabHandler = null;
     private String endpoint = null;
@@ -81,7 +83,11 @@ public class DTNClient {
         exClient.setHost(Constants.HOST);
         exClient.setPort(Constants.PORT);
 
+        // expedited bundles overtake queued bulk bundles
+        sender = new BundleSender(exClient, 64);
+
         connect();
+        sender.start();
     }
 
     /**
@@ -103,7 +109,8 @@ public class DTNClient {
     }
 
     /**
-     * Sends the given Bundle to the daemon.
+     * Queues the given Bundle for sending to the daemon in the order of its priority. Blocks while the send queue is
+     * full.
      *
      * @param bundle
      */
@@ -111,20 +118,14 @@ public class DTNClient {
 
         logger.log(Level.INFO, "Sending {0}", bundle);
 
-        final Bundle finalBundle = bundle;
-        final ExtendedClient finalClient = this.exClient;
-
-        executor.execute(new Runnable() {
-            @Override
-            public void run() {
-
-                try {
-                    finalClient.send(finalBundle);
-                } catch (Exception e) {
-                    logger.log(Level.SEVERE, "Unable to send bundle", e);
-                }
-            }
-        });
+        try {
+            sender.submit(bundle);
+        } catch (APIException e) {
+            logger.log(Level.SEVERE, "Unable to send bundle", e);
+        } catch (InterruptedException e) {
+            logger.log(Level.WARNING, "Sending interrupted: {0}", e.getMessage());
+            Thread.currentThread().interrupt();
+        }
     }
 
     /**
@@ -134,6 +135,14 @@ public class DTNClient {
 
         logger.log(Level.INFO, "Shutting down {0}", endpoint);
 
+        try {
+            sender.flush();
+            sender.close();
+        } catch (InterruptedException e) {
+            logger.log(Level.WARNING, "Sending queued bundles interrupted: {0}", e.getMessage());
+            Thread.currentThread().interrupt();
+        }
+
         executor.shutdown(); // Disable new tasks from being submitted
         try {
 
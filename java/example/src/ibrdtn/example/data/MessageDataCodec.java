@@ -0,0 +1,47 @@
+package ibrdtn.example.data;
+
+import ibrdtn.api.object.PayloadCodec;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * A compact binary encoding of MessageData. Each field is written as a presence flag followed by the modified UTF-8
+ * string, which is much smaller than the Java serialization of the object.
+ */
+public class MessageDataCodec implements PayloadCodec<MessageData> {
+
+    public static final MessageDataCodec INSTANCE = new MessageDataCodec();
+
+    @Override
+    public void encode(MessageData value, OutputStream stream) throws IOException {
+        DataOutputStream out = new DataOutputStream(stream);
+        writeString(out, value.getId());
+        writeString(out, value.getCorrelationId());
+        writeString(out, value.getText());
+        out.flush();
+    }
+
+    @Override
+    public MessageData decode(InputStream stream) throws IOException {
+        DataInputStream in = new DataInputStream(stream);
+        MessageData data = new MessageData();
+        data.setId(readString(in));
+        data.setCorrelationId(readString(in));
+        data.setText(readString(in));
+        return data;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
@@ -2,6 +2,7 @@ package ibrdtn.example.data;
 
 import ibrdtn.api.ExtendedClient;
 import ibrdtn.api.object.Bundle;
+import ibrdtn.api.object.ObjectBlockData;
 import ibrdtn.api.object.PayloadBlock;
 import ibrdtn.api.object.SingletonEndpoint;
 import ibrdtn.example.ui.DTNExampleApp;
@@ -47,7 +48,7 @@ public class Processor implements Runnable {
 
             SingletonEndpoint destination = envelope.getBundleID().getSource();
             Bundle bundle = new Bundle(destination, 3600);
-            bundle.appendBlock(new PayloadBlock(data));
+            bundle.appendBlock(new PayloadBlock(new ObjectBlockData(data, MessageDataCodec.INSTANCE)));
 
             // Send response back to source
             logger.log(Level.INFO, "Sending {0}", bundle);
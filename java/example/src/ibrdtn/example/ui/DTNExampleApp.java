@@ -7,9 +7,11 @@ import ibrdtn.api.ExtendedClient.Encoding;
 import ibrdtn.api.object.Bundle;
 import ibrdtn.api.object.EID;
 import ibrdtn.api.object.GroupEndpoint;
+import ibrdtn.api.object.ObjectBlockData;
 import ibrdtn.api.object.PayloadBlock;
 import ibrdtn.api.object.SingletonEndpoint;
 import ibrdtn.example.data.MessageData;
+import ibrdtn.example.data.MessageDataCodec;
 import ibrdtn.example.api.Constants;
 import ibrdtn.example.api.DTNClient;
 import ibrdtn.example.logging.WindowHandler;
@@ -688,7 +690,7 @@ public class DTNExampleApp extends javax.swing.JFrame {
                 data.setCorrelationId(tfResponse.getText());
                 data.setText(tfPayload.getText());
 
-                bundle.appendBlock(new PayloadBlock(data));
+                bundle.appendBlock(new PayloadBlock(new ObjectBlockData(data, MessageDataCodec.INSTANCE)));
                 break;
             case BYTE:
                 String text = tfPayload.getText();
@@ -0,0 +1,592 @@
+/*
+ * AsyncExtendedClient.java
+ *
+ * Copyright (C) 2011 IBR, TU Braunschweig
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package ibrdtn.api;
+
+import ibrdtn.api.object.BinarySerializer;
+import ibrdtn.api.object.Bundle;
+import ibrdtn.api.object.BundleID;
+import ibrdtn.api.object.GroupEndpoint;
+import ibrdtn.api.object.PlainSerializer;
+import ibrdtn.api.sab.CallbackHandler;
+import ibrdtn.api.sab.Response;
+import ibrdtn.api.sab.SABByteParser;
+import ibrdtn.api.sab.SABException;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A non-blocking client for the extended API. All sessions of an AsyncRuntime share its I/O threads, so no thread is
+ * needed per session. Commands are written without waiting and return futures which are completed once the response
+ * has been received.
+ *
+ * The CallbackHandler is called by the I/O thread. It must not block, otherwise all sessions of the thread stall.
+ */
+public class AsyncExtendedClient {
+
+    private static final Logger logger = Logger.getLogger(AsyncExtendedClient.class.getName());
+    private static final int BUFFER_SIZE = 65536;
+    private final AsyncRuntime.Loop loop;
+    private final Object state_mutex = new Object();
+    private final Object write_mutex = new Object();
+    private final Object handler_mutex = new Object();
+    private final ArrayDeque<ByteBuffer> outgoing = new ArrayDeque<ByteBuffer>();
+    private final SABByteParser parser = new SABByteParser();
+    private final ByteBuffer input = ByteBuffer.allocate(BUFFER_SIZE);
+    private final Session session = new Session();
+    private State state = State.UNINITIALIZED;
+    private DataReceiver receiver = null;
+    private CallbackHandler handler = null;
+    private SocketChannel channel = null;
+    private SelectionKey key = null;
+    private String host = "localhost";
+    private Integer port = 4550;
+    private Boolean binary = false;
+    private StringBuilder header = new StringBuilder();
+    private boolean headerReceived = false;
+
+    private enum State {
+
+        UNINITIALIZED,
+        CONNECTING,
+        CONNECTED,
+        CLOSED,
+        FAILED
+    }
+
+    public AsyncExtendedClient(AsyncRuntime runtime) {
+        this.loop = runtime.assign();
+    }
+
+    public void setHost(String host) {
+        this.host = host;
+    }
+
+    public void setPort(Integer port) {
+        this.port = port;
+    }
+
+    /**
+     * Sets the handler for incoming API events. Has to be called before open().
+     *
+     * @param handler the handler object
+     */
+    public void setHandler(CallbackHandler handler) {
+        synchronized (handler_mutex) {
+            this.handler = handler;
+        }
+    }
+
+    /**
+     * Enables / disables the binary upload of bundles.
+     *
+     * @see ExtendedClient#setBinaryUpload(java.lang.Boolean)
+     * @param val true if bundles should be uploaded in binary format
+     */
+    public void setBinaryUpload(Boolean val) {
+        this.binary = val;
+    }
+
+    /**
+     * @return the banner of the daemon or null if it has not been received yet
+     */
+    public String getHeader() {
+        synchronized (state_mutex) {
+            return headerReceived ? header.toString() : null;
+        }
+    }
+
+    /**
+     * Connects to the daemon and switches to the extended protocol.
+     *
+     * @return a future completed once the session is ready for commands
+     */
+    public CompletableFuture<Void> open() {
+        synchronized (state_mutex) {
+            if (state != State.UNINITIALIZED) {
+                return failed(new IOException("client in invalid state for open()"));
+            }
+            if (!loop.isRunning()) {
+                return failed(new IOException("runtime closed"));
+            }
+            state = State.CONNECTING;
+        }
+
+        synchronized (handler_mutex) {
+            receiver = new DataReceiver(handler_mutex, handler);
+        }
+
+        // the switch is written as soon as the connection has been established
+        CompletableFuture<Void> ret = expect("protocol extended", 200, "protocol switch failed");
+
+        loop.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    channel = SocketChannel.open();
+                    channel.configureBlocking(false);
+                    channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+
+                    if (channel.connect(new InetSocketAddress(host, port))) {
+                        key = loop.register(channel, SelectionKey.OP_READ | SelectionKey.OP_WRITE, session);
+                    } else {
+                        key = loop.register(channel, SelectionKey.OP_CONNECT, session);
+                    }
+                } catch (IOException e) {
+                    session.handleError(e);
+                }
+            }
+        });
+
+        final CompletableFuture<Void> opened = new CompletableFuture<Void>();
+        ret.whenComplete(new BiConsumer<Void, Throwable>() {
+            @Override
+            public void accept(Void t, Throwable e) {
+                if (e == null) {
+                    synchronized (state_mutex) {
+                        if (state == State.CONNECTING) {
+                            state = State.CONNECTED;
+                        }
+                    }
+                    opened.complete(null);
+                } else {
+                    close();
+                    opened.completeExceptionally(e);
+                }
+            }
+        });
+        return opened;
+    }
+
+    /**
+     * Closes the connection. Commands without response fail with an APIException.
+     *
+     * @return a future completed once the connection has been closed
+     */
+    public CompletableFuture<Void> close() {
+        final CompletableFuture<Void> ret = new CompletableFuture<Void>();
+
+        synchronized (state_mutex) {
+            if ((state == State.CLOSED) || (state == State.FAILED) || (state == State.UNINITIALIZED)) {
+                state = State.CLOSED;
+                ret.complete(null);
+                return ret;
+            }
+            state = State.CLOSED;
+        }
+
+        loop.execute(new Runnable() {
+            @Override
+            public void run() {
+                shutdown();
+                ret.complete(null);
+            }
+        });
+
+        return ret;
+    }
+
+    public Boolean isConnected() {
+        synchronized (state_mutex) {
+            return (state == State.CONNECTED);
+        }
+    }
+
+    /**
+     * Writes a command and returns the response. The future is completed exceptionally with an APIException if the
+     * connection fails before the response has been received.
+     *
+     * @param cmd the command to send
+     * @return the response of the daemon
+     */
+    public CompletableFuture<Response> query(String cmd) {
+        Command<Response> c = new Command<Response>(cmd) {
+            @Override
+            Response convert(Response response, List<String> list) {
+                return response;
+            }
+        };
+        submit(c);
+        return c.future;
+    }
+
+    public CompletableFuture<Void> setEndpoint(String id) {
+        return expect("set endpoint " + id, 200, "set endpoint failed");
+    }
+
+    public CompletableFuture<Void> addEndpoint(String id) {
+        return expect("endpoint add " + id, 200, "set endpoint failed");
+    }
+
+    public CompletableFuture<Void> removeEndpoint(String id) {
+        return expect("endpoint del " + id, 200, "set endpoint failed");
+    }
+
+    public CompletableFuture<Void> addRegistration(GroupEndpoint eid) {
+        return expect("registration add " + eid.toString(), 200, "registration add failed");
+    }
+
+    public CompletableFuture<Void> removeRegistration(GroupEndpoint eid) {
+        return expect("registration del " + eid.toString(), 200, "registration removal failed");
+    }
+
+    public CompletableFuture<List<String>> getRegistrations() {
+        return list("registration list", "registration get failed");
+    }
+
+    public CompletableFuture<List<String>> getNeighbors() {
+        return list("neighbor list", "neighbor list failed");
+    }
+
+    public CompletableFuture<Void> loadBundle(BundleID id) {
+        return expect("bundle load " + id.toString(), 200, "bundle load failed");
+    }
+
+    public CompletableFuture<Void> loadBundle() {
+        return expect("bundle load queue", 200, "bundle load failed");
+    }
+
+    /**
+     * Requests the loaded bundle. The future is completed when the daemon starts to deliver the bundle, the bundle
+     * itself is passed to the CallbackHandler.
+     *
+     * @return a future completed with the response of "bundle get"
+     */
+    public CompletableFuture<Void> getBundle() {
+        return expect("bundle get", 200, "bundle get failed");
+    }
+
+    public CompletableFuture<Void> getBundleInfo() {
+        return expect("bundle info", 200, "bundle info failed");
+    }
+
+    /**
+     * Loads the next bundle of the queue and requests it. Both commands are written back-to-back, so the bundle is
+     * requested without waiting for the response of the load. If the load fails, the daemon returns the bundle left in
+     * the register, which is dropped instead of being passed to the CallbackHandler.
+     *
+     * @see #getBundle()
+     * @return a future completed with the response of "bundle get"
+     */
+    public CompletableFuture<Void> loadAndGetBundle() {
+        final Command<Void> load = new Command<Void>("bundle load queue") {
+            @Override
+            Void convert(Response response, List<String> list) throws APIException {
+                if (response.getCode() == 400) {
+                    throw new APIException("no bundle available");
+                } else if (response.getCode() != 200) {
+                    throw new APIException("bundle load failed");
+                }
+                return null;
+            }
+        };
+
+        Command<Void> get = new Command<Void>("bundle get") {
+            @Override
+            Void convert(Response response, List<String> list) throws APIException {
+                // the load has been answered before, since responses arrive in order
+                if (load.future.isCompletedExceptionally()) {
+                    if (response.getCode() == 200) {
+                        receiver.discardNextBundle();
+                    }
+                    throw new APIException((load.getCode() == 400) ? "no bundle available" : "bundle load failed");
+                }
+                if (response.getCode() != 200) {
+                    throw new APIException("bundle get failed");
+                }
+                return null;
+            }
+        };
+
+        synchronized (write_mutex) {
+            submit(load);
+            submit(get);
+        }
+
+        return get.future;
+    }
+
+    public CompletableFuture<Void> freeBundle() {
+        return expect("bundle free", 200, "bundle free failed");
+    }
+
+    public CompletableFuture<Void> markDelivered(BundleID id) {
+        return expect("bundle delivered " + id.toString(), 200, "bundle delivered failed");
+    }
+
+    /**
+     * Sends a bundle to the daemon. The bundle is serialized into memory and written together with the commands of
+     * the submission, the responses are checked as they arrive.
+     *
+     * @param bundle the bundle to send
+     * @return a future completed once the daemon has sent the bundle
+     */
+    public CompletableFuture<Void> send(Bundle bundle) {
+        final CompletableFuture<Void> ret = new CompletableFuture<Void>();
+        String put = binary ? "bundle put binary" : "bundle put plain";
+
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        try {
+            if (binary) {
+                new BinarySerializer(data).serialize(bundle);
+            } else {
+                new PlainSerializer(data).serialize(bundle);
+            }
+        } catch (IOException e) {
+            return failed(new APIException("serialization of bundle failed."));
+        }
+
+        PendingResponse[] steps = new PendingResponse[]{
+            new Step(ret, "bundle clear", 200, "bundle clear failed", false),
+            new Step(ret, put, 100, "bundle put failed", false),
+            new Step(ret, put, 200, "bundle rejected or put failed", false),
+            new Step(ret, "bundle send", 200, "bundle send failed", true)
+        };
+
+        synchronized (write_mutex) {
+            submit(steps[0]);
+            submit(steps[1]);
+            enqueue(steps[2], ByteBuffer.wrap(data.toByteArray()));
+            submit(steps[3]);
+        }
+
+        return ret;
+    }
+
+    private CompletableFuture<Void> expect(String cmd, final int code, final String error) {
+        Command<Void> c = new Command<Void>(cmd) {
+            @Override
+            Void convert(Response response, List<String> list) throws APIException {
+                if (response.getCode() != code) {
+                    throw new APIException(error);
+                }
+                return null;
+            }
+        };
+        submit(c);
+        return c.future;
+    }
+
+    private CompletableFuture<List<String>> list(String cmd, final String error) {
+        Command<List<String>> c = new Command<List<String>>(cmd) {
+            @Override
+            List<String> convert(Response response, List<String> list) throws APIException {
+                if (response.getCode() != 200) {
+                    throw new APIException(error);
+                }
+                return list;
+            }
+        };
+        submit(c);
+        return c.future;
+    }
+
+    private void submit(PendingResponse c) {
+        enqueue(c, ByteBuffer.wrap((c.getCommand() + "\n").getBytes()));
+    }
+
+    private void enqueue(PendingResponse slot, ByteBuffer data) {
+        synchronized (write_mutex) {
+            DataReceiver r = receiver;
+            if (r == null) {
+                slot.abort("not connected");
+                return;
+            }
+
+            // the slot is aborted by the receiver, if the connection has already failed
+            r.enqueue(slot);
+            outgoing.add(data);
+        }
+
+        loop.execute(new Runnable() {
+            @Override
+            public void run() {
+                if ((key != null) && key.isValid() && channel.isConnected()) {
+                    key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                }
+            }
+        });
+    }
+
+    private void shutdown() {
+        if (key != null) {
+            key.cancel();
+        }
+
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+            }
+        }
+
+        synchronized (write_mutex) {
+            outgoing.clear();
+            if (receiver != null) {
+                receiver.abort();
+            }
+        }
+    }
+
+    private static <T> CompletableFuture<T> failed(Exception e) {
+        CompletableFuture<T> ret = new CompletableFuture<T>();
+        ret.completeExceptionally(e);
+        return ret;
+    }
+
+    /**
+     * Callbacks of the I/O thread.
+     */
+    private class Session implements AsyncRuntime.Handler {
+
+        @Override
+        public void handleConnect() throws IOException {
+            channel.finishConnect();
+            key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        }
+
+        @Override
+        public void handleRead() throws IOException {
+            int len = channel.read(input);
+            if (len < 0) {
+                throw new IOException("end of stream reached");
+            }
+
+            input.flip();
+            try {
+                if (!headerReceived) {
+                    readHeader();
+                }
+                parser.consume(input, receiver);
+            } catch (SABException e) {
+                throw new IOException(e.getMessage());
+            } finally {
+                input.clear();
+            }
+        }
+
+        private void readHeader() {
+            while (input.hasRemaining()) {
+                char c = (char) input.get();
+                if (c == '\n') {
+                    synchronized (state_mutex) {
+                        headerReceived = true;
+                    }
+                    return;
+                }
+                header.append(c);
+            }
+        }
+
+        @Override
+        public void handleWrite() throws IOException {
+            synchronized (write_mutex) {
+                while (!outgoing.isEmpty()) {
+                    ByteBuffer data = outgoing.peek();
+                    channel.write(data);
+                    if (data.hasRemaining()) {
+                        // socket buffer is full
+                        return;
+                    }
+                    outgoing.poll();
+                }
+            }
+            key.interestOps(SelectionKey.OP_READ);
+        }
+
+        @Override
+        public void handleError(IOException e) {
+            synchronized (state_mutex) {
+                if (state != State.CLOSED) {
+                    logger.log(Level.WARNING, "API session failed: {0}", e.getMessage());
+                    state = State.FAILED;
+                }
+            }
+            shutdown();
+        }
+    }
+
+    /**
+     * A response slot which completes a future instead of waking up a blocked caller.
+     */
+    private static abstract class Command<T> extends PendingResponse {
+
+        final CompletableFuture<T> future = new CompletableFuture<T>();
+
+        Command(String command) {
+            super(command);
+        }
+
+        abstract T convert(Response response, List<String> list) throws APIException;
+
+        @Override
+        protected void completed() {
+            try {
+                future.complete(convert(get(), getList()));
+            } catch (APIException e) {
+                future.completeExceptionally(e);
+            } catch (RuntimeException e) {
+                future.completeExceptionally(e);
+            }
+        }
+    }
+
+    /**
+     * One command of a bundle submission. A failed step fails the whole submission, the last step completes it.
+     */
+    private static class Step extends PendingResponse {
+
+        private final CompletableFuture<Void> result;
+        private final int code;
+        private final String error;
+        private final boolean last;
+
+        Step(CompletableFuture<Void> result, String command, int code, String error, boolean last) {
+            super(command);
+            this.result = result;
+            this.code = code;
+            this.error = error;
+            this.last = last;
+        }
+
+        @Override
+        protected void completed() {
+            try {
+                if (get().getCode() != code) {
+                    throw new APIException(error);
+                }
+                if (last) {
+                    result.complete(null);
+                }
+            } catch (APIException e) {
+                result.completeExceptionally(e);
+            }
+        }
+    }
+}
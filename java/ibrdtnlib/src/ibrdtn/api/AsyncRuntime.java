@@ -0,0 +1,201 @@
+/*
+ * AsyncRuntime.java
+ *
+ * Copyright (C) 2011 IBR, TU Braunschweig
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package ibrdtn.api;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * I/O threads for AsyncExtendedClients. Each thread runs a selector loop which serves all sessions assigned to it, so
+ * a large number of API sessions needs only a few threads. Sessions are assigned to the threads round robin.
+ */
+public class AsyncRuntime implements Closeable {
+
+    private static final Logger logger = Logger.getLogger(AsyncRuntime.class.getName());
+    private final Loop[] loops;
+    private final AtomicInteger next = new AtomicInteger(0);
+
+    /**
+     * Callbacks of a channel registered at a loop. All methods are called by the I/O thread of the loop.
+     */
+    interface Handler {
+
+        void handleConnect() throws IOException;
+
+        void handleRead() throws IOException;
+
+        void handleWrite() throws IOException;
+
+        void handleError(IOException e);
+    }
+
+    /**
+     * Creates a runtime with a single I/O thread.
+     *
+     * @throws IOException if the selector could not be opened
+     */
+    public AsyncRuntime() throws IOException {
+        this(1);
+    }
+
+    /**
+     * @param threads the number of I/O threads
+     * @throws IOException if the selectors could not be opened
+     */
+    public AsyncRuntime(int threads) throws IOException {
+        if (threads < 1) {
+            throw new IllegalArgumentException("at least one thread is required");
+        }
+
+        loops = new Loop[threads];
+        try {
+            for (int i = 0; i < threads; i++) {
+                loops[i] = new Loop("AsyncRuntime-" + i);
+            }
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+
+        for (Loop loop : loops) {
+            loop.thread.start();
+        }
+    }
+
+    Loop assign() {
+        return loops[(next.getAndIncrement() & Integer.MAX_VALUE) % loops.length];
+    }
+
+    /**
+     * Stops all I/O threads. Sessions which are still open fail with an IOException.
+     */
+    @Override
+    public void close() {
+        for (Loop loop : loops) {
+            if (loop != null) {
+                loop.shutdown();
+            }
+        }
+    }
+
+    static class Loop implements Runnable {
+
+        private final Selector selector;
+        private final Thread thread;
+        private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+        private volatile boolean running = true;
+
+        Loop(String name) throws IOException {
+            selector = Selector.open();
+            thread = new Thread(this, name);
+            thread.setDaemon(true);
+        }
+
+        /**
+         * Runs the task in the I/O thread of this loop.
+         *
+         * @param task the task to run
+         */
+        void execute(Runnable task) {
+            if (Thread.currentThread() == thread) {
+                task.run();
+                return;
+            }
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        /**
+         * Registers a channel. Must be called by the I/O thread of this loop.
+         */
+        SelectionKey register(SelectableChannel channel, int ops, Handler handler) throws IOException {
+            return channel.register(selector, ops, handler);
+        }
+
+        boolean isRunning() {
+            return running;
+        }
+
+        void shutdown() {
+            running = false;
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (running) {
+                    selector.select();
+
+                    Runnable task;
+                    while ((task = tasks.poll()) != null) {
+                        task.run();
+                    }
+
+                    Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                    while (it.hasNext()) {
+                        SelectionKey key = it.next();
+                        it.remove();
+                        dispatch(key);
+                    }
+                }
+            } catch (IOException e) {
+                logger.log(Level.SEVERE, "Selector failed", e);
+            } finally {
+                // fail all sessions left on this loop
+                for (SelectionKey key : selector.keys()) {
+                    ((Handler) key.attachment()).handleError(new IOException("runtime closed"));
+                }
+
+                try {
+                    selector.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+
+        private void dispatch(SelectionKey key) {
+            Handler handler = (Handler) key.attachment();
+            try {
+                if (key.isValid() && key.isConnectable()) {
+                    handler.handleConnect();
+                }
+                if (key.isValid() && key.isReadable()) {
+                    handler.handleRead();
+                }
+                if (key.isValid() && key.isWritable()) {
+                    handler.handleWrite();
+                }
+            } catch (IOException e) {
+                handler.handleError(e);
+            } catch (RuntimeException e) {
+                logger.log(Level.SEVERE, "Session failed", e);
+                handler.handleError(new IOException(e.toString()));
+            }
+        }
+    }
+}
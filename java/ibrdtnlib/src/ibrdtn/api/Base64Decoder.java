@@ -0,0 +1,174 @@
+/*
+ * Base64Decoder.java
+ *
+ * Copyright (C) 2011 IBR, TU Braunschweig
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package ibrdtn.api;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * An incremental base64 decoder. Encoded data can be passed in arbitrary chunks, line breaks are skipped. The decoded
+ * bytes are collected in a reusable buffer and written to the target stream in large blocks.
+ */
+public class Base64Decoder {
+
+    private static final byte WHITE_SPACE = -1;
+    private static final byte PADDING = -2;
+    private static final byte INVALID = -3;
+    private static final byte[] DECODABET = new byte[256];
+
+    static {
+        java.util.Arrays.fill(DECODABET, INVALID);
+        String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+        for (int i = 0; i < alphabet.length(); i++) {
+            DECODABET[alphabet.charAt(i)] = (byte) i;
+        }
+        DECODABET['\n'] = WHITE_SPACE;
+        DECODABET['\r'] = WHITE_SPACE;
+        DECODABET['\t'] = WHITE_SPACE;
+        DECODABET[' '] = WHITE_SPACE;
+        DECODABET['='] = PADDING;
+    }
+
+    private final byte[] buffer;
+    private int buffered = 0;
+
+    // the collected bits of the current quantum and the number of sextets in it
+    private int quantum = 0;
+    private int sextets = 0;
+
+    public Base64Decoder() {
+        this(8192);
+    }
+
+    public Base64Decoder(int size) {
+        buffer = new byte[Math.max(size, 3)];
+    }
+
+    /**
+     * Discards a partially decoded quantum.
+     */
+    public void reset() {
+        buffered = 0;
+        quantum = 0;
+        sextets = 0;
+    }
+
+    /**
+     * Decodes all bytes between position and limit of the buffer.
+     *
+     * @param data the encoded data
+     * @param out the stream for the decoded bytes
+     * @return the number of decoded bytes written to the stream or kept for the next call
+     * @throws IOException if the data is not base64 encoded or writing to the stream failed
+     */
+    public long decode(ByteBuffer data, OutputStream out) throws IOException {
+        long decoded = 0;
+
+        if (data.hasArray()) {
+            byte[] array = data.array();
+            int end = data.arrayOffset() + data.limit();
+            for (int i = data.arrayOffset() + data.position(); i < end; i++) {
+                decoded += decode(array[i], out);
+            }
+            data.position(data.limit());
+        } else {
+            while (data.hasRemaining()) {
+                decoded += decode(data.get(), out);
+            }
+        }
+
+        if (buffered > 0) {
+            out.write(buffer, 0, buffered);
+            buffered = 0;
+        }
+
+        return decoded;
+    }
+
+    /**
+     * Writes the bytes of an unpadded last quantum.
+     *
+     * @param out the stream for the decoded bytes
+     * @return the number of bytes written
+     * @throws IOException if writing to the stream failed
+     */
+    public long finish(OutputStream out) throws IOException {
+        long decoded = padding();
+        if (buffered > 0) {
+            out.write(buffer, 0, buffered);
+        }
+        reset();
+        return decoded;
+    }
+
+    private int decode(byte b, OutputStream out) throws IOException {
+        byte value = DECODABET[b & 0xff];
+
+        if (value >= 0) {
+            quantum = (quantum << 6) | value;
+            if (++sextets < 4) {
+                return 0;
+            }
+
+            if (buffered > buffer.length - 3) {
+                out.write(buffer, 0, buffered);
+                buffered = 0;
+            }
+
+            buffer[buffered++] = (byte) (quantum >> 16);
+            buffer[buffered++] = (byte) (quantum >> 8);
+            buffer[buffered++] = (byte) quantum;
+            quantum = 0;
+            sextets = 0;
+            return 3;
+        }
+
+        switch (value) {
+            case WHITE_SPACE:
+                return 0;
+            case PADDING:
+                if (buffered > buffer.length - 2) {
+                    out.write(buffer, 0, buffered);
+                    buffered = 0;
+                }
+                return padding();
+            default:
+                throw new IOException("Invalid base64 character: " + (b & 0xff));
+        }
+    }
+
+    private int padding() {
+        int decoded = 0;
+        switch (sextets) {
+            case 2:
+                buffer[buffered++] = (byte) (quantum >> 4);
+                decoded = 1;
+                break;
+            case 3:
+                buffer[buffered++] = (byte) (quantum >> 10);
+                buffer[buffered++] = (byte) (quantum >> 2);
+                decoded = 2;
+                break;
+        }
+        quantum = 0;
+        sextets = 0;
+        return decoded;
+    }
+}
@@ -0,0 +1,228 @@
+/*
+ * BundleAssembler.java
+ *
+ * Copyright (C) 2011 IBR, TU Braunschweig
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package ibrdtn.api;
+
+import ibrdtn.api.object.Block;
+import ibrdtn.api.object.Bundle;
+import ibrdtn.api.object.BundleID;
+import ibrdtn.api.object.ByteArrayBlockData;
+import ibrdtn.api.sab.CallbackHandler;
+import ibrdtn.api.sab.Custody;
+import ibrdtn.api.sab.StatusReport;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.util.LinkedList;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A handler which assembles the received bundles in memory and passes them to the requests expecting them. Used by
+ * the receivers which replace the handler of the client and request the bundles themselves.
+ *
+ * A received bundle is passed to the first expected request with the same bundle id, so bundles requested by someone
+ * else on the same client are ignored. Requests in front of the matching one are dropped as missed, since the bundles
+ * arrive in the order they were requested.
+ */
+abstract class BundleAssembler implements CallbackHandler {
+
+    private static final Logger logger = Logger.getLogger(BundleAssembler.class.getName());
+
+    /**
+     * A request waiting for its bundle.
+     */
+    interface Request {
+
+        /**
+         * @return the id of the requested bundle or null, if it is not known in advance and any bundle matches
+         */
+        BundleID getId();
+
+        /**
+         * Called by the receiver thread of the client with the received bundle.
+         *
+         * @param bundle the bundle or null, if it has no blocks
+         */
+        void received(Bundle bundle);
+
+        /**
+         * Called by the receiver thread of the client if a later bundle has been received instead.
+         */
+        void missed();
+    }
+
+    // requests in the order their bundles arrive, only accessed by the receiver thread of the client
+    private final LinkedList<Request> expected = new LinkedList<Request>();
+    private CallbackHandler notifications = null;
+
+    // the bundle currently received
+    private Bundle bundle = null;
+    private Block block = null;
+    private ByteArrayOutputStream payload = null;
+
+    /**
+     * Sets a handler for status report and custody notifications, which are not processed by this handler.
+     *
+     * @param handler the handler for other notifications
+     */
+    public synchronized void setNotificationHandler(CallbackHandler handler) {
+        this.notifications = handler;
+    }
+
+    /**
+     * Expects the bundle of a request. Has to be called by the receiver thread of the client when the response of the
+     * get command arrives, right before the bundle itself.
+     *
+     * @param request the request of the bundle
+     */
+    void expect(Request request) {
+        expected.add(request);
+    }
+
+    static int code(PendingResponse slot) {
+        try {
+            return slot.getCode();
+        } catch (APIException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Parses the id of the bundle loaded by a "bundle load queue" command.
+     *
+     * @param load the completed slot of the load command
+     * @return the id of the loaded bundle or null, if the daemon does not name it in the response
+     */
+    static BundleID loaded(PendingResponse load) {
+        try {
+            String data = load.get().getData();
+            if (data.split(" ").length < 5) {
+                return null;
+            }
+            return DataReceiver.parseBundleNotification(data);
+        } catch (APIException e) {
+            return null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public void notify(StatusReport r) {
+        CallbackHandler h;
+        synchronized (this) {
+            h = notifications;
+        }
+        if (h != null) {
+            h.notify(r);
+        }
+    }
+
+    @Override
+    public void notify(Custody c) {
+        CallbackHandler h;
+        synchronized (this) {
+            h = notifications;
+        }
+        if (h != null) {
+            h.notify(c);
+        }
+    }
+
+    @Override
+    public void startBundle(Bundle bundle) {
+        // called for every block of the bundle
+        this.bundle = bundle;
+    }
+
+    @Override
+    public void endBundle() {
+        Bundle received = bundle;
+        bundle = null;
+
+        if (expected.isEmpty()) {
+            // requested by someone else
+            return;
+        }
+
+        if (received == null) {
+            // a bundle without blocks is not announced to the handler, thus it can only be assigned by order
+            expected.poll().received(null);
+            return;
+        }
+
+        BundleID id = new BundleID(received);
+        for (Request r : expected) {
+            if (r.getId() == null || r.getId().equals(id)) {
+                // the requests in front of this one will not receive their bundles anymore
+                while (expected.peek() != r) {
+                    expected.poll().missed();
+                }
+                expected.poll().received(received);
+                return;
+            }
+        }
+
+        logger.log(Level.FINE, "Ignoring bundle {0}, which has not been requested by this handler", id);
+    }
+
+    @Override
+    public void startBlock(Block block) {
+        this.block = block;
+        this.payload = null;
+    }
+
+    @Override
+    public void endBlock() {
+        if (bundle == null || block == null) {
+            return;
+        }
+
+        Block complete = block;
+        if (payload != null) {
+            try {
+                complete = Block.createBlock(block, new ByteArrayBlockData(payload.toByteArray()));
+                complete.setLength(block.getLength());
+            } catch (Block.InvalidDataException e) {
+                logger.log(Level.WARNING, "Invalid data in block of type {0}", block.getType());
+            }
+        }
+
+        bundle.appendBlock(complete);
+        block = null;
+        payload = null;
+    }
+
+    @Override
+    public OutputStream startPayload() {
+        int size = 4096;
+        if (block != null && block.getLength() != null && block.getLength() < Integer.MAX_VALUE) {
+            size = block.getLength().intValue();
+        }
+        payload = new ByteArrayOutputStream(size);
+        return payload;
+    }
+
+    @Override
+    public void endPayload() {
+    }
+
+    @Override
+    public void progress(long pos, long total) {
+    }
+}
@@ -0,0 +1,428 @@
+/*
+ * BundlePublisher.java
+ *
+ * Copyright (C) 2011 IBR, TU Braunschweig
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package ibrdtn.api;
+
+import ibrdtn.api.object.Bundle;
+import ibrdtn.api.object.BundleID;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Flow;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Publishes the bundles queued for the registration of a client to a Flow.Subscriber. The demand of the subscriber
+ * is translated into "bundle load queue" and "bundle get" commands, so the daemon keeps the bundles which have not
+ * been requested yet and a slow subscriber does not stall the connection. At most window bundles are loaded ahead of
+ * the subscriber.
+ *
+ * A bundle is not marked as delivered before the subscriber acknowledges it, see Delivery.acknowledge(). The
+ * subscriber is called by a thread of the publisher, never by the receiver thread of the client.
+ *
+ * The publisher replaces the handler of the client, so it has to be created before the client is opened. It serves
+ * one subscriber at a time. Bundles which have been loaded but not yet passed to a cancelled subscriber are passed to
+ * the next one.
+ */
+public class BundlePublisher extends BundleAssembler implements Flow.Publisher<BundlePublisher.Delivery> {
+
+    private static final Logger logger = Logger.getLogger(BundlePublisher.class.getName());
+
+    /**
+     * A received bundle, which remains in the storage of the daemon until it is acknowledged.
+     */
+    public class Delivery {
+
+        private final BundleID id;
+        private final Bundle bundle;
+
+        Delivery(BundleID id, Bundle bundle) {
+            this.id = id;
+            this.bundle = bundle;
+        }
+
+        public BundleID getId() {
+            return id;
+        }
+
+        public Bundle getBundle() {
+            return bundle;
+        }
+
+        /**
+         * Marks the bundle as delivered, see ExtendedClient.markDelivered(BundleID).
+         *
+         * @throws APIException if the request fails
+         */
+        public void acknowledge() throws APIException {
+            client.markDelivered(id);
+        }
+    }
+
+    private final ExtendedClient client;
+    private final int window;
+
+    // guarded by this
+    private final ArrayDeque<Delivery> ready = new ArrayDeque<Delivery>();
+    private Subscription subscription = null;
+    private int loading = 0;
+    private long announcements = 0;
+    private long emptyAt = -1;
+    private Throwable error = null;
+    private boolean closed = false;
+
+    /**
+     * @param client the client to receive the bundles with, not opened yet
+     * @param window the maximum number of bundles loaded but not yet passed to the subscriber
+     */
+    public BundlePublisher(ExtendedClient client, int window) {
+        if (window < 1) {
+            throw new IllegalArgumentException("window has to be positive");
+        }
+
+        this.client = client;
+        this.window = window;
+
+        client.setHandler(this);
+    }
+
+    /**
+     * Subscribes to the received bundles. The client has to be connected before the subscriber requests bundles.
+     */
+    @Override
+    public void subscribe(Flow.Subscriber<? super Delivery> subscriber) {
+        if (subscriber == null) {
+            throw new NullPointerException("subscriber");
+        }
+
+        Subscription s = new Subscription(subscriber);
+        String reason = null;
+        synchronized (this) {
+            if (closed) {
+                reason = "publisher closed";
+            } else if (subscription != null) {
+                reason = "publisher supports a single subscriber";
+            } else {
+                subscription = s;
+            }
+        }
+
+        if (reason != null) {
+            subscriber.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void request(long n) {
+                }
+
+                @Override
+                public void cancel() {
+                }
+            });
+            subscriber.onError(new IllegalStateException(reason));
+            return;
+        }
+
+        s.start();
+    }
+
+    /**
+     * Completes the subscription. Bundles in flight are not passed to the subscriber and remain in the storage of the
+     * daemon.
+     *
+     * @throws InterruptedException if interrupted while waiting for the subscriber
+     */
+    public void close() throws InterruptedException {
+        Subscription s;
+        synchronized (this) {
+            closed = true;
+            s = subscription;
+            notifyAll();
+        }
+
+        if (s != null) {
+            s.join();
+        }
+    }
+
+    /**
+     * @return the number of bundles loaded but not yet passed to the subscriber
+     */
+    public synchronized int getBacklog() {
+        return ready.size() + loading;
+    }
+
+    /**
+     * The subscription of the current subscriber. Its thread requests the bundles and calls the subscriber.
+     */
+    private class Subscription implements Flow.Subscription, Runnable {
+
+        private final Flow.Subscriber<? super Delivery> subscriber;
+        private final Thread thread;
+
+        // guarded by the publisher
+        private long requested = 0;
+        private boolean cancelled = false;
+        private Throwable invalid = null;
+
+        Subscription(Flow.Subscriber<? super Delivery> subscriber) {
+            this.subscriber = subscriber;
+            this.thread = new Thread(this, "BundlePublisher");
+            this.thread.setDaemon(true);
+        }
+
+        void start() {
+            thread.start();
+        }
+
+        void join() throws InterruptedException {
+            // the subscriber may close the publisher from its callbacks
+            if (Thread.currentThread() != thread) {
+                thread.join();
+            }
+        }
+
+        @Override
+        public void request(long n) {
+            synchronized (BundlePublisher.this) {
+                if (n <= 0) {
+                    invalid = new IllegalArgumentException("non-positive request: " + n);
+                } else {
+                    requested += n;
+                    if (requested < 0) {
+                        // unbounded
+                        requested = Long.MAX_VALUE;
+                    }
+                }
+                BundlePublisher.this.notifyAll();
+            }
+        }
+
+        @Override
+        public void cancel() {
+            synchronized (BundlePublisher.this) {
+                cancelled = true;
+                BundlePublisher.this.notifyAll();
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                subscriber.onSubscribe(this);
+
+                while (true) {
+                    Delivery next = null;
+                    int loads;
+                    long snapshot;
+                    Throwable failure;
+                    boolean complete;
+
+                    synchronized (BundlePublisher.this) {
+                        while (!cancelled && !closed && invalid == null && error == null
+                                && (ready.isEmpty() || requested == 0) && loads() == 0) {
+                            BundlePublisher.this.wait();
+                        }
+
+                        if (cancelled) {
+                            return;
+                        }
+                        failure = (invalid != null) ? invalid : error;
+                        complete = closed;
+
+                        if (failure == null && !complete) {
+                            if (!ready.isEmpty() && requested > 0) {
+                                next = ready.poll();
+                                if (requested != Long.MAX_VALUE) {
+                                    requested--;
+                                }
+                            }
+                            loads = loads();
+                            loading += loads;
+                        } else {
+                            loads = 0;
+                        }
+                        snapshot = announcements;
+                    }
+
+                    if (failure != null) {
+                        subscriber.onError(failure);
+                        return;
+                    }
+                    if (complete) {
+                        subscriber.onComplete();
+                        return;
+                    }
+
+                    // the next bundles are loaded while the subscriber processes this one
+                    if (loads > 0) {
+                        load(loads, snapshot);
+                    }
+                    if (next != null) {
+                        subscriber.onNext(next);
+                    }
+                }
+            } catch (InterruptedException e) {
+                // interrupted by the application
+            } catch (RuntimeException e) {
+                logger.log(Level.SEVERE, "Subscriber failed", e);
+            } finally {
+                synchronized (BundlePublisher.this) {
+                    if (subscription == this) {
+                        subscription = null;
+                    }
+                }
+            }
+        }
+
+        /**
+         * @return the number of bundles to load for the current demand. The caller has to hold the lock of the
+         * publisher.
+         */
+        private int loads() {
+            // nothing to load until a bundle is announced after the queue was found empty
+            if (announcements <= emptyAt) {
+                return 0;
+            }
+
+            long pending = ready.size() + loading;
+            long wanted = Math.min(requested - pending, window - pending);
+            return (wanted > 0) ? (int) wanted : 0;
+        }
+    }
+
+    /**
+     * Requests the next bundles of the queue of the registration.
+     *
+     * @param count the number of bundles to load
+     * @param snapshot the number of announcements seen before the request
+     */
+    private void load(int count, long snapshot) {
+        List<PendingResponse> slots = new ArrayList<PendingResponse>(count * 2);
+        for (int i = 0; i < count; i++) {
+            Load l = new Load(snapshot);
+            slots.add(l.load);
+            slots.add(l.get);
+        }
+
+        try {
+            client.submitSlots(slots);
+        } catch (APIException e) {
+            fail(e);
+        }
+    }
+
+    private synchronized void fail(Throwable e) {
+        if (error == null) {
+            logger.log(Level.WARNING, "Loading bundles failed: {0}", e.getMessage());
+            error = e;
+        }
+        notifyAll();
+    }
+
+    /**
+     * The commands to load the next bundle of the queue.
+     */
+    private class Load implements Request {
+
+        final long snapshot;
+        final PendingResponse load;
+        final PendingResponse get;
+        private BundleID id = null;
+
+        Load(long snapshot) {
+            this.snapshot = snapshot;
+            this.load = new PendingResponse("bundle load queue");
+            this.get = new PendingResponse("bundle get") {
+                @Override
+                protected void completed() {
+                    answered();
+                }
+            };
+        }
+
+        /**
+         * Called by the receiver thread of the client when the response of the get command arrives, right before
+         * the bundle itself.
+         */
+        private void answered() {
+            int loaded = code(load);
+            int got = code(get);
+
+            if (loaded == -1 || got == -1) {
+                done();
+                fail(new APIException("connection failed"));
+                return;
+            }
+
+            if (loaded != 200) {
+                // the queue is empty, a previous bundle in the register is transferred again but not expected
+                synchronized (BundlePublisher.this) {
+                    emptyAt = Math.max(emptyAt, snapshot);
+                }
+                done();
+                return;
+            }
+
+            if (got != 200) {
+                logger.log(Level.WARNING, "Failed to get the loaded bundle");
+                done();
+                return;
+            }
+
+            // the daemon may name the loaded bundle, otherwise the next bundle is taken
+            id = loaded(load);
+            expect(this);
+        }
+
+        @Override
+        public BundleID getId() {
+            return id;
+        }
+
+        @Override
+        public void received(Bundle bundle) {
+            synchronized (BundlePublisher.this) {
+                loading--;
+                if (bundle != null) {
+                    ready.add(new Delivery(new BundleID(bundle), bundle));
+                }
+                BundlePublisher.this.notifyAll();
+            }
+        }
+
+        @Override
+        public void missed() {
+            logger.log(Level.WARNING, "Loaded bundle {0} has not been received", id);
+            done();
+        }
+
+        void done() {
+            synchronized (BundlePublisher.this) {
+                loading--;
+                BundlePublisher.this.notifyAll();
+            }
+        }
+    }
+
+    @Override
+    public synchronized void notify(BundleID id) {
+        // the queue is not empty anymore
+        announcements++;
+        notifyAll();
+    }
+}
@@ -0,0 +1,471 @@
+/*
+ * BundleSender.java
+ *
+ * Copyright (C) 2011 IBR, TU Braunschweig
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package ibrdtn.api;
+
+import ibrdtn.api.object.Block;
+import ibrdtn.api.object.Bundle;
+import ibrdtn.api.object.EID;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Sends the bundles of several producers through one client in the order of their priority. Each priority has its
+ * own queue. The queues are drained by a weighted round robin, so expedited bundles overtake queued bulk bundles while
+ * the bulk bundles still get a share of the connection. A bundle being transferred is not interrupted.
+ *
+ * The queues hold a limited number of bundles. When they are full, submit() blocks the producer until there is room.
+ * Optionally, the bytes sent to a destination are limited by a token bucket. A destination which has exceeded its
+ * rate does not hold up the bundles for other destinations.
+ */
+public class BundleSender {
+
+    private static final Logger logger = Logger.getLogger(BundleSender.class.getName());
+    private static final Bundle.Priority[] PRIORITIES = Bundle.Priority.values();
+
+    /**
+     * Receives the outcome of every submitted bundle, called by the thread of the sender.
+     */
+    public interface Listener {
+
+        void sent(SendResult result);
+    }
+
+    private final ExtendedClient client;
+    private final int capacity;
+    private final Object mutex = new Object();
+
+    // guarded by mutex
+    private final ArrayDeque<Entry>[] queues;
+    private final int[] weights = {1, 4, 16};
+    private final int[] current = new int[PRIORITIES.length];
+    private final Map<String, TokenBucket> limits = new HashMap<String, TokenBucket>();
+    private int queued = 0;
+    private boolean sending = false;
+    private boolean closed = false;
+    private Listener listener = null;
+    private Thread thread = null;
+
+    /**
+     * @param client the connected client to send the bundles with
+     * @param capacity the maximum number of queued bundles of all priorities
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public BundleSender(ExtendedClient client, int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity has to be positive");
+        }
+
+        this.client = client;
+        this.capacity = capacity;
+        this.queues = new ArrayDeque[PRIORITIES.length];
+        for (int i = 0; i < queues.length; i++) {
+            queues[i] = new ArrayDeque<Entry>();
+        }
+    }
+
+    /**
+     * Sets the share of each priority while bundles of several priorities are queued. By default an expedited bundle
+     * is sent 16 times and a normal bundle 4 times as often as a bulk bundle.
+     */
+    public void setWeights(int bulk, int normal, int expedited) {
+        if (bulk < 1 || normal < 1 || expedited < 1) {
+            throw new IllegalArgumentException("weights have to be positive");
+        }
+
+        synchronized (mutex) {
+            weights[Bundle.Priority.BULK.ordinal()] = bulk;
+            weights[Bundle.Priority.NORMAL.ordinal()] = normal;
+            weights[Bundle.Priority.EXPEDITED.ordinal()] = expedited;
+        }
+    }
+
+    /**
+     * Limits the rate of the bundles sent to a destination. A bundle larger than the burst is sent when the bucket is
+     * full, and the following bundles wait until the excess has been paid off.
+     *
+     * @param destination the destination to limit
+     * @param bytesPerSecond the sustained rate of block data in bytes per second
+     * @param burst the number of bytes which may be sent at once after an idle period
+     */
+    public void setRateLimit(EID destination, long bytesPerSecond, long burst) {
+        if (bytesPerSecond < 1 || burst < 1) {
+            throw new IllegalArgumentException("rate and burst have to be positive");
+        }
+
+        synchronized (mutex) {
+            limits.put(destination.toString(), new TokenBucket(bytesPerSecond, burst, System.nanoTime()));
+            mutex.notifyAll();
+        }
+    }
+
+    /**
+     * Removes the rate limit of a destination.
+     */
+    public void removeRateLimit(EID destination) {
+        synchronized (mutex) {
+            limits.remove(destination.toString());
+            mutex.notifyAll();
+        }
+    }
+
+    public void setListener(Listener listener) {
+        synchronized (mutex) {
+            this.listener = listener;
+        }
+    }
+
+    /**
+     * Starts the thread which sends the queued bundles.
+     */
+    public void start() {
+        synchronized (mutex) {
+            if (thread != null || closed) {
+                return;
+            }
+
+            thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    drain();
+                }
+            }, "BundleSender");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * Queues a bundle, waiting for room in the queues if necessary.
+     *
+     * @param bundle the bundle to send
+     * @throws APIException if the sender has been closed
+     * @throws InterruptedException if interrupted while waiting for room
+     */
+    public void submit(Bundle bundle) throws APIException, InterruptedException {
+        synchronized (mutex) {
+            while (queued >= capacity && !closed) {
+                mutex.wait();
+            }
+            enqueue(bundle);
+        }
+    }
+
+    /**
+     * Queues a bundle if there is room in the queues within the given time.
+     *
+     * @param bundle the bundle to send
+     * @return false, if the queues remained full
+     * @throws APIException if the sender has been closed
+     * @throws InterruptedException if interrupted while waiting for room
+     */
+    public boolean offer(Bundle bundle, long timeout, TimeUnit unit) throws APIException, InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (mutex) {
+            while (queued >= capacity && !closed) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait(mutex, remaining);
+            }
+            enqueue(bundle);
+            return true;
+        }
+    }
+
+    private void enqueue(Bundle bundle) throws APIException {
+        if (closed) {
+            throw new APIException("sender closed");
+        }
+
+        String destination = (bundle.getDestination() == null) ? null : bundle.getDestination().toString();
+        queues[bundle.getPriority().ordinal()].add(new Entry(bundle, destination, sizeOf(bundle)));
+        queued++;
+        mutex.notifyAll();
+    }
+
+    /**
+     * @return the number of queued bundles, not including the bundle being sent
+     */
+    public int getQueued() {
+        synchronized (mutex) {
+            return queued;
+        }
+    }
+
+    /**
+     * Waits until all queued bundles have been sent.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void flush() throws InterruptedException {
+        synchronized (mutex) {
+            while ((queued > 0 || sending) && thread != null) {
+                mutex.wait();
+            }
+        }
+    }
+
+    /**
+     * Stops the sender. The bundle being sent is completed, the bundles still queued are reported as failed to the
+     * listener.
+     *
+     * @throws InterruptedException if interrupted while waiting for the thread of the sender
+     */
+    public void close() throws InterruptedException {
+        Thread t;
+        List<Entry> dropped = new ArrayList<Entry>();
+        Listener l;
+        synchronized (mutex) {
+            closed = true;
+            for (ArrayDeque<Entry> queue : queues) {
+                dropped.addAll(queue);
+                queue.clear();
+            }
+            queued = 0;
+            t = thread;
+            l = listener;
+            mutex.notifyAll();
+        }
+
+        if (t != null) {
+            t.join();
+        }
+
+        if (l != null) {
+            for (Entry e : dropped) {
+                l.sent(new SendResult(e.bundle, new APIException("sender closed")));
+            }
+        }
+    }
+
+    private void drain() {
+        try {
+            while (true) {
+                Entry entry;
+                Listener l;
+                synchronized (mutex) {
+                    while ((entry = next(System.nanoTime())) == null) {
+                        if (closed) {
+                            return;
+                        }
+                        long delay = delay(System.nanoTime());
+                        if (delay > 0) {
+                            TimeUnit.NANOSECONDS.timedWait(mutex, delay);
+                        } else {
+                            mutex.wait();
+                        }
+                    }
+                    sending = true;
+                    l = listener;
+                    // there is room for the producers again
+                    mutex.notifyAll();
+                }
+
+                APIException error = null;
+                try {
+                    client.send(entry.bundle);
+                } catch (APIException e) {
+                    logger.log(Level.WARNING, "Sending a bundle failed: {0}", e.getMessage());
+                    error = e;
+                }
+
+                synchronized (mutex) {
+                    sending = false;
+                    mutex.notifyAll();
+                }
+
+                if (l != null) {
+                    l.sent(new SendResult(entry.bundle, error));
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            synchronized (mutex) {
+                sending = false;
+                thread = null;
+                mutex.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Takes the next bundle by a smooth weighted round robin among the priorities with a bundle which may be sent.
+     * Ties are won by the higher priority. The caller has to hold the mutex.
+     *
+     * @return the bundle to send or null if none may be sent now
+     */
+    private Entry next(long now) {
+        Entry[] candidates = new Entry[PRIORITIES.length];
+        int total = 0;
+        int best = -1;
+
+        for (int i = PRIORITIES.length - 1; i >= 0; i--) {
+            candidates[i] = eligible(queues[i], now);
+            if (candidates[i] == null) {
+                continue;
+            }
+
+            current[i] += weights[i];
+            total += weights[i];
+            if (best < 0 || current[i] > current[best]) {
+                best = i;
+            }
+        }
+
+        if (best < 0) {
+            return null;
+        }
+
+        current[best] -= total;
+        Entry entry = candidates[best];
+        queues[best].remove(entry);
+        queued--;
+
+        TokenBucket bucket = (entry.destination == null) ? null : limits.get(entry.destination);
+        if (bucket != null) {
+            bucket.take(entry.size, now);
+        }
+        return entry;
+    }
+
+    /**
+     * @return the first bundle of the queue whose destination is not rate limited. The bundles of a destination keep
+     * their order, since all of them are skipped once one has to wait.
+     */
+    private Entry eligible(ArrayDeque<Entry> queue, long now) {
+        Set<String> blocked = null;
+        for (Iterator<Entry> it = queue.iterator(); it.hasNext();) {
+            Entry entry = it.next();
+            TokenBucket bucket = (entry.destination == null) ? null : limits.get(entry.destination);
+            if (bucket == null) {
+                return entry;
+            }
+            if (blocked != null && blocked.contains(entry.destination)) {
+                continue;
+            }
+            if (bucket.delay(entry.size, now) == 0) {
+                return entry;
+            }
+            if (blocked == null) {
+                blocked = new HashSet<String>();
+            }
+            blocked.add(entry.destination);
+        }
+        return null;
+    }
+
+    /**
+     * @return the time until the first rate limited bundle may be sent, 0 if there is none
+     */
+    private long delay(long now) {
+        long min = 0;
+        for (ArrayDeque<Entry> queue : queues) {
+            for (Entry entry : queue) {
+                TokenBucket bucket = (entry.destination == null) ? null : limits.get(entry.destination);
+                if (bucket == null) {
+                    continue;
+                }
+                long d = bucket.delay(entry.size, now);
+                if (d > 0 && (min == 0 || d < min)) {
+                    min = d;
+                }
+            }
+        }
+        return min;
+    }
+
+    /**
+     * @return the size of the block data of a bundle
+     */
+    static long sizeOf(Bundle bundle) {
+        long size = 0;
+        for (Block block : bundle.getBlocks()) {
+            if (block.getData() != null) {
+                size += block.getData().size();
+            }
+        }
+        return size;
+    }
+
+    private static class Entry {
+
+        final Bundle bundle;
+        final String destination;
+        final long size;
+
+        Entry(Bundle bundle, String destination, long size) {
+            this.bundle = bundle;
+            this.destination = destination;
+            this.size = size;
+        }
+    }
+
+    /**
+     * A token bucket in bytes. The tokens may become negative if a bundle larger than the burst is sent.
+     */
+    static class TokenBucket {
+
+        private final long rate;
+        private final long burst;
+        private double tokens;
+        private long last;
+
+        TokenBucket(long rate, long burst, long now) {
+            this.rate = rate;
+            this.burst = burst;
+            this.tokens = burst;
+            this.last = now;
+        }
+
+        private void refill(long now) {
+            if (now > last) {
+                tokens = Math.min(burst, tokens + (now - last) * rate / 1e9);
+                last = now;
+            }
+        }
+
+        /**
+         * @return the nanoseconds until a bundle of the given size may be sent, 0 if it may be sent now
+         */
+        long delay(long size, long now) {
+            refill(now);
+            double required = Math.min(size, burst);
+            if (tokens >= required) {
+                return 0;
+            }
+            return Math.max(1, (long) Math.ceil((required - tokens) * 1e9 / rate));
+        }
+
+        void take(long size, long now) {
+            refill(now);
+            tokens -= size;
+        }
+    }
+}
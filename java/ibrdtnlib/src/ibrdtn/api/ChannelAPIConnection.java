@@ -0,0 +1,29 @@
+/*
+ * ChannelAPIConnection.java
+ *
+ * Copyright (C) 2011 IBR, TU Braunschweig
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package ibrdtn.api;
+
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * A connection whose output stream writes unbuffered to a channel. Bundles with file backed block data are written
+ * to the channel directly, e.g. with FileChannel.transferTo().
+ */
+public interface ChannelAPIConnection extends APIConnection {
+	WritableByteChannel getChannel();
+}
@@ -0,0 +1,54 @@
+/*
+ * ChannelInputStream.java
+ *
+ * Copyright (C) 2011 IBR, TU Braunschweig
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package ibrdtn.api;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Reads from a blocking SocketChannel. Unlike the stream adapters of java.nio.channels.Channels it does not lock the
+ * channel, so reading and writing from different threads do not block each other.
+ */
+class ChannelInputStream extends InputStream {
+	private final SocketChannel _channel;
+
+	public ChannelInputStream(SocketChannel channel) {
+		_channel = channel;
+	}
+
+	@Override
+	public int read() throws IOException {
+		byte[] b = new byte[1];
+		int len = read(b, 0, 1);
+		return (len < 0) ? -1 : (b[0] & 0xff);
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) return 0;
+		return _channel.read(ByteBuffer.wrap(b, off, len));
+	}
+
+	@Override
+	public void close() throws IOException {
+		_channel.close();
+	}
+}
@@ -0,0 +1,53 @@
+/*
+ * ChannelOutputStream.java
+ *
+ * Copyright (C) 2011 IBR, TU Braunschweig
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package ibrdtn.api;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Writes to a blocking SocketChannel without locking it, see ChannelInputStream.
+ */
+class ChannelOutputStream extends OutputStream {
+	private final SocketChannel _channel;
+
+	public ChannelOutputStream(SocketChannel channel) {
+		_channel = channel;
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		write(new byte[]{(byte) b}, 0, 1);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		ByteBuffer buf = ByteBuffer.wrap(b, off, len);
+		while (buf.hasRemaining()) {
+			_channel.write(buf);
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		_channel.close();
+	}
+}
@@ -0,0 +1,254 @@
+/*
+ * ChunkedUploader.java
+ *
+ * Copyright (C) 2011 IBR, TU Braunschweig
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package ibrdtn.api;
+
+import ibrdtn.api.object.Bundle;
+import ibrdtn.api.object.PayloadBlock;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.util.LinkedList;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Sends a bundle with a payload read from a seekable source, e.g. a FileChannel, without holding the payload in
+ * memory. The bundle is put into the remote register with an empty payload block first, then the payload is written
+ * in chunks with "payload put <offset>" and finally the bundle is sent.
+ *
+ * The uploader keeps track of the payload committed by the daemon. A failed chunk is repeated from the committed
+ * offset. Since the daemon keeps the register per API session, a lost connection discards the committed data and
+ * the payload is read again from the source after reconnecting.
+ */
+public class ChunkedUploader {
+
+    private static final Logger logger = Logger.getLogger(ChunkedUploader.class.getName());
+    public static final int DEFAULT_CHUNK_SIZE = 1024 * 1024;
+
+    private final ConnectionFactory factory;
+    private final Bundle bundle;
+    private final SeekableByteChannel source;
+    private String endpoint = null;
+    private int chunkSize = DEFAULT_CHUNK_SIZE;
+    private int window = 4;
+    private int retries = 3;
+    private volatile long committed = 0;
+
+    /**
+     * @param factory the factory for the connections to the daemon
+     * @param bundle the bundle to send without a payload block, an empty payload block is appended
+     * @param source the source of the payload
+     */
+    public ChunkedUploader(ConnectionFactory factory, Bundle bundle, SeekableByteChannel source) {
+        if (bundle.getPayloadBlock() != null) {
+            throw new IllegalArgumentException("the bundle already contains a payload block");
+        }
+
+        this.factory = factory;
+        this.bundle = bundle;
+        this.source = source;
+
+        bundle.appendBlock(new PayloadBlock(new byte[0]));
+    }
+
+    /**
+     * @param endpoint the endpoint of the API sessions, i.e. the source of the bundle
+     */
+    public void setEndpoint(String endpoint) {
+        this.endpoint = endpoint;
+    }
+
+    /**
+     * @param chunkSize the number of bytes written with a single command
+     */
+    public void setChunkSize(int chunkSize) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("invalid chunk size");
+        }
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * @param window the number of chunks written before the first of them has to be confirmed
+     */
+    public void setWindow(int window) {
+        if (window < 1) {
+            throw new IllegalArgumentException("invalid window");
+        }
+        this.window = window;
+    }
+
+    /**
+     * @param retries the number of consecutive failures after which the upload is given up
+     */
+    public void setRetries(int retries) {
+        this.retries = retries;
+    }
+
+    /**
+     * @return the number of payload bytes stored in the remote register
+     */
+    public long getCommitted() {
+        return committed;
+    }
+
+    /**
+     * Uploads the payload and sends the bundle.
+     *
+     * @throws APIException if the upload failed more often than allowed by the retries
+     * @throws IOException if reading from the source failed
+     */
+    public void upload() throws APIException, IOException {
+        long size = source.size();
+        int failures = 0;
+        ExtendedClient client = null;
+
+        try {
+            while (true) {
+                long start = -1;
+                try {
+                    if (client == null) {
+                        client = connect();
+                    }
+
+                    start = committed;
+                    push(client, size);
+
+                    if (client.submit("bundle send").getCode() != 200) {
+                        throw new APIException("bundle send failed");
+                    }
+                    return;
+                } catch (APIException e) {
+                    if (start >= 0 && committed > start) {
+                        // data has been stored since the last failure, only consecutive failures count
+                        failures = 0;
+                    }
+
+                    if (++failures > retries) {
+                        throw e;
+                    }
+
+                    logger.log(Level.WARNING, "Upload failed at offset {0}: {1}", new Object[]{committed, e.getMessage()});
+
+                    if (client != null && !client.isConnected()) {
+                        close(client);
+                        client = null;
+                    }
+                }
+            }
+        } finally {
+            close(client);
+        }
+    }
+
+    private ExtendedClient connect() throws APIException {
+        ExtendedClient client = new ExtendedClient();
+        client.setConnection(factory.createConnection());
+
+        try {
+            client.open();
+        } catch (IOException e) {
+            throw new APIException("connection failed: " + e.getMessage());
+        }
+
+        try {
+            if (endpoint != null) {
+                client.setEndpoint(endpoint);
+            }
+
+            // a new session starts with an empty register
+            committed = 0;
+            client.putBundle(bundle);
+        } catch (APIException e) {
+            close(client);
+            throw e;
+        }
+
+        return client;
+    }
+
+    /**
+     * Writes the payload from the committed offset to the end of the source.
+     */
+    private void push(ExtendedClient client, long size) throws APIException, IOException {
+        LinkedList<Chunk> inflight = new LinkedList<Chunk>();
+        LinkedList<ByteBuffer> buffers = new LinkedList<ByteBuffer>();
+        long next = committed;
+
+        while (committed < size) {
+            while (inflight.size() < window && next < size) {
+                ByteBuffer buffer = buffers.poll();
+                if (buffer == null) {
+                    buffer = ByteBuffer.allocate(chunkSize);
+                }
+
+                buffer.clear();
+                buffer.limit((int) Math.min(chunkSize, size - next));
+                read(next, buffer);
+                buffer.flip();
+
+                int length = buffer.remaining();
+                inflight.add(new Chunk(next, length, buffer, client.writePayload(next, buffer)));
+                next += length;
+            }
+
+            Chunk chunk = inflight.poll();
+            if (chunk.slots[0].getCode() != 100 || chunk.slots[1].getCode() != 200) {
+                throw new APIException("payload put failed at offset " + chunk.offset);
+            }
+
+            committed = chunk.offset + chunk.length;
+            buffers.add(chunk.buffer);
+        }
+    }
+
+    private void read(long position, ByteBuffer buffer) throws IOException {
+        source.position(position);
+        while (buffer.hasRemaining()) {
+            if (source.read(buffer) < 0) {
+                throw new IOException("unexpected end of source at " + (position + buffer.position()));
+            }
+        }
+    }
+
+    private static void close(ExtendedClient client) {
+        if (client == null) {
+            return;
+        }
+        try {
+            client.close();
+        } catch (IOException e) {
+        }
+    }
+
+    private static class Chunk {
+
+        final long offset;
+        final int length;
+        final ByteBuffer buffer;
+        final PendingResponse[] slots;
+
+        Chunk(long offset, int length, ByteBuffer buffer, PendingResponse[] slots) {
+            this.offset = offset;
+            this.length = length;
+            this.buffer = buffer;
+            this.slots = slots;
+        }
+    }
+}
@@ -20,15 +20,18 @@
  */
 package ibrdtn.api;
 
-import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.net.UnknownHostException;
 
 public class Client {
 
+	private static final int HEADER_BUFFER = 512;
+
 	private APIConnection _socket = null;
 	protected InputStream istream = null;
 	protected OutputStream ostream = null;
@@ -46,6 +49,11 @@ public class Client {
 		this._socket = sock;
 	}
 	
+	protected APIConnection getConnection()
+	{
+		return this._socket;
+	}
+	
 	public void setHost(String host)
 	{
 		this.host = host;
@@ -69,6 +77,15 @@ public class Client {
 	}
 
 	public synchronized void open() throws UnknownHostException, IOException
+	{
+		connect();
+		readHeader();
+	}
+	
+	/**
+	 * Opens the connection to the daemon without reading the header, so commands can be written before it arrives.
+	 */
+	protected void connect() throws UnknownHostException, IOException
 	{
 		if (_socket == null)
 		{
@@ -79,11 +96,36 @@ public class Client {
 		
 		ostream = _socket.getOutputStream();
 		istream = _socket.getInputStream();
+	}
+	
+	/**
+	 * Reads the header line sent by the daemon. The data received after the header, e.g. the responses to commands
+	 * written before, is kept for the following reads instead of being consumed by a buffered reader.
+	 */
+	protected void readHeader() throws IOException
+	{
+		ByteArrayOutputStream header = new ByteArrayOutputStream();
+		byte[] buffer = new byte[HEADER_BUFFER];
 		
-		BufferedReader reader = new BufferedReader( new InputStreamReader( istream ) );	
-		
-		// wait for header
-		_header = reader.readLine();
+		while (true)
+		{
+			int len = istream.read(buffer, 0, buffer.length);
+			if (len < 0) throw new EOFException("connection closed before the header was received");
+			
+			for (int i = 0; i < len; i++)
+			{
+				if (buffer[i] == '\n')
+				{
+					header.write(buffer, 0, i);
+					if (i + 1 < len) istream = new RemainderInputStream(istream, buffer, i + 1, len);
+					
+					String line = header.toString("UTF-8");
+					_header = line.endsWith("\r") ? line.substring(0, line.length() - 1) : line;
+					return;
+				}
+			}
+			header.write(buffer, 0, len);
+		}
 	}
 	
 	public synchronized void close() throws IOException
@@ -92,4 +134,68 @@ public class Client {
 		if (istream != null) istream.close();
 		if (_socket != null) _socket.close();
 	}
+	
+	/**
+	 * Returns the data read beyond the header before reading from the stream again. Unlike a PushbackInputStream it
+	 * does not block for more data while the remainder is returned.
+	 */
+	private static class RemainderInputStream extends FilterInputStream
+	{
+		private final byte[] remainder;
+		private int pos;
+		private final int end;
+		
+		RemainderInputStream(InputStream in, byte[] buffer, int pos, int end)
+		{
+			super(in);
+			this.remainder = buffer;
+			this.pos = pos;
+			this.end = end;
+		}
+		
+		@Override
+		public int read() throws IOException
+		{
+			if (pos < end) return remainder[pos++] & 0xff;
+			return in.read();
+		}
+		
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException
+		{
+			if (pos < end)
+			{
+				if (len == 0) return 0;
+				int n = Math.min(len, end - pos);
+				System.arraycopy(remainder, pos, b, off, n);
+				pos += n;
+				return n;
+			}
+			return in.read(b, off, len);
+		}
+		
+		@Override
+		public boolean markSupported()
+		{
+			return false;
+		}
+		
+		@Override
+		public int available() throws IOException
+		{
+			return (end - pos) + in.available();
+		}
+		
+		@Override
+		public long skip(long n) throws IOException
+		{
+			if (pos < end)
+			{
+				int skipped = (int) Math.min(n, end - pos);
+				pos += skipped;
+				return skipped;
+			}
+			return in.skip(n);
+		}
+	}
 }
@@ -0,0 +1,143 @@
+/*
+ * ClientConfig.java
+ *
+ * Copyright (C) 2011 IBR, TU Braunschweig
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package ibrdtn.api;
+
+import ibrdtn.api.object.GroupEndpoint;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The state of an API session which ExtendedClient.open(ClientConfig) sets up while connecting. All commands are
+ * written at once together with the protocol switch, so the session is ready after a single round trip instead of one
+ * round trip per command.
+ *
+ * The commands are sent in this order: the registration is loaded, the endpoint is set, the additional endpoints and
+ * the group endpoints are registered, the encoding is set and the registration is saved. If the registration cannot
+ * be loaded, the following commands set up the new registration of the connection instead.
+ */
+public class ClientConfig {
+
+    private String handle = null;
+    private String endpoint = null;
+    private final List<String> endpoints = new ArrayList<String>();
+    private final List<GroupEndpoint> groups = new ArrayList<GroupEndpoint>();
+    private ExtendedClient.Encoding encoding = null;
+    private long lifetime = -1;
+
+    public String getHandle() {
+        return handle;
+    }
+
+    /**
+     * @param handle the handle of a saved registration to load, see ExtendedClient.loadRegistration()
+     */
+    public void setHandle(String handle) {
+        this.handle = handle;
+    }
+
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    /**
+     * @param id the application name of the primary endpoint, see ExtendedClient.setEndpoint()
+     */
+    public void setEndpoint(String id) {
+        this.endpoint = id;
+    }
+
+    public List<String> getEndpoints() {
+        return endpoints;
+    }
+
+    /**
+     * @param id an additional application name, see ExtendedClient.addEndpoint()
+     */
+    public void addEndpoint(String id) {
+        endpoints.add(id);
+    }
+
+    public List<GroupEndpoint> getGroups() {
+        return groups;
+    }
+
+    /**
+     * @param eid a group endpoint, see ExtendedClient.addRegistration()
+     */
+    public void addRegistration(GroupEndpoint eid) {
+        groups.add(eid);
+    }
+
+    public ExtendedClient.Encoding getEncoding() {
+        return encoding;
+    }
+
+    /**
+     * @param encoding the encoding of received bundles or null to keep the default of the daemon
+     */
+    public void setEncoding(ExtendedClient.Encoding encoding) {
+        this.encoding = encoding;
+    }
+
+    public boolean isPersistent() {
+        return lifetime >= 0;
+    }
+
+    public long getLifetime() {
+        return lifetime;
+    }
+
+    /**
+     * Saves the registration, see ExtendedClient.saveRegistration().
+     *
+     * @param lifetime the lifetime of the registration in seconds, 0 for unlimited
+     */
+    public void setPersistent(long lifetime) {
+        if (lifetime < 0) {
+            throw new IllegalArgumentException("negative lifetime");
+        }
+        this.lifetime = lifetime;
+    }
+
+    /**
+     * @return the commands to set up the session after the protocol switch
+     */
+    List<String> getCommands() {
+        List<String> cmds = new ArrayList<String>();
+        if (handle != null) {
+            cmds.add("registration load " + handle);
+        }
+        if (endpoint != null) {
+            cmds.add("set endpoint " + endpoint);
+        }
+        for (String id : endpoints) {
+            cmds.add("endpoint add " + id);
+        }
+        for (GroupEndpoint eid : groups) {
+            cmds.add("registration add " + eid);
+        }
+        if (encoding != null) {
+            cmds.add("set encoding " + encoding.toString().toLowerCase());
+        }
+        if (isPersistent()) {
+            cmds.add("registration save " + lifetime);
+        }
+        return cmds;
+    }
+}
@@ -0,0 +1,439 @@
+/*
+ * ClientMetrics.java
+ *
+ * Copyright (C) 2011 IBR, TU Braunschweig
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package ibrdtn.api;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Counters and timers of one ExtendedClient connection. The metrics are only collected if they have been enabled
+ * before the connection is opened, otherwise the hooks of the client cost a null check. While the connection is
+ * open, the metrics are registered as an MXBean named "ibrdtn.api:type=ExtendedClient,id=n".
+ *
+ * All recording methods are lock-free, since they are called by the thread writing the commands as well as by the
+ * receiver thread of the connection.
+ */
+public class ClientMetrics implements ClientMetricsMXBean {
+
+    private static final Logger logger = Logger.getLogger(ClientMetrics.class.getName());
+    private static final AtomicInteger instances = new AtomicInteger();
+
+    // the number of distinct verbs is bounded, so arbitrary commands cannot grow the maps
+    private static final int MAX_VERBS = 64;
+    private static final String OTHER = "other";
+
+    private final ConcurrentMap<String, AtomicLong> commands = new ConcurrentHashMap<String, AtomicLong>();
+    private final ConcurrentMap<String, Histogram> latencies = new ConcurrentHashMap<String, Histogram>();
+    private final AtomicLongArray responses = new AtomicLongArray(1000);
+    private final AtomicLongArray notifications = new AtomicLongArray(5);
+    private final Histogram callbacks = new Histogram();
+    private final AtomicLong bytesSent = new AtomicLong();
+    private final AtomicLong bytesReceived = new AtomicLong();
+    private final AtomicLong payloadSent = new AtomicLong();
+    private final AtomicLong payloadReceived = new AtomicLong();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+    private volatile DataReceiver receiver = null;
+    private ObjectName name = null;
+
+    /**
+     * Returns the verb of a command, i.e. its first two words without arguments. The block offset of the payload
+     * commands is skipped, "payload 0 get 0 10" is counted as "payload get".
+     */
+    static String verbOf(String cmd) {
+        int first = cmd.indexOf(' ');
+        if (first < 0) {
+            return cmd;
+        }
+
+        int start = first + 1;
+        int end = cmd.indexOf(' ', start);
+        if (end < 0) {
+            end = cmd.length();
+        }
+
+        // skip a numeric argument in front of the sub-command
+        if (end > start && Character.isDigit(cmd.charAt(start))) {
+            start = end + 1;
+            if (start >= cmd.length()) {
+                return cmd.substring(0, first);
+            }
+            end = cmd.indexOf(' ', start);
+            if (end < 0) {
+                end = cmd.length();
+            }
+        }
+
+        return cmd.substring(0, first) + ' ' + cmd.substring(start, end);
+    }
+
+    void command(String verb) {
+        counter(commands, verb).incrementAndGet();
+    }
+
+    void response(String verb, int code, long nanos) {
+        if (code >= 0 && code < responses.length()) {
+            responses.incrementAndGet(code);
+        }
+        if (verb != null) {
+            histogram(verb).record(nanos);
+        }
+    }
+
+    void notification(int type) {
+        if (type >= 600 && type < 600 + notifications.length()) {
+            notifications.incrementAndGet(type - 600);
+        }
+    }
+
+    void callback(long nanos) {
+        callbacks.record(nanos);
+    }
+
+    void payloadSent(long bytes) {
+        payloadSent.addAndGet(bytes);
+    }
+
+    void payloadReceived(long bytes) {
+        payloadReceived.addAndGet(bytes);
+    }
+
+    /**
+     * Counts bytes which were written to the channel of the connection directly instead of the counted stream.
+     */
+    void bytesTransferred(long bytes) {
+        bytesSent.addAndGet(bytes);
+    }
+
+    void inFlight(int depth) {
+        int max;
+        while (depth > (max = maxInFlight.get())) {
+            if (maxInFlight.compareAndSet(max, depth)) {
+                break;
+            }
+        }
+    }
+
+    void attach(DataReceiver receiver) {
+        this.receiver = receiver;
+    }
+
+    /**
+     * @return a stream counting the bytes written to the given stream
+     */
+    OutputStream countOutput(OutputStream out) {
+        return new FilterOutputStream(out) {
+            @Override
+            public void write(int b) throws IOException {
+                out.write(b);
+                bytesSent.incrementAndGet();
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+                bytesSent.addAndGet(len);
+            }
+        };
+    }
+
+    /**
+     * @return a stream counting the bytes read from the given stream
+     */
+    InputStream countInput(InputStream in) {
+        return new FilterInputStream(in) {
+            @Override
+            public int read() throws IOException {
+                int b = in.read();
+                if (b >= 0) {
+                    bytesReceived.incrementAndGet();
+                }
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int n = in.read(b, off, len);
+                if (n > 0) {
+                    bytesReceived.addAndGet(n);
+                }
+                return n;
+            }
+        };
+    }
+
+    /**
+     * Registers the metrics at the platform MBean server. A failed registration is logged and otherwise ignored.
+     */
+    synchronized void register() {
+        if (name != null) {
+            return;
+        }
+
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            name = new ObjectName("ibrdtn.api:type=ExtendedClient,id=" + instances.incrementAndGet());
+            server.registerMBean(this, name);
+        } catch (JMException e) {
+            logger.log(Level.WARNING, "Registration of the client metrics failed: {0}", e.getMessage());
+            name = null;
+        }
+    }
+
+    synchronized void unregister() {
+        if (name == null) {
+            return;
+        }
+
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+        } catch (JMException e) {
+            logger.log(Level.WARNING, "Unregistration of the client metrics failed: {0}", e.getMessage());
+        }
+        name = null;
+    }
+
+    /**
+     * @return the name of the registered MXBean or null if it is not registered
+     */
+    public synchronized ObjectName getObjectName() {
+        return name;
+    }
+
+    @Override
+    public Map<String, Long> getCommands() {
+        Map<String, Long> result = new TreeMap<String, Long>();
+        for (Map.Entry<String, AtomicLong> e : commands.entrySet()) {
+            result.put(e.getKey(), e.getValue().get());
+        }
+        return result;
+    }
+
+    @Override
+    public Map<Integer, Long> getResponseCodes() {
+        return collect(responses, 0);
+    }
+
+    @Override
+    public Map<String, LatencyStatistics> getCommandLatencies() {
+        Map<String, LatencyStatistics> result = new TreeMap<String, LatencyStatistics>();
+        for (Map.Entry<String, Histogram> e : latencies.entrySet()) {
+            result.put(e.getKey(), e.getValue().getStatistics());
+        }
+        return result;
+    }
+
+    @Override
+    public Map<Integer, Long> getNotifications() {
+        return collect(notifications, 600);
+    }
+
+    @Override
+    public LatencyStatistics getCallbackTime() {
+        return callbacks.getStatistics();
+    }
+
+    @Override
+    public long getBytesSent() {
+        return bytesSent.get();
+    }
+
+    @Override
+    public long getBytesReceived() {
+        return bytesReceived.get();
+    }
+
+    @Override
+    public long getPayloadBytesSent() {
+        return payloadSent.get();
+    }
+
+    @Override
+    public long getPayloadBytesReceived() {
+        return payloadReceived.get();
+    }
+
+    @Override
+    public int getInFlight() {
+        DataReceiver r = receiver;
+        return (r == null) ? 0 : r.getPendingCount();
+    }
+
+    @Override
+    public int getMaxInFlight() {
+        return maxInFlight.get();
+    }
+
+    @Override
+    public void reset() {
+        commands.clear();
+        latencies.clear();
+        for (int i = 0; i < responses.length(); i++) {
+            responses.set(i, 0);
+        }
+        for (int i = 0; i < notifications.length(); i++) {
+            notifications.set(i, 0);
+        }
+        callbacks.reset();
+        bytesSent.set(0);
+        bytesReceived.set(0);
+        payloadSent.set(0);
+        payloadReceived.set(0);
+        maxInFlight.set(0);
+    }
+
+    private static Map<Integer, Long> collect(AtomicLongArray counts, int base) {
+        Map<Integer, Long> result = new TreeMap<Integer, Long>();
+        for (int i = 0; i < counts.length(); i++) {
+            long n = counts.get(i);
+            if (n > 0) {
+                result.put(base + i, n);
+            }
+        }
+        return result;
+    }
+
+    private static AtomicLong counter(ConcurrentMap<String, AtomicLong> map, String key) {
+        AtomicLong counter = map.get(key);
+        if (counter == null) {
+            if (map.size() >= MAX_VERBS) {
+                key = OTHER;
+            }
+            counter = new AtomicLong();
+            AtomicLong existing = map.putIfAbsent(key, counter);
+            if (existing != null) {
+                counter = existing;
+            }
+        }
+        return counter;
+    }
+
+    private Histogram histogram(String key) {
+        Histogram h = latencies.get(key);
+        if (h == null) {
+            if (latencies.size() >= MAX_VERBS) {
+                key = OTHER;
+            }
+            h = new Histogram();
+            Histogram existing = latencies.putIfAbsent(key, h);
+            if (existing != null) {
+                h = existing;
+            }
+        }
+        return h;
+    }
+
+    /**
+     * A lock-free histogram of durations in nanoseconds. Each power of two is divided into eight buckets, values
+     * below 16 are counted exactly.
+     */
+    static final class Histogram {
+
+        private static final int SUB_BUCKET_BITS = 3;
+        private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+        private static final int BUCKETS = Long.SIZE - SUB_BUCKET_BITS;
+
+        private final AtomicLongArray counts = new AtomicLongArray((BUCKETS + 1) * SUB_BUCKETS);
+        private final AtomicLong sum = new AtomicLong();
+        private final AtomicLong max = new AtomicLong();
+
+        void record(long nanos) {
+            if (nanos < 0) {
+                nanos = 0;
+            }
+
+            counts.incrementAndGet(indexOf(nanos));
+            sum.addAndGet(nanos);
+
+            long m;
+            while (nanos > (m = max.get())) {
+                if (max.compareAndSet(m, nanos)) {
+                    break;
+                }
+            }
+        }
+
+        void reset() {
+            for (int i = 0; i < counts.length(); i++) {
+                counts.set(i, 0);
+            }
+            sum.set(0);
+            max.set(0);
+        }
+
+        /**
+         * @return the statistics in microseconds, concurrent recordings may be partially included
+         */
+        LatencyStatistics getStatistics() {
+            long[] c = new long[counts.length()];
+            long n = 0;
+            for (int i = 0; i < c.length; i++) {
+                c[i] = counts.get(i);
+                n += c[i];
+            }
+
+            long highest = max.get();
+            double mean = (n == 0) ? 0.0 : (double) sum.get() / n / 1e3;
+            return new LatencyStatistics(n, mean, percentile(c, n, 50.0, highest) / 1e3,
+                    percentile(c, n, 90.0, highest) / 1e3, percentile(c, n, 99.0, highest) / 1e3, highest / 1e3);
+        }
+
+        private static long percentile(long[] c, long n, double percentile, long highest) {
+            if (n == 0) {
+                return 0;
+            }
+
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * n));
+            long seen = 0;
+            for (int i = 0; i < c.length; i++) {
+                seen += c[i];
+                if (seen >= rank) {
+                    return Math.min(highestEquivalentValue(i), highest);
+                }
+            }
+            return highest;
+        }
+
+        private static int indexOf(long value) {
+            int bucket = Math.max(0, (Long.SIZE - 1 - Long.numberOfLeadingZeros(value)) - SUB_BUCKET_BITS);
+            return (bucket << SUB_BUCKET_BITS) + (int) (value >>> bucket);
+        }
+
+        private static long highestEquivalentValue(int index) {
+            int bucket = (index < 2 * SUB_BUCKETS) ? 0 : (index >>> SUB_BUCKET_BITS) - 1;
+            long sub = index - ((long) bucket << SUB_BUCKET_BITS);
+            return ((sub + 1) << bucket) - 1;
+        }
+    }
+}
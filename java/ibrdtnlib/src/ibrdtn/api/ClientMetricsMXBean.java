@@ -0,0 +1,87 @@
+/*
+ * ClientMetricsMXBean.java
+ *
+ * Copyright (C) 2011 IBR, TU Braunschweig
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package ibrdtn.api;
+
+import java.util.Map;
+
+/**
+ * The management interface of the ClientMetrics of a connection.
+ */
+public interface ClientMetricsMXBean {
+
+    /**
+     * @return the number of commands written to the daemon by verb, e.g. "bundle put"
+     */
+    public Map<String, Long> getCommands();
+
+    /**
+     * @return the number of responses received by status code
+     */
+    public Map<Integer, Long> getResponseCodes();
+
+    /**
+     * @return the time from writing a command until its response arrived by verb
+     */
+    public Map<String, LatencyStatistics> getCommandLatencies();
+
+    /**
+     * @return the number of notifications received by type (600-604)
+     */
+    public Map<Integer, Long> getNotifications();
+
+    /**
+     * @return the time spent in the callbacks of the handler for notifications and received bundles
+     */
+    public LatencyStatistics getCallbackTime();
+
+    /**
+     * @return all bytes written to the connection, i.e. the payload after base64 encoding plus the protocol
+     */
+    public long getBytesSent();
+
+    /**
+     * @return all bytes read from the connection, i.e. the payload before base64 decoding plus the protocol
+     */
+    public long getBytesReceived();
+
+    /**
+     * @return the bytes of block data sent to the daemon before base64 encoding
+     */
+    public long getPayloadBytesSent();
+
+    /**
+     * @return the bytes of payload data received from the daemon after base64 decoding
+     */
+    public long getPayloadBytesReceived();
+
+    /**
+     * @return the number of commands waiting for a response
+     */
+    public int getInFlight();
+
+    /**
+     * @return the highest number of commands that were waiting for a response at the same time
+     */
+    public int getMaxInFlight();
+
+    /**
+     * Resets all counters and histograms.
+     */
+    public void reset();
+}
@@ -28,18 +28,18 @@ import ibrdtn.api.object.GroupEndpoint;
 import ibrdtn.api.object.SingletonEndpoint;
 import ibrdtn.api.sab.CallbackHandler;
 import ibrdtn.api.sab.Custody;
+import ibrdtn.api.sab.PayloadSink;
+import ibrdtn.api.sab.PayloadSinkHandler;
 import ibrdtn.api.sab.Response;
+import ibrdtn.api.sab.SABByteHandler;
+import ibrdtn.api.sab.SABByteParser;
 import ibrdtn.api.sab.SABException;
-import ibrdtn.api.sab.SABHandler;
-import ibrdtn.api.sab.SABParser;
 import ibrdtn.api.sab.StatusReport;
-import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
+import java.nio.ByteBuffer;
+import java.util.LinkedList;
 import java.util.List;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.SynchronousQueue;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -47,29 +47,60 @@ import java.util.logging.Logger;
  *
  * @author Julian Timpner <timpner@ibr.cs.tu-bs.de>
  */
-public class DataReceiver extends Thread implements SABHandler {
+public class DataReceiver extends Thread implements SABByteHandler {
 
     private static final Logger logger = Logger.getLogger(DataReceiver.class.getName());
-    private BlockingQueue<Response> queue = new SynchronousQueue<Response>();
-    private BlockingQueue<List<String>> listqueue = new SynchronousQueue<List<String>>();
-    private SABParser p = new SABParser();
+    private final LinkedList<PendingResponse> pending = new LinkedList<PendingResponse>();
+    private PendingResponse pending_list = null;
+    private boolean aborted = false;
+    private SABByteParser p = new SABByteParser();
     private final ExtendedClient client;
     private final Object handler_mutex;
     private final CallbackHandler handler;
+    // the handler of the current bundle, null while a discarded bundle is received
+    private CallbackHandler bundle_handler;
+    private boolean discard_next = false;
     private Bundle current_bundle = null;
     private Block current_block = null;
     OutputStream outputStream = null;
-    BufferedWriter outputWriter = null;
-    CountingOutputStream counter = null;
-    Long progress_last = 0L;
+    private PayloadSink sink = null;
+    private final Base64Decoder decoder = new Base64Decoder();
+    private long received = 0;
+    private long progress_last = 0;
     private ProgressState progress_state = ProgressState.INITIAL;
     private boolean isPayloadInitialized;
     private Encoding encoding = Encoding.BASE64;
+    private ClientMetrics metrics = null;
 
     public DataReceiver(ExtendedClient client, Object handler_mutex, CallbackHandler handler) {
         this.client = client;
         this.handler_mutex = handler_mutex;
         this.handler = handler;
+        this.bundle_handler = handler;
+    }
+
+    /**
+     * Creates a receiver which is not bound to a blocking client. The received data has to be passed to the
+     * SABHandler methods of this receiver, e.g. by a SABByteParser, instead of starting the thread.
+     *
+     * @param handler_mutex the lock held while calling the handler
+     * @param handler the handler for the received bundles and notifications
+     */
+    public DataReceiver(Object handler_mutex, CallbackHandler handler) {
+        this(null, handler_mutex, handler);
+    }
+
+    /**
+     * Sets the metrics which record the responses, notifications and received payload. Has to be called before the
+     * receiver is started.
+     *
+     * @param metrics the metrics of the client or null if disabled
+     */
+    void setMetrics(ClientMetrics metrics) {
+        this.metrics = metrics;
+        if (metrics != null) {
+            metrics.attach(this);
+        }
     }
 
     private enum Encoding {
@@ -94,34 +125,53 @@ public class DataReceiver extends Thread implements SABHandler {
 
     public void abort() {
         p.abort();
-        queue.offer(new Response(-1, ""));
-        client.debug("abort queued");
+        synchronized (pending) {
+            aborted = true;
+            if (pending_list != null) {
+                pending_list.abort("aborted");
+                pending_list = null;
+            }
+            for (PendingResponse slot : pending) {
+                slot.abort("aborted");
+            }
+            pending.clear();
+        }
+        debug("abort queued");
     }
 
     /**
-     * Reads the response to a command. If a notify is received first, it will call the listener to process the notify
-     * message.
+     * Queues a slot for the response of a command. Slots have to be queued in the same order as the commands are
+     * written to the daemon, since responses are assigned to the slots in FIFO order.
      *
-     * @return the received return code
-     * @throws IOException
+     * @param slot the slot to complete once the response arrives
      */
-    public Response getResponse() throws APIException {
-        try {
-            Response obj = queue.take();
-            if (obj.getCode() == -1) {
-                throw new APIException("getResponse() failed: response was -1");
+    public void enqueue(PendingResponse slot) {
+        synchronized (pending) {
+            if (aborted) {
+                slot.abort("receiver aborted");
+            } else {
+                pending.addLast(slot);
+                if (metrics != null) {
+                    metrics.inFlight(pending.size());
+                }
             }
-            return obj;
-        } catch (InterruptedException e) {
-            throw new APIException("Interrupted");
         }
     }
 
-    public List<String> getList() throws APIException {
-        try {
-            return listqueue.take();
-        } catch (InterruptedException e) {
-            throw new APIException("Interrupted");
+    /**
+     * Drops the next bundle received instead of passing it to the handler. Has to be called by the receiver thread
+     * before the bundle starts, e.g. by the slot of a "bundle get" which returns a stale bundle.
+     */
+    void discardNextBundle() {
+        discard_next = true;
+    }
+
+    /**
+     * @return the number of commands still waiting for a response
+     */
+    public int getPendingCount() {
+        synchronized (pending) {
+            return pending.size();
         }
     }
 
@@ -137,18 +187,23 @@ public class DataReceiver extends Thread implements SABHandler {
     public void startBundle() {
         //logger.log(Level.FINE, "Starting bundle.");
         current_bundle = new Bundle();
+        bundle_handler = discard_next ? null : handler;
+        discard_next = false;
     }
 
     @Override
     public void endBundle() {
         //logger.log(Level.FINE, "Ending bundle.");
+        long started = startCallback();
         synchronized (handler_mutex) {
-            if (handler != null) {
-                handler.endBundle();
+            if (bundle_handler != null) {
+                bundle_handler.endBundle();
             }
         }
+        endCallback(started);
 
         current_bundle = null;
+        bundle_handler = handler;
     }
 
     @Override
@@ -160,8 +215,8 @@ public class DataReceiver extends Thread implements SABHandler {
             current_block = Block.createBlock(type);
 
             synchronized (handler_mutex) {
-                if (handler != null) {
-                    handler.startBundle(current_bundle);
+                if (bundle_handler != null) {
+                    bundle_handler.startBundle(current_bundle);
                 }
             }
         }
@@ -173,8 +228,8 @@ public class DataReceiver extends Thread implements SABHandler {
 
         if (!isPayloadInitialized && current_block != null) {
             synchronized (handler_mutex) {
-                if (handler != null) {
-                    handler.startBlock(current_block);
+                if (bundle_handler != null) {
+                    bundle_handler.startBlock(current_block);
                 }
             }
         }
@@ -182,29 +237,34 @@ public class DataReceiver extends Thread implements SABHandler {
         if (outputStream != null) {
 
             try {
-                outputWriter.flush();
-                outputWriter.close();
-                // stream itself should be closed by client, since he opened it.
+                if (encoding == Encoding.BASE64) {
+                    long n = decoder.finish(outputStream);
+                    received += n;
+                    if (metrics != null) {
+                        metrics.payloadReceived(n);
+                    }
+                }
+                outputStream.flush();
+                outputStream.close();
             } catch (IOException e) {
-                logger.log(Level.WARNING, "Failed to flush output writer", e);
+                logger.log(Level.WARNING, "Failed to flush output stream", e);
             }
 
             synchronized (handler_mutex) {
-                if (handler != null) {
-                    handler.endPayload();
+                if (bundle_handler != null) {
+                    bundle_handler.endPayload();
                 }
             }
 
-            outputWriter = null;
-            counter = null;
             outputStream = null;
+            sink = null;
         }
 
         // current block is null if only the payload was requested        
         if (current_block != null) {
             synchronized (handler_mutex) {
-                if (handler != null) {
-                    handler.endBlock();
+                if (bundle_handler != null) {
+                    bundle_handler.endBlock();
                 }
             }
         }
@@ -285,8 +345,8 @@ public class DataReceiver extends Thread implements SABHandler {
         // Current block is null if only the payload was requested         
         if (current_block != null) {
             synchronized (handler_mutex) {
-                if (handler != null) {
-                    handler.startBlock(current_block);
+                if (bundle_handler != null) {
+                    bundle_handler.startBlock(current_block);
                 }
             }
         }
@@ -294,8 +354,14 @@ public class DataReceiver extends Thread implements SABHandler {
         isPayloadInitialized = true;
 
         synchronized (handler_mutex) {
-            if (handler != null) {
-                outputStream = handler.startPayload();
+            if (bundle_handler instanceof PayloadSinkHandler) {
+                sink = ((PayloadSinkHandler) bundle_handler).startPayloadSink();
+                if (sink != null) {
+                    // only used for decoded base64 data, raw data is passed to the sink directly
+                    outputStream = new SinkOutputStream(sink);
+                }
+            } else if (bundle_handler != null) {
+                outputStream = bundle_handler.startPayload();
             }
         }
 
@@ -303,52 +369,71 @@ public class DataReceiver extends Thread implements SABHandler {
          * If outputStream is null it is assumed that the payload data is to be ignored.
          * 
          */
-        if (outputStream != null) {
-            counter = new CountingOutputStream(outputStream);
-
-            OutputStream wrappedStream = null;
-            switch (this.encoding) {
-                case RAW:
-                    wrappedStream = counter;
-                    break;
-                case BASE64:
-                    wrappedStream = new Base64.OutputStream(
-                            counter,
-                            Base64.DECODE);
-                    break;
-            }
-            outputWriter = new BufferedWriter(
-                    new OutputStreamWriter(
-                    wrappedStream));
-        }
+        decoder.reset();
+        received = 0;
     }
 
     @Override
     public void characters(String data) throws SABException {
+        characters(ByteBuffer.wrap(data.getBytes()));
+    }
 
-        //logger.log(Level.INFO, "Characters: {0}", data);
+    @Override
+    public void characters(ByteBuffer data) throws SABException {
 
         if (!isPayloadInitialized) {
             initializePayload();
         }
 
-        if (outputWriter != null) {
+        if (outputStream != null) {
+            long before = received;
             try {
-                outputWriter.append(data);
+                switch (this.encoding) {
+                    case RAW:
+                        received += data.remaining();
+                        write(data);
+                        break;
+                    case BASE64:
+                        received += decoder.decode(data, outputStream);
+                        break;
+                    default:
+                        break;
+                }
             } catch (IOException e) {
                 logger.log(Level.SEVERE, "Cannot write data to output stream.", e);
             }
 
+            if (metrics != null) {
+                metrics.payloadReceived(received - before);
+            }
+
             // update progress stats
             updateProgress();
         }
 
     }
 
+    private void write(ByteBuffer data) throws IOException {
+        if (sink != null) {
+            sink.write(data);
+        } else if (data.hasArray()) {
+            outputStream.write(data.array(), data.arrayOffset() + data.position(), data.remaining());
+            data.position(data.limit());
+        } else {
+            byte[] chunk = new byte[data.remaining()];
+            data.get(chunk);
+            outputStream.write(chunk);
+        }
+    }
+
     @Override
     public void notify(Integer type, String data) {
         // logger.log(Level.INFO, "{0} {1}", new Object[]{String.valueOf(type), data});
+        if (metrics != null) {
+            metrics.notification(type);
+        }
 
+        long started;
         switch (type) {
             case 600: // COMMON
                 logger.log(Level.INFO, "600 COMMON notification {0}", data);
@@ -360,50 +445,99 @@ public class DataReceiver extends Thread implements SABHandler {
                 //logger.log(Level.FINE, "New bundle: {0}", String.valueOf(type));
                 BundleID bundleID = parseBundleNotification(data);
 
+                started = startCallback();
                 synchronized (handler_mutex) {
                     if (handler != null) {
                         handler.notify(bundleID);
                     }
                 }
+                endCallback(started);
 
                 break;
             case 603: // REPORT
                 StatusReport report = new StatusReport(data);
                 //logger.log(Level.FINE, "New report: {0}", report);
 
+                started = startCallback();
                 synchronized (handler_mutex) {
                     if (handler != null) {
                         handler.notify(report);
                     }
                 }
+                endCallback(started);
                 break;
             case 604: // CUSTODY
                 Custody c = new Custody(data);
 
                 //logger.log(Level.FINE, "604 CUSTODY notification {0}", data);
+                started = startCallback();
                 synchronized (handler_mutex) {
                     if (handler != null) {
                         handler.notify(c);
                     }
                 }
+                endCallback(started);
                 break;
         }
     }
 
     @Override
     public void response(Integer type, String data) {
-        client.debug("[Response] " + String.valueOf(type) + ", " + data);
-        try {
-            queue.put(new Response(type, data));
-        } catch (InterruptedException e) {
+        debug("[Response] " + String.valueOf(type) + ", " + data);
+
+        PendingResponse slot;
+        synchronized (pending) {
+            slot = pending.poll();
+        }
+
+        if (slot == null) {
+            logger.log(Level.WARNING, "Unexpected response: {0} {1}", new Object[]{type, data});
+            return;
+        }
+
+        if (metrics != null) {
+            metrics.response(slot.verb, type, System.nanoTime() - slot.written);
+        }
+
+        Response resp = new Response(type, data);
+
+        // a list follows these responses, complete the slot when it has been received
+        if ((type == 200) && (data.equals("REGISTRATION LIST") || data.equals("NEIGHBOR LIST"))) {
+            slot.setResponse(resp);
+            synchronized (pending) {
+                pending_list = slot;
+            }
+        } else {
+            slot.complete(resp);
         }
     }
 
     @Override
     public void response(List<String> data) {
-        try {
-            listqueue.put(data);
-        } catch (InterruptedException e) {
+        PendingResponse slot;
+        synchronized (pending) {
+            slot = pending_list;
+            pending_list = null;
+        }
+
+        if (slot != null) {
+            slot.complete(data);
+        }
+    }
+
+    private long startCallback() {
+        return (metrics == null) ? 0 : System.nanoTime();
+    }
+
+    private void endCallback(long started) {
+        if (metrics != null) {
+            metrics.callback(System.nanoTime() - started);
+        }
+    }
+
+    private void debug(String msg) {
+        if (client != null) {
+            client.debug(msg);
         }
     }
 
@@ -427,24 +561,24 @@ public class DataReceiver extends Thread implements SABHandler {
             case INITIAL:
                 // new block, announce zero
                 synchronized (handler_mutex) {
-                    if (handler != null) {
-                        handler.progress(0, current_block.getLength());
+                    if (bundle_handler != null) {
+                        bundle_handler.progress(0, current_block.getLength());
                     }
                 }
 
                 progress_state = ProgressState.RECEIVING;
-                progress_last = 0L;
+                progress_last = 0;
                 break;
 
             case RECEIVING:
-                if (counter != null) {
-                    long newcount = counter.getCount();
+                if (outputStream != null) {
+                    long newcount = received;
                     if (newcount != progress_last) {
                         // only announce if 5% has changed
                         if ((current_block.getLength() / 20) <= (newcount - progress_last)) {
                             synchronized (handler_mutex) {
-                                if (handler != null) {
-                                    handler.progress(newcount, current_block.getLength());
+                                if (bundle_handler != null) {
+                                    bundle_handler.progress(newcount, current_block.getLength());
                                 }
                             }
 
@@ -456,8 +590,8 @@ public class DataReceiver extends Thread implements SABHandler {
 
             case DONE:
                 synchronized (handler_mutex) {
-                    if (handler != null) {
-                        handler.progress(current_block.getLength(), current_block.getLength());
+                    if (bundle_handler != null) {
+                        bundle_handler.progress(current_block.getLength(), current_block.getLength());
                     }
                 }
                 progress_state = ProgressState.INITIAL;
@@ -465,7 +599,10 @@ public class DataReceiver extends Thread implements SABHandler {
         }
     }
 
-    private BundleID parseBundleNotification(String data) {
+    /**
+     * Parses a bundle id following two keywords, as in "NOTIFY BUNDLE" notifications and "BUNDLE LOADED" responses.
+     */
+    static BundleID parseBundleNotification(String data) {
 
         BundleID bundleID = new BundleID();
         String[] tokens = data.split(" ");
@@ -481,4 +618,31 @@ public class DataReceiver extends Thread implements SABHandler {
         }
         return bundleID;
     }
-}
\ No newline at end of file
+
+    /**
+     * Passes the data written by the base64 decoder to a PayloadSink.
+     */
+    private static class SinkOutputStream extends OutputStream {
+
+        private final PayloadSink sink;
+
+        SinkOutputStream(PayloadSink sink) {
+            this.sink = sink;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            sink.write(ByteBuffer.wrap(b, off, len));
+        }
+
+        @Override
+        public void close() throws IOException {
+            sink.close();
+        }
+    }
+}
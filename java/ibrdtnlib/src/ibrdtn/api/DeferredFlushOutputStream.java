@@ -0,0 +1,60 @@
+/*
+ * DeferredFlushOutputStream.java
+ *
+ * Copyright (C) 2011 IBR, TU Braunschweig
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package ibrdtn.api;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * A buffered output stream which ignores flush() calls while it is deferred. Serializers flush their stream after
+ * each bundle, this allows to write several bundles and commands with one flush to the daemon.
+ */
+public class DeferredFlushOutputStream extends BufferedOutputStream {
+
+    private boolean deferred = false;
+
+    public DeferredFlushOutputStream(OutputStream out) {
+        super(out);
+    }
+
+    public DeferredFlushOutputStream(OutputStream out, int size) {
+        super(out, size);
+    }
+
+    /**
+     * Enables or disables deferred flushing. Disabling does not flush the stream by itself.
+     *
+     * @param deferred true, if calls to flush() should be ignored
+     */
+    public synchronized void setDeferred(boolean deferred) {
+        this.deferred = deferred;
+    }
+
+    public synchronized boolean isDeferred() {
+        return deferred;
+    }
+
+    @Override
+    public synchronized void flush() throws IOException {
+        if (!deferred) {
+            super.flush();
+        }
+    }
+}
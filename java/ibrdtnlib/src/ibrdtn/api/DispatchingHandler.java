@@ -0,0 +1,365 @@
+/*
+ * DispatchingHandler.java
+ *
+ * Copyright (C) 2011 IBR, TU Braunschweig
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package ibrdtn.api;
+
+import ibrdtn.api.object.Block;
+import ibrdtn.api.object.Bundle;
+import ibrdtn.api.object.BundleID;
+import ibrdtn.api.sab.CallbackHandler;
+import ibrdtn.api.sab.Custody;
+import ibrdtn.api.sab.PayloadSink;
+import ibrdtn.api.sab.PayloadSinkHandler;
+import ibrdtn.api.sab.StatusReport;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Calls a handler from threads of its own instead of the receiver thread of the client, so a handler doing slow work
+ * does not hold up the responses and notifications of other operations on the connection. It is set as the handler
+ * of the client in place of the wrapped handler.
+ *
+ * The events of received bundles are passed in order to a bundle lane, the payload is copied in chunks and written
+ * to the stream of the handler, or to the sink of a PayloadSinkHandler. The notifications are passed to a
+ * notification lane of their own, so status reports and custody signals are not queued behind a large payload. Both
+ * lanes run concurrently, thus the wrapped handler has to accept notifications while it processes a bundle.
+ *
+ * The bundle lane holds a limited number of events. If the handler falls behind by more, the receiver thread waits
+ * for it, so the bundle callbacks of the handler must not call the blocking methods of the client: the response
+ * would not be read until the callback returns. The notification lane is not limited and never holds up the receiver
+ * thread, thus the notification callbacks may call the blocking methods of the client.
+ */
+public class DispatchingHandler implements CallbackHandler {
+
+    private static final Logger logger = Logger.getLogger(DispatchingHandler.class.getName());
+    private static final int CHUNK_SIZE = 8192;
+
+    private final CallbackHandler handler;
+    private final Lane bundles;
+    private final Lane notifications;
+
+    // the stream or sink of the current payload, only accessed by the bundle lane
+    private OutputStream payload = null;
+    private PayloadSink sink = null;
+
+    /**
+     * Starts the threads of the lanes.
+     *
+     * @param handler the handler to call
+     * @param capacity the maximum number of events queued in the bundle lane
+     */
+    public DispatchingHandler(CallbackHandler handler, int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity has to be positive");
+        }
+
+        this.handler = handler;
+        this.bundles = new Lane("DispatchingHandler-bundles", new ArrayBlockingQueue<Runnable>(capacity));
+        this.notifications = new Lane("DispatchingHandler-notifications", new LinkedBlockingQueue<Runnable>());
+    }
+
+    /**
+     * Stops the threads after the queued events have been passed to the handler. Events arriving afterwards are
+     * dropped.
+     *
+     * @throws InterruptedException if interrupted while waiting for the handler
+     */
+    public void close() throws InterruptedException {
+        bundles.close();
+        notifications.close();
+    }
+
+    @Override
+    public void notify(final BundleID id) {
+        notifications.submit(new Runnable() {
+            @Override
+            public void run() {
+                handler.notify(id);
+            }
+        });
+    }
+
+    @Override
+    public void notify(final StatusReport r) {
+        notifications.submit(new Runnable() {
+            @Override
+            public void run() {
+                handler.notify(r);
+            }
+        });
+    }
+
+    @Override
+    public void notify(final Custody c) {
+        notifications.submit(new Runnable() {
+            @Override
+            public void run() {
+                handler.notify(c);
+            }
+        });
+    }
+
+    @Override
+    public void startBundle(final Bundle bundle) {
+        bundles.submit(new Runnable() {
+            @Override
+            public void run() {
+                handler.startBundle(bundle);
+            }
+        });
+    }
+
+    @Override
+    public void endBundle() {
+        bundles.submit(new Runnable() {
+            @Override
+            public void run() {
+                handler.endBundle();
+            }
+        });
+    }
+
+    @Override
+    public void startBlock(final Block block) {
+        bundles.submit(new Runnable() {
+            @Override
+            public void run() {
+                handler.startBlock(block);
+            }
+        });
+    }
+
+    @Override
+    public void endBlock() {
+        bundles.submit(new Runnable() {
+            @Override
+            public void run() {
+                handler.endBlock();
+            }
+        });
+    }
+
+    /**
+     * @return a stream which passes the payload to the stream or sink of the handler. If the handler returns neither,
+     * the payload is dropped by the bundle lane.
+     */
+    @Override
+    public OutputStream startPayload() {
+        bundles.submit(new Runnable() {
+            @Override
+            public void run() {
+                if (handler instanceof PayloadSinkHandler) {
+                    sink = ((PayloadSinkHandler) handler).startPayloadSink();
+                } else {
+                    payload = handler.startPayload();
+                }
+            }
+        });
+        return new LaneOutputStream();
+    }
+
+    @Override
+    public void endPayload() {
+        bundles.submit(new Runnable() {
+            @Override
+            public void run() {
+                payload = null;
+                sink = null;
+                handler.endPayload();
+            }
+        });
+    }
+
+    @Override
+    public void progress(final long pos, final long total) {
+        bundles.submit(new Runnable() {
+            @Override
+            public void run() {
+                handler.progress(pos, total);
+            }
+        });
+    }
+
+    /**
+     * Called by the bundle lane with a chunk of the payload.
+     */
+    private void write(byte[] chunk, int length) {
+        try {
+            if (sink != null) {
+                sink.write(ByteBuffer.wrap(chunk, 0, length));
+            } else if (payload != null) {
+                payload.write(chunk, 0, length);
+            }
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Failed to write payload, dropping the rest: {0}", e.getMessage());
+            payload = null;
+            sink = null;
+        }
+    }
+
+    /**
+     * Collects the payload written by the receiver thread and passes it to the bundle lane in chunks.
+     */
+    private class LaneOutputStream extends OutputStream {
+
+        private byte[] buffer = new byte[CHUNK_SIZE];
+        private int count = 0;
+
+        @Override
+        public void write(int b) {
+            if (count == buffer.length) {
+                pass();
+            }
+            buffer[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            if (len >= CHUNK_SIZE) {
+                // pass large writes on without collecting them
+                pass();
+                submit(Arrays.copyOfRange(b, off, off + len), len);
+                return;
+            }
+
+            if (count + len > buffer.length) {
+                pass();
+            }
+            System.arraycopy(b, off, buffer, count, len);
+            count += len;
+        }
+
+        @Override
+        public void flush() {
+            pass();
+        }
+
+        @Override
+        public void close() {
+            pass();
+            bundles.submit(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        if (sink != null) {
+                            sink.close();
+                        } else if (payload != null) {
+                            payload.close();
+                        }
+                    } catch (IOException e) {
+                        logger.log(Level.WARNING, "Failed to close payload stream: {0}", e.getMessage());
+                    }
+                }
+            });
+        }
+
+        private void pass() {
+            if (count == 0) {
+                return;
+            }
+            submit(buffer, count);
+            buffer = new byte[CHUNK_SIZE];
+            count = 0;
+        }
+
+        private void submit(final byte[] chunk, final int length) {
+            bundles.submit(new Runnable() {
+                @Override
+                public void run() {
+                    DispatchingHandler.this.write(chunk, length);
+                }
+            });
+        }
+    }
+
+    /**
+     * A thread running the events of a lane in the order they were submitted.
+     */
+    private static class Lane implements Runnable {
+
+        private static final Runnable STOP = new Runnable() {
+            @Override
+            public void run() {
+            }
+        };
+
+        private final BlockingQueue<Runnable> queue;
+        private final Thread thread;
+        private volatile boolean closed = false;
+
+        Lane(String name, BlockingQueue<Runnable> queue) {
+            this.queue = queue;
+            this.thread = new Thread(this, name);
+            this.thread.setDaemon(true);
+            this.thread.start();
+        }
+
+        /**
+         * Queues an event, waiting while a limited lane is full.
+         */
+        void submit(Runnable event) {
+            if (closed) {
+                logger.log(Level.FINE, "Dropping event of closed lane");
+                return;
+            }
+
+            try {
+                queue.put(event);
+            } catch (InterruptedException e) {
+                logger.log(Level.WARNING, "Interrupted, dropping event");
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        void close() throws InterruptedException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            queue.put(STOP);
+            thread.join();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    Runnable event = queue.take();
+                    if (event == STOP) {
+                        return;
+                    }
+
+                    try {
+                        event.run();
+                    } catch (RuntimeException e) {
+                        logger.log(Level.SEVERE, "Handler failed", e);
+                    }
+                }
+            } catch (InterruptedException e) {
+                // stopped
+            }
+        }
+    }
+}
@@ -22,6 +22,8 @@
  */
 package ibrdtn.api;
 
+import ibrdtn.api.object.BinarySerializer;
+import ibrdtn.api.object.Block;
 import ibrdtn.api.object.Bundle;
 import ibrdtn.api.object.BundleID;
 import ibrdtn.api.object.EID;
@@ -29,10 +31,12 @@ import ibrdtn.api.object.GroupEndpoint;
 import ibrdtn.api.object.InputStreamBlockData;
 import ibrdtn.api.object.Node;
 import ibrdtn.api.object.PayloadBlock;
+import ibrdtn.api.object.PayloadCodec;
 import ibrdtn.api.object.PlainSerializer;
 import ibrdtn.api.object.SelfEncodingObject;
 import ibrdtn.api.object.SelfEncodingObjectBlockData;
 import ibrdtn.api.object.SingletonEndpoint;
+import ibrdtn.api.object.TransferableData;
 import ibrdtn.api.sab.CallbackHandler;
 import ibrdtn.api.sab.Response;
 import java.io.BufferedWriter;
@@ -43,6 +47,10 @@ import java.io.ObjectInputStream;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.logging.Level;
@@ -52,13 +60,20 @@ public class ExtendedClient extends Client {
 
     private static final Logger logger = Logger.getLogger(ExtendedClient.class.getName());
     private final Object connection_mutex = new Object();
+    private final Object register_mutex = new Object();
     private final Object state_mutex = new Object();
     private final Object handler_mutex = new Object();
     private State state = State.UNINITIALIZED;
+    private DeferredFlushOutputStream _output = null;
     private BufferedWriter _writer = null;
-    private DataReceiver _receiver = null;
+    private volatile DataReceiver _receiver = null;
     private Boolean _debug = false;
+    private Boolean _pipelining = false;
+    private Boolean _binary = false;
+    private ClientMetrics _metrics = null;
     private EID remoteEID = null;
+    private String _handle = null;
+    private boolean _loaded = false;
     protected CallbackHandler handler = null;
 
     public enum Encoding {
@@ -100,6 +115,63 @@ public class ExtendedClient extends Client {
         this._debug = val;
     }
 
+    /**
+     * Enables / disables pipelining of bundle submissions. If enabled, send(Bundle) writes all commands of the
+     * submission to the daemon at once and collects the responses afterwards instead of waiting for each response
+     * before the next command is written. Submissions of concurrent callers may be in flight at the same time.
+     *
+     * @param val true if pipelining is desired
+     */
+    public void setPipelining(Boolean val) {
+        this._pipelining = val;
+    }
+
+    /**
+     * Enables / disables the binary upload of bundles. If enabled, bundles are transferred with "bundle put binary"
+     * in the RFC 5050 format instead of the plain format, so the block data is not base64 encoded.
+     *
+     * @param val true if bundles should be uploaded in binary format
+     */
+    public void setBinaryUpload(Boolean val) {
+        this._binary = val;
+    }
+
+    /**
+     * Enables / disables the collection of metrics for this connection. If enabled, the commands, responses,
+     * notifications and transferred bytes are counted and the metrics are registered as an MXBean while the
+     * connection is open. Has to be called before the connection is opened.
+     *
+     * @param val true if metrics should be collected
+     */
+    public void setMetricsEnabled(Boolean val) {
+        if (!val) {
+            _metrics = null;
+        } else if (_metrics == null) {
+            _metrics = new ClientMetrics();
+        }
+    }
+
+    /**
+     * @return the metrics of this connection or null if they are not enabled
+     */
+    public ClientMetrics getMetrics() {
+        return _metrics;
+    }
+
+    /**
+     * @return the handle of the registration saved or loaded by this connection, or null
+     */
+    public String getRegistrationHandle() {
+        return _handle;
+    }
+
+    /**
+     * @return true, if open(ClientConfig) has loaded the registration of the configuration
+     */
+    public boolean isRegistrationLoaded() {
+        return _loaded;
+    }
+
     protected void debug(String msg) {
         if (!this._debug) {
             return;
@@ -119,6 +191,7 @@ public class ExtendedClient extends Client {
                 _receiver.abort();
             }
             _receiver = new DataReceiver(this, handler_mutex, handler);
+            _receiver.setMetrics(_metrics);
         }
     }
 
@@ -128,6 +201,21 @@ public class ExtendedClient extends Client {
      */
     @Override
     public void open() throws UnknownHostException, IOException {
+        open(new ClientConfig());
+    }
+
+    /**
+     * Opens the connection and sets up the session described by the configuration. The protocol switch and the
+     * commands of the configuration are written before the header of the daemon has been read, so the session is
+     * ready after a single round trip. The responses are checked in the order of the commands.
+     *
+     * A registration which cannot be loaded is not an error, the connection keeps its new registration in this case,
+     * see isRegistrationLoaded().
+     *
+     * @param config the configuration of the session
+     * @throws IOException if the connection failed or the daemon rejected a command of the configuration
+     */
+    public void open(ClientConfig config) throws UnknownHostException, IOException {
         synchronized (state_mutex) {
             // just return if the connection is already open
             if (state != State.UNINITIALIZED) {
@@ -137,42 +225,89 @@ public class ExtendedClient extends Client {
         }
 
         try {
-            super.open();
+            connect();
+
+            if (_metrics != null) {
+                this.istream = _metrics.countInput(this.istream);
+                this.ostream = _metrics.countOutput(this.ostream);
+            }
 
             synchronized (connection_mutex) {
-                this._writer = new BufferedWriter(new OutputStreamWriter(this.ostream));
+                this._output = new DeferredFlushOutputStream(this.ostream);
+                this._writer = new BufferedWriter(new OutputStreamWriter(this._output));
             }
 
-            // run the notify receiver
-            if (handler == null) {
+            // a failed attempt discards its receiver, so every attempt starts with a new one
+            synchronized (handler_mutex) {
                 _receiver = new DataReceiver(this, handler_mutex, handler);
+                _receiver.setMetrics(_metrics);
             }
+
+            // switch to extended protocol and set up the session in one go
+            List<String> cmds = new ArrayList<String>();
+            cmds.add("protocol extended");
+            cmds.addAll(config.getCommands());
+            List<PendingResponse> slots = submitAll(cmds);
+
+            // run the notify receiver once the header has been read
+            readHeader();
             _receiver.start();
 
-            // switch to extended protocol
-            if (query("protocol extended") != 200) {
+            if (slots.get(0).getCode() != 200) {
                 // error
                 throw new APIException("protocol switch failed");
             }
-        } catch (APIException ex) {
-            _writer.close();
-            _writer = null;
-            if (_receiver != null) {
-                _receiver.abort();
-                _receiver = null;
+
+            _loaded = false;
+            for (PendingResponse slot : slots.subList(1, slots.size())) {
+                String cmd = slot.getCommand();
+                if (cmd.startsWith("registration load ")) {
+                    _loaded = (slot.getCode() == 200);
+                    if (_loaded) {
+                        _handle = config.getHandle();
+                    }
+                } else if (cmd.startsWith("registration save ")) {
+                    _handle = registrationHandle(slot.get());
+                } else if (slot.getCode() != 200) {
+                    throw new APIException(cmd + " failed");
+                }
             }
+        } catch (APIException ex) {
+            abortOpen();
             setState(State.UNINITIALIZED);
             throw new IOException(ex.getMessage());
         } catch (UnknownHostException e) {
             setState(State.FAILED);
             throw e;
         } catch (IOException e) {
+            abortOpen();
             setState(State.UNINITIALIZED);
             throw e;
         }
 
         // set state to connected
         setState(State.CONNECTED);
+
+        if (_metrics != null) {
+            _metrics.register();
+        }
+    }
+
+    private void abortOpen() {
+        try {
+            synchronized (connection_mutex) {
+                if (_writer != null) {
+                    _writer.close();
+                    _writer = null;
+                }
+                if (_receiver != null) {
+                    _receiver.abort();
+                    _receiver = null;
+                }
+                super.close();
+            }
+        } catch (IOException e) {
+        }
     }
 
     /*
@@ -212,6 +347,10 @@ public class ExtendedClient extends Client {
         } catch (IOException e) {
             setState(State.FAILED);
             throw e;
+        } finally {
+            if (_metrics != null) {
+                _metrics.unregister();
+            }
         }
 
         // set state to connected
@@ -248,19 +387,32 @@ public class ExtendedClient extends Client {
         }
     }
 
+    /**
+     * Marks the connection as failed. Called by the receiver thread, thus it must not take the connection_mutex or
+     * the monitor of the client, which callers waiting for a response may hold. Aborting the receiver fails their
+     * responses, closing the connection fails their writes.
+     */
     protected void mark_error() {
         setState(State.FAILED);
 
+        if (_metrics != null) {
+            _metrics.unregister();
+        }
+
+        DataReceiver receiver = _receiver;
+        if (receiver != null) {
+            receiver.abort();
+        }
+
         try {
-            synchronized (connection_mutex) {
-                if (_writer != null) {
-                    _writer.close();
-                }
-                if (_receiver != null) {
-                    _receiver.abort();
-                    _receiver = null;
-                }
-                super.close();
+            if (ostream != null) {
+                ostream.close();
+            }
+            if (istream != null) {
+                istream.close();
+            }
+            if (getConnection() != null) {
+                getConnection().close();
             }
         } catch (IOException e) {
         }
@@ -284,11 +436,8 @@ public class ExtendedClient extends Client {
             throw new APIException("not connected");
         }
 
-        // send a message with no effect
-        send("noop");
-
-        // read answer
-        if (_receiver.getResponse().getCode() != 400) {
+        // send a message with no effect and read answer
+        if (query("noop") != 400) {
             // error
             throw new APIException("noop failed");
         }
@@ -300,36 +449,360 @@ public class ExtendedClient extends Client {
      * @param bundle the bundle to send
      * @throws APIException if the transmission fails
      */
-    public synchronized void send(Bundle bundle) throws APIException {
+    public void send(Bundle bundle) throws APIException {
+        if (_pipelining) {
+            // throw exception if not connected
+            if (state != State.CONNECTED) {
+                throw new APIException("not connected");
+            }
+
+            PendingResponse[] slots;
+            synchronized (register_mutex) {
+                synchronized (connection_mutex) {
+                    _output.setDeferred(true);
+                    try {
+                        slots = writeBundle(bundle);
+                    } finally {
+                        _output.setDeferred(false);
+                    }
+                    flush();
+                }
+            }
+            checkBundle(slots);
+            return;
+        }
+
+        // the register_mutex keeps other submissions out of the sequence, the connection_mutex is only held while
+        // writing, so the receiver can fail the pending responses if the connection breaks
+        synchronized (this) {
+            synchronized (register_mutex) {
+                // throw exception if not connected
+                if (state != State.CONNECTED) {
+                    throw new APIException("not connected");
+                }
+
+                // clear the previous bundle first
+                if (query("bundle clear") != 200) {
+                    throw new APIException("bundle clear failed");
+                }
+
+                // announce a proceeding bundle, other commands must not get between the announcement and the data
+                PendingResponse put;
+                PendingResponse stored = new PendingResponse(putCommand());
+                synchronized (connection_mutex) {
+                    put = write(putCommand());
+                    flush();
+                    _receiver.enqueue(stored);
+                    serialize(bundle);
+                }
+
+                if (put.getCode() != 100) {
+                    throw new APIException("bundle put failed");
+                }
+
+                if (stored.getCode() != 200) {
+                    throw new APIException("bundle rejected or put failed");
+                }
+
+                // send the bundle away
+                if (query("bundle send") != 200) {
+                    throw new APIException("bundle send failed");
+                }
+            }
+        }
+    }
+
+    /**
+     * Sends a batch of bundles to the daemon. The commands and bundles are written back-to-back with a single flush
+     * and the responses are checked afterwards, so the batch costs about one round trip instead of four per bundle.
+     * A rejected bundle does not stop the submission of the following ones. If a bundle cannot be written, the
+     * connection is given up and the following bundles fail with the same error.
+     *
+     * @param bundles the bundles to send
+     * @return the results in the order of the given bundles
+     * @throws APIException if the client is not connected or writing to the daemon fails
+     */
+    public List<SendResult> sendAll(Collection<Bundle> bundles) throws APIException {
+        return send(bundles);
+    }
+
+    /**
+     * Sends a batch of bundles to the daemon.
+     *
+     * @see #sendAll(java.util.Collection)
+     * @param bundles the bundles to send
+     * @return the results in the order of the given bundles
+     * @throws APIException if the client is not connected or writing to the daemon fails
+     */
+    public List<SendResult> send(Iterable<Bundle> bundles) throws APIException {
         // throw exception if not connected
         if (state != State.CONNECTED) {
             throw new APIException("not connected");
         }
 
-        // clear the previous bundle first
-        if (query("bundle clear") != 200) {
+        List<Bundle> written = new ArrayList<Bundle>();
+        List<PendingResponse[]> slots = new ArrayList<PendingResponse[]>();
+        List<Bundle> failed = new ArrayList<Bundle>();
+        APIException failure = null;
+
+        synchronized (register_mutex) {
+            synchronized (connection_mutex) {
+                _output.setDeferred(true);
+                try {
+                    for (Bundle bundle : bundles) {
+                        if (failure == null) {
+                            try {
+                                slots.add(writeBundle(bundle));
+                                written.add(bundle);
+                                continue;
+                            } catch (APIException e) {
+                                // the connection has been given up, the responses of the written bundles fail
+                                failure = e;
+                            }
+                        }
+                        failed.add(bundle);
+                    }
+                } finally {
+                    _output.setDeferred(false);
+                }
+                if (failure == null) {
+                    flush();
+                }
+            }
+        }
+
+        List<SendResult> results = new ArrayList<SendResult>(written.size() + failed.size());
+        for (int i = 0; i < written.size(); i++) {
+            try {
+                checkBundle(slots.get(i));
+                results.add(new SendResult(written.get(i), null));
+            } catch (APIException e) {
+                results.add(new SendResult(written.get(i), e));
+            }
+        }
+        for (Bundle bundle : failed) {
+            results.add(new SendResult(bundle, failure));
+        }
+        return results;
+    }
+
+    /**
+     * Writes all commands to submit a bundle without waiting for the responses. The caller has to hold the
+     * register_mutex and the connection_mutex, defer the flushes of the output and to flush it afterwards.
+     *
+     * @param bundle the bundle to send
+     * @return the slots of the responses in the order of the commands (clear, put, bundle data, send)
+     * @throws APIException if the bundle could not be written, the connection is marked as failed then
+     */
+    private PendingResponse[] writeBundle(Bundle bundle) throws APIException {
+        try {
+            PendingResponse clear = write("bundle clear");
+            PendingResponse put = write(putCommand());
+            PendingResponse stored = new PendingResponse(putCommand());
+
+            flush();
+            _receiver.enqueue(stored);
+            serialize(bundle);
+
+            PendingResponse sent = write("bundle send");
+            return new PendingResponse[]{clear, put, stored, sent};
+        } catch (APIException e) {
+            // a partly written submission leaves the session unusable
+            if (state == State.CONNECTED) {
+                mark_error();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Puts a bundle into the remote register without sending it.
+     *
+     * @param bundle the bundle to put
+     * @throws APIException if the bundle could not be put into the register
+     */
+    void putBundle(Bundle bundle) throws APIException {
+        // throw exception if not connected
+        if (state != State.CONNECTED) {
+            throw new APIException("not connected");
+        }
+
+        PendingResponse clear;
+        PendingResponse put;
+        PendingResponse stored = new PendingResponse(putCommand());
+
+        synchronized (register_mutex) {
+            synchronized (connection_mutex) {
+                clear = write("bundle clear");
+                put = write(putCommand());
+
+                flush();
+                _receiver.enqueue(stored);
+                serialize(bundle);
+            }
+        }
+
+        if (clear.getCode() != 200) {
             throw new APIException("bundle clear failed");
         }
 
-        // announce a proceeding plain bundle
-        if (query("bundle put plain") != 100) {
+        if (put.getCode() != 100) {
             throw new APIException("bundle put failed");
         }
 
-        PlainSerializer serializer = new PlainSerializer(ostream);
+        if (stored.getCode() != 200) {
+            throw new APIException("bundle rejected or put failed");
+        }
+    }
+
+    /**
+     * Writes data into the payload block of the bundle in the remote register without waiting for the responses.
+     *
+     * @param offset the position of the data in the payload
+     * @param data the data between position and limit of the buffer
+     * @return the slots of the responses (continue, stored)
+     * @throws APIException if the data could not be written
+     */
+    PendingResponse[] writePayload(long offset, ByteBuffer data) throws APIException {
+        // throw exception if not connected
+        if (state != State.CONNECTED) {
+            throw new APIException("not connected");
+        }
+
+        String cmd = "payload put " + offset;
+        if (_metrics != null) {
+            _metrics.payloadSent(data.remaining());
+        }
+        PendingResponse stored = new PendingResponse(cmd);
+
+        synchronized (register_mutex) {
+            synchronized (connection_mutex) {
+                PendingResponse put = write(cmd);
+                _receiver.enqueue(stored);
+
+                try {
+                    _writer.write("Length: " + data.remaining());
+                    _writer.newLine();
+                    _writer.write("Encoding: raw");
+                    _writer.newLine();
+                    _writer.newLine();
+                    _writer.flush();
+
+                    if (data.hasArray()) {
+                        _output.write(data.array(), data.arrayOffset() + data.position(), data.remaining());
+                        data.position(data.limit());
+                    } else {
+                        byte[] chunk = new byte[data.remaining()];
+                        data.get(chunk);
+                        _output.write(chunk);
+                    }
+                    _output.flush();
+                } catch (IOException e) {
+                    // the daemon still waits for the rest of the data, so the session can not be used anymore
+                    mark_error();
+                    throw new APIException("payload put failed at offset " + offset);
+                }
+
+                return new PendingResponse[]{put, stored};
+            }
+        }
+    }
+
+    private String putCommand() {
+        return _binary ? "bundle put binary" : "bundle put plain";
+    }
+
+    /**
+     * Writes the bundle to the daemon in the format announced by putCommand(). If the bundle cannot be written
+     * completely, the connection is marked as failed.
+     *
+     * @param bundle the bundle to write
+     * @throws APIException if the bundle could not be written
+     */
+    private void serialize(Bundle bundle) throws APIException {
+        WritableByteChannel channel = transferChannel(bundle);
+        boolean deferred = _output.isDeferred();
+
+        if (_metrics != null) {
+            count(bundle, channel);
+        }
 
         try {
-            serializer.serialize(bundle);
+            if (channel != null) {
+                // the buffered data has to be written before the data transferred to the channel
+                _output.setDeferred(false);
+            }
+
+            if (_binary) {
+                new BinarySerializer(_output, channel).serialize(bundle);
+            } else {
+                new PlainSerializer(_output, channel).serialize(bundle);
+            }
         } catch (IOException e) {
+            // the daemon reads the following commands as data of the announced bundle
+            mark_error();
             throw new APIException("serialization of bundle failed.");
+        } finally {
+            _output.setDeferred(deferred);
+        }
+    }
+
+    /**
+     * Counts the block data of a bundle for the metrics. Data transferred to the channel bypasses the counting
+     * stream and is counted here.
+     */
+    private void count(Bundle bundle, WritableByteChannel channel) {
+        for (Block block : bundle.getBlocks()) {
+            Block.Data data = block.getData();
+            if (data == null) {
+                continue;
+            }
+
+            long size = data.size();
+            _metrics.payloadSent(size);
+            if (channel != null && data instanceof TransferableData) {
+                _metrics.bytesTransferred(size);
+            }
         }
+    }
 
-        if (_receiver.getResponse().getCode() != 200) {
+    /**
+     * @return the channel of the connection, if the bundle contains block data which can be transferred to it
+     */
+    private WritableByteChannel transferChannel(Bundle bundle) {
+        APIConnection connection = getConnection();
+        if (!(connection instanceof ChannelAPIConnection)) {
+            return null;
+        }
+
+        for (Block block : bundle.getBlocks()) {
+            if (block.getData() instanceof TransferableData) {
+                return ((ChannelAPIConnection) connection).getChannel();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Waits for the responses of a bundle submission written by writeBundle().
+     *
+     * @param slots the slots returned by writeBundle()
+     * @throws APIException if one of the commands failed
+     */
+    private void checkBundle(PendingResponse[] slots) throws APIException {
+        if (slots[0].getCode() != 200) {
+            throw new APIException("bundle clear failed");
+        }
+
+        if (slots[1].getCode() != 100) {
+            throw new APIException("bundle put failed");
+        }
+
+        if (slots[2].getCode() != 200) {
             throw new APIException("bundle rejected or put failed");
         }
 
-        // send the bundle away
-        if (query("bundle send") != 200) {
+        if (slots[3].getCode() != 200) {
             throw new APIException("bundle send failed");
         }
     }
@@ -345,41 +818,51 @@ public class ExtendedClient extends Client {
      */
     @Deprecated
     public synchronized void send(EID destination, Integer lifetime, String base64, Long length) throws APIException {
-        // throw exception if not connected
-        if (state != State.CONNECTED) {
-            throw new APIException("not connected");
-        }
+        synchronized (register_mutex) {
+            // throw exception if not connected
+            if (state != State.CONNECTED) {
+                throw new APIException("not connected");
+            }
 
-        // clear the previous bundle first
-        if (query("bundle clear") != 200) {
-            throw new APIException("bundle clear failed");
-        }
+            // clear the previous bundle first
+            if (query("bundle clear") != 200) {
+                throw new APIException("bundle clear failed");
+            }
 
-        // announce a proceeding plain bundle
-        if (query("bundle put plain") != 100) {
-            throw new APIException("bundle put failed");
-        }
+            // announce a proceeding plain bundle, other commands must not get between the announcement and the data
+            PendingResponse put;
+            PendingResponse stored = new PendingResponse("bundle put plain");
+            synchronized (connection_mutex) {
+                put = write("bundle put plain");
+                flush();
+                _receiver.enqueue(stored);
+
+                // upload bundle to the daemon
+                if (destination instanceof GroupEndpoint) {
+                    startBundle(0, destination, lifetime, 1);
+                } else {
+                    startBundle(16, destination, lifetime, 1);
+                }
 
-        // upload bundle to the daemon
-        if (destination instanceof GroupEndpoint) {
-            startBundle(0, destination, lifetime, 1);
-        } else {
-            startBundle(16, destination, lifetime, 1);
-        }
+                startBlock(1, length, true);
 
-        startBlock(1, length, true);
+                send(base64);
+                send("");
+            }
 
-        send(base64);
-        send("");
+            if (put.getCode() != 100) {
+                throw new APIException("bundle put failed");
+            }
 
-        if (_receiver.getResponse().getCode() != 200) {
-            // error
-            throw new APIException("bundle rejected or put failed");
-        }
+            if (stored.getCode() != 200) {
+                // error
+                throw new APIException("bundle rejected or put failed");
+            }
 
-        // send the bundle away
-        if (query("bundle send") != 200) {
-            throw new APIException("bundle send failed");
+            // send the bundle away
+            if (query("bundle send") != 200) {
+                throw new APIException("bundle send failed");
+            }
         }
     }
 
@@ -574,6 +1057,18 @@ public class ExtendedClient extends Client {
         return obj.readObject();
     }
 
+    /**
+     * Decodes an object out of the base64 encoded payload data with the given codec.
+     *
+     * @param data the base64 encoded payload data
+     * @param codec the codec the object has been encoded with
+     * @return the decoded object
+     * @throws IOException if the decode process fails
+     */
+    public <T> T decodeObject(String data, PayloadCodec<T> codec) throws IOException {
+        return codec.decode(new ByteArrayInputStream(Base64.decode(data.getBytes())));
+    }
+
     private void startBundle(Integer procflags, EID destination, Integer lifetime, Integer numBlocks) throws APIException {
         // upload bundle to the daemon
         send("Destination: " + destination.toString());
@@ -721,10 +1216,7 @@ public class ExtendedClient extends Client {
         }
 
         // send endpoint request
-        send("registration del " + eid.toString());
-
-        // read answer
-        if (_receiver.getResponse().getCode() != 200) {
+        if (query("registration del " + eid.toString()) != 200) {
             // error
             throw new APIException("registration removal failed");
         }
@@ -732,6 +1224,62 @@ public class ExtendedClient extends Client {
         logger.log(Level.INFO, "GroupEndpoint ''{0}'' removed.", eid);
     }
 
+    /**
+     * Makes the registration of this connection persistent. After the connection is closed or lost, the daemon keeps
+     * the endpoints of the registration and queues the bundles received for it until the lifetime expires, and
+     * another connection can take it over with loadRegistration().
+     *
+     * @param lifetime the lifetime of the registration in seconds, 0 for unlimited
+     * @return the handle of the registration
+     * @throws APIException if the request fails
+     */
+    public synchronized String saveRegistration(long lifetime) throws APIException {
+        // throw exception if not connected
+        if (state != State.CONNECTED) {
+            throw new APIException("not connected");
+        }
+
+        _handle = registrationHandle(queryWithResponse("registration save " + lifetime));
+        return _handle;
+    }
+
+    /**
+     * Attaches this connection to a registration saved before, replacing the registration of the connection. The
+     * bundles queued for the registration are announced afterwards.
+     *
+     * @param handle the handle returned by saveRegistration()
+     * @throws APIException if the registration is unknown, expired or attached to another connection
+     */
+    public synchronized void loadRegistration(String handle) throws APIException {
+        // throw exception if not connected
+        if (state != State.CONNECTED) {
+            throw new APIException("not connected");
+        }
+
+        if (query("registration load " + handle) != 200) {
+            throw new APIException("registration load failed");
+        }
+        _handle = handle;
+
+        logger.log(Level.INFO, "Registration ''{0}'' loaded.", handle);
+    }
+
+    /**
+     * Extracts the handle from the response "200 REGISTRATION SAVE <handle>".
+     */
+    static String registrationHandle(Response resp) throws APIException {
+        if (resp.getCode() != 200) {
+            throw new APIException("registration save failed");
+        }
+
+        String[] responseWords = resp.getData().split(" ");
+        if (responseWords.length < 3) {
+            throw new APIException("registration save returned no handle");
+        }
+
+        return responseWords[2];
+    }
+
     /**
      * Returns all registrations of this connection, including group endpoints.
      *
@@ -745,11 +1293,12 @@ public class ExtendedClient extends Client {
         }
 
         // query for registration list
-        if (query("registration list") != 200) {
+        PendingResponse resp = submit("registration list");
+        if (resp.getCode() != 200) {
             throw new APIException("registration get failed");
         }
 
-        return _receiver.getList();
+        return resp.getList();
     }
 
     /**
@@ -764,12 +1313,13 @@ public class ExtendedClient extends Client {
             throw new APIException("not connected");
         }
 
-        // query for registration list
-        if (query("neighbor list") != 200) {
+        // query for neighbor list
+        PendingResponse resp = submit("neighbor list");
+        if (resp.getCode() != 200) {
             throw new APIException("neighbor list failed");
         }
 
-        return _receiver.getList();
+        return resp.getList();
     }
 
     /**
@@ -787,12 +1337,13 @@ public class ExtendedClient extends Client {
         }
 
         // query for registration list connections
-        if (query("neighbor list connections") != 200) {
+        PendingResponse resp = submit("neighbor list connections");
+        if (resp.getCode() != 200) {
             throw new APIException("neighbor list connections failed");
         }
 
         List<Node> nodes = new LinkedList<>();
-        for (String s : _receiver.getList()) {
+        for (String s : resp.getList()) {
             Node node = new Node(s);
             nodes.add(node);
         }
@@ -844,10 +1395,8 @@ public class ExtendedClient extends Client {
             throw new APIException("not connected");
         }
 
-        send("bundle load " + id.toString());
-
         // read answer
-        if (_receiver.getResponse().getCode() != 200) {
+        if (query("bundle load " + id.toString()) != 200) {
             // error
             throw new APIException("bundle load failed");
         }
@@ -947,11 +1496,26 @@ public class ExtendedClient extends Client {
     }
 
     /**
-     * Starts the API transfer of the bundle in the remote register to the client (in plain text format).
+     * Starts the API transfer of a part of the payload in the remote register to the client (in plain text format).
      *
+     * @param blockOffset the position of the block in the bundle
+     * @param dataOffset the offset of the first byte to transfer
+     * @param length the number of bytes to transfer or 0 for all bytes up to the end of the block
      * @throws APIException if the request fails
      */
-    public synchronized void getPayload(int blockOffset, int dataOffset, int length) throws APIException {
+    public void getPayload(int blockOffset, int dataOffset, int length) throws APIException {
+        getPayload(blockOffset, (long) dataOffset, (long) length);
+    }
+
+    /**
+     * Starts the API transfer of a part of the payload in the remote register to the client (in plain text format).
+     *
+     * @param blockOffset the position of the block in the bundle
+     * @param dataOffset the offset of the first byte to transfer
+     * @param length the number of bytes to transfer or 0 for all bytes up to the end of the block
+     * @throws APIException if the request fails
+     */
+    public synchronized void getPayload(int blockOffset, long dataOffset, long length) throws APIException {
         // throw exception if not connected
         if (state != State.CONNECTED) {
             throw new APIException("not connected");
@@ -960,7 +1524,9 @@ public class ExtendedClient extends Client {
         StringBuilder sb = new StringBuilder("payload ");
         sb.append(blockOffset).append(" ");
         sb.append("get");
-        if (dataOffset != 0) {
+
+        // the daemon reads the first number as offset, so it is required if a length is given
+        if (dataOffset != 0 || length != 0) {
             sb.append(" ").append(dataOffset);
         }
         if (length != 0) {
@@ -1016,14 +1582,111 @@ public class ExtendedClient extends Client {
      * @param cmd the command to send
      * @throws IOException
      */
-    private synchronized void send(String cmd) throws APIException {
+    private void send(String cmd) throws APIException {
+        synchronized (connection_mutex) {
+            try {
+                debug("[Send] " + cmd);
+                _writer.write(cmd);
+                _writer.newLine();
+                _writer.flush();
+            } catch (IOException e) {
+                throw new APIException("send failed: " + cmd);
+            }
+        }
+    }
+
+    /**
+     * Writes a command to the daemon without waiting for the response. Several commands may be submitted before
+     * the first response is read, the responses are assigned to the returned slots in the order of submission.
+     *
+     * @param cmd the command to send
+     * @return the slot that receives the response of the command
+     * @throws APIException if the command could not be written
+     */
+    public PendingResponse submit(String cmd) throws APIException {
+        synchronized (connection_mutex) {
+            PendingResponse slot = write(cmd);
+            flush();
+            return slot;
+        }
+    }
+
+    /**
+     * Writes a sequence of commands to the daemon at once without waiting for the responses.
+     *
+     * @param cmds the commands to send
+     * @return the slots that receive the responses in the order of the commands
+     * @throws APIException if the commands could not be written
+     */
+    public List<PendingResponse> submitAll(List<String> cmds) throws APIException {
+        List<PendingResponse> slots = new ArrayList<PendingResponse>(cmds.size());
+        synchronized (connection_mutex) {
+            for (String cmd : cmds) {
+                slots.add(write(cmd));
+            }
+            flush();
+        }
+        return slots;
+    }
+
+    /**
+     * Writes the commands of the given slots at once without waiting for the responses. Allows callers in this
+     * package to use subclasses of PendingResponse which react on the completion of a command.
+     *
+     * @param slots the slots of the commands to send
+     * @throws APIException if the commands could not be written
+     */
+    void submitSlots(List<? extends PendingResponse> slots) throws APIException {
+        synchronized (connection_mutex) {
+            for (PendingResponse slot : slots) {
+                write(slot);
+            }
+            flush();
+        }
+    }
+
+    /**
+     * Queues a slot for the response and writes the command to the output buffer. The caller has to hold the
+     * connection_mutex, so that slots and commands are queued in the same order.
+     *
+     * @param cmd the command to send
+     * @return the slot that receives the response of the command
+     * @throws APIException if the command could not be written
+     */
+    private PendingResponse write(String cmd) throws APIException {
+        PendingResponse slot = new PendingResponse(cmd);
+        write(slot);
+        return slot;
+    }
+
+    private void write(PendingResponse slot) throws APIException {
+        String cmd = slot.getCommand();
+        if (_metrics != null) {
+            slot.verb = ClientMetrics.verbOf(cmd);
+            slot.written = System.nanoTime();
+            _metrics.command(slot.verb);
+        }
+
         try {
-            debug("[Send] " + cmd);
+            debug("[Query] " + cmd);
+            _receiver.enqueue(slot);
             _writer.write(cmd);
             _writer.newLine();
+        } catch (IOException e) {
+            throw new APIException("query failed: " + cmd);
+        }
+    }
+
+    /**
+     * Flushes all buffered commands to the daemon.
+     *
+     * @throws APIException if the data could not be written
+     */
+    private void flush() throws APIException {
+        try {
             _writer.flush();
         } catch (IOException e) {
-            throw new APIException("send failed: " + cmd);
+            throw new APIException("flush failed");
         }
     }
 
@@ -1033,20 +1696,11 @@ public class ExtendedClient extends Client {
      * @param cmd the command to send
      * @throws IOException
      */
-    private synchronized Integer query(String cmd) throws APIException {
+    private Integer query(String cmd) throws APIException {
         return queryWithResponse(cmd).getCode();
     }
 
-    private synchronized Response queryWithResponse(String cmd) throws APIException {
-        try {
-            debug("[Query] " + cmd);
-            _writer.write(cmd);
-            _writer.newLine();
-            _writer.flush();
-
-            return _receiver.getResponse();
-        } catch (IOException e) {
-            throw new APIException("query failed: " + cmd);
-        }
+    private Response queryWithResponse(String cmd) throws APIException {
+        return submit(cmd).get();
     }
 }
@@ -0,0 +1,76 @@
+/*
+ * LatencyStatistics.java
+ *
+ * Copyright (C) 2011 IBR, TU Braunschweig
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package ibrdtn.api;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * A snapshot of a latency distribution recorded by the ClientMetrics. All values are given in microseconds. The
+ * percentiles are the upper bounds of the histogram buckets, i.e. they are accurate to about 12%.
+ */
+public class LatencyStatistics {
+
+    private final long count;
+    private final double mean;
+    private final double median;
+    private final double percentile90;
+    private final double percentile99;
+    private final double max;
+
+    @ConstructorProperties({"count", "mean", "median", "percentile90", "percentile99", "max"})
+    public LatencyStatistics(long count, double mean, double median, double percentile90, double percentile99,
+            double max) {
+        this.count = count;
+        this.mean = mean;
+        this.median = median;
+        this.percentile90 = percentile90;
+        this.percentile99 = percentile99;
+        this.max = max;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public double getMean() {
+        return mean;
+    }
+
+    public double getMedian() {
+        return median;
+    }
+
+    public double getPercentile90() {
+        return percentile90;
+    }
+
+    public double getPercentile99() {
+        return percentile99;
+    }
+
+    public double getMax() {
+        return max;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("n=%d mean=%.1fus p50=%.1fus p90=%.1fus p99=%.1fus max=%.1fus", count, mean, median,
+                percentile90, percentile99, max);
+    }
+}
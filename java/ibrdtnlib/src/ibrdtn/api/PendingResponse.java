@@ -0,0 +1,144 @@
+/*
+ * PendingResponse.java
+ *
+ * Copyright (C) 2011 IBR, TU Braunschweig
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package ibrdtn.api;
+
+import ibrdtn.api.sab.Response;
+import java.util.List;
+
+/**
+ * A slot for the response to a command that has been written to the daemon. Slots are queued by the DataReceiver in
+ * the order the commands are written and completed in the order the responses arrive, so several commands may be in
+ * flight at the same time.
+ */
+public class PendingResponse {
+
+    private final String command;
+    private Response response = null;
+    private List<String> list = null;
+    private boolean done = false;
+
+    // set when the command is written, if the metrics of the client are enabled
+    String verb = null;
+    long written = 0;
+
+    public PendingResponse(String command) {
+        this.command = command;
+    }
+
+    /**
+     * @return the command this slot is waiting for
+     */
+    public String getCommand() {
+        return command;
+    }
+
+    /**
+     * Blocks until the response has been received.
+     *
+     * @return the received response
+     * @throws APIException if the connection has been aborted before the response arrived
+     */
+    public synchronized Response get() throws APIException {
+        try {
+            while (!done) {
+                wait();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new APIException("Interrupted");
+        }
+
+        if (response.getCode() == -1) {
+            throw new APIException("no response for '" + command + "': " + response.getData());
+        }
+
+        return response;
+    }
+
+    /**
+     * Blocks until the response has been received and returns its code.
+     *
+     * @return the received return code
+     * @throws APIException if the connection has been aborted before the response arrived
+     */
+    public int getCode() throws APIException {
+        return get().getCode();
+    }
+
+    /**
+     * Blocks until the response and the list following it have been received.
+     *
+     * @return the received list or null if the response was not followed by a list
+     * @throws APIException if the connection has been aborted before the response arrived
+     */
+    public synchronized List<String> getList() throws APIException {
+        get();
+        return list;
+    }
+
+    /**
+     * @return true, if the response (and a following list) has been received or the slot has been aborted
+     */
+    public synchronized boolean isDone() {
+        return done;
+    }
+
+    synchronized void setResponse(Response response) {
+        this.response = response;
+    }
+
+    void complete(Response response) {
+        synchronized (this) {
+            this.response = response;
+            complete();
+        }
+        completed();
+    }
+
+    void complete(List<String> list) {
+        synchronized (this) {
+            this.list = list;
+            complete();
+        }
+        completed();
+    }
+
+    void abort(String reason) {
+        synchronized (this) {
+            if (done) {
+                return;
+            }
+            this.response = new Response(-1, reason);
+            complete();
+        }
+        completed();
+    }
+
+    /**
+     * Called once the slot is done, without holding the lock of the slot. Subclasses may override this to get
+     * notified instead of waiting in get().
+     */
+    protected void completed() {
+    }
+
+    private void complete() {
+        done = true;
+        notifyAll();
+    }
+}
@@ -0,0 +1,319 @@
+/*
+ * PrefetchingReceiver.java
+ *
+ * Copyright (C) 2011 IBR, TU Braunschweig
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package ibrdtn.api;
+
+import ibrdtn.api.object.Bundle;
+import ibrdtn.api.object.BundleID;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Receives the bundles announced by 602 BUNDLE notifications. Instead of waiting for each step, the commands to load,
+ * get and mark a bundle as delivered are written back-to-back for all announced bundles, limited by a window of
+ * bundles which have been requested but not yet consumed. Received bundles are handed to a consumer by a pool of
+ * threads.
+ *
+ * The receiver replaces the handler of the client, so it has to be created before the client is opened. A bundle is
+ * marked as delivered as soon as it has been requested, thus it is lost if the application fails before consuming
+ * it.
+ */
+public class PrefetchingReceiver extends BundleAssembler {
+
+    private static final Logger logger = Logger.getLogger(PrefetchingReceiver.class.getName());
+
+    // queued by stop() to wake up the fetcher waiting for an announcement
+    private static final BundleID STOP = new BundleID();
+
+    // the interval to check for a stop while waiting for the window
+    private static final long STOP_CHECK = 100;
+
+    /**
+     * The application side of the receiver. Called concurrently if the receiver runs more than one consumer thread.
+     */
+    public interface Consumer {
+
+        void receive(BundleID id, Bundle bundle);
+    }
+
+    private final ExtendedClient client;
+    private final Consumer consumer;
+    private final int concurrency;
+    private final Semaphore window;
+    private final LinkedBlockingQueue<BundleID> announced = new LinkedBlockingQueue<BundleID>();
+    private ExecutorService executor = null;
+    private Fetcher fetcher = null;
+
+    /**
+     * @param client the client to receive the bundles with, not opened yet
+     * @param consumer the consumer of the received bundles
+     * @param window the maximum number of bundles requested but not yet consumed
+     * @param concurrency the number of threads calling the consumer
+     */
+    public PrefetchingReceiver(ExtendedClient client, Consumer consumer, int window, int concurrency) {
+        if (window < 1 || concurrency < 1) {
+            throw new IllegalArgumentException("window and concurrency have to be positive");
+        }
+
+        this.client = client;
+        this.consumer = consumer;
+        this.concurrency = concurrency;
+        this.window = new Semaphore(window);
+
+        client.setHandler(this);
+    }
+
+    /**
+     * Starts to fetch the announced bundles. The client has to be connected.
+     */
+    public synchronized void start() {
+        if (fetcher != null) {
+            return;
+        }
+
+        executor = Executors.newFixedThreadPool(concurrency);
+        fetcher = new Fetcher();
+        fetcher.start();
+    }
+
+    /**
+     * Stops fetching bundles and waits until the received bundles have been consumed. The fetcher is not interrupted,
+     * since an interrupt while it writes the commands would close a connection based on an interruptible channel.
+     *
+     * @throws InterruptedException if interrupted while waiting for the consumers
+     */
+    public void stop() throws InterruptedException {
+        Fetcher f;
+        ExecutorService e;
+        synchronized (this) {
+            f = fetcher;
+            e = executor;
+            fetcher = null;
+            executor = null;
+        }
+
+        if (f != null) {
+            f.stopped = true;
+            announced.add(STOP);
+            f.thread.join();
+            announced.remove(STOP);
+        }
+        if (e != null) {
+            e.shutdown();
+            e.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Requests a bundle which was not announced by a notification, e.g. after a reconnect.
+     *
+     * @param id the id of the bundle to receive
+     */
+    public void fetch(BundleID id) {
+        announced.add(id);
+    }
+
+    /**
+     * @return the number of announced bundles which have not been requested yet
+     */
+    public int getBacklog() {
+        return announced.size();
+    }
+
+    private class Fetcher implements Runnable {
+
+        final Thread thread = new Thread(this, "PrefetchingReceiver");
+        volatile boolean stopped = false;
+
+        void start() {
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (!stopped) {
+                    List<Fetch> batch = new ArrayList<Fetch>();
+
+                    BundleID id = announced.take();
+                    if (id == STOP) {
+                        return;
+                    }
+
+                    while (!window.tryAcquire(STOP_CHECK, TimeUnit.MILLISECONDS)) {
+                        if (stopped) {
+                            // keep the announcement for the next start
+                            announced.add(id);
+                            return;
+                        }
+                    }
+                    batch.add(new Fetch(id));
+
+                    // request everything announced in the meantime as far as the window allows
+                    while (window.tryAcquire()) {
+                        id = announced.poll();
+                        if (id == null || id == STOP) {
+                            window.release();
+                            break;
+                        }
+                        batch.add(new Fetch(id));
+                    }
+
+                    request(batch);
+                }
+            } catch (InterruptedException e) {
+                // interrupted by someone else
+            }
+        }
+
+        private void request(List<Fetch> batch) {
+            List<PendingResponse> slots = new ArrayList<PendingResponse>(batch.size() * 3);
+            for (Fetch f : batch) {
+                slots.add(f.load);
+                slots.add(f.get);
+                slots.add(f.delivered);
+            }
+
+            try {
+                client.submitSlots(slots);
+            } catch (APIException e) {
+                logger.log(Level.WARNING, "Requesting bundles failed: {0}", e.getMessage());
+                for (Fetch f : batch) {
+                    f.release();
+                }
+            }
+        }
+    }
+
+    /**
+     * The commands to receive a single bundle.
+     */
+    private class Fetch implements Request {
+
+        final BundleID id;
+        final PendingResponse load;
+        final PendingResponse get;
+        final PendingResponse delivered;
+        private final AtomicBoolean released = new AtomicBoolean(false);
+
+        Fetch(BundleID id) {
+            this.id = id;
+            this.load = new PendingResponse("bundle load " + id.toString());
+            this.get = new PendingResponse("bundle get") {
+                @Override
+                protected void completed() {
+                    answered();
+                }
+            };
+            this.delivered = new PendingResponse("bundle delivered " + id.toString());
+        }
+
+        /**
+         * Called by the receiver thread of the client when the response of the get command arrives, right before
+         * the bundle itself.
+         */
+        private void answered() {
+            if (code(get) != 200) {
+                logger.log(Level.WARNING, "Failed to get bundle {0}", id);
+                release();
+                return;
+            }
+
+            // if the load failed, the register still holds the previous bundle, which does not match the id
+            if (code(load) != 200) {
+                logger.log(Level.WARNING, "Failed to load bundle {0}", id);
+                release();
+                return;
+            }
+
+            expect(this);
+        }
+
+        @Override
+        public BundleID getId() {
+            return id;
+        }
+
+        @Override
+        public void received(Bundle bundle) {
+            if (bundle == null) {
+                // nothing to consume
+                release();
+            } else {
+                consume(this, bundle);
+            }
+        }
+
+        @Override
+        public void missed() {
+            logger.log(Level.WARNING, "Bundle {0} has not been received", id);
+            release();
+        }
+
+        void release() {
+            if (released.compareAndSet(false, true)) {
+                window.release();
+            }
+        }
+    }
+
+    private void consume(final Fetch fetch, final Bundle received) {
+        ExecutorService e;
+        synchronized (this) {
+            e = executor;
+        }
+
+        if (e == null) {
+            fetch.release();
+            return;
+        }
+
+        try {
+            e.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        consumer.receive(fetch.id, received);
+                    } catch (RuntimeException ex) {
+                        logger.log(Level.SEVERE, "Consumer failed", ex);
+                    } finally {
+                        fetch.release();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            // stopped in the meantime, the receiver thread must not fail
+            fetch.release();
+        }
+    }
+
+    @Override
+    public void notify(BundleID id) {
+        announced.add(id);
+    }
+}
@@ -0,0 +1,467 @@
+/*
+ * RangedDownloader.java
+ *
+ * Copyright (C) 2011 IBR, TU Braunschweig
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package ibrdtn.api;
+
+import ibrdtn.api.object.Block;
+import ibrdtn.api.object.Bundle;
+import ibrdtn.api.object.BundleID;
+import ibrdtn.api.object.PayloadBlock;
+import ibrdtn.api.sab.Custody;
+import ibrdtn.api.sab.PayloadSink;
+import ibrdtn.api.sab.PayloadSinkHandler;
+import ibrdtn.api.sab.StatusReport;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Downloads the payload of a bundle over several API connections at once. The payload is split into ranges which are
+ * requested with "payload get" and written to their position in the target file. Completed ranges are recorded in
+ * a file next to the target ("target.part"), so an interrupted download continues with the missing ranges.
+ *
+ * The bundle is loaded by each connection, but not marked as delivered.
+ */
+public class RangedDownloader {
+
+    private static final Logger logger = Logger.getLogger(RangedDownloader.class.getName());
+    public static final long DEFAULT_RANGE_SIZE = 4 * 1024 * 1024;
+
+    private final ConnectionFactory factory;
+    private final BundleID id;
+    private int connections = 4;
+    private long rangeSize = DEFAULT_RANGE_SIZE;
+    private int retries = 3;
+
+    /**
+     * @param factory the factory for the connections to the daemon
+     * @param id the bundle to download
+     */
+    public RangedDownloader(ConnectionFactory factory, BundleID id) {
+        this.factory = factory;
+        this.id = id;
+    }
+
+    /**
+     * @param host the host of the daemon
+     * @param port the API port of the daemon
+     * @param id the bundle to download
+     */
+    public RangedDownloader(final String host, final int port, BundleID id) {
+        this(new ConnectionFactory() {
+            @Override
+            public APIConnection createConnection() {
+                return new SocketAPIConnection(host, port);
+            }
+        }, id);
+    }
+
+    /**
+     * @param connections the number of concurrent connections
+     */
+    public void setConnections(int connections) {
+        if (connections < 1) {
+            throw new IllegalArgumentException("at least one connection is required");
+        }
+        this.connections = connections;
+    }
+
+    /**
+     * Sets the size of the ranges. Changing the size invalidates the progress of an interrupted download. A payload
+     * may have at most Integer.MAX_VALUE ranges.
+     *
+     * @param rangeSize the number of bytes requested at once
+     */
+    public void setRangeSize(long rangeSize) {
+        if (rangeSize < 1) {
+            throw new IllegalArgumentException("invalid range size");
+        }
+        this.rangeSize = rangeSize;
+    }
+
+    /**
+     * @param retries the number of consecutive failures after which a connection is given up
+     */
+    public void setRetries(int retries) {
+        this.retries = retries;
+    }
+
+    /**
+     * Downloads the payload into the given file.
+     *
+     * @param target the file for the payload
+     * @return the length of the payload
+     * @throws APIException if the bundle could not be loaded or not all ranges could be downloaded
+     * @throws IOException if the target file could not be written
+     */
+    public long download(File target) throws APIException, IOException {
+        RangeHandler probe = new RangeHandler(null);
+        ExtendedClient client = connect(probe);
+        try {
+            probe.reset();
+            client.getBundleInfo();
+            probe.awaitInfo(client);
+        } finally {
+            close(client);
+        }
+
+        final long length = probe.payloadLength;
+        final int block = probe.payloadIndex;
+        if (block < 0) {
+            throw new APIException("bundle has no payload block");
+        }
+
+        File partFile = new File(target.getPath() + ".part");
+        if ((length + rangeSize - 1) / rangeSize > Integer.MAX_VALUE) {
+            throw new APIException("payload of " + length + " bytes has too many ranges of " + rangeSize + " bytes");
+        }
+        int ranges = (int) ((length + rangeSize - 1) / rangeSize);
+
+        RandomAccessFile file = new RandomAccessFile(target, "rw");
+        try {
+            final FileChannel channel = file.getChannel();
+            final ResumeLog log = new ResumeLog(partFile, id, block, length, rangeSize);
+            try {
+                if (file.length() != length) {
+                    file.setLength(length);
+                }
+
+                final ConcurrentLinkedQueue<Integer> queue = new ConcurrentLinkedQueue<Integer>();
+                for (int i = 0; i < ranges; i++) {
+                    if (!log.isCompleted(i)) {
+                        queue.add(i);
+                    }
+                }
+
+                List<Worker> workers = new ArrayList<Worker>();
+                for (int i = 0; i < Math.min(connections, queue.size()); i++) {
+                    Worker w = new Worker(queue, channel, log, block, length);
+                    workers.add(w);
+                    w.start();
+                }
+
+                Exception error = null;
+                for (Worker w : workers) {
+                    try {
+                        w.join();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new APIException("Interrupted");
+                    }
+                    if (w.error != null) {
+                        error = w.error;
+                    }
+                }
+
+                int missing = ranges - log.getCompleted();
+                if (missing > 0) {
+                    throw new APIException("download incomplete, " + missing + " of " + ranges + " ranges missing"
+                            + ((error == null) ? "" : ": " + error.getMessage()));
+                }
+
+                channel.force(false);
+            } finally {
+                log.close();
+            }
+        } finally {
+            file.close();
+        }
+
+        // the download is complete, forget the progress
+        partFile.delete();
+        return length;
+    }
+
+    private ExtendedClient connect(RangeHandler handler) throws APIException, IOException {
+        ExtendedClient client = new ExtendedClient();
+        client.setConnection(factory.createConnection());
+        client.setHandler(handler);
+        client.open();
+
+        try {
+            client.setEncoding(ExtendedClient.Encoding.RAW);
+            client.loadBundle(id);
+        } catch (APIException e) {
+            close(client);
+            throw e;
+        }
+        return client;
+    }
+
+    private static void close(ExtendedClient client) {
+        if (client == null) {
+            return;
+        }
+        try {
+            client.close();
+        } catch (IOException e) {
+        }
+    }
+
+    /**
+     * Fetches ranges from the queue until it is empty or the connection failed too often.
+     */
+    private class Worker extends Thread {
+
+        private final ConcurrentLinkedQueue<Integer> queue;
+        private final RangeHandler handler;
+        private final ResumeLog log;
+        private final int block;
+        private final long length;
+        Exception error = null;
+
+        Worker(ConcurrentLinkedQueue<Integer> queue, FileChannel channel, ResumeLog log, int block, long length) {
+            super("RangedDownloader");
+            this.queue = queue;
+            this.handler = new RangeHandler(channel);
+            this.log = log;
+            this.block = block;
+            this.length = length;
+        }
+
+        @Override
+        public void run() {
+            ExtendedClient client = null;
+            int failures = 0;
+
+            Integer index;
+            while ((index = queue.poll()) != null) {
+                long offset = index * rangeSize;
+                long size = Math.min(rangeSize, length - offset);
+
+                try {
+                    if (client == null) {
+                        client = connect(handler);
+                    }
+
+                    handler.begin(offset);
+                    client.getPayload(block, offset, size);
+                    long received = handler.awaitPayload(client);
+                    if (received != size) {
+                        throw new IOException("received " + received + " of " + size + " bytes at offset " + offset);
+                    }
+
+                    log.complete(index);
+                    failures = 0;
+                } catch (Exception e) {
+                    // give the range back and reconnect
+                    queue.add(index);
+                    close(client);
+                    client = null;
+
+                    logger.log(Level.WARNING, "Range at offset {0} failed: {1}", new Object[]{offset, e.getMessage()});
+                    if (++failures > retries) {
+                        error = e;
+                        break;
+                    }
+                }
+            }
+
+            close(client);
+        }
+    }
+
+    /**
+     * Writes the received payload to its position in the target file and collects the block layout of the bundle.
+     */
+    private static class RangeHandler implements PayloadSinkHandler {
+
+        private final FileChannel channel;
+        private long position = 0;
+        private long received = 0;
+        private boolean done = false;
+        private int blocks = 0;
+        int payloadIndex = -1;
+        long payloadLength = 0;
+
+        RangeHandler(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        synchronized void reset() {
+            done = false;
+            blocks = 0;
+            payloadIndex = -1;
+        }
+
+        synchronized void begin(long offset) {
+            position = offset;
+            received = 0;
+            done = false;
+        }
+
+        synchronized void awaitInfo(ExtendedClient client) throws APIException {
+            await(client);
+        }
+
+        synchronized long awaitPayload(ExtendedClient client) throws APIException {
+            await(client);
+            return received;
+        }
+
+        private void await(ExtendedClient client) throws APIException {
+            try {
+                while (!done) {
+                    if (!client.isConnected()) {
+                        throw new APIException("connection lost");
+                    }
+                    wait(1000);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new APIException("Interrupted");
+            }
+        }
+
+        private synchronized void finish() {
+            done = true;
+            notifyAll();
+        }
+
+        @Override
+        public void notify(BundleID id) {
+        }
+
+        @Override
+        public void notify(StatusReport r) {
+        }
+
+        @Override
+        public void notify(Custody c) {
+        }
+
+        @Override
+        public void startBundle(Bundle bundle) {
+        }
+
+        @Override
+        public void endBundle() {
+            finish();
+        }
+
+        @Override
+        public synchronized void startBlock(Block block) {
+            if (block.getType() == PayloadBlock.type && payloadIndex < 0) {
+                payloadIndex = blocks;
+                payloadLength = (block.getLength() == null) ? 0 : block.getLength();
+            }
+            blocks++;
+        }
+
+        @Override
+        public void endBlock() {
+        }
+
+        @Override
+        public OutputStream startPayload() {
+            // not used, the payload is received through startPayloadSink()
+            return null;
+        }
+
+        @Override
+        public PayloadSink startPayloadSink() {
+            return new PayloadSink() {
+                @Override
+                public void write(ByteBuffer data) throws IOException {
+                    synchronized (RangeHandler.this) {
+                        while (data.hasRemaining()) {
+                            int n = channel.write(data, position);
+                            position += n;
+                            received += n;
+                        }
+                    }
+                }
+            };
+        }
+
+        @Override
+        public void endPayload() {
+            finish();
+        }
+
+        @Override
+        public void progress(long pos, long total) {
+        }
+    }
+
+    /**
+     * The list of completed ranges. The first line holds the bundle id, the index of the payload block, the payload
+     * length and the range size, every further line the index of a completed range. Lines are appended, so a crash
+     * loses at most the last entry.
+     */
+    private static class ResumeLog {
+
+        private final BitSet completed = new BitSet();
+        private final Writer writer;
+
+        ResumeLog(File file, BundleID id, int block, long length, long rangeSize) throws IOException {
+            // a log left by the download of another bundle is not continued
+            String header = id + " " + block + " " + length + " " + rangeSize;
+            boolean valid = false;
+
+            if (file.exists()) {
+                String[] lines = new String(Files.readAllBytes(file.toPath()), "US-ASCII").split("\n", -1);
+                valid = header.equals(lines[0]);
+
+                // the last element is empty or an incompletely written entry
+                for (int i = 1; valid && i < lines.length - 1; i++) {
+                    completed.set(Integer.parseInt(lines[i].trim()));
+                }
+            }
+
+            if (!valid) {
+                completed.clear();
+                writer = new FileWriter(file, false);
+                writer.write(header + "\n");
+                writer.flush();
+            } else {
+                writer = new FileWriter(file, true);
+            }
+        }
+
+        synchronized boolean isCompleted(int index) {
+            return completed.get(index);
+        }
+
+        synchronized int getCompleted() {
+            return completed.cardinality();
+        }
+
+        synchronized void complete(int index) throws IOException {
+            completed.set(index);
+            writer.write(index + "\n");
+            writer.flush();
+        }
+
+        synchronized void close() throws IOException {
+            writer.close();
+        }
+    }
+}
@@ -0,0 +1,479 @@
+/*
+ * ReconnectingClient.java
+ *
+ * Copyright (C) 2011 IBR, TU Braunschweig
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package ibrdtn.api;
+
+import ibrdtn.api.object.Bundle;
+import ibrdtn.api.object.BundleID;
+import ibrdtn.api.object.GroupEndpoint;
+import ibrdtn.api.sab.CallbackHandler;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * An API session which survives the loss of its connection. On the first connect the endpoints are registered and the
+ * registration is saved at the daemon. When the connection fails, a new one is opened in the background and attached
+ * to the saved registration with a single "registration load", so the endpoints are not registered again and the
+ * bundles queued in the meantime are announced to the handler. Only if the registration has expired in the meantime,
+ * the endpoints are registered again.
+ *
+ * Operations run through execute() are repeated on the new connection if the connection failed while they were in
+ * flight. A repeated send may therefore deliver a bundle twice. A bundle which was being received when the connection
+ * failed is announced again, since it has not been marked as delivered.
+ */
+public class ReconnectingClient {
+
+    private static final Logger logger = Logger.getLogger(ReconnectingClient.class.getName());
+
+    /**
+     * An operation on the current connection, which is repeated if the connection fails.
+     *
+     * @param <T> the type of the result
+     */
+    public interface Operation<T> {
+
+        T execute(ExtendedClient client) throws APIException;
+    }
+
+    private final ConnectionFactory factory;
+    private final CallbackHandler handler;
+    private String endpoint = null;
+    private final List<String> endpoints = new ArrayList<String>();
+    private final List<GroupEndpoint> groups = new ArrayList<GroupEndpoint>();
+    private long lifetime = 3600;
+    private int retries = 3;
+    private long timeout = TimeUnit.SECONDS.toMillis(30);
+    private long minDelay = 100;
+    private long maxDelay = TimeUnit.SECONDS.toMillis(30);
+
+    // guarded by this
+    private ExtendedClient client = null;
+    private String handle = null;
+    private Thread reconnector = null;
+    private boolean closed = false;
+    private int reconnects = 0;
+    private int resumes = 0;
+
+    /**
+     * @param factory the factory for the connections to the daemon
+     * @param handler the handler of the notifications and received bundles of all connections, or null
+     */
+    public ReconnectingClient(ConnectionFactory factory, CallbackHandler handler) {
+        this.factory = factory;
+        this.handler = handler;
+    }
+
+    /**
+     * @param id the application name of the primary endpoint, see ExtendedClient.setEndpoint()
+     */
+    public synchronized void setEndpoint(String id) {
+        this.endpoint = id;
+    }
+
+    /**
+     * @param id an additional application name, see ExtendedClient.addEndpoint()
+     */
+    public synchronized void addEndpoint(String id) {
+        endpoints.add(id);
+    }
+
+    /**
+     * @param eid a group endpoint, see ExtendedClient.addRegistration()
+     */
+    public synchronized void addRegistration(GroupEndpoint eid) {
+        groups.add(eid);
+    }
+
+    /**
+     * @param lifetime the time in seconds the daemon keeps the registration of a lost connection, 0 for unlimited
+     */
+    public void setLifetime(long lifetime) {
+        if (lifetime < 0) {
+            throw new IllegalArgumentException("negative lifetime");
+        }
+        this.lifetime = lifetime;
+    }
+
+    /**
+     * @param retries the number of times an operation is repeated after a connection failure
+     */
+    public void setRetries(int retries) {
+        this.retries = retries;
+    }
+
+    /**
+     * @param timeout the maximum time an operation waits for a connection
+     */
+    public void setTimeout(long timeout, TimeUnit unit) {
+        this.timeout = unit.toMillis(timeout);
+    }
+
+    /**
+     * Sets the delays between the attempts to reconnect, which double with every failed attempt.
+     */
+    public void setReconnectDelay(long min, long max, TimeUnit unit) {
+        if (min < 1 || max < min) {
+            throw new IllegalArgumentException("invalid delays");
+        }
+        this.minDelay = unit.toMillis(min);
+        this.maxDelay = unit.toMillis(max);
+    }
+
+    /**
+     * @return the handle of the saved registration or null before the first connect
+     */
+    public synchronized String getHandle() {
+        return handle;
+    }
+
+    /**
+     * Sets the handle of a registration saved by an earlier session, e.g. before the application was restarted. The
+     * first connect loads this registration instead of registering the endpoints.
+     */
+    public synchronized void setHandle(String handle) {
+        this.handle = handle;
+    }
+
+    /**
+     * @return the number of connections opened after a failure
+     */
+    public synchronized int getReconnects() {
+        return reconnects;
+    }
+
+    /**
+     * @return the number of reconnects which loaded the saved registration
+     */
+    public synchronized int getResumes() {
+        return resumes;
+    }
+
+    /**
+     * @return true, if the client is currently connected
+     */
+    public synchronized boolean isConnected() {
+        return client != null;
+    }
+
+    /**
+     * Opens the first connection and registers the endpoints, or loads the registration set by setHandle().
+     *
+     * @throws IOException if the connection to the daemon failed
+     * @throws APIException if the registration failed
+     */
+    public void open() throws IOException, APIException {
+        synchronized (this) {
+            if (closed || client != null || reconnector != null) {
+                throw new IOException("client in invalid state for open()");
+            }
+        }
+
+        ExtendedClient c = connect();
+        synchronized (this) {
+            if (!closed) {
+                client = c;
+                notifyAll();
+                return;
+            }
+        }
+        close(c);
+    }
+
+    /**
+     * Closes the connection. The saved registration is kept by the daemon until its lifetime expires.
+     */
+    public void close() {
+        ExtendedClient c;
+        Thread t;
+        synchronized (this) {
+            closed = true;
+            c = client;
+            client = null;
+            t = reconnector;
+            notifyAll();
+        }
+
+        if (t != null) {
+            t.interrupt();
+        }
+        close(c);
+    }
+
+    /**
+     * Runs an operation on the current connection. If the connection fails during the operation, the operation is
+     * run again as soon as the connection has been reestablished.
+     *
+     * @param operation the operation to run
+     * @return the result of the operation
+     * @throws APIException if the daemon rejected the operation, or no connection was available within the timeout
+     * or the operation failed more often than allowed by the retries
+     */
+    public <T> T execute(Operation<T> operation) throws APIException {
+        int failures = 0;
+
+        while (true) {
+            ExtendedClient c = await();
+            try {
+                return operation.execute(c);
+            } catch (APIException e) {
+                if (isAlive(c)) {
+                    throw e;
+                }
+                if (++failures > retries) {
+                    throw e;
+                }
+
+                logger.log(Level.WARNING, "Operation failed due to a connection failure: {0}", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Sends a bundle, see ExtendedClient.send(Bundle).
+     */
+    public void send(final Bundle bundle) throws APIException {
+        execute(new Operation<Void>() {
+            @Override
+            public Void execute(ExtendedClient client) throws APIException {
+                client.send(bundle);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Marks a bundle as delivered, see ExtendedClient.markDelivered(BundleID).
+     */
+    public void markDelivered(final BundleID id) throws APIException {
+        execute(new Operation<Void>() {
+            @Override
+            public Void execute(ExtendedClient client) throws APIException {
+                client.markDelivered(id);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Configures a new connection before it is opened. Subclasses may override this to set options like the
+     * pipelining or the metrics.
+     */
+    protected void configure(ExtendedClient client) {
+    }
+
+    /**
+     * Opens a connection and attaches it to the saved registration, or registers the endpoints and saves the
+     * registration if there is none. The commands are written together with the protocol switch, see ClientConfig.
+     */
+    private ExtendedClient connect() throws IOException, APIException {
+        final ExtendedClient c = new ExtendedClient() {
+            @Override
+            protected void mark_error() {
+                super.mark_error();
+                connectionLost(this);
+            }
+        };
+        c.setConnection(factory.createConnection());
+        if (handler != null) {
+            c.setHandler(handler);
+        }
+        configure(c);
+
+        // the save renews the lifetime of a loaded registration, if the load fails it saves the new one
+        ClientConfig config = new ClientConfig();
+        config.setPersistent(lifetime);
+        boolean fresh;
+        synchronized (this) {
+            fresh = (handle == null);
+            // a loaded registration does not change the endpoint of the session, which is the source of sent bundles
+            config.setEndpoint(endpoint);
+            if (fresh) {
+                for (String id : endpoints) {
+                    config.addEndpoint(id);
+                }
+                for (GroupEndpoint eid : groups) {
+                    config.addRegistration(eid);
+                }
+            } else {
+                config.setHandle(handle);
+            }
+        }
+        c.open(config);
+
+        try {
+            boolean resumed = c.isRegistrationLoaded();
+            if (!fresh && !resumed) {
+                register(c);
+            }
+
+            synchronized (this) {
+                handle = c.getRegistrationHandle();
+                if (reconnector != null) {
+                    reconnects++;
+                    if (resumed) {
+                        resumes++;
+                    }
+                }
+            }
+            return c;
+        } catch (APIException e) {
+            close(c);
+            throw e;
+        }
+    }
+
+    /**
+     * Registers the additional endpoints after the saved registration could not be loaded. The endpoint of the
+     * session has already been set by the configuration.
+     */
+    private void register(ExtendedClient c) throws APIException {
+        List<String> ids;
+        List<GroupEndpoint> eids;
+        synchronized (this) {
+            ids = new ArrayList<String>(endpoints);
+            eids = new ArrayList<GroupEndpoint>(groups);
+        }
+
+        for (String id : ids) {
+            c.addEndpoint(id);
+        }
+        for (GroupEndpoint eid : eids) {
+            c.addRegistration(eid);
+        }
+    }
+
+    /**
+     * Called by a connection which failed. Starts the reconnect if it is the current one.
+     */
+    private void connectionLost(ExtendedClient c) {
+        synchronized (this) {
+            if (closed || client != c) {
+                return;
+            }
+            client = null;
+
+            logger.log(Level.WARNING, "Connection lost, reconnecting");
+            reconnector = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    reconnect();
+                }
+            }, "ReconnectingClient");
+            reconnector.setDaemon(true);
+            reconnector.start();
+        }
+    }
+
+    private void reconnect() {
+        long delay = minDelay;
+
+        try {
+            while (true) {
+                synchronized (this) {
+                    if (closed) {
+                        return;
+                    }
+                }
+
+                ExtendedClient c = null;
+                try {
+                    c = connect();
+                } catch (IOException e) {
+                    logger.log(Level.FINE, "Reconnect failed: {0}", e.getMessage());
+                } catch (APIException e) {
+                    logger.log(Level.FINE, "Reconnect failed: {0}", e.getMessage());
+                }
+
+                if (c != null) {
+                    synchronized (this) {
+                        reconnector = null;
+                        if (!closed) {
+                            client = c;
+                            notifyAll();
+                            return;
+                        }
+                    }
+                    close(c);
+                    return;
+                }
+
+                Thread.sleep(delay);
+                delay = Math.min(delay * 2, maxDelay);
+            }
+        } catch (InterruptedException e) {
+            // closed
+        }
+    }
+
+    /**
+     * Waits for the current connection.
+     */
+    private synchronized ExtendedClient await() throws APIException {
+        long deadline = System.currentTimeMillis() + timeout;
+        try {
+            while (client == null && !closed) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    throw new APIException("not connected");
+                }
+                wait(remaining);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new APIException("Interrupted");
+        }
+
+        if (closed) {
+            throw new APIException("client closed");
+        }
+        return client;
+    }
+
+    /**
+     * Distinguishes a rejected operation from a failed connection. A connection which is still open is probed with a
+     * noop, since the receiver may not have noticed a broken connection yet.
+     */
+    private boolean isAlive(ExtendedClient c) {
+        if (!c.isConnected()) {
+            return false;
+        }
+
+        try {
+            // any response proves the connection, the daemon does not know the command
+            c.submit("noop").get();
+            return true;
+        } catch (APIException e) {
+            c.mark_error();
+            return false;
+        }
+    }
+
+    private static void close(ExtendedClient client) {
+        if (client == null) {
+            return;
+        }
+        try {
+            client.close();
+        } catch (IOException e) {
+        }
+    }
+}
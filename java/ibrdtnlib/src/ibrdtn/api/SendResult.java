@@ -0,0 +1,64 @@
+/*
+ * SendResult.java
+ *
+ * Copyright (C) 2011 IBR, TU Braunschweig
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package ibrdtn.api;
+
+import ibrdtn.api.object.Bundle;
+
+/**
+ * The outcome of a single bundle of a batch submitted with ExtendedClient.sendAll().
+ */
+public class SendResult {
+
+    private final Bundle bundle;
+    private final APIException error;
+
+    public SendResult(Bundle bundle, APIException error) {
+        this.bundle = bundle;
+        this.error = error;
+    }
+
+    /**
+     * @return the submitted bundle
+     */
+    public Bundle getBundle() {
+        return bundle;
+    }
+
+    /**
+     * @return true, if the daemon accepted and sent the bundle
+     */
+    public boolean isSuccess() {
+        return (error == null);
+    }
+
+    /**
+     * @return the reason of the failure or null if the bundle has been sent
+     */
+    public APIException getError() {
+        return error;
+    }
+
+    @Override
+    public String toString() {
+        if (error == null) {
+            return "SendResult: sent";
+        }
+        return "SendResult: " + error.getMessage();
+    }
+}
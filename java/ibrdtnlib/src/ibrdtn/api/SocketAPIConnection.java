@@ -24,6 +24,11 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 
+/**
+ * A connection to the API port of a daemon. The socket is not opened through a SocketChannel, since an interrupt of
+ * any thread blocked in a channel operation would close the connection shared by all threads of the client. Thus
+ * file backed block data is written through the output stream instead of being transferred to a channel.
+ */
 public class SocketAPIConnection implements APIConnection  {
 	
 	private java.net.Socket _socket = null;
@@ -50,4 +50,19 @@ public class Timestamp {
 	{
 		return (getDate().getTime() / 1000) - Timestamp.TIMEVAL_CONVERSION;
 	}
+
+	@Override
+	public boolean equals(Object obj)
+	{
+		if (obj instanceof Timestamp) {
+			return getValue().equals(((Timestamp) obj).getValue());
+		}
+		return false;
+	}
+
+	@Override
+	public int hashCode()
+	{
+		return getValue().hashCode();
+	}
 }
@@ -0,0 +1,101 @@
+/*
+ * UnixDomainSocketAPIConnection.java
+ *
+ * Copyright (C) 2011 IBR, TU Braunschweig
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package ibrdtn.api;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * A connection to the API socket of a local daemon (option "api_socket" of the daemon configuration). Skips the
+ * loopback TCP stack of the SocketAPIConnection.
+ *
+ * The socket is a SocketChannel, so file backed block data is transferred to it directly. As with any interruptible
+ * channel, an interrupt of a thread blocked in a read or write closes the connection.
+ */
+public class UnixDomainSocketAPIConnection implements ChannelAPIConnection {
+
+	public static final String DEFAULT_PATH = "/tmp/ibrdtn.sock";
+
+	private SocketChannel _channel = null;
+	private String _path = DEFAULT_PATH;
+	private InputStream _input = null;
+	private OutputStream _output = null;
+
+	public UnixDomainSocketAPIConnection()
+	{
+	}
+
+	public UnixDomainSocketAPIConnection(String path)
+	{
+		this._path = path;
+	}
+
+	@Override
+	public void open() throws IOException
+	{
+		if (_channel != null)
+		{
+			_channel.close();
+		}
+		_channel = SocketChannel.open(StandardProtocolFamily.UNIX);
+		_channel.connect(UnixDomainSocketAddress.of(_path));
+
+		// the stream adapters of java.nio.channels.Channels lock the channel, so reading and
+		// writing from different threads would block each other
+		_input = new ChannelInputStream(_channel);
+		_output = new ChannelOutputStream(_channel);
+	}
+
+	@Override
+	public Boolean isConnected() {
+		if (_channel == null) return false;
+		return _channel.isConnected();
+	}
+
+	@Override
+	public Boolean isClosed() {
+		if (_channel == null) return true;
+		return !_channel.isOpen();
+	}
+
+	@Override
+	public OutputStream getOutputStream() throws IOException {
+		return _output;
+	}
+
+	@Override
+	public InputStream getInputStream() throws IOException {
+		return _input;
+	}
+
+	@Override
+	public WritableByteChannel getChannel() {
+		return _channel;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (_channel != null) _channel.close();
+	}
+}
@@ -0,0 +1,184 @@
+/*
+ * BinarySerializer.java
+ *
+ * Copyright (C) 2011 IBR, TU Braunschweig
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package ibrdtn.api.object;
+
+import ibrdtn.api.Base64;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.WritableByteChannel;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Serializes bundles in the RFC 5050 binary format as accepted by "bundle put binary". In contrast to the
+ * PlainSerializer the block data is written as it is, without base64 encoding.
+ */
+public class BinarySerializer {
+	public static final int BUNDLE_VERSION = 0x06;
+
+	private static final String NONE = "dtn:none";
+
+	private OutputStream _stream;
+	private WritableByteChannel _channel = null;
+	
+	public BinarySerializer(OutputStream stream)
+	{
+		_stream = stream;
+	}
+	
+	/**
+	 * Block data implementing TransferableData is written directly to the channel.
+	 * @param stream the stream to write to
+	 * @param channel the channel the stream writes to
+	 */
+	public BinarySerializer(OutputStream stream, WritableByteChannel channel)
+	{
+		_stream = stream;
+		_channel = channel;
+	}
+	
+	/**
+	 * Serialize a bundle into the OutputStream given to the constructor
+	 * @param bundle the bundle to serialize
+	 * @throws IOException thrown if writing to the OutputStream failed.
+	 */
+	public void serialize(Bundle bundle) throws IOException
+	{
+		Dictionary dict = new Dictionary();
+		dict.add(eidString(bundle.destination));
+		dict.add(eidString(bundle.source));
+		dict.add(eidString(bundle.reportto));
+		dict.add(eidString(bundle.custodian));
+		for(Block block : bundle.blocks) {
+			for(EID eid : block.getEIDS())
+				dict.add(eid.toString());
+		}
+
+		serializePrimaryBlock(bundle, dict);
+		for(Block block : bundle.blocks){
+			serializeBlock(block, dict);
+		}
+		_stream.flush();
+	}
+	
+	private void serializePrimaryBlock(Bundle bundle, Dictionary dict) throws IOException
+	{
+		// the block length covers everything after the length field
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		dict.writeRef(body, eidString(bundle.destination));
+		dict.writeRef(body, eidString(bundle.source));
+		dict.writeRef(body, eidString(bundle.reportto));
+		dict.writeRef(body, eidString(bundle.custodian));
+		writeSDNV(body, (bundle.timestamp == null) ? 0 : bundle.timestamp.getValue());
+		writeSDNV(body, (bundle.sequenceNumber == null) ? 0 : bundle.sequenceNumber);
+		writeSDNV(body, bundle.lifetime);
+		writeSDNV(body, dict.size());
+		dict.writeTo(body);
+
+		if(((bundle.procFlags >> Bundle.Flags.FRAGMENT.getOffset()) & 0x1) == 0x1) {
+			writeSDNV(body, (bundle.getFragmentOffset() == null) ? 0 : bundle.getFragmentOffset());
+			writeSDNV(body, (bundle.getAppDataLength() == null) ? 0 : bundle.getAppDataLength());
+		}
+
+		_stream.write(BUNDLE_VERSION);
+		writeSDNV(_stream, bundle.procFlags);
+		writeSDNV(_stream, body.size());
+		body.writeTo(_stream);
+	}
+	
+	private void serializeBlock(Block block, Dictionary dict) throws IOException
+	{
+		Block.Data data = block.getData();
+		Set<EID> eids = block.getEIDS();
+
+		// write header
+		_stream.write(block.getType());
+		writeSDNV(_stream, block.procflags);
+		if(!eids.isEmpty()) {
+			writeSDNV(_stream, eids.size());
+			for(EID eid : eids)
+				dict.writeRef(_stream, eid.toString());
+		}
+		writeSDNV(_stream, data.size());
+
+		if(_channel != null && data instanceof TransferableData) {
+			_stream.flush();
+			((TransferableData)data).transferTo(_channel);
+		} else if(data instanceof SelfEncodingObjectBlockData) {
+			// these objects only know how to write themselves base64 encoded
+			Base64.OutputStream decoder = new Base64.OutputStream(_stream, Base64.DECODE);
+			data.writeTo(decoder);
+			decoder.flushBase64();
+		} else {
+			data.writeTo(_stream);
+		}
+	}
+
+	private static String eidString(EID eid) {
+		return (eid == null) ? NONE : eid.toString();
+	}
+
+	private static void writeSDNV(OutputStream stream, long value) throws IOException {
+		SDNV.write(value, stream);
+	}
+
+	/**
+	 * The EID dictionary of the primary block. Each scheme and SSP is stored once as null-terminated string and
+	 * referenced by its offset.
+	 */
+	private static class Dictionary {
+		private final ByteArrayOutputStream _data = new ByteArrayOutputStream();
+		private final Map<String, Integer> _offsets = new HashMap<String, Integer>();
+
+		public void add(String eid) {
+			int split = eid.indexOf(':');
+			offset(eid.substring(0, split));
+			offset(eid.substring(split + 1));
+		}
+
+		public void writeRef(OutputStream stream, String eid) throws IOException {
+			int split = eid.indexOf(':');
+			writeSDNV(stream, offset(eid.substring(0, split)));
+			writeSDNV(stream, offset(eid.substring(split + 1)));
+		}
+
+		public int size() {
+			return _data.size();
+		}
+
+		public void writeTo(OutputStream stream) throws IOException {
+			_data.writeTo(stream);
+		}
+
+		private int offset(String value) {
+			Integer offset = _offsets.get(value);
+			if(offset == null) {
+				offset = _data.size();
+				byte[] bytes = value.getBytes();
+				_data.write(bytes, 0, bytes.length);
+				_data.write(0);
+				_offsets.put(value, offset);
+			}
+			return offset;
+		}
+	}
+}
@@ -113,7 +113,7 @@ public class Bundle {
     }
 
     public Boolean getFlag(Flags flag) {
-        return (flag.getOffset() & this.procFlags) > 0;
+        return (this.procFlags & (0b1L << flag.getOffset())) != 0;
     }
 
     public Priority getPriority() {
@@ -113,43 +113,44 @@ public class BundleID {
         }
     }
 
+    /**
+     * Two bundle ids are equal if they have the same source, creation timestamp and sequence number and, for
+     * fragments, the same fragment offset. The processing flags are not part of the id.
+     */
     @Override
     public boolean equals(Object obj) {
-        if (obj instanceof BundleID) {
-            BundleID foreignId = (BundleID) obj;
-
-            if (timestamp != null) {
-                if (!timestamp.equals(foreignId.timestamp)) {
-                    return false;
-                }
-            }
-
-            if (sequenceNumber != null) {
-                if (!sequenceNumber.equals(foreignId.sequenceNumber)) {
-                    return false;
-                }
-            }
-
-            if (source != null) {
-                if (!source.equals(foreignId.source)) {
-                    return false;
-                }
-            }
-
-            if (isFragment) {
-                if (!foreignId.isFragment) {
-                    return false;
-                }
-
-                if (fragOffset != null) {
-                    if (!fragOffset.equals(foreignId.fragOffset)) {
-                        return false;
-                    }
-                }
-            }
-
+        if (this == obj) {
             return true;
         }
-        return super.equals(obj);
+        if (!(obj instanceof BundleID)) {
+            return false;
+        }
+
+        BundleID foreignId = (BundleID) obj;
+        if (isFragment != foreignId.isFragment) {
+            return false;
+        }
+        if (isFragment && !equal(fragOffset, foreignId.fragOffset)) {
+            return false;
+        }
+
+        return equal(sequenceNumber, foreignId.sequenceNumber)
+                && equal(timestamp, foreignId.timestamp)
+                && equal(source, foreignId.source);
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = (timestamp == null) ? 0 : timestamp.hashCode();
+        hash = 31 * hash + ((sequenceNumber == null) ? 0 : sequenceNumber.hashCode());
+        hash = 31 * hash + ((source == null) ? 0 : source.hashCode());
+        if (isFragment) {
+            hash = 31 * hash + ((fragOffset == null) ? 0 : fragOffset.hashCode()) + 1;
+        }
+        return hash;
+    }
+
+    private static boolean equal(Object a, Object b) {
+        return (a == null) ? (b == null) : a.equals(b);
     }
 }
@@ -0,0 +1,272 @@
+/*
+ * BundleIdMap.java
+ *
+ * Copyright (C) 2011 IBR, TU Braunschweig
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package ibrdtn.api.object;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A map from bundles to values for the tracking of a large number of bundles in flight, e.g. to match delivery
+ * reports with sent bundles. The keys are stored as primitives in parallel arrays with linear probing, so an entry
+ * needs no objects besides its value, and a lookup by the fields of a bundle id allocates nothing.
+ *
+ * The map is not thread-safe. Null values are not permitted, get returns null if there is no entry.
+ *
+ * @param <V> the type of the values
+ */
+public class BundleIdMap<V> {
+
+    private static final int MINIMUM_CAPACITY = 16;
+
+    // a source of 0 marks a free slot, interned EIDs start at 1
+    private int[] sources;
+    private long[] timestamps;
+    private long[] sequenceNumbers;
+    private long[] fragOffsets;
+    private Object[] values;
+    private int mask;
+    private int size = 0;
+    private int threshold;
+
+    public BundleIdMap() {
+        this(MINIMUM_CAPACITY);
+    }
+
+    /**
+     * @param expectedSize the number of entries the map holds without resizing
+     */
+    public BundleIdMap(int expectedSize) {
+        if (expectedSize < 0) {
+            throw new IllegalArgumentException("negative size");
+        }
+
+        int capacity = MINIMUM_CAPACITY;
+        while (capacity - (capacity >>> 2) < expectedSize) {
+            capacity <<= 1;
+            if (capacity <= 0) {
+                throw new IllegalArgumentException("size too large");
+            }
+        }
+        allocate(capacity);
+    }
+
+    private void allocate(int capacity) {
+        sources = new int[capacity];
+        timestamps = new long[capacity];
+        sequenceNumbers = new long[capacity];
+        fragOffsets = new long[capacity];
+        values = new Object[capacity];
+        mask = capacity - 1;
+        // resize at a load factor of 0.75
+        threshold = capacity - (capacity >>> 2);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public V get(BundleKey key) {
+        return get(key.getSourceId(), key.getTimestamp(), key.getSequenceNumber(), key.getFragOffset());
+    }
+
+    /**
+     * Looks up a bundle by its fields, without creating a key.
+     *
+     * @param fragOffset the offset of the fragment or BundleKey.NO_FRAGMENT
+     */
+    public V get(EID source, long timestamp, long sequenceNumber, long fragOffset) {
+        return get(BundleKey.lookup(source), timestamp, sequenceNumber, fragOffset);
+    }
+
+    @SuppressWarnings("unchecked")
+    private V get(int source, long timestamp, long sequenceNumber, long fragOffset) {
+        int slot = find(source, timestamp, sequenceNumber, fragOffset);
+        return (slot < 0) ? null : (V) values[slot];
+    }
+
+    public boolean containsKey(BundleKey key) {
+        return get(key) != null;
+    }
+
+    /**
+     * @return the previous value of the key or null
+     */
+    @SuppressWarnings("unchecked")
+    public V put(BundleKey key, V value) {
+        if (value == null) {
+            throw new IllegalArgumentException("null values are not permitted");
+        }
+
+        int source = key.getSourceId();
+        long timestamp = key.getTimestamp();
+        long sequenceNumber = key.getSequenceNumber();
+        long fragOffset = key.getFragOffset();
+
+        int slot = BundleKey.hash(source, timestamp, sequenceNumber, fragOffset) & mask;
+        while (sources[slot] != 0) {
+            if (matches(slot, source, timestamp, sequenceNumber, fragOffset)) {
+                V previous = (V) values[slot];
+                values[slot] = value;
+                return previous;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        sources[slot] = source;
+        timestamps[slot] = timestamp;
+        sequenceNumbers[slot] = sequenceNumber;
+        fragOffsets[slot] = fragOffset;
+        values[slot] = value;
+
+        if (++size > threshold) {
+            rehash(sources.length << 1);
+        }
+        return null;
+    }
+
+    /**
+     * @return the removed value or null if there was no entry
+     */
+    public V remove(BundleKey key) {
+        return remove(key.getSourceId(), key.getTimestamp(), key.getSequenceNumber(), key.getFragOffset());
+    }
+
+    /**
+     * Removes a bundle by its fields, without creating a key.
+     *
+     * @param fragOffset the offset of the fragment or BundleKey.NO_FRAGMENT
+     * @return the removed value or null if there was no entry
+     */
+    public V remove(EID source, long timestamp, long sequenceNumber, long fragOffset) {
+        return remove(BundleKey.lookup(source), timestamp, sequenceNumber, fragOffset);
+    }
+
+    @SuppressWarnings("unchecked")
+    private V remove(int source, long timestamp, long sequenceNumber, long fragOffset) {
+        int slot = find(source, timestamp, sequenceNumber, fragOffset);
+        if (slot < 0) {
+            return null;
+        }
+
+        V previous = (V) values[slot];
+        shift(slot);
+        size--;
+        return previous;
+    }
+
+    public void clear() {
+        Arrays.fill(sources, 0);
+        Arrays.fill(values, null);
+        size = 0;
+    }
+
+    /**
+     * @return a snapshot of the keys in no particular order
+     */
+    public List<BundleKey> keys() {
+        List<BundleKey> keys = new ArrayList<BundleKey>(size);
+        for (int i = 0; i < sources.length; i++) {
+            if (sources[i] != 0) {
+                keys.add(new BundleKey(sources[i], timestamps[i], sequenceNumbers[i], fragOffsets[i]));
+            }
+        }
+        return keys;
+    }
+
+    private int find(int source, long timestamp, long sequenceNumber, long fragOffset) {
+        if (source == 0) {
+            return -1;
+        }
+
+        int slot = BundleKey.hash(source, timestamp, sequenceNumber, fragOffset) & mask;
+        while (sources[slot] != 0) {
+            if (matches(slot, source, timestamp, sequenceNumber, fragOffset)) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    private boolean matches(int slot, int source, long timestamp, long sequenceNumber, long fragOffset) {
+        return sequenceNumbers[slot] == sequenceNumber && timestamps[slot] == timestamp
+                && sources[slot] == source && fragOffsets[slot] == fragOffset;
+    }
+
+    /**
+     * Frees a slot and moves the following entries of the probe sequence back, so no tombstones are needed.
+     */
+    private void shift(int free) {
+        int slot = free;
+        while (true) {
+            slot = (slot + 1) & mask;
+            if (sources[slot] == 0) {
+                break;
+            }
+
+            int home = BundleKey.hash(sources[slot], timestamps[slot], sequenceNumbers[slot], fragOffsets[slot]) & mask;
+            // the entry may fill the gap if its home slot is not between the gap and its current slot
+            if (((slot - home) & mask) >= ((slot - free) & mask)) {
+                sources[free] = sources[slot];
+                timestamps[free] = timestamps[slot];
+                sequenceNumbers[free] = sequenceNumbers[slot];
+                fragOffsets[free] = fragOffsets[slot];
+                values[free] = values[slot];
+                free = slot;
+            }
+        }
+
+        sources[free] = 0;
+        values[free] = null;
+    }
+
+    private void rehash(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalStateException("map too large");
+        }
+
+        int[] oldSources = sources;
+        long[] oldTimestamps = timestamps;
+        long[] oldSequenceNumbers = sequenceNumbers;
+        long[] oldFragOffsets = fragOffsets;
+        Object[] oldValues = values;
+        allocate(capacity);
+
+        for (int i = 0; i < oldSources.length; i++) {
+            if (oldSources[i] == 0) {
+                continue;
+            }
+
+            int slot = BundleKey.hash(oldSources[i], oldTimestamps[i], oldSequenceNumbers[i], oldFragOffsets[i]) & mask;
+            while (sources[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            sources[slot] = oldSources[i];
+            timestamps[slot] = oldTimestamps[i];
+            sequenceNumbers[slot] = oldSequenceNumbers[i];
+            fragOffsets[slot] = oldFragOffsets[i];
+            values[slot] = oldValues[i];
+        }
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * BundleKey.java
+ *
+ * Copyright (C) 2011 IBR, TU Braunschweig
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package ibrdtn.api.object;
+
+import ibrdtn.api.Timestamp;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An immutable key which identifies a bundle, for the tracking of sent or received bundles in maps. In contrast to a
+ * BundleID it holds only primitives: the source EID is interned to a number, and a bundle which is not a fragment has
+ * the fragment offset -1.
+ *
+ * The interned EIDs are never released, since an application usually deals with a limited number of sources.
+ */
+public final class BundleKey {
+
+    /**
+     * The fragment offset of a bundle which is not a fragment.
+     */
+    public static final long NO_FRAGMENT = -1;
+
+    private static final ConcurrentHashMap<String, Integer> endpointIds = new ConcurrentHashMap<String, Integer>();
+    private static volatile String[] endpoints = new String[64];
+    private static int endpointCount = 0;
+
+    private final int source;
+    private final long timestamp;
+    private final long sequenceNumber;
+    private final long fragOffset;
+
+    public BundleKey(EID source, long timestamp, long sequenceNumber) {
+        this(source, timestamp, sequenceNumber, NO_FRAGMENT);
+    }
+
+    /**
+     * @param fragOffset the offset of the fragment or NO_FRAGMENT
+     */
+    public BundleKey(EID source, long timestamp, long sequenceNumber, long fragOffset) {
+        this(intern(source), timestamp, sequenceNumber, fragOffset);
+    }
+
+    BundleKey(int source, long timestamp, long sequenceNumber, long fragOffset) {
+        if (fragOffset < NO_FRAGMENT) {
+            throw new IllegalArgumentException("negative fragment offset");
+        }
+        this.source = source;
+        this.timestamp = timestamp;
+        this.sequenceNumber = sequenceNumber;
+        this.fragOffset = fragOffset;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the source, timestamp or sequence number of the id is not set
+     */
+    public static BundleKey valueOf(BundleID id) {
+        if (id.getTimestamp() == null || id.getSequenceNumber() == null) {
+            throw new IllegalArgumentException("incomplete bundle id");
+        }
+
+        long offset = NO_FRAGMENT;
+        if (id.isFragment()) {
+            offset = (id.getFragOffset() == null) ? 0 : id.getFragOffset();
+        }
+        return new BundleKey(id.getSource(), id.getTimestamp().getValue(), id.getSequenceNumber(), offset);
+    }
+
+    public static BundleKey valueOf(Bundle bundle) {
+        return valueOf(new BundleID(bundle));
+    }
+
+    /**
+     * Returns the number of an EID, which is assigned on the first call.
+     *
+     * @throws IllegalArgumentException if the EID is null
+     */
+    static int intern(EID eid) {
+        if (eid == null || eid.toString() == null) {
+            throw new IllegalArgumentException("source EID is null");
+        }
+
+        Integer id = endpointIds.get(eid.toString());
+        if (id != null) {
+            return id;
+        }
+
+        synchronized (endpointIds) {
+            id = endpointIds.get(eid.toString());
+            if (id == null) {
+                // 0 is never assigned, it marks the free slots of a BundleIdMap
+                id = ++endpointCount;
+                String[] names = endpoints;
+                if (id >= names.length) {
+                    String[] grown = new String[names.length * 2];
+                    System.arraycopy(names, 0, grown, 0, names.length);
+                    names = grown;
+                }
+                names[id] = eid.toString();
+                endpoints = names;
+                endpointIds.put(eid.toString(), id);
+            }
+            return id;
+        }
+    }
+
+    /**
+     * @return the number of an EID or 0 if it has never been interned
+     */
+    static int lookup(EID eid) {
+        Integer id = (eid == null || eid.toString() == null) ? null : endpointIds.get(eid.toString());
+        return (id == null) ? 0 : id;
+    }
+
+    static String endpoint(int id) {
+        return endpoints[id];
+    }
+
+    /**
+     * Mixes the fields of a key, so consecutive sequence numbers are spread over the whole range.
+     */
+    static int hash(int source, long timestamp, long sequenceNumber, long fragOffset) {
+        long h = timestamp;
+        h = h * 31 + sequenceNumber;
+        h = h * 31 + fragOffset;
+        h = h * 31 + source;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return (int) h;
+    }
+
+    public SingletonEndpoint getSource() {
+        return new SingletonEndpoint(endpoint(source));
+    }
+
+    int getSourceId() {
+        return source;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public long getSequenceNumber() {
+        return sequenceNumber;
+    }
+
+    public boolean isFragment() {
+        return fragOffset != NO_FRAGMENT;
+    }
+
+    /**
+     * @return the offset of the fragment or NO_FRAGMENT
+     */
+    public long getFragOffset() {
+        return fragOffset;
+    }
+
+    public BundleID toBundleID() {
+        BundleID id = new BundleID(getSource(), new Timestamp(timestamp), sequenceNumber);
+        if (isFragment()) {
+            id.setFragOffset(fragOffset);
+        }
+        return id;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj instanceof BundleKey) {
+            BundleKey other = (BundleKey) obj;
+            return source == other.source && timestamp == other.timestamp
+                    && sequenceNumber == other.sequenceNumber && fragOffset == other.fragOffset;
+        }
+        return false;
+    }
+
+    @Override
+    public int hashCode() {
+        return hash(source, timestamp, sequenceNumber, fragOffset);
+    }
+
+    /**
+     * @return the key in the format of the API, like BundleID.toString()
+     */
+    @Override
+    public String toString() {
+        if (isFragment()) {
+            return timestamp + " " + sequenceNumber + " " + fragOffset + " " + endpoint(source);
+        } else {
+            return timestamp + " " + sequenceNumber + " " + endpoint(source);
+        }
+    }
+}
@@ -37,4 +37,21 @@ public abstract class EID implements Comparable<EID> {
     public int compareTo(EID o) {
         return _eid.compareTo(o._eid);
     }
+
+    /**
+     * Two EIDs are equal if their string representations are, consistent with compareTo.
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if (obj instanceof EID) {
+            String other = ((EID) obj)._eid;
+            return (_eid == null) ? (other == null) : _eid.equals(other);
+        }
+        return false;
+    }
+
+    @Override
+    public int hashCode() {
+        return (_eid == null) ? 0 : _eid.hashCode();
+    }
 }
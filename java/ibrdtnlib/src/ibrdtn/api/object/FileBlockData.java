@@ -0,0 +1,113 @@
+/*
+ * FileBlockData.java
+ *
+ * Copyright (C) 2011 IBR, TU Braunschweig
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package ibrdtn.api.object;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Block data read from a file or a region of it. The file is opened each time the data is written, so unlike
+ * InputStreamBlockData the data can be written more than once. Written to a channel, the data is moved with
+ * FileChannel.transferTo().
+ */
+public class FileBlockData extends Block.Data implements TransferableData {
+
+	private final File _file;
+	private final long _offset;
+	private final long _length;
+
+	/**
+	 * @param file the file containing the data
+	 */
+	public FileBlockData(File file) {
+		this(file, 0, file.length());
+	}
+
+	/**
+	 * @param file the file containing the data
+	 * @param offset the position of the data in the file
+	 * @param length the length of the data
+	 */
+	public FileBlockData(File file, long offset, long length) {
+		if (offset < 0 || length < 0) {
+			throw new IllegalArgumentException("invalid region");
+		}
+		_file = file;
+		_offset = offset;
+		_length = length;
+	}
+
+	public File getFile() {
+		return _file;
+	}
+
+	@Override
+	public long size() {
+		return _length;
+	}
+
+	/**
+	 * Reads the file without a FileChannel, which would be closed by an interrupt of the writing thread and leave the
+	 * stream with a truncated block.
+	 */
+	@Override
+	public void writeTo(OutputStream stream) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(_file, "r");
+		try {
+			byte[] buf = new byte[(int) Math.min(65536, Math.max(_length, 1))];
+			long remaining = _length;
+			file.seek(_offset);
+
+			while (remaining > 0) {
+				int len = file.read(buf, 0, (int) Math.min(buf.length, remaining));
+				if (len < 0) {
+					throw new IOException("file is shorter than the block data");
+				}
+				stream.write(buf, 0, len);
+				remaining -= len;
+			}
+		} finally {
+			file.close();
+		}
+	}
+
+	@Override
+	public void transferTo(WritableByteChannel target) throws IOException {
+		FileChannel channel = FileChannel.open(_file.toPath(), StandardOpenOption.READ);
+		try {
+			long position = _offset;
+			long end = _offset + _length;
+
+			while (position < end) {
+				long len = channel.transferTo(position, end - position, target);
+				if (len <= 0 && position >= channel.size()) {
+					throw new IOException("file is shorter than the block data");
+				}
+				position += len;
+			}
+		} finally {
+			channel.close();
+		}
+	}
+}
@@ -0,0 +1,89 @@
+/*
+ * MappedBlockData.java
+ *
+ * Copyright (C) 2011 IBR, TU Braunschweig
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package ibrdtn.api.object;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Block data held by a ByteBuffer, e.g. a memory-mapped region of a file. The content between position and limit of
+ * the buffer is the data of the block, the buffer itself is not modified.
+ */
+public class MappedBlockData extends Block.Data implements TransferableData {
+
+	private final ByteBuffer _buffer;
+
+	public MappedBlockData(ByteBuffer buffer) {
+		_buffer = buffer.duplicate();
+	}
+
+	/**
+	 * Maps a region of a file read-only into memory.
+	 *
+	 * @param file the file to map
+	 * @param offset the position of the region in the file
+	 * @param length the length of the region
+	 * @return the block data of the region
+	 * @throws IOException if the file could not be mapped
+	 */
+	public static MappedBlockData map(File file, long offset, long length) throws IOException {
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		try {
+			// the mapping stays valid after the channel has been closed
+			return new MappedBlockData(channel.map(FileChannel.MapMode.READ_ONLY, offset, length));
+		} finally {
+			channel.close();
+		}
+	}
+
+	@Override
+	public long size() {
+		return _buffer.remaining();
+	}
+
+	@Override
+	public void writeTo(OutputStream stream) throws IOException {
+		ByteBuffer data = _buffer.duplicate();
+
+		if (data.hasArray()) {
+			stream.write(data.array(), data.arrayOffset() + data.position(), data.remaining());
+			return;
+		}
+
+		byte[] buf = new byte[Math.min(65536, Math.max(data.remaining(), 1))];
+		while (data.hasRemaining()) {
+			int len = Math.min(buf.length, data.remaining());
+			data.get(buf, 0, len);
+			stream.write(buf, 0, len);
+		}
+	}
+
+	@Override
+	public void transferTo(WritableByteChannel channel) throws IOException {
+		ByteBuffer data = _buffer.duplicate();
+		while (data.hasRemaining()) {
+			channel.write(data);
+		}
+	}
+}
@@ -20,29 +20,48 @@
  */
 package ibrdtn.api.object;
 
-import ibrdtn.api.NullOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.ObjectOutputStream;
 import java.io.OutputStream;
 
 /**
- * This class wraps an object to be used as block data. The object will be serialized when written to a stream.
+ * This class wraps an object to be used as block data. The object is encoded once, when the size or the data is
+ * requested for the first time, and the encoded data is reused for all further calls. Changes to the object after
+ * that are not reflected by the block data.
  */
 public class ObjectBlockData extends Block.Data {
 
     Object _obj;
+    private final PayloadCodec<Object> _codec;
+    private ByteArrayOutputStream _encoded = null;
 
     public ObjectBlockData(Object obj) {
+        this(obj, SerializableCodec.INSTANCE);
+    }
+
+    /**
+     * @param obj the object to encode
+     * @param codec the codec for the object
+     */
+    @SuppressWarnings("unchecked")
+    public <T> ObjectBlockData(T obj, PayloadCodec<? super T> codec) {
         _obj = obj;
+        _codec = (PayloadCodec<Object>) codec;
+    }
+
+    private synchronized ByteArrayOutputStream encoded() throws IOException {
+        if (_encoded == null) {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream(256);
+            _codec.encode(_obj, buffer);
+            _encoded = buffer;
+        }
+        return _encoded;
     }
 
     @Override
     public long size() {
-        NullOutputStream nullStream = new NullOutputStream();
         try {
-            writeTo(nullStream);
-            nullStream.flush();
-            return nullStream.getCount();
+            return encoded().size();
         } catch (IOException e) {
             return 0;
         }
@@ -50,7 +69,6 @@ public class ObjectBlockData extends Block.Data {
 
     @Override
     public void writeTo(OutputStream stream) throws IOException {
-        ObjectOutputStream oos = new ObjectOutputStream(stream);
-        oos.writeObject(_obj);
+        encoded().writeTo(stream);
     }
 }
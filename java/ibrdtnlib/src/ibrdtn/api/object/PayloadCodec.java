@@ -0,0 +1,50 @@
+/*
+ * PayloadCodec.java
+ *
+ * Copyright (C) 2011 IBR, TU Braunschweig
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package ibrdtn.api.object;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Converts application objects to payload data and back. Applications can provide a compact encoding for their
+ * payload types instead of relying on java.io.Serializable, see SerializableCodec for the default.
+ *
+ * @param <T> the type of the encoded objects
+ */
+public interface PayloadCodec<T> {
+
+    /**
+     * Writes the encoded object to the stream.
+     *
+     * @param value the object to encode
+     * @param stream the stream for the encoded data
+     * @throws IOException if the object could not be encoded or writing to the stream failed
+     */
+    public void encode(T value, OutputStream stream) throws IOException;
+
+    /**
+     * Reads an encoded object from the stream.
+     *
+     * @param stream the stream containing the encoded data
+     * @return the decoded object
+     * @throws IOException if the data could not be decoded
+     */
+    public T decode(InputStream stream) throws IOException;
+}
@@ -24,16 +24,29 @@ import ibrdtn.api.Base64;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.channels.WritableByteChannel;
 import java.util.Set;
 
 public class PlainSerializer {
 	private OutputStream _stream;
+	private WritableByteChannel _channel = null;
 	
 	public PlainSerializer(OutputStream stream)
 	{
 		_stream = stream;
 	}
 	
+	/**
+	 * Block data implementing TransferableData is written raw and directly to the channel.
+	 * @param stream the stream to write to
+	 * @param channel the channel the stream writes to
+	 */
+	public PlainSerializer(OutputStream stream, WritableByteChannel channel)
+	{
+		_stream = stream;
+		_channel = channel;
+	}
+	
 	/**
 	 * Serialize a bundle into the OutputStream given to the constructor
 	 * @param bundle the bundle to serialize
@@ -80,11 +93,18 @@ public class PlainSerializer {
 			for(EID eid : eids)
 				writeString("EID: " + eid + "\n");
 		writeString("Length: " + data.size() + "\n");
-		writeString("\n");
 		
-		if(data instanceof SelfEncodingObjectBlockData) {
+		if(_channel != null && data instanceof TransferableData) {
+			// the daemon reads exactly Length bytes of raw data
+			writeString("Encoding: raw\n");
+			writeString("\n");
+			_stream.flush();
+			((TransferableData)data).transferTo(_channel);
+		} else if(data instanceof SelfEncodingObjectBlockData) {
+			writeString("\n");
 			data.writeTo(_stream);
 		} else {
+			writeString("\n");
 			// write data base64 encoded to outputStream
 			Base64.OutputStream base64out = new Base64.OutputStream(_stream, Base64.ENCODE | Base64.DO_BREAK_LINES);
 			data.writeTo(base64out);
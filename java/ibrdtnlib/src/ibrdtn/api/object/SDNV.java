@@ -20,25 +20,44 @@
  */
 package ibrdtn.api.object;
 
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * A self-delimiting numeric value. The static methods encode and decode values without creating SDNV objects or byte
+ * arrays, they should be used when reading or writing binary data.
+ */
 public class SDNV implements Comparable<SDNV> {
 
 	//SIZE-1 since only positive numbers are allowed, rounded up to a multiple of 7
 	//divided by 7 to get the number of 7bit blocks;
-	public static final int MAX_SDNV_BYTES = ((Long.SIZE-1+((-Long.SIZE)%7))/7);
+	public static final int MAX_SDNV_BYTES = ((Long.SIZE-1+6)/7);
+
+	//scratch buffer of write(), a single write() is much cheaper than one per byte on synchronized streams
+	private static final ThreadLocal<byte[]> _scratch = new ThreadLocal<byte[]>() {
+		@Override
+		protected byte[] initialValue() {
+			return new byte[MAX_SDNV_BYTES];
+		}
+	};
 
 	private long _value;
 	public final int length;
 
 	public SDNV(long value) throws NumberFormatException {
-		if(_value < 0) throw new NumberFormatException("SDNVs cannot be negative.");
+		if(value < 0) throw new NumberFormatException("SDNVs cannot be negative.");
 		_value = value;
 		length = calculateLength();
 	}
 
 	public SDNV(byte[] data) throws NumberFormatException {
 		//check if the given data fits into a long
-		if(data.length > MAX_SDNV_BYTES || data.length == 0
-				|| Integer.highestOneBit(data[0] & (byte) 0x7f) > 7-((-Long.SIZE)%7))
+		if(data.length > MAX_SDNV_BYTES || data.length == 0)
 			throw new NumberFormatException("SDNV length not supported.");
 		length = data.length;
 		int i = 0;
@@ -59,29 +78,126 @@ public class SDNV implements Comparable<SDNV> {
 
 	public byte[] getBytes() {
 		byte[] ret = new byte[length];
+		encode(_value, ret, 0);
+		return ret;
+	}
+
+	private int calculateLength() {
+		return encodedLength(_value);
+	}
+
+	/**
+	 * @param value a positive value
+	 * @return the number of bytes of the encoded value
+	 */
+	public static int encodedLength(long value) {
+		// 7 bits per byte, the number 0 still needs one byte
+		int bits = Long.SIZE - Long.numberOfLeadingZeros(value | 1);
+		return (bits + 6) / 7;
+	}
 
-		//this blocks loops _value in 7bit blocks and creates the SDNV bytes
-		for(int i = 1; i < length; ++i) {
-			//set the most significant bit for all 7bit blocks except the last
-			ret[length-(i+1)] = (byte) ((byte) (_value >> i) | (byte) 0x80);
+	/**
+	 * Puts the encoded value at the position of the buffer.
+	 * @param value the value to encode
+	 * @param buffer the buffer for the encoded value
+	 * @throws NumberFormatException if the value is negative
+	 * @throws BufferOverflowException if the buffer has not enough space left, nothing has been written in this case
+	 */
+	public static void encode(long value, ByteBuffer buffer) throws NumberFormatException {
+		if(value < 0) throw new NumberFormatException("SDNVs cannot be negative.");
+		int len = encodedLength(value);
+		if(buffer.remaining() < len) throw new BufferOverflowException();
+
+		//set the most significant bit for all 7bit blocks except the last
+		for(int i = len - 1; i > 0; --i) {
+			buffer.put((byte) ((value >>> (7*i)) | 0x80));
 		}
-		//the last byte has to have its MSB cleared
-		//(this is the i=0 case)
-		ret[length-1] = (byte) ((byte) _value & (byte) 0x7f);
+		buffer.put((byte) (value & 0x7f));
+	}
 
-		return ret;
+	/**
+	 * Puts the encoded value into an array.
+	 * @param value the value to encode
+	 * @param buffer the array for the encoded value
+	 * @param offset the position of the value in the array
+	 * @return the number of bytes written
+	 * @throws NumberFormatException if the value is negative
+	 * @throws ArrayIndexOutOfBoundsException if the array is too small
+	 */
+	public static int encode(long value, byte[] buffer, int offset) throws NumberFormatException {
+		if(value < 0) throw new NumberFormatException("SDNVs cannot be negative.");
+		int len = encodedLength(value);
+		if(buffer.length - offset < len) throw new ArrayIndexOutOfBoundsException(offset + len - 1);
+
+		int last = offset + len - 1;
+		for(int i = offset; i < last; ++i) {
+			buffer[i] = (byte) ((value >>> (7*(last-i))) | 0x80);
+		}
+		buffer[last] = (byte) (value & 0x7f);
+		return len;
 	}
 
-	private int calculateLength() {
-		//this blocks loops _value in 7bit blocks and looks
-		//for the first black that is nonzero
-		for(int i = Long.SIZE / 7; i >= 0; --i) {
-			byte b = (byte) ((byte) (_value >> i) & (byte) 0x7f);
-			if(b != 0)
-				return i+1;
+	/**
+	 * Reads an encoded value at the position of the buffer.
+	 * @param buffer the buffer containing the encoded value
+	 * @return the decoded value
+	 * @throws NumberFormatException if the value does not fit into a long
+	 * @throws BufferUnderflowException if the buffer ends within the value, the position of the buffer is not changed
+	 * in this case
+	 */
+	public static long decode(ByteBuffer buffer) throws NumberFormatException {
+		int start = buffer.position();
+		long value = 0;
+
+		for(int i = 0; i < MAX_SDNV_BYTES; ++i) {
+			if(!buffer.hasRemaining()) {
+				buffer.position(start);
+				throw new BufferUnderflowException();
+			}
+			byte b = buffer.get();
+			value = (value << 7) | (b & 0x7f);
+			if((b & 0x80) == 0)
+				return value;
 		}
-		//the number is 0, but we will still need 1 byte to encode it
-		return 1;
+
+		throw new NumberFormatException("SDNV length not supported.");
+	}
+
+	/**
+	 * Writes the encoded value to a stream.
+	 * @param value the value to encode
+	 * @param stream the stream to write to
+	 * @throws IOException if writing to the stream failed
+	 * @throws NumberFormatException if the value is negative
+	 */
+	public static void write(long value, OutputStream stream) throws IOException {
+		if(value >= 0 && value < 0x80) {
+			stream.write((int) value);
+			return;
+		}
+		byte[] buffer = _scratch.get();
+		stream.write(buffer, 0, encode(value, buffer, 0));
+	}
+
+	/**
+	 * Reads an encoded value from a stream.
+	 * @param stream the stream to read from
+	 * @return the decoded value
+	 * @throws EOFException if the stream ends within the value
+	 * @throws IOException if reading from the stream failed or the value does not fit into a long
+	 */
+	public static long read(InputStream stream) throws IOException {
+		long value = 0;
+
+		for(int i = 0; i < MAX_SDNV_BYTES; ++i) {
+			int b = stream.read();
+			if(b < 0) throw new EOFException();
+			value = (value << 7) | (b & 0x7f);
+			if((b & 0x80) == 0)
+				return value;
+		}
+
+		throw new IOException("SDNV length not supported.");
 	}
 
 	@Override
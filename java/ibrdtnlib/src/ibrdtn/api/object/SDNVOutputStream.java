@@ -22,46 +22,48 @@ package ibrdtn.api.object;
 
 import java.io.IOException;
 import java.io.OutputStream;
-import java.nio.ByteBuffer;
-import java.util.Queue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.Arrays;
 
+/**
+ * Decodes the SDNVs written to this stream. The values are decoded while the bytes are written, without creating
+ * SDNV objects.
+ */
 class SDNVOutputStream extends OutputStream {
 
-	private Queue<SDNV> _queue = new LinkedBlockingQueue<SDNV>();
-	private ByteBuffer _currentSDNV = ByteBuffer.allocate(SDNV.MAX_SDNV_BYTES);
+	private long[] _values = new long[2];
+	private int _count = 0;
+	private int _next = 0;
+
+	private long _current = 0;
 	private int _currentIndex = 0;
 
 	private boolean _failed = false;
 
-	public SDNV nextSDNV() throws IOException {
-		if(_queue.isEmpty())
+	public long nextValue() throws IOException {
+		if(_next >= _count)
 			throw new IOException("No SDNV in queue");
-		return _queue.remove();
+		return _values[_next++];
 	}
 
 	@Override
 	public void write(int b) throws IOException {
 		if(_failed)
 			throw new IOException("SDNVOutputStream in failed state");
-		_currentSDNV.put((byte)b);
+		_current = (_current << 7) | (b & 0x7f);
 		++_currentIndex;
 
-		if(((byte) b & (byte) 0x80) == 0) {
-			//last byte, create SDNV
-			try {
-				_queue.add(new SDNV(_currentSDNV.array()));
-				_currentSDNV.clear();
-				_currentIndex = 0;
-			} catch (NumberFormatException ex) {
-				_failed = true;
-				throw new IOException(ex.getMessage());
-			}
+		if((b & 0x80) == 0) {
+			//last byte, store the value
+			if(_count == _values.length)
+				_values = Arrays.copyOf(_values, _count * 2);
+			_values[_count++] = _current;
+			_current = 0;
+			_currentIndex = 0;
 		}
-		else if(_currentIndex >= _currentSDNV.capacity()) {
+		else if(_currentIndex >= SDNV.MAX_SDNV_BYTES) {
 			//SDNV too long, set failed state and throw exception
 			_failed = true;
-			throw new IOException("SDNVs only supported up to " + _currentSDNV.capacity() + "Bytes.");
+			throw new IOException("SDNVs only supported up to " + SDNV.MAX_SDNV_BYTES + "Bytes.");
 		}
 	}
 }
@@ -21,6 +21,7 @@
 package ibrdtn.api.object;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 public class ScopeControlHopLimitBlock extends Block {
 
@@ -57,20 +58,18 @@ public class ScopeControlHopLimitBlock extends Block {
         try {
             data.writeTo(_stream);
             _stream.flush();
-            _hopCount = _stream.nextSDNV();
-            _hopLimit = _stream.nextSDNV();
+            _hopCount = new SDNV(_stream.nextValue());
+            _hopLimit = new SDNV(_stream.nextValue());
         } catch (IOException e) {
             throw new InvalidDataException(e.getMessage());
         }
     }
 
     public Data getData() {
-        byte[] data = new byte[_hopCount.length + _hopLimit.length];
-        byte[] _hopCountBytes = _hopCount.getBytes();
-        byte[] _hopLimitBytes = _hopLimit.getBytes();
-        System.arraycopy(_hopCountBytes, 0, data, 0, _hopCountBytes.length);
-        System.arraycopy(_hopLimitBytes, 0, data, _hopCountBytes.length, _hopLimitBytes.length);
-        return new ByteArrayBlockData(data);
+        ByteBuffer data = ByteBuffer.allocate(_hopCount.length + _hopLimit.length);
+        SDNV.encode(_hopCount.getValue(), data);
+        SDNV.encode(_hopLimit.getValue(), data);
+        return new ByteArrayBlockData(data.array());
     }
 
     public SDNV getHopCount() {
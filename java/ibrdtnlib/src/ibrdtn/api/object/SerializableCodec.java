@@ -0,0 +1,50 @@
+/*
+ * SerializableCodec.java
+ *
+ * Copyright (C) 2011 IBR, TU Braunschweig
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package ibrdtn.api.object;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+
+/**
+ * Encodes objects with the Java serialization. This is the encoding used by ObjectBlockData if no codec is given.
+ */
+public class SerializableCodec implements PayloadCodec<Object> {
+
+    public static final SerializableCodec INSTANCE = new SerializableCodec();
+
+    @Override
+    public void encode(Object value, OutputStream stream) throws IOException {
+        ObjectOutputStream oos = new ObjectOutputStream(stream);
+        oos.writeObject(value);
+        oos.flush();
+    }
+
+    @Override
+    public Object decode(InputStream stream) throws IOException {
+        ObjectInputStream ois = new ObjectInputStream(stream);
+        try {
+            return ois.readObject();
+        } catch (ClassNotFoundException e) {
+            throw new IOException("unknown class of the payload object", e);
+        }
+    }
+}
@@ -0,0 +1,37 @@
+/*
+ * TransferableData.java
+ *
+ * Copyright (C) 2011 IBR, TU Braunschweig
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package ibrdtn.api.object;
+
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Block data which can be written to a channel directly. Serializers use this instead of Block.Data.writeTo() if
+ * they write to a channel, so the data does not have to be copied through the Java heap.
+ */
+public interface TransferableData {
+
+	/**
+	 * Writes all data to the channel.
+	 *
+	 * @param channel the channel to write to
+	 * @throws IOException if reading the data or writing to the channel failed
+	 */
+	void transferTo(WritableByteChannel channel) throws IOException;
+}
@@ -1,9 +1,8 @@
 package ibrdtn.api.sab;
 
+import ibrdtn.api.object.BundleKey;
 import ibrdtn.api.object.EID;
 import ibrdtn.api.object.SingletonEndpoint;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * A custody report.
@@ -12,13 +11,17 @@ import java.util.regex.Pattern;
  */
 public class Custody {
 
-    private Long timestamp = null;
-    private Long sequenceNumber = null;
-    private Long fragOffset = null;
-    private Long fragLength = null;
+    private long timestamp;
+    private long sequenceNumber;
+    private long fragOffset = -1;
+    private long fragLength = -1;
     private EID source = null;
+    private EID bundleSource = null;
     private Custody.Status status = null;
     private Custody.Reason reason = null;
+    private int reasonCode = 0;
+    private long signalTimestamp;
+    private long signalNanos;
 
     public enum Reason {
 
@@ -38,6 +41,18 @@ public class Custody {
         public int getOffset() {
             return offset;
         }
+
+        /**
+         * @return the reason with the given code or null if the code is unknown
+         */
+        static Reason valueOf(int code) {
+            for (Reason r : values()) {
+                if (r.offset == code) {
+                    return r;
+                }
+            }
+            return null;
+        }
     }
 
     public enum Status {
@@ -49,50 +64,48 @@ public class Custody {
         parse(data);
     }
 
+    /**
+     * Parses the notification "NOTIFY CUSTODY <src_eid> <timestamp>.<seq_nr>[.<frag_offset>:<frag_len>] <dest_eid>
+     * <ACCEPTED|REJECTED(<reason_code>)> <timestamp>.<nanos>".
+     *
+     * @throws IllegalArgumentException if the notification is malformed
+     */
     private void parse(String data) {
-        String start = "(NOTIFY\\sCUSTODY)";
-        String url = "(\\bdtn://[-a-zA-Z0-9+&@#/%?=~_|!:,.;]*[-a-zA-Z0-9+&@#/%=~_|])";
-        String fragments = "(\\.\\d+:\\d+)?";
-
-        // 604 NOTIFY CUSTODY <src_eid> <timestamp>.<seq_nr>[.<frag_offset>:<frag_len>] <dest_eid> <ACCEPTED|REJECTED(<reason_code>)> <timestamp>.<tmp_nanos>
-        final Pattern pattern = Pattern.compile(
-                start // NOTIFY CUSTODY
-                + "\\s"
-                + url // <src_eid>
-                + "\\s(\\d+)\\.(\\d+)" // <timestamp>.<seq_nr>
-                + fragments //[.<frag_offset>:<frag_len>]
-                + "\\s"
-                + url // <dst_eid>
-                + "\\s(\\w+)\\b" // ACCEPTED|REJECTED
-                + "(\\((\\d+)\\))?" // <reason_code>
-                + "\\s"
-                + "(\\d+)\\.(\\d+)"); // <timestamp>.<tmp_nanos>
-
-        final Matcher matcher = pattern.matcher(data);
-        matcher.find();
-
-        source = new SingletonEndpoint(matcher.group(2));
-        timestamp = Long.parseLong(matcher.group(3));
-        sequenceNumber = Long.parseLong(matcher.group(4));
-
-        String frag = matcher.group(5);
-        if (frag != null) {
-            String[] split = frag.split("\\.|:");
-            fragOffset = Long.parseLong(split[0]);
-            fragLength = Long.parseLong(split[1]);
-        }
+        NotificationTokenizer t = new NotificationTokenizer(data, "NOTIFY CUSTODY");
+
+        source = new SingletonEndpoint(t.next().token());
+
+        t.next().parseBundleId();
+        timestamp = t.timestamp;
+        sequenceNumber = t.sequenceNumber;
+        fragOffset = t.fragOffset;
+        fragLength = t.fragLength;
 
-        // dest = new SingletonEndpoint(matcher.group(6));
-        status = Status.valueOf(matcher.group(7));
+        bundleSource = new SingletonEndpoint(t.next().token());
 
-        String rawReason = matcher.group(9);
-        if (rawReason != null) {
-            int reasonCode = Integer.parseInt(rawReason);
-            this.reason = Reason.values()[reasonCode];
+        // ACCEPTED or REJECTED(<reason_code>)
+        t.next();
+        int bracket = t.indexOf('(', t.start());
+        if (t.matches(t.start(), bracket, "ACCEPTED")) {
+            status = Status.ACCEPTED;
+        } else if (t.matches(t.start(), bracket, "REJECTED")) {
+            status = Status.REJECTED;
+        } else {
+            throw new IllegalArgumentException("invalid custody status: " + data);
+        }
+
+        if (bracket < t.end()) {
+            if (t.charAt(t.end() - 1) != ')') {
+                throw new IllegalArgumentException("invalid custody reason: " + data);
+            }
+            reasonCode = (int) t.parseLong(bracket + 1, t.end() - 1);
+            reason = Reason.valueOf(reasonCode);
         }
 
-        // System.out.println("Timestamp: " + matcher.group(10));
-        // System.out.println("Nanos: " + matcher.group(11));
+        t.next();
+        t.parseTime(t.start(), t.end());
+        signalTimestamp = t.seconds;
+        signalNanos = t.nanos;
     }
 
     public Long getTimestamp() {
@@ -103,18 +116,66 @@ public class Custody {
         return sequenceNumber;
     }
 
+    public boolean isFragment() {
+        return fragOffset >= 0;
+    }
+
+    /**
+     * @return the offset of the fragment or null if the signal refers to a whole bundle
+     */
     public Long getFragOffset() {
-        return fragOffset;
+        return isFragment() ? fragOffset : null;
     }
 
+    /**
+     * @return the payload length of the fragment or null if the signal refers to a whole bundle
+     */
     public Long getFragLength() {
-        return fragLength;
+        return isFragment() ? fragLength : null;
     }
 
+    /**
+     * @return the node which sent the custody signal
+     */
     public EID getSource() {
         return source;
     }
 
+    /**
+     * @return the source of the bundle the custody signal refers to
+     */
+    public EID getBundleSource() {
+        return bundleSource;
+    }
+
+    /**
+     * @return the key of the bundle the signal refers to, e.g. for a lookup in a BundleIdMap
+     */
+    public BundleKey getBundleKey() {
+        return new BundleKey(bundleSource, timestamp, sequenceNumber, fragOffset);
+    }
+
+    /**
+     * @return the numeric reason code, 0 if the custody has been accepted
+     */
+    public int getReasonCode() {
+        return reasonCode;
+    }
+
+    /**
+     * @return the time of the signal in seconds since the DTN epoch
+     */
+    public long getSignalTimestamp() {
+        return signalTimestamp;
+    }
+
+    /**
+     * @return the nanoseconds of the time of the signal
+     */
+    public long getSignalNanos() {
+        return signalNanos;
+    }
+
     public Status getStatus() {
         return status;
     }
@@ -0,0 +1,182 @@
+/*
+ * NotificationTokenizer.java
+ *
+ * Copyright (C) 2011 IBR, TU Braunschweig
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package ibrdtn.api.sab;
+
+/**
+ * Splits the line of a notification into space separated tokens and parses numbers directly out of the line, so
+ * StatusReport and Custody do not need a regular expression and allocate only the strings of the EIDs.
+ */
+final class NotificationTokenizer {
+
+    private final String data;
+    private int position;
+    private int start = 0;
+    private int end = 0;
+
+    // the fields parsed by parseBundleId() and parseTime()
+    long timestamp;
+    long sequenceNumber;
+    long fragOffset;
+    long fragLength;
+    long seconds;
+    long nanos;
+
+    /**
+     * @param data the notification, with or without the leading status code
+     * @param keyword the keyword the notification starts with, e.g. "NOTIFY REPORT"
+     * @throws IllegalArgumentException if the notification does not contain the keyword
+     */
+    NotificationTokenizer(String data, String keyword) {
+        int index = data.indexOf(keyword);
+        if (index < 0) {
+            throw new IllegalArgumentException("not a " + keyword + " notification: " + data);
+        }
+        this.data = data;
+        this.position = index + keyword.length();
+    }
+
+    /**
+     * Moves to the next token.
+     *
+     * @throws IllegalArgumentException if there is no further token
+     */
+    NotificationTokenizer next() {
+        int length = data.length();
+        while (position < length && data.charAt(position) == ' ') {
+            position++;
+        }
+        if (position == length) {
+            throw new IllegalArgumentException("notification too short: " + data);
+        }
+
+        start = position;
+        while (position < length && data.charAt(position) != ' ') {
+            position++;
+        }
+        end = position;
+        return this;
+    }
+
+    /**
+     * @return true if another token follows
+     */
+    boolean hasNext() {
+        for (int i = position; i < data.length(); i++) {
+            if (data.charAt(i) != ' ') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the current token
+     */
+    String token() {
+        return data.substring(start, end);
+    }
+
+    int start() {
+        return start;
+    }
+
+    int end() {
+        return end;
+    }
+
+    /**
+     * @return the position of the character in the current token at or after the given position, or the end of
+     * the token if it does not occur
+     */
+    int indexOf(char c, int from) {
+        for (int i = from; i < end; i++) {
+            if (data.charAt(i) == c) {
+                return i;
+            }
+        }
+        return end;
+    }
+
+    /**
+     * @return true if the characters between begin and the given end equal the given name
+     */
+    boolean matches(int begin, int stop, String name) {
+        return stop - begin == name.length() && data.regionMatches(begin, name, 0, name.length());
+    }
+
+    char charAt(int index) {
+        return data.charAt(index);
+    }
+
+    /**
+     * Parses a decimal number between the given positions of the line.
+     *
+     * @throws IllegalArgumentException if the characters are not a decimal number or it exceeds Long.MAX_VALUE
+     */
+    long parseLong(int begin, int stop) {
+        if (begin >= stop || stop - begin > 19) {
+            throw new IllegalArgumentException("invalid number in notification: " + data);
+        }
+
+        long value = 0;
+        for (int i = begin; i < stop; i++) {
+            int digit = data.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                throw new IllegalArgumentException("invalid number in notification: " + data);
+            }
+            if (value > (Long.MAX_VALUE - digit) / 10) {
+                throw new IllegalArgumentException("number out of range in notification: " + data);
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    /**
+     * Parses the current token as bundle id "timestamp.sequencenumber[.fragoffset:fraglength]". The fragment fields
+     * are set to -1 if the bundle is not a fragment.
+     */
+    void parseBundleId() {
+        int dot = indexOf('.', start);
+        int next = indexOf('.', dot + 1);
+        timestamp = parseLong(start, dot);
+        sequenceNumber = parseLong(dot + 1, next);
+
+        if (next < end) {
+            int colon = indexOf(':', next + 1);
+            fragOffset = parseLong(next + 1, colon);
+            fragLength = parseLong(colon + 1, end);
+        } else {
+            fragOffset = -1;
+            fragLength = -1;
+        }
+    }
+
+    /**
+     * Parses the time "seconds.nanoseconds" between the given positions.
+     */
+    void parseTime(int begin, int stop) {
+        int dot = begin;
+        while (dot < stop && data.charAt(dot) != '.') {
+            dot++;
+        }
+        seconds = parseLong(begin, dot);
+        nanos = (dot < stop) ? parseLong(dot + 1, stop) : 0;
+    }
+}
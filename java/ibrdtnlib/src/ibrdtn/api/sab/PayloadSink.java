@@ -0,0 +1,102 @@
+/*
+ * PayloadSink.java
+ *
+ * Copyright (C) 2011 IBR, TU Braunschweig
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package ibrdtn.api.sab;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * The target of received payload data. The receiver passes the raw or decoded data as it arrives, without copying it
+ * into an intermediate stream first. The buffers passed to write() are only valid during the call.
+ */
+public abstract class PayloadSink {
+
+    /**
+     * Consumes all remaining bytes of the buffer.
+     *
+     * @param data the next part of the payload
+     * @throws IOException if the data could not be stored
+     */
+    public abstract void write(ByteBuffer data) throws IOException;
+
+    /**
+     * Called after the last part of the payload. The channels given to the factory methods are not closed.
+     *
+     * @throws IOException if the data could not be stored
+     */
+    public void close() throws IOException {
+    }
+
+    /**
+     * @param channel the channel to write the payload to
+     * @return a sink writing to the current position of the channel
+     */
+    public static PayloadSink toChannel(final WritableByteChannel channel) {
+        return new PayloadSink() {
+            @Override
+            public void write(ByteBuffer data) throws IOException {
+                while (data.hasRemaining()) {
+                    channel.write(data);
+                }
+            }
+        };
+    }
+
+    /**
+     * Writes the payload to a region of a file without changing the position of the channel, so several sinks may
+     * write to the same file.
+     *
+     * @param channel the file to write the payload to
+     * @param position the position of the first byte of the payload in the file
+     * @return a sink writing to the file
+     */
+    public static PayloadSink toFile(final FileChannel channel, final long position) {
+        return new PayloadSink() {
+            private long next = position;
+
+            @Override
+            public void write(ByteBuffer data) throws IOException {
+                while (data.hasRemaining()) {
+                    next += channel.write(data, next);
+                }
+            }
+        };
+    }
+
+    /**
+     * Collects the payload in a buffer supplied by the caller, e.g. a direct buffer. The payload is put at the
+     * position of the buffer.
+     *
+     * @param buffer the buffer for the payload
+     * @return a sink writing to the buffer
+     */
+    public static PayloadSink toBuffer(final ByteBuffer buffer) {
+        return new PayloadSink() {
+            @Override
+            public void write(ByteBuffer data) throws IOException {
+                if (data.remaining() > buffer.remaining()) {
+                    throw new IOException("payload exceeds the buffer");
+                }
+                buffer.put(data);
+            }
+        };
+    }
+}
@@ -0,0 +1,31 @@
+/*
+ * PayloadSinkHandler.java
+ *
+ * Copyright (C) 2011 IBR, TU Braunschweig
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package ibrdtn.api.sab;
+
+/**
+ * A handler which receives payload data through a PayloadSink instead of an OutputStream. The receiver calls
+ * startPayloadSink() instead of startPayload() for these handlers.
+ */
+public interface PayloadSinkHandler extends CallbackHandler {
+
+    /**
+     * @return the sink for the payload of the current block or null, if the payload should be ignored
+     */
+    public PayloadSink startPayloadSink();
+}
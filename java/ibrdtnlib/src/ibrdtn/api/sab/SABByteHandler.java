@@ -0,0 +1,38 @@
+/*
+ * SABByteHandler.java
+ *
+ * Copyright (C) 2011 IBR, TU Braunschweig
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+/**
+ * Simple API for Bundle Protocol (SAB)
+ * This is a handler for Simple API events which receives the payload as bytes.
+ */
+
+package ibrdtn.api.sab;
+
+import java.nio.ByteBuffer;
+
+public interface SABByteHandler extends SABHandler {
+	/**
+	 * Called by the SABByteParser instead of characters(String) with the payload data as it arrives. A line of
+	 * data may be split into several calls and line breaks are not included. The buffer is only valid during
+	 * the call and must not be modified or kept.
+	 *
+	 * @param data the received payload data between position and limit
+	 * @throws SABException if the data could not be processed
+	 */
+	public void characters(ByteBuffer data) throws SABException;
+}
@@ -0,0 +1,606 @@
+/*
+ * SABByteParser.java
+ *
+ * Copyright (C) 2011 IBR, TU Braunschweig
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package ibrdtn.api.sab;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.LinkedList;
+
+/**
+ * A byte oriented variant of the SABParser. The parser is fed with chunks of the raw stream and scans them for line
+ * breaks itself. Only status and header lines are converted into strings, payload data is handed to SABByteHandlers
+ * directly out of the received buffer. Other handlers still get the payload line by line as strings.
+ *
+ * Payload with "Encoding: raw" is read by its announced length, so it may contain line breaks.
+ */
+public class SABByteParser {
+
+    private static final int BUFFER_SIZE = 65536;
+    private static final Charset RAW_CHARSET = Charset.forName("ISO-8859-1");
+    private static final byte[] CR = {'\r'};
+
+    private enum State {
+
+        PARSER_RESPONSE,
+        PARSER_LIST,
+        PARSER_DATA_INITIAL,
+        PARSER_DATA_NEXT,
+        PARSER_DATA_INITIAL_PAYLOAD,
+        PARSER_DATA_NEXT_PAYLOAD,
+        PARSER_DATA_PAYLOAD_HEADER,
+        PARSER_BUNDLE,
+        PARSER_BUNDLE_INFO,
+        PARSER_BLOCK,
+        PARSER_BLOCK_INFO
+    }
+    private State state = State.PARSER_RESPONSE;
+    private boolean lastblock = false;
+    private volatile boolean mAbort = false;
+
+    // buffer for the current status or header line
+    private byte[] line = new byte[256];
+    private int lineLength = 0;
+
+    // true, if the next payload byte starts a new line
+    private boolean lineStart = true;
+
+    // properties of the current block
+    private long length = -1;
+    private boolean raw = false;
+    private boolean skip = false;
+
+    // remaining bytes of raw payload, -1 if not reading raw payload
+    private long rawRemaining = -1;
+
+    // true, if the line break after raw payload has not been read yet
+    private boolean rawTail = false;
+
+    // true, if the previous chunk of payload ended with a carriage return which has not been passed on yet
+    private boolean pendingCR = false;
+
+    private LinkedList<String> list = new LinkedList<String>();
+
+    // reusable view on the buffer passed to consume()
+    private ByteBuffer view = null;
+
+    public void reset() {
+        this.state = State.PARSER_RESPONSE;
+        this.lastblock = false;
+        this.lineLength = 0;
+        this.lineStart = true;
+        this.rawRemaining = -1;
+        this.rawTail = false;
+        this.pendingCR = false;
+        this.list = new LinkedList<String>();
+        resetBlock();
+    }
+
+    public void abort() {
+        this.mAbort = true;
+    }
+
+    /**
+     * Reads the stream until the parser is aborted or the stream ends.
+     *
+     * @param is the stream to read
+     * @param handler the handler for the parsed events
+     * @throws SABException if the stream ends, fails or contains invalid data
+     */
+    public void parse(InputStream is, SABHandler handler) throws SABException {
+        byte[] data = new byte[BUFFER_SIZE];
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+
+        try {
+            handler.startStream();
+            while (!mAbort) {
+                int len;
+                try {
+                    len = is.read(data);
+                } catch (IOException e) {
+                    throw new SABException(e.toString());
+                }
+
+                if (len < 0) {
+                    throw new SABException("end of stream reached");
+                }
+
+                buffer.clear();
+                buffer.limit(len);
+                consume(buffer, handler);
+            }
+        } finally {
+            handler.endStream();
+        }
+    }
+
+    /**
+     * Parses the next chunk of the stream. The chunk may end anywhere, incomplete lines are kept until the next call.
+     * All bytes between position and limit are consumed, unless the parser is aborted.
+     *
+     * @param buffer the received data
+     * @param handler the handler for the parsed events
+     * @throws SABException if the data is invalid
+     */
+    public void consume(ByteBuffer buffer, SABHandler handler) throws SABException {
+        while (buffer.hasRemaining() && !mAbort) {
+            switch (state) {
+                case PARSER_DATA_INITIAL:
+                case PARSER_DATA_NEXT:
+                case PARSER_DATA_INITIAL_PAYLOAD:
+                case PARSER_DATA_NEXT_PAYLOAD:
+                    if (rawRemaining >= 0) {
+                        readRaw(buffer, handler);
+                    } else if (rawTail) {
+                        skipLine(buffer);
+                    } else {
+                        readPayload(buffer, handler);
+                    }
+                    break;
+
+                default:
+                    readLine(buffer, handler);
+                    break;
+            }
+        }
+    }
+
+    private void readLine(ByteBuffer buffer, SABHandler handler) throws SABException {
+        int start = buffer.position();
+        int end = indexOf(buffer, start, '\n');
+
+        if (end == -1) {
+            append(buffer, start, buffer.limit());
+            buffer.position(buffer.limit());
+            return;
+        }
+
+        append(buffer, start, end);
+        buffer.position(end + 1);
+
+        // strip carriage return
+        if ((lineLength > 0) && (line[lineLength - 1] == '\r')) {
+            lineLength--;
+        }
+
+        try {
+            switch (state) {
+                case PARSER_RESPONSE:
+                    readResponse(handler);
+                    break;
+
+                case PARSER_LIST:
+                    readList(handler);
+                    break;
+
+                case PARSER_BUNDLE_INFO:
+                case PARSER_BUNDLE:
+                    readBundle(handler);
+                    break;
+
+                case PARSER_DATA_PAYLOAD_HEADER:
+                case PARSER_BLOCK_INFO:
+                case PARSER_BLOCK:
+                    readBlock(handler);
+                    break;
+
+                default:
+                    break;
+            }
+        } finally {
+            lineLength = 0;
+        }
+    }
+
+    private void readResponse(SABHandler handler) throws SABException {
+        // skip empty lines
+        if (lineLength == 0) {
+            return;
+        }
+
+        // split the line into status code and parameter
+        int code = 0;
+        int i = 0;
+        for (; (i < lineLength) && (line[i] != ' '); i++) {
+            int digit = line[i] - '0';
+            if ((digit < 0) || (digit > 9)) {
+                throw new SABException("invalid data received - could not parse number");
+            }
+            code = (code * 10) + digit;
+        }
+
+        if (i == 0) {
+            throw new SABException("invalid data received");
+        }
+
+        String data = (i < lineLength) ? lineString(i + 1, lineLength) : "";
+
+        if (code >= 600) {
+            // notify message
+            handler.notify(code, data);
+            return;
+        }
+
+        // forward response code
+        handler.response(code, data);
+
+        // except a list as next
+        if ((code == 200) && data.equals("REGISTRATION LIST")) {
+            this.state = State.PARSER_LIST;
+        } else if ((code == 200) && data.equals("NEIGHBOR LIST")) {
+            this.state = State.PARSER_LIST;
+        } else if ((code == 200) && data.startsWith("BUNDLE GET")) {
+            this.state = State.PARSER_BUNDLE;
+            handler.startBundle();
+        } else if ((code == 200) && data.startsWith("BUNDLE INFO")) {
+            this.state = State.PARSER_BUNDLE_INFO;
+            handler.startBundle();
+        } else if ((code == 200) && data.startsWith("PAYLOAD GET")) {
+            this.state = State.PARSER_DATA_PAYLOAD_HEADER;
+            resetBlock();
+        }
+    }
+
+    private void readList(SABHandler handler) {
+        if (lineLength == 0) {
+            LinkedList<String> ret = list;
+            list = new LinkedList<String>();
+            this.state = State.PARSER_RESPONSE;
+            handler.response(ret);
+            return;
+        }
+
+        list.add(lineString(0, lineLength));
+    }
+
+    private void readBundle(SABHandler handler) throws SABException {
+        // read the block, if an empty line was received
+        if (lineLength == 0) {
+            switch (this.state) {
+                case PARSER_BUNDLE:
+                    this.state = State.PARSER_BLOCK;
+                    break;
+                case PARSER_BUNDLE_INFO:
+                    this.state = State.PARSER_BLOCK_INFO;
+                    break;
+            }
+            return;
+        }
+
+        int delimiter = delimiter();
+
+        // forward bundle parameter
+        handler.attribute(lineString(0, delimiter), lineString(delimiter + 1, lineLength).trim());
+    }
+
+    private void readBlock(SABHandler handler) throws SABException {
+        // read the payload, if an empty line was received
+        if (lineLength == 0) {
+            switch (this.state) {
+                case PARSER_BLOCK:
+                    if (skip) {
+                        // no data follows if the payload is skipped
+                        this.state = State.PARSER_DATA_NEXT;
+                        endData(handler);
+                    } else {
+                        startData(State.PARSER_DATA_INITIAL);
+                    }
+                    break;
+                case PARSER_BLOCK_INFO:
+                    handler.endBlock();
+                    if (this.lastblock) {
+                        handler.endBundle();
+                        this.lastblock = false;
+                        this.state = State.PARSER_RESPONSE;
+                    } else {
+                        this.state = State.PARSER_BLOCK_INFO;
+                    }
+                    break;
+                case PARSER_DATA_PAYLOAD_HEADER:
+                    if (skip) {
+                        this.state = State.PARSER_DATA_NEXT_PAYLOAD;
+                        endData(handler);
+                    } else {
+                        startData(State.PARSER_DATA_INITIAL_PAYLOAD);
+                    }
+                    break;
+            }
+            return;
+        }
+
+        int delimiter = delimiter();
+
+        // split the keyword and data pair
+        String keyword = lineString(0, delimiter);
+        String value = lineString(delimiter + 1, lineLength).trim();
+
+        // if this is the first line of the block...
+        if (keyword.equalsIgnoreCase("block")) {
+            resetBlock();
+
+            // start block tag
+            try {
+                handler.startBlock(Integer.parseInt(value));
+            } catch (NumberFormatException e) {
+                throw new SABException("invalid data received - could not parse number");
+            }
+        } else {
+            // forward block parameter
+            handler.attribute(keyword, value);
+
+            // if the keyword contains the procflags, then check for lastblock bit
+            if (keyword.equalsIgnoreCase("flags")) {
+                lastblock = value.contains("LAST_BLOCK");
+            } else if (keyword.equalsIgnoreCase("length")) {
+                try {
+                    length = Long.parseLong(value);
+                } catch (NumberFormatException e) {
+                    throw new SABException("invalid data received - could not parse number");
+                }
+            } else if (keyword.equalsIgnoreCase("encoding")) {
+                raw = value.equals("raw");
+                skip = value.equals("skip");
+            }
+        }
+    }
+
+    private void startData(State initial) throws SABException {
+        this.state = initial;
+        this.lineStart = true;
+
+        if (raw) {
+            if (length < 0) {
+                throw new SABException("raw payload without length");
+            }
+            rawRemaining = length;
+        }
+    }
+
+    private void readRaw(ByteBuffer buffer, SABHandler handler) throws SABException {
+        int start = buffer.position();
+        int end = (int) Math.min(buffer.limit(), start + rawRemaining);
+
+        if ((end > start) || (state == State.PARSER_DATA_INITIAL) || (state == State.PARSER_DATA_INITIAL_PAYLOAD)) {
+            buffer.position(end);
+            rawRemaining -= (end - start);
+            characters(handler, buffer, start, end, true);
+            nextData();
+        }
+
+        if (rawRemaining == 0) {
+            // the data is followed by a line break and the empty line
+            rawRemaining = -1;
+            rawTail = true;
+        }
+    }
+
+    private void skipLine(ByteBuffer buffer) {
+        int end = indexOf(buffer, buffer.position(), '\n');
+        if (end == -1) {
+            buffer.position(buffer.limit());
+        } else {
+            buffer.position(end + 1);
+            rawTail = false;
+            lineStart = true;
+        }
+    }
+
+    private void readPayload(ByteBuffer buffer, SABHandler handler) throws SABException {
+        int start = buffer.position();
+
+        if (pendingCR) {
+            // the carriage return is either part of the line break or of the data
+            pendingCR = false;
+            if (buffer.get(start) == '\n') {
+                buffer.position(start + 1);
+                if (lineStart && (state != State.PARSER_DATA_INITIAL) && (state != State.PARSER_DATA_INITIAL_PAYLOAD)) {
+                    endData(handler);
+                } else {
+                    endLine(handler);
+                }
+                return;
+            }
+
+            data(handler, ByteBuffer.wrap(CR), 0, 1);
+            lineStart = false;
+        }
+
+        if (lineStart) {
+            // an empty line terminates the data, except it is the first line
+            int first = buffer.get(start);
+            boolean empty = (first == '\n')
+                    || ((first == '\r') && (start + 1 < buffer.limit()) && (buffer.get(start + 1) == '\n'));
+
+            if (empty && (state != State.PARSER_DATA_INITIAL) && (state != State.PARSER_DATA_INITIAL_PAYLOAD)) {
+                buffer.position(indexOf(buffer, start, '\n') + 1);
+                endData(handler);
+                return;
+            }
+        }
+
+        int end = indexOf(buffer, start, '\n');
+        boolean complete = (end != -1);
+        if (!complete) {
+            end = buffer.limit();
+        }
+
+        // strip carriage return, at the end of the chunk it is kept until the next byte is known
+        int dataEnd = end;
+        if ((dataEnd > start) && (buffer.get(dataEnd - 1) == '\r')) {
+            dataEnd--;
+            pendingCR = !complete;
+        }
+
+        buffer.position(complete ? end + 1 : end);
+
+        data(handler, buffer, start, dataEnd);
+        if (complete) {
+            endLine(handler);
+        } else if (dataEnd > start) {
+            lineStart = false;
+        }
+    }
+
+    /**
+     * Passes a piece of a data line to the handler. Plain handlers get the data line by line.
+     */
+    private void data(SABHandler handler, ByteBuffer buffer, int start, int end) throws SABException {
+        if (handler instanceof SABByteHandler) {
+            characters(handler, buffer, start, end, false);
+        } else {
+            append(buffer, start, end);
+        }
+    }
+
+    private void endLine(SABHandler handler) throws SABException {
+        lineStart = true;
+        if (!(handler instanceof SABByteHandler)) {
+            try {
+                handler.characters(lineString(0, lineLength));
+            } finally {
+                lineLength = 0;
+            }
+        }
+        nextData();
+    }
+
+    private void endData(SABHandler handler) {
+        handler.endBlock();
+
+        switch (state) {
+            case PARSER_DATA_NEXT_PAYLOAD:
+                this.state = State.PARSER_RESPONSE;
+                break;
+            case PARSER_DATA_NEXT:
+                if (this.lastblock) {
+                    handler.endBundle();
+                    this.lastblock = false;
+                    this.state = State.PARSER_RESPONSE;
+                } else {
+                    this.state = State.PARSER_BLOCK;
+                }
+                break;
+        }
+    }
+
+    private void nextData() {
+        // next time we're reading not the first line of data
+        switch (state) {
+            case PARSER_DATA_INITIAL_PAYLOAD:
+                this.state = State.PARSER_DATA_NEXT_PAYLOAD;
+                break;
+            case PARSER_DATA_INITIAL:
+                this.state = State.PARSER_DATA_NEXT;
+                break;
+        }
+    }
+
+    private void characters(SABHandler handler, ByteBuffer buffer, int start, int end, boolean binary) throws SABException {
+        if (handler instanceof SABByteHandler) {
+            ((SABByteHandler) handler).characters(view(buffer, start, end));
+        } else if (binary) {
+            // map each byte to one char, so that no data is lost
+            byte[] data = new byte[end - start];
+            for (int i = 0; i < data.length; i++) {
+                data[i] = buffer.get(start + i);
+            }
+            handler.characters(new String(data, RAW_CHARSET));
+        } else {
+            byte[] data = new byte[end - start];
+            for (int i = 0; i < data.length; i++) {
+                data[i] = buffer.get(start + i);
+            }
+            handler.characters(new String(data));
+        }
+    }
+
+    private ByteBuffer view(ByteBuffer buffer, int start, int end) {
+        if (buffer.hasArray()) {
+            if ((view == null) || (view.array() != buffer.array())) {
+                view = ByteBuffer.wrap(buffer.array());
+            }
+            view.limit(buffer.arrayOffset() + end);
+            view.position(buffer.arrayOffset() + start);
+            return view;
+        }
+
+        ByteBuffer ret = buffer.duplicate();
+        ret.limit(end);
+        ret.position(start);
+        return ret;
+    }
+
+    private void resetBlock() {
+        this.length = -1;
+        this.raw = false;
+        this.skip = false;
+    }
+
+    private int delimiter() throws SABException {
+        for (int i = 0; i < lineLength; i++) {
+            if (line[i] == ':') {
+                return i;
+            }
+        }
+        throw new SABException("no delimiter found");
+    }
+
+    private String lineString(int start, int end) {
+        return new String(line, start, end - start);
+    }
+
+    private void append(ByteBuffer buffer, int start, int end) {
+        int len = end - start;
+        if (lineLength + len > line.length) {
+            byte[] grown = new byte[Math.max(line.length * 2, lineLength + len)];
+            System.arraycopy(line, 0, grown, 0, lineLength);
+            line = grown;
+        }
+
+        if (buffer.hasArray()) {
+            System.arraycopy(buffer.array(), buffer.arrayOffset() + start, line, lineLength, len);
+        } else {
+            for (int i = 0; i < len; i++) {
+                line[lineLength + i] = buffer.get(start + i);
+            }
+        }
+        lineLength += len;
+    }
+
+    private static int indexOf(ByteBuffer buffer, int start, char c) {
+        if (buffer.hasArray()) {
+            byte[] data = buffer.array();
+            int offset = buffer.arrayOffset();
+            for (int i = offset + start, end = offset + buffer.limit(); i < end; i++) {
+                if (data[i] == c) {
+                    return i - offset;
+                }
+            }
+            return -1;
+        }
+
+        for (int i = start; i < buffer.limit(); i++) {
+            if (buffer.get(i) == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
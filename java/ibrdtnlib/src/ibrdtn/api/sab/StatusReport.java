@@ -1,9 +1,8 @@
 package ibrdtn.api.sab;
 
+import ibrdtn.api.object.BundleKey;
 import ibrdtn.api.object.EID;
 import ibrdtn.api.object.SingletonEndpoint;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * A status report.
@@ -12,13 +11,16 @@ import java.util.regex.Pattern;
  */
 public class StatusReport {
 
-    private Long timestamp = null;
-    private Long sequenceNumber = null;
-    private Long fragOffset = null;
-    private Long fragLength = null;
+    private long timestamp;
+    private long sequenceNumber;
+    private long fragOffset = -1;
+    private long fragLength = -1;
     private EID source = null;
+    private EID bundleSource = null;
     private ReasonCode reasonCode = null;
     private Status status = null;
+    private long reportTimestamp;
+    private long reportNanos;
 
     public enum ReasonCode {
 
@@ -35,59 +37,68 @@ public class StatusReport {
 
     public enum Status {
 
-        RECEIPT,
-        CUSTODY_ACCEPTANCE,
-        FORWARDING,
-        DELIVERY,
-        DELETION
+        RECEIPT("RECEIPT"),
+        CUSTODY_ACCEPTANCE("CUSTODY-ACCEPTANCE"),
+        FORWARDING("FORWARDING"),
+        DELIVERY("DELIVERY"),
+        DELETION("DELETION");
+        private final String keyword;
+
+        Status(String keyword) {
+            this.keyword = keyword;
+        }
+
+        /**
+         * @return the status named by the characters between begin and end of the current token
+         */
+        static Status parse(NotificationTokenizer t, int begin, int end) {
+            for (Status s : values()) {
+                if (t.matches(begin, end, s.keyword)) {
+                    return s;
+                }
+            }
+            throw new IllegalArgumentException("unknown report type");
+        }
     }
 
     public StatusReport(String data) {
         parse(data);
     }
 
+    /**
+     * Parses the notification "NOTIFY REPORT <src_eid> <timestamp>.<seq_nr>[.<frag_offset>:<frag_len>] <dst_eid>
+     * <reason_code> <type>[<timestamp>.<nanos>]". If the report contains more than one type, e.g. RECEIPT and
+     * DELIVERY, the first one is kept.
+     *
+     * @throws IllegalArgumentException if the notification is malformed
+     */
     private void parse(String data) {
-        String start = "(NOTIFY\\sREPORT)";
-        String url = "(\\bdtn://[-a-zA-Z0-9+&@#/%?=~_|!:,.;]*[-a-zA-Z0-9+&@#/%=~_|])";
-        String fragments = "(\\.\\d+:\\d+)?";
-        String notificationType = "(\\w+)\\[(\\d+)\\.(\\d+)\\]";
-
-        // NOTIFY REPORT <src_eid> <timestamp>.<seq_nr>[.<frag_offset>:<frag_len>] <dst_eid> <reason_code> <type>\\[<timestamp>.<tmp_nanos>\\]
-        final Pattern pattern = Pattern.compile(
-                start
-                + "\\s"
-                + url
-                + "\\s(\\d+)\\.(\\d+)"
-                + fragments
-                + "\\s"
-                + url
-                + "\\s(\\d+)\\s"
-                + notificationType
-                + "(.*)"); // This takes care of possible repititions of <type>\\[<timestamp>.<tmp_nanos>\\]. This is not expected behavior, though.
-        final Matcher matcher = pattern.matcher(data);
-        matcher.find();
-
-        source = new SingletonEndpoint(matcher.group(2));
-
-        timestamp = Long.parseLong(matcher.group(3));
-        sequenceNumber = Long.parseLong(matcher.group(4));
-
-        String frag = matcher.group(5);
-        if (frag != null) {
-            String[] split = frag.split("\\.|:");
-            fragOffset = Long.parseLong(split[0]);
-            fragLength = Long.parseLong(split[1]);
-        }
+        NotificationTokenizer t = new NotificationTokenizer(data, "NOTIFY REPORT");
 
-        //dest = new SingletonEndpoint(matcher.group(6));
+        source = new SingletonEndpoint(t.next().token());
 
-        int reason = Integer.parseInt(matcher.group(7));
-        reasonCode = ReasonCode.values()[reason];
+        t.next().parseBundleId();
+        timestamp = t.timestamp;
+        sequenceNumber = t.sequenceNumber;
+        fragOffset = t.fragOffset;
+        fragLength = t.fragLength;
 
-        status = Status.valueOf(matcher.group(8));
+        bundleSource = new SingletonEndpoint(t.next().token());
 
-        // System.out.println("Timestamp: " + matcher.group(9));
-        // System.out.println("Nanos: " + matcher.group(10));
+        t.next();
+        int reason = (int) t.parseLong(t.start(), t.end());
+        reasonCode = (reason < ReasonCode.values().length) ? ReasonCode.values()[reason] : null;
+
+        // <type>[<timestamp>.<nanos>]
+        t.next();
+        int bracket = t.indexOf('[', t.start());
+        if (bracket == t.end() || t.charAt(t.end() - 1) != ']') {
+            throw new IllegalArgumentException("invalid report type: " + data);
+        }
+        status = Status.parse(t, t.start(), bracket);
+        t.parseTime(bracket + 1, t.end() - 1);
+        reportTimestamp = t.seconds;
+        reportNanos = t.nanos;
     }
 
     public Long getTimestamp() {
@@ -98,18 +109,59 @@ public class StatusReport {
         return sequenceNumber;
     }
 
+    public boolean isFragment() {
+        return fragOffset >= 0;
+    }
+
+    /**
+     * @return the offset of the fragment or null if the report refers to a whole bundle
+     */
     public Long getFragOffset() {
-        return fragOffset;
+        return isFragment() ? fragOffset : null;
     }
 
+    /**
+     * @return the payload length of the fragment or null if the report refers to a whole bundle
+     */
     public Long getFragLength() {
-        return fragLength;
+        return isFragment() ? fragLength : null;
     }
 
+    /**
+     * @return the node which sent the report
+     */
     public EID getSource() {
         return source;
     }
 
+    /**
+     * @return the source of the bundle the report refers to
+     */
+    public EID getBundleSource() {
+        return bundleSource;
+    }
+
+    /**
+     * @return the key of the bundle the report refers to, e.g. for a lookup in a BundleIdMap
+     */
+    public BundleKey getBundleKey() {
+        return new BundleKey(bundleSource, timestamp, sequenceNumber, fragOffset);
+    }
+
+    /**
+     * @return the time of the reported event in seconds since the DTN epoch
+     */
+    public long getReportTimestamp() {
+        return reportTimestamp;
+    }
+
+    /**
+     * @return the nanoseconds of the time of the reported event
+     */
+    public long getReportNanos() {
+        return reportNanos;
+    }
+
     public ReasonCode getReasonCode() {
         return reasonCode;
     }
@@ -0,0 +1,320 @@
+package ibrdtn.api.test;
+
+import ibrdtn.api.APIException;
+import ibrdtn.api.AsyncExtendedClient;
+import ibrdtn.api.AsyncRuntime;
+import ibrdtn.api.object.Block;
+import ibrdtn.api.object.Bundle;
+import ibrdtn.api.object.BundleID;
+import ibrdtn.api.sab.CallbackHandler;
+import ibrdtn.api.sab.Custody;
+import ibrdtn.api.sab.Response;
+import ibrdtn.api.sab.StatusReport;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+public class AsyncExtendedClientTest {
+
+    @Test
+    public void testCommandWithoutConnection() throws IOException, InterruptedException {
+        AsyncRuntime runtime = new AsyncRuntime();
+        try {
+            AsyncExtendedClient client = new AsyncExtendedClient(runtime);
+            client.setEndpoint("test").get();
+            fail("command without connection succeeded");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof APIException);
+        } finally {
+            runtime.close();
+        }
+    }
+
+    @Test
+    public void testOpenFailure() throws IOException, InterruptedException {
+        AsyncRuntime runtime = new AsyncRuntime();
+        try {
+            AsyncExtendedClient client = new AsyncExtendedClient(runtime);
+            client.setPort(1);
+            client.open().get();
+            fail("open without daemon succeeded");
+        } catch (ExecutionException e) {
+            // connection refused
+        } finally {
+            runtime.close();
+        }
+    }
+
+    @Test
+    public void testCommand() throws Exception {
+        ScriptedDaemon daemon = new ScriptedDaemon(0, 0);
+        AsyncRuntime runtime = new AsyncRuntime();
+        try {
+            AsyncExtendedClient client = open(runtime, daemon, null);
+            assertEquals("IBR-DTN test API 1.0", client.getHeader());
+
+            client.setEndpoint("test").get(5, TimeUnit.SECONDS);
+            assertTrue(daemon.received("set endpoint test"));
+
+            try {
+                client.addEndpoint("fail").get(5, TimeUnit.SECONDS);
+                fail("rejected command succeeded");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof APIException);
+            }
+
+            client.close().get(5, TimeUnit.SECONDS);
+        } finally {
+            runtime.close();
+            daemon.close();
+        }
+    }
+
+    @Test
+    public void testPipelining() throws Exception {
+        // the daemon holds back the responses until all commands have been received
+        ScriptedDaemon daemon = new ScriptedDaemon(0, 20);
+        AsyncRuntime runtime = new AsyncRuntime();
+        try {
+            AsyncExtendedClient client = open(runtime, daemon, null);
+
+            List<CompletableFuture<Response>> responses = new ArrayList<CompletableFuture<Response>>();
+            for (int i = 0; i < 20; i++) {
+                responses.add(client.query("echo " + i));
+            }
+
+            // the responses are assigned in the order of the commands
+            for (int i = 0; i < 20; i++) {
+                Response r = responses.get(i).get(5, TimeUnit.SECONDS);
+                assertEquals(200, r.getCode());
+                assertEquals("ECHO " + i, r.getData());
+            }
+        } finally {
+            runtime.close();
+            daemon.close();
+        }
+    }
+
+    @Test
+    public void testNotification() throws Exception {
+        ScriptedDaemon daemon = new ScriptedDaemon(0, 0);
+        RecordingHandler handler = new RecordingHandler();
+        AsyncRuntime runtime = new AsyncRuntime();
+        try {
+            AsyncExtendedClient client = open(runtime, daemon, handler);
+
+            // the notification arrives in front of the response of the command
+            Response r = client.query("notify 7").get(5, TimeUnit.SECONDS);
+            assertEquals(200, r.getCode());
+
+            BundleID id = handler.notifications.poll(5, TimeUnit.SECONDS);
+            assertNotNull(id);
+            assertEquals(7L, id.getSequenceNumber().longValue());
+            assertEquals("dtn://node/app", id.getSource().toString());
+        } finally {
+            runtime.close();
+            daemon.close();
+        }
+    }
+
+    @Test
+    public void testBundleReception() throws Exception {
+        // the load is only answered together with the get, so the get has to be written without waiting
+        ScriptedDaemon daemon = new ScriptedDaemon(2, 2);
+        RecordingHandler handler = new RecordingHandler();
+        AsyncRuntime runtime = new AsyncRuntime();
+        try {
+            AsyncExtendedClient client = open(runtime, daemon, handler);
+
+            for (int i = 0; i < 2; i++) {
+                client.loadAndGetBundle().get(5, TimeUnit.SECONDS);
+                Bundle b = handler.bundles.poll(5, TimeUnit.SECONDS);
+                assertNotNull(b);
+                assertEquals(i, b.getSequenceNumber().intValue());
+                assertEquals("payload " + i, handler.payloads.poll(5, TimeUnit.SECONDS));
+            }
+
+            // the queue is empty, the stale bundle in the register is not passed to the handler
+            try {
+                client.loadAndGetBundle().get(5, TimeUnit.SECONDS);
+                fail("load of empty queue succeeded");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof APIException);
+                assertEquals("no bundle available", e.getCause().getMessage());
+            }
+            // wait for the bundle data following the response of the get
+            client.query("echo sync");
+            client.query("echo sync").get(5, TimeUnit.SECONDS);
+            assertNull(handler.bundles.poll());
+            assertEquals(0, handler.open);
+        } finally {
+            runtime.close();
+            daemon.close();
+        }
+    }
+
+    private static AsyncExtendedClient open(AsyncRuntime runtime, ScriptedDaemon daemon, CallbackHandler handler)
+            throws Exception {
+        AsyncExtendedClient client = new AsyncExtendedClient(runtime);
+        client.setHost("127.0.0.1");
+        client.setPort(daemon.getPort());
+        client.setHandler(handler);
+        client.open().get(5, TimeUnit.SECONDS);
+        return client;
+    }
+
+    /**
+     * Records the received bundles and notifications. It is called by the I/O thread and therefore does not block.
+     */
+    private static class RecordingHandler implements CallbackHandler {
+
+        final LinkedBlockingQueue<BundleID> notifications = new LinkedBlockingQueue<BundleID>();
+        final LinkedBlockingQueue<Bundle> bundles = new LinkedBlockingQueue<Bundle>();
+        final LinkedBlockingQueue<String> payloads = new LinkedBlockingQueue<String>();
+        private Bundle current = null;
+        private ByteArrayOutputStream payload = null;
+        volatile int open = 0;
+
+        @Override
+        public void notify(BundleID id) {
+            notifications.add(id);
+        }
+
+        @Override
+        public void notify(StatusReport r) {
+        }
+
+        @Override
+        public void notify(Custody c) {
+        }
+
+        @Override
+        public void startBundle(Bundle bundle) {
+            if (current == null) {
+                open++;
+            }
+            current = bundle;
+        }
+
+        @Override
+        public void endBundle() {
+            bundles.add(current);
+            current = null;
+            open--;
+        }
+
+        @Override
+        public void startBlock(Block block) {
+        }
+
+        @Override
+        public void endBlock() {
+        }
+
+        @Override
+        public OutputStream startPayload() {
+            payload = new ByteArrayOutputStream();
+            return payload;
+        }
+
+        @Override
+        public void endPayload() {
+            payloads.add(payload.toString());
+        }
+
+        @Override
+        public void progress(long pos, long total) {
+        }
+    }
+
+    /**
+     * Answers the commands of one session. "bundle load queue" takes the next bundle of the queue, a failed load keeps
+     * the previous bundle in the register as the daemon does. The responses are written in batches of the given number
+     * of commands, so a client waiting for a response before writing the next command stalls.
+     */
+    private static class ScriptedDaemon extends FakeDaemon {
+
+        private final ArrayDeque<Integer> queue = new ArrayDeque<Integer>();
+        private final int hold;
+
+        ScriptedDaemon(int bundles, int hold) throws IOException {
+            this.hold = hold;
+            for (int i = 0; i < bundles; i++) {
+                queue.add(i);
+            }
+            start();
+        }
+
+        @Override
+        void serve(Session session) throws IOException {
+            StringBuilder held = new StringBuilder();
+            int count = 0;
+            int loaded = -1;
+            String line;
+            while ((line = session.readCommand()) != null) {
+                String response;
+                if (line.startsWith("set endpoint ")) {
+                    response = "200 OK\n";
+                } else if (line.startsWith("echo ")) {
+                    response = "200 ECHO " + line.substring(5) + "\n";
+                } else if (line.startsWith("notify ")) {
+                    response = "602 NOTIFY BUNDLE 1000 " + line.substring(7) + " dtn://node/app\n200 OK\n";
+                } else if (line.equals("bundle load queue")) {
+                    if (queue.isEmpty()) {
+                        response = "400 NO BUNDLE FOUND\n";
+                    } else {
+                        loaded = queue.poll();
+                        response = "200 BUNDLE LOADED\n";
+                    }
+                } else if (line.equals("bundle get")) {
+                    response = (loaded < 0) ? "400 NO BUNDLE LOADED\n" : bundle(loaded);
+                } else {
+                    response = "400 UNKNOWN COMMAND\n";
+                }
+
+                if (hold > 0) {
+                    held.append(response);
+                    if (++count % hold != 0) {
+                        continue;
+                    }
+                    response = held.toString();
+                    held.setLength(0);
+                }
+                session.write(response);
+            }
+        }
+
+        private static String bundle(int seq) {
+            String payload = "payload " + seq;
+            return "200 BUNDLE GET PLAIN\n"
+                    + "Source: dtn://node/app\n"
+                    + "Destination: dtn://local/app\n"
+                    + "Timestamp: 1000\n"
+                    + "Sequencenumber: " + seq + "\n"
+                    + "Blocks: 1\n"
+                    + "\n"
+                    + "Block: 1\n"
+                    + "Flags: LAST_BLOCK\n"
+                    + "Length: " + payload.length() + "\n"
+                    + "Encoding: raw\n"
+                    + "\n"
+                    + payload + "\n"
+                    + "\n";
+        }
+    }
+}
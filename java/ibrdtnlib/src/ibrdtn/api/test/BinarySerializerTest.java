@@ -0,0 +1,57 @@
+package ibrdtn.api.test;
+
+import ibrdtn.api.object.BinarySerializer;
+import ibrdtn.api.object.Bundle;
+import ibrdtn.api.object.PayloadBlock;
+import ibrdtn.api.object.SDNV;
+import ibrdtn.api.object.SingletonEndpoint;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class BinarySerializerTest {
+
+    @Test
+    public void testSDNV() {
+        assertArrayEquals(new byte[]{0x00}, new SDNV(0).getBytes());
+        assertArrayEquals(new byte[]{0x7f}, new SDNV(127).getBytes());
+        assertArrayEquals(new byte[]{(byte) 0x81, 0x00}, new SDNV(128).getBytes());
+        assertArrayEquals(new byte[]{(byte) 0x9c, 0x10}, new SDNV(3600).getBytes());
+        assertEquals(3600, new SDNV(new SDNV(3600).getBytes()).getValue());
+    }
+
+    @Test
+    public void testSerialize() throws IOException {
+        Bundle bundle = new Bundle(new SingletonEndpoint("dtn://node/app"), 3600);
+        bundle.appendBlock(new PayloadBlock("hello".getBytes()));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new BinarySerializer(out).serialize(bundle);
+
+        byte[] expected = concat(
+                new byte[]{0x06, (byte) 0x81, 0x10, 0x21},
+                // dictionary references of destination, source, report-to and custodian
+                new byte[]{0, 4, 0, 15, 0, 15, 0, 15},
+                // timestamp, sequence number, lifetime and dictionary length
+                new byte[]{0, 0, (byte) 0x9c, 0x10, 20},
+                "dtn\0//node/app\0none\0".getBytes(),
+                // payload block with the last block flag
+                new byte[]{1, 0x08, 5},
+                "hello".getBytes());
+
+        assertEquals(Arrays.toString(expected), Arrays.toString(out.toByteArray()));
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            out.write(part, 0, part.length);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,137 @@
+package ibrdtn.api.test;
+
+import ibrdtn.api.Timestamp;
+import ibrdtn.api.object.BundleID;
+import ibrdtn.api.object.BundleIdMap;
+import ibrdtn.api.object.BundleKey;
+import ibrdtn.api.object.GroupEndpoint;
+import ibrdtn.api.object.SingletonEndpoint;
+import ibrdtn.api.sab.StatusReport;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+public class BundleIdMapTest {
+
+    @Test
+    public void testBundleIdEquality() {
+        BundleID a = new BundleID(new SingletonEndpoint("dtn://node/app"), new Timestamp(1000L), 7L);
+        BundleID b = new BundleID(new SingletonEndpoint("dtn://node/app"), new Timestamp(1000L), 7L);
+
+        assertEquals(a, b);
+        assertEquals(a.hashCode(), b.hashCode());
+        assertEquals(new GroupEndpoint("dtn://node/app"), a.getSource());
+
+        b.setFragOffset(0);
+        assertFalse(a.equals(b));
+        assertFalse(b.equals(a));
+        a.setFragOffset(0);
+        assertEquals(a, b);
+        assertEquals(a.hashCode(), b.hashCode());
+
+        // unset fields are no wildcards
+        BundleID incomplete = new BundleID();
+        assertFalse(incomplete.equals(a));
+        assertFalse(a.equals(incomplete));
+
+        Set<BundleID> ids = new HashSet<BundleID>();
+        ids.add(a);
+        assertTrue(ids.contains(b));
+    }
+
+    @Test
+    public void testBundleKey() {
+        BundleID id = new BundleID(new SingletonEndpoint("dtn://node/app"), new Timestamp(1000L), 7L);
+        BundleKey key = BundleKey.valueOf(id);
+
+        assertEquals(new BundleKey(new SingletonEndpoint("dtn://node/app"), 1000L, 7L), key);
+        assertEquals(new BundleKey(new SingletonEndpoint("dtn://node/app"), 1000L, 7L).hashCode(), key.hashCode());
+        assertFalse(key.equals(new BundleKey(new SingletonEndpoint("dtn://node/other"), 1000L, 7L)));
+        assertFalse(key.isFragment());
+        assertEquals(id.toString(), key.toString());
+        assertEquals(id, key.toBundleID());
+
+        id.setFragOffset(512);
+        BundleKey fragment = BundleKey.valueOf(id);
+        assertTrue(fragment.isFragment());
+        assertEquals(512L, fragment.getFragOffset());
+        assertFalse(fragment.equals(key));
+        assertEquals(id.toString(), fragment.toString());
+
+        StatusReport report = new StatusReport(
+                "NOTIFY REPORT dtn://relay 1000.7 dtn://node/app 0 DELIVERY[1001.0]");
+        assertEquals(key, report.getBundleKey());
+    }
+
+    @Test
+    public void testPutGetRemove() {
+        SingletonEndpoint source = new SingletonEndpoint("dtn://node/app");
+        BundleIdMap<String> map = new BundleIdMap<String>();
+        BundleKey key = new BundleKey(source, 1000L, 1L);
+
+        assertTrue(map.isEmpty());
+        assertNull(map.get(key));
+        assertNull(map.get(new SingletonEndpoint("dtn://never/interned"), 1000L, 1L, BundleKey.NO_FRAGMENT));
+
+        assertNull(map.put(key, "first"));
+        assertEquals("first", map.put(key, "second"));
+        assertEquals(1, map.size());
+        assertEquals("second", map.get(source, 1000L, 1L, BundleKey.NO_FRAGMENT));
+        assertNull(map.get(source, 1000L, 1L, 0L));
+        assertEquals(key, map.keys().get(0));
+
+        assertEquals("second", map.remove(key));
+        assertNull(map.remove(key));
+        assertTrue(map.isEmpty());
+
+        try {
+            map.put(key, null);
+            fail("null value accepted");
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    @Test
+    public void testAgainstHashMap() {
+        Random random = new Random(42);
+        BundleIdMap<Integer> map = new BundleIdMap<Integer>();
+        Map<BundleKey, Integer> reference = new HashMap<BundleKey, Integer>();
+
+        SingletonEndpoint[] sources = new SingletonEndpoint[8];
+        for (int i = 0; i < sources.length; i++) {
+            sources[i] = new SingletonEndpoint("dtn://node-" + i + "/app");
+        }
+
+        // a narrow key range, so the operations hit existing entries and the removals shift probe sequences
+        for (int i = 0; i < 200000; i++) {
+            BundleKey key = new BundleKey(sources[random.nextInt(sources.length)], 1000L + random.nextInt(4),
+                    random.nextInt(2048), random.nextBoolean() ? BundleKey.NO_FRAGMENT : 0);
+
+            if (random.nextInt(3) == 0) {
+                assertEquals(reference.remove(key), map.remove(key));
+            } else {
+                assertEquals(reference.put(key, i), map.put(key, i));
+            }
+            assertEquals(reference.size(), map.size());
+        }
+
+        for (Map.Entry<BundleKey, Integer> e : reference.entrySet()) {
+            assertEquals(e.getValue(), map.get(e.getKey()));
+        }
+        assertEquals(reference.keySet(), new HashSet<BundleKey>(map.keys()));
+
+        map.clear();
+        assertTrue(map.isEmpty());
+        assertTrue(map.keys().isEmpty());
+    }
+}
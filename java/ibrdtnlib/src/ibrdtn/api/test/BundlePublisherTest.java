@@ -0,0 +1,288 @@
+package ibrdtn.api.test;
+
+import ibrdtn.api.BundlePublisher;
+import ibrdtn.api.ExtendedClient;
+import ibrdtn.api.SocketAPIConnection;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class BundlePublisherTest {
+
+    @Test
+    public void testDemand() throws Exception {
+        QueueDaemon daemon = new QueueDaemon(10);
+        ExtendedClient client = new ExtendedClient();
+        client.setConnection(new SocketAPIConnection("127.0.0.1", daemon.getPort()));
+        BundlePublisher publisher = new BundlePublisher(client, 8);
+        client.open();
+
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        publisher.subscribe(subscriber);
+
+        try {
+            // only the requested bundles are loaded
+            subscriber.request(3);
+            for (int i = 0; i < 3; i++) {
+                BundlePublisher.Delivery d = subscriber.next();
+                assertEquals(i, d.getId().getSequenceNumber().intValue());
+                d.acknowledge();
+            }
+            Thread.sleep(100);
+            assertEquals(3, daemon.count("bundle load queue"));
+            assertEquals(3, daemon.count("bundle delivered"));
+
+            // the rest is loaded until the queue is empty, the stale bundle in the register is ignored
+            subscriber.request(Long.MAX_VALUE);
+            for (int i = 3; i < 10; i++) {
+                assertEquals(i, subscriber.next().getId().getSequenceNumber().intValue());
+            }
+            assertNull(subscriber.items.poll(200, TimeUnit.MILLISECONDS));
+            int loads = daemon.count("bundle load queue");
+
+            // nothing is loaded before a new bundle is announced
+            Thread.sleep(100);
+            assertEquals(loads, daemon.count("bundle load queue"));
+            daemon.announce(10);
+            assertEquals(10, subscriber.next().getId().getSequenceNumber().intValue());
+
+            // unacknowledged bundles are not marked as delivered
+            assertEquals(3, daemon.count("bundle delivered"));
+        } finally {
+            publisher.close();
+            client.close();
+            daemon.close();
+        }
+
+        assertTrue(subscriber.completed.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testWindow() throws Exception {
+        QueueDaemon daemon = new QueueDaemon(10);
+        ExtendedClient client = new ExtendedClient();
+        client.setConnection(new SocketAPIConnection("127.0.0.1", daemon.getPort()));
+        BundlePublisher publisher = new BundlePublisher(client, 2);
+        client.open();
+
+        final CountDownLatch gate = new CountDownLatch(1);
+        RecordingSubscriber subscriber = new RecordingSubscriber() {
+            @Override
+            public void onNext(BundlePublisher.Delivery item) {
+                super.onNext(item);
+                try {
+                    gate.await();
+                } catch (InterruptedException e) {
+                }
+            }
+        };
+        publisher.subscribe(subscriber);
+
+        try {
+            subscriber.request(Long.MAX_VALUE);
+            assertNotNull(subscriber.next());
+
+            // the subscriber is blocked, so no more bundles than the window are loaded ahead of it
+            Thread.sleep(200);
+            assertEquals(3, daemon.count("bundle load queue"));
+            assertEquals(2, publisher.getBacklog());
+
+            gate.countDown();
+            for (int i = 1; i < 10; i++) {
+                assertEquals(i, subscriber.next().getId().getSequenceNumber().intValue());
+            }
+        } finally {
+            publisher.close();
+            client.close();
+            daemon.close();
+        }
+    }
+
+    @Test
+    public void testLoadedBundleId() throws Exception {
+        // the daemon names the loaded bundles, but bundle 3 is not transferred into the register
+        QueueDaemon daemon = new QueueDaemon(10);
+        daemon.named = true;
+        daemon.stale = 3;
+        ExtendedClient client = new ExtendedClient();
+        client.setConnection(new SocketAPIConnection("127.0.0.1", daemon.getPort()));
+        BundlePublisher publisher = new BundlePublisher(client, 4);
+        client.open();
+
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        publisher.subscribe(subscriber);
+
+        try {
+            subscriber.request(Long.MAX_VALUE);
+            for (int i = 0; i < 10; i++) {
+                if (i != 3) {
+                    assertEquals(i, subscriber.next().getId().getSequenceNumber().intValue());
+                }
+            }
+            assertNull(subscriber.items.poll(200, TimeUnit.MILLISECONDS));
+        } finally {
+            publisher.close();
+            client.close();
+            daemon.close();
+        }
+    }
+
+    @Test
+    public void testSingleSubscriber() throws Exception {
+        ExtendedClient client = new ExtendedClient();
+        BundlePublisher publisher = new BundlePublisher(client, 2);
+        RecordingSubscriber first = new RecordingSubscriber();
+        RecordingSubscriber second = new RecordingSubscriber();
+
+        publisher.subscribe(first);
+        publisher.subscribe(second);
+
+        assertTrue(second.failed.await(5, TimeUnit.SECONDS));
+        assertTrue(second.error instanceof IllegalStateException);
+
+        publisher.close();
+        assertTrue(first.completed.await(5, TimeUnit.SECONDS));
+    }
+
+    private static class RecordingSubscriber implements Flow.Subscriber<BundlePublisher.Delivery> {
+
+        final LinkedBlockingQueue<BundlePublisher.Delivery> items = new LinkedBlockingQueue<BundlePublisher.Delivery>();
+        final CountDownLatch subscribed = new CountDownLatch(1);
+        final CountDownLatch completed = new CountDownLatch(1);
+        final CountDownLatch failed = new CountDownLatch(1);
+        volatile Flow.Subscription subscription = null;
+        volatile Throwable error = null;
+
+        void request(long n) throws InterruptedException {
+            assertTrue(subscribed.await(5, TimeUnit.SECONDS));
+            subscription.request(n);
+        }
+
+        BundlePublisher.Delivery next() throws InterruptedException {
+            BundlePublisher.Delivery d = items.poll(5, TimeUnit.SECONDS);
+            assertNotNull(d);
+            return d;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            subscribed.countDown();
+        }
+
+        @Override
+        public void onNext(BundlePublisher.Delivery item) {
+            items.add(item);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            error = throwable;
+            failed.countDown();
+        }
+
+        @Override
+        public void onComplete() {
+            completed.countDown();
+        }
+    }
+
+    /**
+     * Holds a queue of bundles for the registration, which are loaded by "bundle load queue". A failed load keeps the
+     * previous bundle in the register, as the daemon does. If named, the id of the loaded bundle is part of the
+     * response. The stale bundle is reported as loaded, but not transferred into the register.
+     */
+    private static class QueueDaemon extends FakeDaemon {
+
+        private final ArrayDeque<Integer> queue = new ArrayDeque<Integer>();
+        private Session session = null;
+        volatile boolean named = false;
+        volatile int stale = -1;
+
+        QueueDaemon(int bundles) throws IOException {
+            for (int i = 0; i < bundles; i++) {
+                queue.add(i);
+            }
+            start();
+        }
+
+        int count(String prefix) {
+            int n = 0;
+            for (String c : commands()) {
+                if (c.startsWith(prefix)) {
+                    n++;
+                }
+            }
+            return n;
+        }
+
+        synchronized void announce(int seq) throws IOException {
+            queue.add(seq);
+            session.write("602 NOTIFY BUNDLE 1000 " + seq + " dtn://node/app\n");
+        }
+
+        @Override
+        void serve(Session session) throws IOException {
+            synchronized (this) {
+                this.session = session;
+            }
+
+            int loaded = -1;
+            String line;
+            while ((line = session.readCommand()) != null) {
+                synchronized (this) {
+                    if (line.equals("bundle load queue")) {
+                        if (queue.isEmpty()) {
+                            session.write("400 NO BUNDLE FOUND\n");
+                        } else {
+                            int next = queue.poll();
+                            if (next != stale) {
+                                loaded = next;
+                            }
+                            session.write(named ? "200 BUNDLE LOADED 1000 " + next + " dtn://node/app\n"
+                                    : "200 BUNDLE LOADED\n");
+                        }
+                    } else if (line.equals("bundle get")) {
+                        if (loaded < 0) {
+                            session.write("400 NO BUNDLE LOADED\n");
+                        } else {
+                            session.write(bundle(loaded));
+                        }
+                    } else if (line.startsWith("bundle delivered ")) {
+                        session.write("200 BUNDLE DELIVERED ACCEPTED\n");
+                    } else {
+                        session.write("400 UNKNOWN COMMAND\n");
+                    }
+                }
+            }
+        }
+
+        private static String bundle(int seq) {
+            String payload = "payload " + seq;
+            return "200 BUNDLE GET PLAIN\n"
+                    + "Source: dtn://node/app\n"
+                    + "Destination: dtn://local/app\n"
+                    + "Timestamp: 1000\n"
+                    + "Sequencenumber: " + seq + "\n"
+                    + "Blocks: 1\n"
+                    + "\n"
+                    + "Block: 1\n"
+                    + "Flags: LAST_BLOCK\n"
+                    + "Length: " + payload.length() + "\n"
+                    + "Encoding: raw\n"
+                    + "\n"
+                    + payload + "\n"
+                    + "\n";
+        }
+    }
+}
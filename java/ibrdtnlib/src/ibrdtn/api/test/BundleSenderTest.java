@@ -0,0 +1,183 @@
+package ibrdtn.api.test;
+
+import ibrdtn.api.APIException;
+import ibrdtn.api.BundleSender;
+import ibrdtn.api.ExtendedClient;
+import ibrdtn.api.SendResult;
+import ibrdtn.api.object.Bundle;
+import ibrdtn.api.object.EID;
+import ibrdtn.api.object.PayloadBlock;
+import ibrdtn.api.object.SingletonEndpoint;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+public class BundleSenderTest {
+
+    private static final EID SLOW = new SingletonEndpoint("dtn://slow/app");
+    private static final EID FAST = new SingletonEndpoint("dtn://fast/app");
+
+    @Test
+    public void testPriority() throws Exception {
+        RecordingClient client = new RecordingClient();
+        BundleSender sender = new BundleSender(client, 16);
+        sender.start();
+
+        try {
+            // the first bundle blocks the sender until the others have been queued
+            sender.submit(bundle(FAST, 0, Bundle.Priority.BULK, 1));
+            assertTrue(client.started.await(5, TimeUnit.SECONDS));
+            sender.submit(bundle(FAST, 1, Bundle.Priority.BULK, 1));
+            sender.submit(bundle(FAST, 2, Bundle.Priority.BULK, 1));
+            sender.submit(bundle(FAST, 3, Bundle.Priority.EXPEDITED, 1));
+            sender.submit(bundle(FAST, 4, Bundle.Priority.NORMAL, 1));
+            client.release.countDown();
+            sender.flush();
+
+            assertEquals(5, client.sent.size());
+            assertEquals(0L, client.lifetime(0));
+            assertEquals(3L, client.lifetime(1));
+            assertEquals(4L, client.lifetime(2));
+            assertEquals(1L, client.lifetime(3));
+            assertEquals(2L, client.lifetime(4));
+        } finally {
+            sender.close();
+        }
+    }
+
+    @Test
+    public void testBackpressure() throws Exception {
+        RecordingClient client = new RecordingClient();
+        BundleSender sender = new BundleSender(client, 2);
+        final List<SendResult> results = Collections.synchronizedList(new ArrayList<SendResult>());
+        sender.setListener(new BundleSender.Listener() {
+            @Override
+            public void sent(SendResult result) {
+                results.add(result);
+            }
+        });
+        sender.start();
+
+        sender.submit(bundle(FAST, 0, Bundle.Priority.NORMAL, 1));
+        assertTrue(client.started.await(5, TimeUnit.SECONDS));
+        sender.submit(bundle(FAST, 1, Bundle.Priority.NORMAL, 1));
+        sender.submit(bundle(FAST, 2, Bundle.Priority.NORMAL, 1));
+
+        // the queues are full while the first bundle is being sent
+        assertFalse(sender.offer(bundle(FAST, 3, Bundle.Priority.EXPEDITED, 1), 50, TimeUnit.MILLISECONDS));
+        assertEquals(2, sender.getQueued());
+
+        client.release.countDown();
+        assertTrue(sender.offer(bundle(FAST, 3, Bundle.Priority.EXPEDITED, 1), 5, TimeUnit.SECONDS));
+        sender.flush();
+        sender.close();
+
+        assertEquals(4, results.size());
+        for (SendResult r : results) {
+            assertTrue(r.isSuccess());
+        }
+    }
+
+    @Test
+    public void testRateLimit() throws Exception {
+        RecordingClient client = new RecordingClient();
+        client.release.countDown();
+        BundleSender sender = new BundleSender(client, 16);
+        sender.setRateLimit(SLOW, 1000, 100);
+        sender.start();
+
+        try {
+            long start = System.nanoTime();
+            sender.submit(bundle(SLOW, 0, Bundle.Priority.EXPEDITED, 100));
+            sender.submit(bundle(SLOW, 1, Bundle.Priority.EXPEDITED, 100));
+            sender.submit(bundle(FAST, 2, Bundle.Priority.BULK, 100));
+            sender.flush();
+            long elapsed = System.nanoTime() - start;
+
+            // the second bundle to the limited destination waits for 100 bytes at 1000 bytes per second
+            assertTrue(elapsed >= TimeUnit.MILLISECONDS.toNanos(90));
+
+            // the bulk bundle is not held up by the limited destination
+            assertEquals(0L, client.lifetime(0));
+            assertEquals(2L, client.lifetime(1));
+            assertEquals(1L, client.lifetime(2));
+        } finally {
+            sender.close();
+        }
+    }
+
+    @Test
+    public void testClose() throws Exception {
+        RecordingClient client = new RecordingClient();
+        BundleSender sender = new BundleSender(client, 16);
+        final List<SendResult> failed = Collections.synchronizedList(new ArrayList<SendResult>());
+        sender.setListener(new BundleSender.Listener() {
+            @Override
+            public void sent(SendResult result) {
+                if (!result.isSuccess()) {
+                    failed.add(result);
+                }
+            }
+        });
+        sender.start();
+
+        sender.submit(bundle(FAST, 0, Bundle.Priority.NORMAL, 1));
+        assertTrue(client.started.await(5, TimeUnit.SECONDS));
+        sender.submit(bundle(FAST, 1, Bundle.Priority.NORMAL, 1));
+        client.release.countDown();
+        sender.close();
+
+        // the queued bundle may have been taken before the close
+        assertEquals(2, client.sent.size() + failed.size());
+
+        try {
+            sender.submit(bundle(FAST, 2, Bundle.Priority.NORMAL, 1));
+            fail("bundle accepted after close");
+        } catch (APIException e) {
+        }
+    }
+
+    /**
+     * The lifetime identifies a bundle, the payload determines its size.
+     */
+    private static Bundle bundle(EID destination, long lifetime, Bundle.Priority priority, int size) {
+        Bundle b = new Bundle(destination, lifetime);
+        b.setPriority(priority);
+        b.appendBlock(new PayloadBlock(new byte[size]));
+        return b;
+    }
+
+    /**
+     * Records the sent bundles instead of sending them. The first send blocks until it is released.
+     */
+    private static class RecordingClient extends ExtendedClient {
+
+        final List<Bundle> sent = Collections.synchronizedList(new ArrayList<Bundle>());
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        @Override
+        public void send(Bundle bundle) throws APIException {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new APIException("Interrupted");
+            }
+            sent.add(bundle);
+        }
+
+        long lifetime(int index) {
+            return sent.get(index).getLifetime();
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package ibrdtn.api.test;
+
+import ibrdtn.api.APIConnection;
+import ibrdtn.api.ChunkedUploader;
+import ibrdtn.api.ConnectionFactory;
+import ibrdtn.api.SocketAPIConnection;
+import ibrdtn.api.object.Bundle;
+import ibrdtn.api.object.GroupEndpoint;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class ChunkedUploaderTest {
+
+    @Test
+    public void testUploadWithFailures() throws Exception {
+        upload(3);
+    }
+
+    @Test
+    public void testFailuresAfterProgress() throws Exception {
+        // the drop follows stored chunks, so it is not counted together with the rejected chunk
+        upload(1);
+    }
+
+    private static void upload(int retries) throws Exception {
+        byte[] payload = new byte[300 * 1000];
+        new Random(7).nextBytes(payload);
+
+        File file = File.createTempFile("chunked", ".bin");
+        Files.write(file.toPath(), payload);
+
+        final ScriptedDaemon daemon = new ScriptedDaemon();
+        daemon.rejectAt = 3;
+        daemon.dropAt = 8;
+        daemon.start();
+
+        FileChannel source = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            ChunkedUploader uploader = new ChunkedUploader(new ConnectionFactory() {
+                @Override
+                public APIConnection createConnection() {
+                    return new SocketAPIConnection("127.0.0.1", daemon.getPort());
+                }
+            }, new Bundle(new GroupEndpoint("dtn://group/sink"), 3600), source);
+            uploader.setChunkSize(32 * 1024);
+            uploader.setWindow(3);
+            uploader.setRetries(retries);
+
+            uploader.upload();
+
+            assertEquals(payload.length, uploader.getCommitted());
+            assertTrue(Arrays.equals(payload, daemon.sent));
+            assertEquals(2, daemon.connections.get());
+        } finally {
+            source.close();
+            daemon.close();
+            file.delete();
+        }
+    }
+
+    /**
+     * Keeps a register per connection. The n-th payload put may be rejected or interrupted.
+     */
+    private static class ScriptedDaemon extends FakeDaemon {
+
+        final AtomicInteger puts = new AtomicInteger(0);
+        volatile int rejectAt = -1;
+        volatile int dropAt = -1;
+        volatile byte[] sent = null;
+
+        ScriptedDaemon() throws IOException {
+        }
+
+        @Override
+        void serve(Session session) throws IOException {
+            ByteArrayOutputStream register = null;
+            String line;
+            while ((line = session.readCommand()) != null) {
+                if (line.length() == 0) {
+                    // empty lines are ignored like by the daemon
+                    continue;
+                }
+
+                if (line.equals("bundle clear")) {
+                    session.write("200 OK\n");
+                } else if (line.equals("bundle put plain")) {
+                    session.write("100 PUT BUNDLE PLAIN\n");
+                    // primary block, block header and the data of the empty payload block
+                    while (session.readLine().length() > 0) {
+                    }
+                    while (session.readLine().length() > 0) {
+                    }
+                    while (session.readLine().length() > 0) {
+                    }
+                    register = new ByteArrayOutputStream();
+                    session.write("200 BUNDLE IN REGISTER\n");
+                } else if (line.startsWith("payload put ")) {
+                    int offset = Integer.parseInt(line.substring(12));
+                    int n = puts.incrementAndGet();
+                    session.write("100 PAYLOAD PUT\n");
+
+                    int length = Integer.parseInt(session.readLine().substring(8));
+                    assertEquals("Encoding: raw", session.readLine());
+                    assertEquals("", session.readLine());
+
+                    if (n == dropAt) {
+                        session.read(new byte[length / 2], 0, length / 2);
+                        return;
+                    }
+
+                    byte[] data = new byte[length];
+                    session.readFully(data);
+
+                    if (n == rejectAt) {
+                        session.write("406 PAYLOAD PUT FAILED\n");
+                    } else if (offset > register.size()) {
+                        session.write("406 PAYLOAD PUT FAILED\n");
+                    } else {
+                        // positional write like the daemon's blob
+                        byte[] current = register.toByteArray();
+                        register.reset();
+                        register.write(current, 0, offset);
+                        register.write(data);
+                        if (current.length > offset + length) {
+                            register.write(current, offset + length, current.length - offset - length);
+                        }
+                        session.write("200 PAYLOAD PUT SUCCESSFUL\n");
+                    }
+                } else if (line.equals("bundle send")) {
+                    sent = register.toByteArray();
+                    session.write("200 BUNDLE SENT\n");
+                } else {
+                    session.write("400 UNKNOWN COMMAND\n");
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package ibrdtn.api.test;
+
+import ibrdtn.api.ClientConfig;
+import ibrdtn.api.ExtendedClient;
+import ibrdtn.api.PrefetchingReceiver;
+import ibrdtn.api.SocketAPIConnection;
+import ibrdtn.api.object.Bundle;
+import ibrdtn.api.object.BundleID;
+import ibrdtn.api.object.GroupEndpoint;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+public class ClientConfigTest {
+
+    @Test
+    public void testSingleRoundTrip() throws Exception {
+        ClientConfig config = new ClientConfig();
+        config.setHandle("reg7");
+        config.setEndpoint("app");
+        config.addRegistration(new GroupEndpoint("dtn://group/x"));
+        config.setEncoding(ExtendedClient.Encoding.RAW);
+        config.setPersistent(60);
+
+        // the daemon sends its header and all responses at once after it has received all commands
+        BatchDaemon daemon = new BatchDaemon(6, "200 SWITCHED TO EXTENDED", "200 REGISTRATION LOAD", "200 OK",
+                "200 OK", "200 OK", "200 REGISTRATION SAVE reg7");
+        ExtendedClient client = open(daemon, config);
+
+        try {
+            assertTrue(client.isConnected());
+            assertTrue(client.isRegistrationLoaded());
+            assertEquals("reg7", client.getRegistrationHandle());
+            assertEquals(Arrays.asList("protocol extended", "registration load reg7", "set endpoint app",
+                    "registration add dtn://group/x", "set encoding raw", "registration save 60"), daemon.commands());
+        } finally {
+            client.close();
+            daemon.close();
+        }
+    }
+
+    @Test
+    public void testRegistrationNotLoaded() throws Exception {
+        ClientConfig config = new ClientConfig();
+        config.setHandle("reg7");
+        config.setEndpoint("app");
+        config.setPersistent(60);
+
+        BatchDaemon daemon = new BatchDaemon(4, "200 SWITCHED TO EXTENDED", "503 REGISTRATION NOT FOUND",
+                "200 OK", "200 REGISTRATION SAVE reg8");
+        ExtendedClient client = open(daemon, config);
+
+        try {
+            assertTrue(client.isConnected());
+            assertFalse(client.isRegistrationLoaded());
+            assertEquals("reg8", client.getRegistrationHandle());
+        } finally {
+            client.close();
+            daemon.close();
+        }
+    }
+
+    @Test
+    public void testRejected() throws Exception {
+        ClientConfig config = new ClientConfig();
+        config.setEndpoint("app");
+        config.addRegistration(new GroupEndpoint("dtn://group/x"));
+
+        BatchDaemon daemon = new BatchDaemon(3, "200 SWITCHED TO EXTENDED", "200 OK", "400 REJECTED");
+        ExtendedClient client = new ExtendedClient();
+        client.setConnection(new SocketAPIConnection("127.0.0.1", daemon.getPort()));
+
+        try {
+            client.open(config);
+            fail("rejected configuration accepted");
+        } catch (IOException e) {
+            assertEquals("registration add dtn://group/x failed", e.getMessage());
+        } finally {
+            daemon.close();
+        }
+
+        assertFalse(client.isConnected());
+    }
+
+    @Test
+    public void testReopenWithHandler() throws Exception {
+        ServerSocket closed = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        closed.close();
+
+        ExtendedClient client = new ExtendedClient();
+        // installs its handler on the client
+        new PrefetchingReceiver(client, new PrefetchingReceiver.Consumer() {
+            @Override
+            public void receive(BundleID id, Bundle bundle) {
+            }
+        }, 1, 1);
+
+        client.setConnection(new SocketAPIConnection("127.0.0.1", closed.getLocalPort()));
+        try {
+            client.open();
+            fail("open without daemon succeeded");
+        } catch (IOException e) {
+            // connection refused
+        }
+
+        BatchDaemon daemon = new BatchDaemon(1, "200 SWITCHED TO EXTENDED");
+        client.setConnection(new SocketAPIConnection("127.0.0.1", daemon.getPort()));
+        try {
+            client.open();
+            assertTrue(client.isConnected());
+        } finally {
+            client.close();
+            daemon.close();
+        }
+    }
+
+    private static ExtendedClient open(BatchDaemon daemon, ClientConfig config) throws IOException {
+        ExtendedClient client = new ExtendedClient();
+        client.setConnection(new SocketAPIConnection("127.0.0.1", daemon.getPort()));
+        client.open(config);
+        return client;
+    }
+
+    /**
+     * Reads a number of commands before it writes the header and the given responses in a single write.
+     */
+    private static class BatchDaemon extends FakeDaemon {
+
+        private final int expected;
+        private final String[] responses;
+
+        BatchDaemon(int expected, String... responses) throws IOException {
+            this.expected = expected;
+            this.responses = responses;
+            start();
+        }
+
+        @Override
+        void greet(Session session) {
+            // the header is sent together with the responses
+        }
+
+        @Override
+        void serve(Session session) throws IOException {
+            for (int i = 0; i < expected; i++) {
+                session.readRaw();
+            }
+
+            StringBuilder sb = new StringBuilder(HEADER.replace("\n", "\r\n"));
+            for (String response : responses) {
+                sb.append(response).append('\n');
+            }
+            session.write(sb.toString());
+
+            // wait for the client to close the connection
+            while (session.readLine() != null) {
+            }
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package ibrdtn.api.test;
+
+import ibrdtn.api.ClientMetrics;
+import ibrdtn.api.ExtendedClient;
+import ibrdtn.api.LatencyStatistics;
+import ibrdtn.api.SocketAPIConnection;
+import ibrdtn.api.Timestamp;
+import ibrdtn.api.object.Block;
+import ibrdtn.api.object.Bundle;
+import ibrdtn.api.object.BundleID;
+import ibrdtn.api.object.SingletonEndpoint;
+import ibrdtn.api.sab.CallbackHandler;
+import ibrdtn.api.sab.Custody;
+import ibrdtn.api.sab.StatusReport;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.TabularData;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class ClientMetricsTest {
+
+    private static final String PAYLOAD = "metrics payload";
+
+    @Test
+    public void testDisabled() throws Exception {
+        ExtendedClient client = new ExtendedClient();
+        assertNull(client.getMetrics());
+
+        client.setMetricsEnabled(true);
+        assertNotNull(client.getMetrics());
+
+        client.setMetricsEnabled(false);
+        assertNull(client.getMetrics());
+    }
+
+    @Test
+    public void testCountersAndRegistration() throws Exception {
+        ScriptedDaemon daemon = new ScriptedDaemon();
+        daemon.start();
+
+        ReceivingHandler handler = new ReceivingHandler();
+        ExtendedClient client = new ExtendedClient();
+        client.setConnection(new SocketAPIConnection("127.0.0.1", daemon.getPort()));
+        client.setHandler(handler);
+        client.setMetricsEnabled(true);
+        client.open();
+
+        ClientMetrics metrics = client.getMetrics();
+        ObjectName name = metrics.getObjectName();
+        MBeanServer mbeans = ManagementFactory.getPlatformMBeanServer();
+        assertNotNull(name);
+        assertTrue(mbeans.isRegistered(name));
+
+        client.setEndpoint("test");
+        client.noop();
+        client.submit("payload 0 length").get();
+
+        BundleID id = new BundleID(new SingletonEndpoint("dtn://node/app"), new Timestamp(1000L), 1L);
+        client.loadBundle(id);
+        client.getBundle();
+        assertTrue(handler.received.await(10, TimeUnit.SECONDS));
+
+        // the callback is timed after the handler returned, the next response is read afterwards
+        client.noop();
+
+        Map<String, Long> commands = metrics.getCommands();
+        assertEquals(Long.valueOf(1), commands.get("protocol extended"));
+        assertEquals(Long.valueOf(1), commands.get("set endpoint"));
+        assertEquals(Long.valueOf(2), commands.get("noop"));
+        assertEquals(Long.valueOf(1), commands.get("payload length"));
+        assertEquals(Long.valueOf(1), commands.get("bundle load"));
+        assertEquals(Long.valueOf(1), commands.get("bundle get"));
+
+        Map<Integer, Long> codes = metrics.getResponseCodes();
+        assertEquals(Long.valueOf(4), codes.get(200));
+        assertEquals(Long.valueOf(3), codes.get(400));
+
+        Map<Integer, Long> notifications = metrics.getNotifications();
+        assertEquals(Long.valueOf(1), notifications.get(602));
+        assertEquals(Long.valueOf(1), notifications.get(603));
+        assertNull(notifications.get(604));
+
+        LatencyStatistics load = metrics.getCommandLatencies().get("bundle load");
+        assertEquals(1, load.getCount());
+        assertTrue(load.getMax() > 0);
+        assertTrue(load.getMedian() <= load.getMax());
+        assertEquals(3, metrics.getCallbackTime().getCount());
+
+        assertEquals(PAYLOAD.length(), metrics.getPayloadBytesReceived());
+        assertEquals(PAYLOAD, handler.payload.toString());
+        assertTrue(metrics.getBytesReceived() > PAYLOAD.length());
+        assertTrue(metrics.getBytesSent() > 0);
+        assertEquals(0, metrics.getInFlight());
+        assertTrue(metrics.getMaxInFlight() >= 1);
+
+        // the attributes are mapped to open types
+        assertEquals(metrics.getBytesSent(), mbeans.getAttribute(name, "BytesSent"));
+        assertTrue(mbeans.getAttribute(name, "CommandLatencies") instanceof TabularData);
+
+        metrics.reset();
+        assertTrue(metrics.getCommands().isEmpty());
+        assertEquals(0, metrics.getBytesReceived());
+
+        client.close();
+        daemon.close();
+        assertFalse(mbeans.isRegistered(name));
+    }
+
+    /**
+     * Answers the commands of the test and sends a bundle with a raw payload.
+     */
+    private static class ScriptedDaemon extends FakeDaemon {
+
+        ScriptedDaemon() throws IOException {
+        }
+
+        @Override
+        String switched() {
+            return "200 SWITCHED TO EXTENDED\n"
+                    + "602 NOTIFY BUNDLE 1000 1 dtn://node/app\n"
+                    + "603 NOTIFY REPORT dtn://node 1000.1 dtn://node/app 0 DELIVERY[1000.0] \n";
+        }
+
+        @Override
+        void serve(Session session) throws IOException {
+            String line;
+            while ((line = session.readCommand()) != null) {
+                if (line.startsWith("set endpoint ")) {
+                    session.write("200 OK\n");
+                } else if (line.startsWith("bundle load ")) {
+                    session.write("200 BUNDLE LOADED\n");
+                } else if (line.equals("bundle get")) {
+                    session.write("200 BUNDLE GET PLAIN\n"
+                            + "Source: dtn://node/app\n"
+                            + "Destination: dtn://local/test\n"
+                            + "Timestamp: 1000\n"
+                            + "Sequencenumber: 1\n"
+                            + "Blocks: 1\n"
+                            + "\n"
+                            + "Block: 1\n"
+                            + "Flags: LAST_BLOCK\n"
+                            + "Length: " + PAYLOAD.length() + "\n"
+                            + "Encoding: raw\n"
+                            + "\n"
+                            + PAYLOAD + "\n"
+                            + "\n");
+                } else {
+                    session.write("400 UNKNOWN COMMAND\n");
+                }
+            }
+        }
+    }
+
+    private static class ReceivingHandler implements CallbackHandler {
+
+        final ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        final CountDownLatch received = new CountDownLatch(1);
+
+        @Override
+        public void notify(BundleID id) {
+        }
+
+        @Override
+        public void notify(StatusReport r) {
+        }
+
+        @Override
+        public void notify(Custody c) {
+        }
+
+        @Override
+        public void startBundle(Bundle bundle) {
+        }
+
+        @Override
+        public void endBundle() {
+            received.countDown();
+        }
+
+        @Override
+        public void startBlock(Block block) {
+        }
+
+        @Override
+        public void endBlock() {
+        }
+
+        @Override
+        public OutputStream startPayload() {
+            return payload;
+        }
+
+        @Override
+        public void endPayload() {
+        }
+
+        @Override
+        public void progress(long pos, long total) {
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package ibrdtn.api.test;
+
+import ibrdtn.api.Base64;
+import ibrdtn.api.DataReceiver;
+import ibrdtn.api.ExtendedClient;
+import ibrdtn.api.object.Block;
+import ibrdtn.api.object.Bundle;
+import ibrdtn.api.object.BundleID;
+import ibrdtn.api.sab.CallbackHandler;
+import ibrdtn.api.sab.Custody;
+import ibrdtn.api.sab.SABByteParser;
+import ibrdtn.api.sab.SABException;
+import ibrdtn.api.sab.StatusReport;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class DataReceiverTest {
+
+    @Test
+    public void testBase64Payload() throws SABException, IOException {
+        byte[] payload = new byte[10000];
+        for (int i = 0; i < payload.length; i++) {
+            payload[i] = (byte) (i * 31);
+        }
+
+        String stream = "200 BUNDLE GET PLAIN\n"
+                + "Source: dtn://node/app\n"
+                + "Blocks: 1\n"
+                + "\n"
+                + "Block: 1\n"
+                + "Flags: LAST_BLOCK\n"
+                + "Length: " + payload.length + "\n"
+                + "Encoding: base64\n"
+                + "\n"
+                + Base64.encodeBytes(payload, Base64.DO_BREAK_LINES) + "\n"
+                + "\n";
+
+        PayloadHandler handler = new PayloadHandler();
+        feed(stream.getBytes(), new DataReceiver(new ExtendedClient(), new Object(), handler), 7);
+
+        assertTrue(Arrays.equals(payload, handler.payload.toByteArray()));
+        assertEquals(payload.length, handler.progress);
+        assertTrue(handler.ended);
+    }
+
+    @Test
+    public void testRawPayload() throws SABException {
+        String stream = "200 BUNDLE GET PLAIN\n"
+                + "Blocks: 1\n"
+                + "\n"
+                + "Block: 1\n"
+                + "Flags: LAST_BLOCK\n"
+                + "Length: 5\n"
+                + "Encoding: raw\n"
+                + "\n"
+                + "a\nb\nc\n"
+                + "\n";
+
+        PayloadHandler handler = new PayloadHandler();
+        feed(stream.getBytes(), new DataReceiver(new ExtendedClient(), new Object(), handler), 3);
+
+        assertEquals("a\nb\nc", handler.payload.toString());
+        assertTrue(handler.ended);
+    }
+
+    private static void feed(byte[] data, DataReceiver receiver, int chunk) throws SABException {
+        SABByteParser parser = new SABByteParser();
+        for (int i = 0; i < data.length; i += chunk) {
+            parser.consume(ByteBuffer.wrap(data, i, Math.min(chunk, data.length - i)), receiver);
+        }
+    }
+
+    private static class PayloadHandler implements CallbackHandler {
+
+        final ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        long progress = -1;
+        boolean ended = false;
+
+        @Override
+        public void notify(BundleID id) {
+        }
+
+        @Override
+        public void notify(StatusReport r) {
+        }
+
+        @Override
+        public void notify(Custody c) {
+        }
+
+        @Override
+        public void startBundle(Bundle bundle) {
+        }
+
+        @Override
+        public void endBundle() {
+            ended = true;
+        }
+
+        @Override
+        public void startBlock(Block block) {
+        }
+
+        @Override
+        public void endBlock() {
+        }
+
+        @Override
+        public OutputStream startPayload() {
+            return payload;
+        }
+
+        @Override
+        public void endPayload() {
+        }
+
+        @Override
+        public void progress(long pos, long total) {
+            progress = pos;
+        }
+    }
+}
@@ -0,0 +1,272 @@
+package ibrdtn.api.test;
+
+import ibrdtn.api.APIException;
+import ibrdtn.api.DispatchingHandler;
+import ibrdtn.api.ExtendedClient;
+import ibrdtn.api.SocketAPIConnection;
+import ibrdtn.api.object.Block;
+import ibrdtn.api.object.Bundle;
+import ibrdtn.api.object.BundleID;
+import ibrdtn.api.object.PayloadBlock;
+import ibrdtn.api.sab.CallbackHandler;
+import ibrdtn.api.sab.Custody;
+import ibrdtn.api.sab.PayloadSink;
+import ibrdtn.api.sab.PayloadSinkHandler;
+import ibrdtn.api.sab.StatusReport;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class DispatchingHandlerTest {
+
+    @Test
+    public void testBundleOrder() throws Exception {
+        RecordingHandler handler = new RecordingHandler();
+        DispatchingHandler dispatcher = new DispatchingHandler(handler, 64);
+
+        byte[] data = new byte[20000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) i;
+        }
+
+        // the receiver thread is not held up by the blocked handler
+        receive(dispatcher, data);
+        assertTrue(handler.events.isEmpty() || handler.events.equals(Arrays.asList("startBundle")));
+
+        handler.gate.countDown();
+        dispatcher.close();
+
+        assertEquals(Arrays.asList("startBundle", "startBlock", "startPayload", "progress 0",
+                "progress 20000", "close", "endPayload", "endBlock", "endBundle"), handler.events);
+        assertArrayEquals(data, handler.payload.toByteArray());
+    }
+
+    @Test
+    public void testPayloadSink() throws Exception {
+        SinkHandler handler = new SinkHandler();
+        DispatchingHandler dispatcher = new DispatchingHandler(handler, 64);
+
+        byte[] data = new byte[20000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i * 7);
+        }
+
+        handler.gate.countDown();
+        receive(dispatcher, data);
+        dispatcher.close();
+
+        // the payload is written to the sink instead of the stream returned by startPayload()
+        assertEquals(Arrays.asList("startBundle", "startBlock", "startPayloadSink", "progress 0",
+                "progress 20000", "close", "endPayload", "endBlock", "endBundle"), handler.events);
+        assertArrayEquals(data, handler.payload.toByteArray());
+    }
+
+    @Test
+    public void testNotificationLane() throws Exception {
+        RecordingHandler handler = new RecordingHandler();
+        DispatchingHandler dispatcher = new DispatchingHandler(handler, 64);
+
+        receive(dispatcher, new byte[100]);
+        dispatcher.notify(new BundleID());
+
+        // the notification is passed on while the handler is still busy with the bundle
+        assertTrue(handler.notified.await(5, TimeUnit.SECONDS));
+        assertTrue(handler.events.size() <= 1);
+
+        handler.gate.countDown();
+        dispatcher.close();
+        assertEquals("endBundle", handler.events.get(handler.events.size() - 1));
+    }
+
+    @Test
+    public void testBlockingCallFromNotification() throws Exception {
+        FakeDaemon daemon = new FakeDaemon() {
+            @Override
+            String switched() {
+                // more notifications than the capacity of the dispatcher
+                StringBuilder sb = new StringBuilder("200 SWITCHED TO EXTENDED\n");
+                for (int i = 0; i < 20; i++) {
+                    sb.append("602 NOTIFY BUNDLE 1000 ").append(i).append(" dtn://node/app\n");
+                }
+                return sb.toString();
+            }
+
+            @Override
+            void serve(Session session) throws IOException {
+                while (session.readCommand() != null) {
+                    session.write("400 UNKNOWN COMMAND\n");
+                }
+            }
+        };
+        daemon.start();
+
+        final ExtendedClient client = new ExtendedClient();
+        final CountDownLatch answered = new CountDownLatch(20);
+        DispatchingHandler dispatcher = new DispatchingHandler(new RecordingHandler() {
+            @Override
+            public void notify(BundleID id) {
+                // the response is read while the receiver thread passes the other notifications on
+                try {
+                    client.noop();
+                    answered.countDown();
+                } catch (APIException e) {
+                }
+            }
+        }, 2);
+        client.setConnection(new SocketAPIConnection("127.0.0.1", daemon.getPort()));
+        client.setHandler(dispatcher);
+        client.open();
+
+        try {
+            assertTrue(answered.await(5, TimeUnit.SECONDS));
+        } finally {
+            client.close();
+            daemon.close();
+            dispatcher.close();
+        }
+    }
+
+    /**
+     * Passes a bundle with a single payload block the way the receiver thread of the client does.
+     */
+    private static void receive(DispatchingHandler dispatcher, byte[] data) throws IOException {
+        dispatcher.startBundle(new Bundle());
+        dispatcher.startBlock(new PayloadBlock());
+        OutputStream out = dispatcher.startPayload();
+        dispatcher.progress(0, data.length);
+        for (int i = 0; i < data.length; i += 1000) {
+            out.write(data, i, Math.min(1000, data.length - i));
+        }
+        out.write(new byte[0]);
+        dispatcher.progress(data.length, data.length);
+        out.flush();
+        out.close();
+        dispatcher.endPayload();
+        dispatcher.endBlock();
+        dispatcher.endBundle();
+    }
+
+    /**
+     * Receives the payload through a sink, like the handler of RangedDownloader it returns no stream.
+     */
+    private static class SinkHandler extends RecordingHandler implements PayloadSinkHandler {
+
+        @Override
+        public OutputStream startPayload() {
+            events.add("startPayload");
+            return null;
+        }
+
+        @Override
+        public PayloadSink startPayloadSink() {
+            events.add("startPayloadSink");
+            return new PayloadSink() {
+                @Override
+                public void write(ByteBuffer data) {
+                    while (data.hasRemaining()) {
+                        payload.write(data.get());
+                    }
+                }
+
+                @Override
+                public void close() {
+                    events.add("close");
+                }
+            };
+        }
+    }
+
+    /**
+     * Records the events in the order they arrive. The first bundle event blocks until the gate is opened.
+     */
+    private static class RecordingHandler implements CallbackHandler {
+
+        final List<String> events = Collections.synchronizedList(new ArrayList<String>());
+        final ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        final CountDownLatch gate = new CountDownLatch(1);
+        final CountDownLatch notified = new CountDownLatch(1);
+
+        @Override
+        public void notify(BundleID id) {
+            notified.countDown();
+        }
+
+        @Override
+        public void notify(StatusReport r) {
+            notified.countDown();
+        }
+
+        @Override
+        public void notify(Custody c) {
+            notified.countDown();
+        }
+
+        @Override
+        public void startBundle(Bundle bundle) {
+            events.add("startBundle");
+            try {
+                gate.await();
+            } catch (InterruptedException e) {
+            }
+        }
+
+        @Override
+        public void endBundle() {
+            events.add("endBundle");
+        }
+
+        @Override
+        public void startBlock(Block block) {
+            events.add("startBlock");
+        }
+
+        @Override
+        public void endBlock() {
+            events.add("endBlock");
+        }
+
+        @Override
+        public OutputStream startPayload() {
+            events.add("startPayload");
+            return new OutputStream() {
+                @Override
+                public void write(int b) {
+                    payload.write(b);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) {
+                    payload.write(b, off, len);
+                }
+
+                @Override
+                public void close() {
+                    events.add("close");
+                }
+            };
+        }
+
+        @Override
+        public void endPayload() {
+            events.add("endPayload");
+        }
+
+        @Override
+        public void progress(long pos, long total) {
+            events.add("progress " + pos);
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package ibrdtn.api.test;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A daemon on the loopback interface for the tests of the client. Every accepted connection is served by a thread of
+ * its own: the header of the API is sent, the protocol switch is answered by readCommand() and the other commands by
+ * the script of the subclass. The commands read by readCommand() are recorded.
+ */
+abstract class FakeDaemon extends Thread {
+
+    static final String HEADER = "IBR-DTN test API 1.0\n";
+
+    private final ServerSocket server;
+    private final List<String> commands = new ArrayList<String>();
+    final AtomicInteger connections = new AtomicInteger(0);
+
+    FakeDaemon() throws IOException {
+        server = new ServerSocket(0, 10, InetAddress.getLoopbackAddress());
+        setDaemon(true);
+    }
+
+    int getPort() {
+        return server.getLocalPort();
+    }
+
+    void close() throws IOException {
+        server.close();
+    }
+
+    /**
+     * @return the commands received so far on all connections
+     */
+    synchronized List<String> commands() {
+        return new ArrayList<String>(commands);
+    }
+
+    synchronized boolean received(String command) {
+        return commands.contains(command);
+    }
+
+    synchronized void clearCommands() {
+        commands.clear();
+    }
+
+    private synchronized void record(String command) {
+        commands.add(command);
+    }
+
+    /**
+     * Called with a new connection before serve(), sends the header of the API.
+     */
+    void greet(Session session) throws IOException {
+        session.write(HEADER);
+    }
+
+    /**
+     * @return the response to the protocol switch
+     */
+    String switched() {
+        return "200 SWITCHED TO EXTENDED\n";
+    }
+
+    /**
+     * Answers the commands of a connection. The connection is closed on return.
+     */
+    abstract void serve(Session session) throws IOException;
+
+    @Override
+    public void run() {
+        try {
+            while (true) {
+                final Socket socket = server.accept();
+                connections.incrementAndGet();
+                Thread t = new Thread() {
+                    @Override
+                    public void run() {
+                        try {
+                            Session session = new Session(socket);
+                            greet(session);
+                            serve(session);
+                        } catch (IOException e) {
+                        } finally {
+                            try {
+                                socket.close();
+                            } catch (IOException e) {
+                            }
+                        }
+                    }
+                };
+                t.setDaemon(true);
+                t.start();
+            }
+        } catch (IOException e) {
+            // closed
+        }
+    }
+
+    /**
+     * A connection of the daemon. Lines and data are read from the same buffered stream, so bundle data may follow
+     * a command.
+     */
+    class Session {
+
+        final Socket socket;
+        private final InputStream in;
+        private final OutputStream out;
+
+        Session(Socket socket) throws IOException {
+            this.socket = socket;
+            this.in = new BufferedInputStream(socket.getInputStream());
+            this.out = socket.getOutputStream();
+        }
+
+        /**
+         * @return the next line without the line break or null, if the connection has been closed
+         */
+        String readLine() throws IOException {
+            ByteArrayOutputStream line = new ByteArrayOutputStream();
+            int b;
+            while ((b = in.read()) != '\n') {
+                if (b < 0) {
+                    return (line.size() == 0) ? null : line.toString("ISO-8859-1");
+                }
+                line.write(b);
+            }
+            String s = line.toString("ISO-8859-1");
+            return s.endsWith("\r") ? s.substring(0, s.length() - 1) : s;
+        }
+
+        /**
+         * Reads and records the next command. The protocol switch is answered here.
+         *
+         * @return the command or null, if the connection has been closed
+         */
+        String readCommand() throws IOException {
+            while (true) {
+                String line = readLine();
+                if (line == null) {
+                    return null;
+                }
+                record(line);
+                if (!line.equals("protocol extended")) {
+                    return line;
+                }
+                write(switched());
+            }
+        }
+
+        /**
+         * Reads and records a command, without answering the protocol switch.
+         */
+        String readRaw() throws IOException {
+            String line = readLine();
+            if (line != null) {
+                record(line);
+            }
+            return line;
+        }
+
+        int read(byte[] data, int off, int len) throws IOException {
+            return in.read(data, off, len);
+        }
+
+        void readFully(byte[] data) throws IOException {
+            int pos = 0;
+            while (pos < data.length) {
+                int n = in.read(data, pos, data.length - pos);
+                if (n < 0) {
+                    throw new EOFException();
+                }
+                pos += n;
+            }
+        }
+
+        synchronized void write(String data) throws IOException {
+            out.write(data.getBytes("ISO-8859-1"));
+            out.flush();
+        }
+
+        synchronized void write(byte[] data, int off, int len) throws IOException {
+            out.write(data, off, len);
+            out.flush();
+        }
+
+        void close() throws IOException {
+            socket.close();
+        }
+    }
+}
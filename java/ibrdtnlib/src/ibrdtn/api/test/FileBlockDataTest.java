@@ -0,0 +1,288 @@
+package ibrdtn.api.test;
+
+import ibrdtn.api.APIException;
+import ibrdtn.api.Base64;
+import ibrdtn.api.ExtendedClient;
+import ibrdtn.api.SendResult;
+import ibrdtn.api.SocketAPIConnection;
+import ibrdtn.api.object.BinarySerializer;
+import ibrdtn.api.object.Block;
+import ibrdtn.api.object.Bundle;
+import ibrdtn.api.object.ByteArrayBlockData;
+import ibrdtn.api.object.FileBlockData;
+import ibrdtn.api.object.GroupEndpoint;
+import ibrdtn.api.object.MappedBlockData;
+import ibrdtn.api.object.PayloadBlock;
+import ibrdtn.api.object.PlainSerializer;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class FileBlockDataTest {
+
+    @Test
+    public void testTransferMatchesStream() throws Exception {
+        byte[] payload = payload(200 * 1000);
+        File file = File.createTempFile("payload", ".bin");
+        Files.write(file.toPath(), payload);
+
+        try {
+            byte[] region = Arrays.copyOfRange(payload, 1000, 151000);
+            byte[] expected = binary(new ByteArrayBlockData(region));
+
+            assertTrue(Arrays.equals(expected, binary(new FileBlockData(file, 1000, 150000))));
+            assertTrue(Arrays.equals(expected, transferBinary(new FileBlockData(file, 1000, 150000))));
+            assertTrue(Arrays.equals(expected, transferBinary(MappedBlockData.map(file, 1000, 150000))));
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testPlainRawEncoding() throws Exception {
+        File file = File.createTempFile("payload", ".txt");
+        Files.write(file.toPath(), "hello world".getBytes());
+
+        File out = File.createTempFile("bundle", ".txt");
+        try {
+            FileChannel channel = FileChannel.open(out.toPath(), StandardOpenOption.WRITE);
+            try {
+                new PlainSerializer(Channels.newOutputStream(channel), channel).serialize(bundle(new FileBlockData(file)));
+            } finally {
+                channel.close();
+            }
+
+            String data = new String(Files.readAllBytes(out.toPath()));
+            assertTrue(data.endsWith("Length: 11\nEncoding: raw\n\nhello world\n\n"));
+        } finally {
+            file.delete();
+            out.delete();
+        }
+    }
+
+    @Test
+    public void testSendFileBackedBundle() throws Exception {
+        byte[] payload = payload(300 * 1000);
+        File file = File.createTempFile("payload", ".bin");
+        Files.write(file.toPath(), payload);
+
+        ScriptedDaemon daemon = new ScriptedDaemon();
+        daemon.start();
+
+        try {
+            ExtendedClient client = new ExtendedClient();
+            client.setConnection(new SocketAPIConnection("127.0.0.1", daemon.getPort()));
+            client.open();
+            try {
+                client.send(bundle(new FileBlockData(file)));
+                client.send(bundle(new ByteArrayBlockData("small".getBytes())));
+            } finally {
+                client.close();
+            }
+
+            assertEquals(2, daemon.sent);
+            assertTrue(Arrays.equals(payload, daemon.payloads.get(0)));
+            assertTrue(Arrays.equals("small".getBytes(), daemon.payloads.get(1)));
+        } finally {
+            daemon.close();
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testInterruptedSender() throws Exception {
+        byte[] payload = payload(300 * 1000);
+        File file = File.createTempFile("payload", ".bin");
+        Files.write(file.toPath(), payload);
+
+        ScriptedDaemon daemon = new ScriptedDaemon();
+        daemon.start();
+
+        try {
+            final ExtendedClient client = new ExtendedClient();
+            final FileBlockData data = new FileBlockData(file);
+            client.setConnection(new SocketAPIConnection("127.0.0.1", daemon.getPort()));
+            // the submission is written before the responses are awaited
+            client.setPipelining(true);
+            client.open();
+            try {
+                Thread sender = new Thread() {
+                    @Override
+                    public void run() {
+                        interrupt();
+                        try {
+                            client.send(bundle(data));
+                        } catch (APIException e) {
+                            // interrupted while waiting for the responses
+                        }
+                    }
+                };
+                sender.start();
+                sender.join();
+
+                // the interrupt of a sending thread does not close the connection of the others
+                assertTrue(client.isConnected());
+                client.send(bundle(new ByteArrayBlockData("small".getBytes())));
+            } finally {
+                client.close();
+            }
+
+            assertEquals(2, daemon.sent);
+            assertTrue(Arrays.equals(payload, daemon.payloads.get(0)));
+            assertTrue(Arrays.equals("small".getBytes(), daemon.payloads.get(1)));
+        } finally {
+            daemon.close();
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testShortFileInBatch() throws Exception {
+        File file = File.createTempFile("payload", ".bin");
+        Files.write(file.toPath(), payload(1000));
+
+        ScriptedDaemon daemon = new ScriptedDaemon();
+        daemon.start();
+
+        try {
+            ExtendedClient client = new ExtendedClient();
+            client.setConnection(new SocketAPIConnection("127.0.0.1", daemon.getPort()));
+            client.open();
+            try {
+                List<Bundle> batch = new ArrayList<Bundle>();
+                batch.add(bundle(new ByteArrayBlockData("small".getBytes())));
+                batch.add(bundle(new FileBlockData(file, 0, 5000)));
+                batch.add(bundle(new ByteArrayBlockData("small".getBytes())));
+
+                // the daemon waits for the rest of the second bundle, so the connection is given up
+                List<SendResult> results = client.sendAll(batch);
+                assertEquals(3, results.size());
+                for (int i = 0; i < 3; i++) {
+                    assertTrue(results.get(i).getBundle() == batch.get(i));
+                }
+                assertFalse(results.get(1).isSuccess());
+                assertFalse(results.get(2).isSuccess());
+                assertFalse(client.isConnected());
+            } finally {
+                client.close();
+            }
+        } finally {
+            daemon.close();
+            file.delete();
+        }
+    }
+
+    private static Bundle bundle(Block.Data data) {
+        Bundle bundle = new Bundle(new GroupEndpoint("dtn://group/sink"), 3600);
+        bundle.appendBlock(new PayloadBlock(data));
+        return bundle;
+    }
+
+    private static byte[] binary(Block.Data data) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new BinarySerializer(out).serialize(bundle(data));
+        return out.toByteArray();
+    }
+
+    private static byte[] transferBinary(Block.Data data) throws IOException {
+        File out = File.createTempFile("bundle", ".bin");
+        try {
+            FileChannel channel = FileChannel.open(out.toPath(), StandardOpenOption.WRITE);
+            try {
+                new BinarySerializer(Channels.newOutputStream(channel), channel).serialize(bundle(data));
+            } finally {
+                channel.close();
+            }
+            return Files.readAllBytes(out.toPath());
+        } finally {
+            out.delete();
+        }
+    }
+
+    private static byte[] payload(int length) {
+        byte[] data = new byte[length];
+        new Random(11).nextBytes(data);
+        return data;
+    }
+
+    /**
+     * Accepts plain bundles with base64 or raw encoded payload blocks.
+     */
+    private static class ScriptedDaemon extends FakeDaemon {
+
+        final List<byte[]> payloads = Collections.synchronizedList(new ArrayList<byte[]>());
+        volatile int sent = 0;
+
+        ScriptedDaemon() throws IOException {
+        }
+
+        @Override
+        void serve(Session session) throws IOException {
+            String line;
+            while ((line = session.readCommand()) != null) {
+                if (line.length() == 0) {
+                    continue;
+                }
+
+                if (line.equals("bundle clear")) {
+                    session.write("200 OK\n");
+                } else if (line.equals("bundle put plain")) {
+                    session.write("100 PUT BUNDLE PLAIN\n");
+                    payloads.add(readBundle(session));
+                    session.write("200 BUNDLE IN REGISTER\n");
+                } else if (line.equals("bundle send")) {
+                    sent++;
+                    session.write("200 BUNDLE SENT\n");
+                } else {
+                    session.write("400 UNKNOWN COMMAND\n");
+                }
+            }
+        }
+
+        private static byte[] readBundle(Session session) throws IOException {
+            // primary block
+            while (session.readLine().length() > 0) {
+            }
+
+            int length = 0;
+            boolean raw = false;
+            String line;
+            while ((line = session.readLine()).length() > 0) {
+                if (line.startsWith("Length: ")) {
+                    length = Integer.parseInt(line.substring(8));
+                } else if (line.equals("Encoding: raw")) {
+                    raw = true;
+                }
+            }
+
+            if (raw) {
+                byte[] data = new byte[length];
+                session.readFully(data);
+                assertEquals("", session.readLine());
+                assertEquals("", session.readLine());
+                return data;
+            }
+
+            StringBuilder encoded = new StringBuilder();
+            while ((line = session.readLine()).length() > 0) {
+                encoded.append(line);
+            }
+            return Base64.decode(encoded.toString());
+        }
+    }
+}
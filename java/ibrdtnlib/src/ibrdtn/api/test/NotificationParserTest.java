@@ -0,0 +1,144 @@
+package ibrdtn.api.test;
+
+import ibrdtn.api.sab.Custody;
+import ibrdtn.api.sab.StatusReport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+public class NotificationParserTest {
+
+    @Test
+    public void testStatusReport() {
+        StatusReport r = new StatusReport(
+                "603 NOTIFY REPORT dtn://timpner-lx 420030842.1 dtn://timpner-lx/1 0 RECEIPT[1366715642.374735000] ");
+
+        assertEquals("dtn://timpner-lx", r.getSource().toString());
+        assertEquals("dtn://timpner-lx/1", r.getBundleSource().toString());
+        assertEquals(Long.valueOf(420030842L), r.getTimestamp());
+        assertEquals(Long.valueOf(1L), r.getSequenceNumber());
+        assertFalse(r.isFragment());
+        assertNull(r.getFragOffset());
+        assertNull(r.getFragLength());
+        assertEquals(StatusReport.ReasonCode.NO_ADDITIONAL_INFORMATION, r.getReasonCode());
+        assertEquals(StatusReport.Status.RECEIPT, r.getStatus());
+        assertEquals(1366715642L, r.getReportTimestamp());
+        assertEquals(374735000L, r.getReportNanos());
+    }
+
+    @Test
+    public void testStatusReportFragment() {
+        StatusReport r = new StatusReport(
+                "NOTIFY REPORT dtn://node-a 457894561.12.1024:512 dtn://node-b/app 1 DELIVERY[457894570.381]");
+
+        assertEquals(Long.valueOf(457894561L), r.getTimestamp());
+        assertEquals(Long.valueOf(12L), r.getSequenceNumber());
+        assertTrue(r.isFragment());
+        assertEquals(Long.valueOf(1024L), r.getFragOffset());
+        assertEquals(Long.valueOf(512L), r.getFragLength());
+        assertEquals(StatusReport.ReasonCode.LIFETIME_EXPIRED, r.getReasonCode());
+        assertEquals(StatusReport.Status.DELIVERY, r.getStatus());
+        assertEquals(457894570L, r.getReportTimestamp());
+        assertEquals(381L, r.getReportNanos());
+    }
+
+    @Test
+    public void testStatusReportTypes() {
+        StatusReport r = new StatusReport("NOTIFY REPORT dtn://node-a 1.2 dtn://node-b/app 0 "
+                + "CUSTODY-ACCEPTANCE[10.20] DELIVERY[11.21] ");
+
+        // the first type is kept
+        assertEquals(StatusReport.Status.CUSTODY_ACCEPTANCE, r.getStatus());
+        assertEquals(10L, r.getReportTimestamp());
+        assertEquals(20L, r.getReportNanos());
+    }
+
+    @Test
+    public void testCustody() {
+        Custody c = new Custody("NOTIFY CUSTODY dtn://node-a 419414182.1 dtn://node-b/client-1 ACCEPTED "
+                + "1366098982.643247000");
+
+        assertEquals("dtn://node-a", c.getSource().toString());
+        assertEquals("dtn://node-b/client-1", c.getBundleSource().toString());
+        assertEquals(Long.valueOf(419414182L), c.getTimestamp());
+        assertEquals(Long.valueOf(1L), c.getSequenceNumber());
+        assertFalse(c.isFragment());
+        assertEquals(Custody.Status.ACCEPTED, c.getStatus());
+        assertNull(c.getReason());
+        assertEquals(0, c.getReasonCode());
+        assertEquals(1366098982L, c.getSignalTimestamp());
+        assertEquals(643247000L, c.getSignalNanos());
+    }
+
+    @Test
+    public void testCustodyRejectedFragment() {
+        Custody c = new Custody("604 NOTIFY CUSTODY dtn://node-a 419414182.1.0:4096 dtn://node-b/client-1 "
+                + "REJECTED(4) 1366098982.643247000");
+
+        assertTrue(c.isFragment());
+        assertEquals(Long.valueOf(0L), c.getFragOffset());
+        assertEquals(Long.valueOf(4096L), c.getFragLength());
+        assertEquals(Custody.Status.REJECTED, c.getStatus());
+        assertEquals(Custody.Reason.DEPLETED_STORAGE, c.getReason());
+        assertEquals(4, c.getReasonCode());
+    }
+
+    @Test
+    public void testCustodyUnknownReason() {
+        Custody c = new Custody("NOTIFY CUSTODY dtn://node-a 419414182.1 dtn://node-b/client-1 REJECTED(1) "
+                + "1366098982.643247000");
+
+        assertEquals(Custody.Status.REJECTED, c.getStatus());
+        assertNull(c.getReason());
+        assertEquals(1, c.getReasonCode());
+    }
+
+    @Test
+    public void testNumberRange() {
+        StatusReport r = new StatusReport("NOTIFY REPORT dtn://node-a 9223372036854775807.1 dtn://node-b/app 0 "
+                + "DELIVERY[1.2]");
+        assertEquals(Long.valueOf(Long.MAX_VALUE), r.getTimestamp());
+
+        String[] reports = {
+            "NOTIFY REPORT dtn://node-a 9223372036854775808.1 dtn://node-b/app 0 DELIVERY[1.2]",
+            "NOTIFY REPORT dtn://node-a 1.99999999999999999999 dtn://node-b/app 0 DELIVERY[1.2]"
+        };
+        for (String data : reports) {
+            try {
+                new StatusReport(data);
+                fail("number out of range accepted: " + data);
+            } catch (IllegalArgumentException e) {
+            }
+        }
+    }
+
+    @Test
+    public void testMalformed() {
+        String[] reports = {
+            "NOTIFY CUSTODY dtn://node-a 1.2 dtn://node-b/app ACCEPTED 1.2",
+            "NOTIFY REPORT dtn://node-a 1.2 dtn://node-b/app 0",
+            "NOTIFY REPORT dtn://node-a 1 dtn://node-b/app 0 DELIVERY[1.2]",
+            "NOTIFY REPORT dtn://node-a 1.x dtn://node-b/app 0 DELIVERY[1.2]",
+            "NOTIFY REPORT dtn://node-a 1.2 dtn://node-b/app 0 DELIVERY(1.2)",
+            "NOTIFY REPORT dtn://node-a 1.2 dtn://node-b/app 0 ARRIVAL[1.2]"
+        };
+        for (String data : reports) {
+            try {
+                new StatusReport(data);
+                fail("malformed report accepted: " + data);
+            } catch (IllegalArgumentException e) {
+            }
+        }
+
+        try {
+            new Custody("NOTIFY CUSTODY dtn://node-a 1.2 dtn://node-b/app DELAYED 1.2");
+            fail("malformed custody signal accepted");
+        } catch (IllegalArgumentException e) {
+        }
+    }
+}
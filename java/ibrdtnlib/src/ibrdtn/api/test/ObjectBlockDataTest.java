@@ -0,0 +1,72 @@
+package ibrdtn.api.test;
+
+import ibrdtn.api.object.ObjectBlockData;
+import ibrdtn.api.object.PayloadCodec;
+import ibrdtn.api.object.SerializableCodec;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class ObjectBlockDataTest {
+
+    @Test
+    public void testSerializedOnce() throws IOException {
+        CountingCodec codec = new CountingCodec();
+        ObjectBlockData data = new ObjectBlockData("hello", codec);
+
+        assertEquals(7, data.size());
+
+        ByteArrayOutputStream first = new ByteArrayOutputStream();
+        data.writeTo(first);
+        ByteArrayOutputStream second = new ByteArrayOutputStream();
+        data.writeTo(second);
+
+        assertEquals(1, codec.encoded);
+        assertTrue(Arrays.equals(first.toByteArray(), second.toByteArray()));
+        assertEquals("hello", codec.decode(new ByteArrayInputStream(first.toByteArray())));
+    }
+
+    @Test
+    public void testSerializableDefault() throws IOException {
+        ArrayList<String> list = new ArrayList<String>(Arrays.asList("a", "b"));
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        new ObjectOutputStream(expected).writeObject(list);
+
+        ObjectBlockData data = new ObjectBlockData(list);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        data.writeTo(out);
+
+        assertEquals(expected.size(), data.size());
+        assertTrue(Arrays.equals(expected.toByteArray(), out.toByteArray()));
+        assertEquals(list, SerializableCodec.INSTANCE.decode(new ByteArrayInputStream(out.toByteArray())));
+    }
+
+    private static class CountingCodec implements PayloadCodec<String> {
+
+        int encoded = 0;
+
+        @Override
+        public void encode(String value, OutputStream stream) throws IOException {
+            encoded++;
+            new DataOutputStream(stream).writeUTF(value);
+        }
+
+        @Override
+        public String decode(InputStream stream) throws IOException {
+            return new DataInputStream(stream).readUTF();
+        }
+    }
+}
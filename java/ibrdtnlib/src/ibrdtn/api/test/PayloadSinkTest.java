@@ -0,0 +1,159 @@
+package ibrdtn.api.test;
+
+import ibrdtn.api.Base64;
+import ibrdtn.api.DataReceiver;
+import ibrdtn.api.object.Block;
+import ibrdtn.api.object.Bundle;
+import ibrdtn.api.object.BundleID;
+import ibrdtn.api.sab.Custody;
+import ibrdtn.api.sab.PayloadSink;
+import ibrdtn.api.sab.PayloadSinkHandler;
+import ibrdtn.api.sab.SABByteParser;
+import ibrdtn.api.sab.SABException;
+import ibrdtn.api.sab.StatusReport;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class PayloadSinkTest {
+
+    @Test
+    public void testBase64ToDirectBuffer() throws SABException, IOException {
+        byte[] payload = payload(10000);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(payload.length);
+
+        feed(bundle(payload, false), new SinkHandler(PayloadSink.toBuffer(buffer)), 7);
+
+        buffer.flip();
+        byte[] received = new byte[buffer.remaining()];
+        buffer.get(received);
+        assertTrue(Arrays.equals(payload, received));
+    }
+
+    @Test
+    public void testRawToFileRegion() throws Exception {
+        byte[] payload = payload(5000);
+        File file = File.createTempFile("sink", ".bin");
+
+        try {
+            FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE);
+            try {
+                SinkHandler handler = new SinkHandler(PayloadSink.toFile(channel, 100));
+                feed(bundle(payload, true), handler, 333);
+                assertTrue(handler.ended);
+                assertEquals(0, channel.position());
+            } finally {
+                channel.close();
+            }
+
+            byte[] data = Files.readAllBytes(file.toPath());
+            assertEquals(100 + payload.length, data.length);
+            assertTrue(Arrays.equals(payload, Arrays.copyOfRange(data, 100, data.length)));
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static byte[] bundle(byte[] payload, boolean raw) throws IOException {
+        String header = "200 BUNDLE GET PLAIN\n"
+                + "Source: dtn://node/app\n"
+                + "Blocks: 1\n"
+                + "\n"
+                + "Block: 1\n"
+                + "Flags: LAST_BLOCK\n"
+                + "Length: " + payload.length + "\n"
+                + "Encoding: " + (raw ? "raw" : "base64") + "\n"
+                + "\n";
+
+        byte[] data = raw ? payload : Base64.encodeBytes(payload, Base64.DO_BREAK_LINES).getBytes();
+        byte[] stream = new byte[header.length() + data.length + 2];
+        System.arraycopy(header.getBytes(), 0, stream, 0, header.length());
+        System.arraycopy(data, 0, stream, header.length(), data.length);
+        stream[stream.length - 2] = '\n';
+        stream[stream.length - 1] = '\n';
+        return stream;
+    }
+
+    private static byte[] payload(int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (i * 31);
+        }
+        return data;
+    }
+
+    private static void feed(byte[] data, SinkHandler handler, int chunk) throws SABException {
+        DataReceiver receiver = new DataReceiver(new Object(), handler);
+        SABByteParser parser = new SABByteParser();
+        for (int i = 0; i < data.length; i += chunk) {
+            parser.consume(ByteBuffer.wrap(data, i, Math.min(chunk, data.length - i)), receiver);
+        }
+    }
+
+    private static class SinkHandler implements PayloadSinkHandler {
+
+        private final PayloadSink sink;
+        boolean ended = false;
+
+        SinkHandler(PayloadSink sink) {
+            this.sink = sink;
+        }
+
+        @Override
+        public PayloadSink startPayloadSink() {
+            return sink;
+        }
+
+        @Override
+        public OutputStream startPayload() {
+            throw new IllegalStateException("the sink has to be used");
+        }
+
+        @Override
+        public void notify(BundleID id) {
+        }
+
+        @Override
+        public void notify(StatusReport r) {
+        }
+
+        @Override
+        public void notify(Custody c) {
+        }
+
+        @Override
+        public void startBundle(Bundle bundle) {
+        }
+
+        @Override
+        public void endBundle() {
+            ended = true;
+        }
+
+        @Override
+        public void startBlock(Block block) {
+        }
+
+        @Override
+        public void endBlock() {
+        }
+
+        @Override
+        public void endPayload() {
+        }
+
+        @Override
+        public void progress(long pos, long total) {
+        }
+    }
+}
@@ -0,0 +1,283 @@
+package ibrdtn.api.test;
+
+import ibrdtn.api.APIException;
+import ibrdtn.api.DataReceiver;
+import ibrdtn.api.DeferredFlushOutputStream;
+import ibrdtn.api.ExtendedClient;
+import ibrdtn.api.PendingResponse;
+import ibrdtn.api.SendResult;
+import ibrdtn.api.SocketAPIConnection;
+import ibrdtn.api.object.Bundle;
+import ibrdtn.api.object.EID;
+import ibrdtn.api.object.PayloadBlock;
+import ibrdtn.api.object.SingletonEndpoint;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+public class PipeliningTest {
+
+    @Test
+    public void testResponsesInOrder() throws APIException {
+        DataReceiver receiver = new DataReceiver(new ExtendedClient(), new Object(), null);
+
+        PendingResponse clear = new PendingResponse("bundle clear");
+        PendingResponse put = new PendingResponse("bundle put plain");
+        PendingResponse sent = new PendingResponse("bundle send");
+        receiver.enqueue(clear);
+        receiver.enqueue(put);
+        receiver.enqueue(sent);
+        assertEquals(3, receiver.getPendingCount());
+
+        receiver.response(200, "BUNDLE CLEARED");
+        receiver.response(100, "PUT BUNDLE PLAIN");
+        assertTrue(clear.isDone());
+        assertTrue(put.isDone());
+        assertFalse(sent.isDone());
+
+        receiver.response(200, "BUNDLE SENT");
+        assertEquals(200, clear.getCode());
+        assertEquals(100, put.getCode());
+        assertEquals(200, sent.getCode());
+        assertEquals(0, receiver.getPendingCount());
+    }
+
+    @Test
+    public void testListResponse() throws APIException {
+        DataReceiver receiver = new DataReceiver(new ExtendedClient(), new Object(), null);
+
+        PendingResponse list = new PendingResponse("registration list");
+        PendingResponse next = new PendingResponse("noop");
+        receiver.enqueue(list);
+        receiver.enqueue(next);
+
+        receiver.response(200, "REGISTRATION LIST");
+        assertFalse(list.isDone());
+
+        receiver.response(Arrays.asList("dtn://node/a", "dtn://node/b"));
+        receiver.response(400, "UNKNOWN COMMAND");
+
+        assertEquals(Arrays.asList("dtn://node/a", "dtn://node/b"), list.getList());
+        assertEquals(400, next.getCode());
+    }
+
+    @Test
+    public void testAbort() {
+        DataReceiver receiver = new DataReceiver(new ExtendedClient(), new Object(), null);
+
+        PendingResponse slot = new PendingResponse("bundle load queue");
+        receiver.enqueue(slot);
+        receiver.abort();
+
+        assertTrue(slot.isDone());
+        try {
+            slot.get();
+            fail("aborted slot returned a response");
+        } catch (APIException e) {
+        }
+    }
+
+    @Test
+    public void testDeferredFlush() throws IOException {
+        ByteArrayOutputStream target = new ByteArrayOutputStream();
+        DeferredFlushOutputStream out = new DeferredFlushOutputStream(target);
+
+        out.setDeferred(true);
+        out.write("bundle clear\n".getBytes());
+        out.flush();
+        assertEquals(0, target.size());
+
+        out.setDeferred(false);
+        out.flush();
+        assertEquals("bundle clear\n", target.toString());
+    }
+
+    @Test
+    public void testLockstepAndPipelinedSends() throws Exception {
+        final int rounds = 10;
+        UploadDaemon daemon = new UploadDaemon();
+        final ExtendedClient client = new ExtendedClient();
+        client.setConnection(new SocketAPIConnection("127.0.0.1", daemon.getPort()));
+        client.open();
+
+        final EID destination = new SingletonEndpoint("dtn://node/sink");
+        final AtomicInteger failures = new AtomicInteger(0);
+        final CountDownLatch done = new CountDownLatch(4);
+
+        try {
+            // two threads send large bundles step by step while two others send batches without waiting
+            for (int t = 0; t < 4; t++) {
+                final boolean lockstep = (t % 2 == 0);
+                new Thread() {
+                    @Override
+                    public void run() {
+                        try {
+                            for (int i = 0; i < rounds; i++) {
+                                if (lockstep) {
+                                    client.send(bundle(destination, 256 * 1024));
+                                    continue;
+                                }
+
+                                List<Bundle> batch = new ArrayList<Bundle>();
+                                for (int j = 0; j < 5; j++) {
+                                    batch.add(bundle(destination, 100));
+                                }
+                                for (SendResult r : client.sendAll(batch)) {
+                                    if (!r.isSuccess()) {
+                                        failures.incrementAndGet();
+                                    }
+                                }
+                            }
+                        } catch (APIException e) {
+                            failures.incrementAndGet();
+                        } finally {
+                            done.countDown();
+                        }
+                    }
+                }.start();
+            }
+
+            assertTrue(done.await(30, TimeUnit.SECONDS));
+            assertEquals(0, failures.get());
+            assertEquals(0, daemon.errors.size());
+            assertEquals(2 * rounds + 2 * rounds * 5, daemon.sent.get());
+            assertTrue(client.isConnected());
+        } finally {
+            client.close();
+            daemon.close();
+        }
+    }
+
+    @Test
+    public void testConnectionLostDuringLockstepSend() throws Exception {
+        UploadDaemon daemon = new UploadDaemon();
+        daemon.dropAtClear = true;
+        final ExtendedClient client = new ExtendedClient();
+        client.setConnection(new SocketAPIConnection("127.0.0.1", daemon.getPort()));
+        client.open();
+
+        final List<Exception> errors = Collections.synchronizedList(new ArrayList<Exception>());
+        final CountDownLatch done = new CountDownLatch(1);
+
+        try {
+            new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        client.send(bundle(new SingletonEndpoint("dtn://node/sink"), 100));
+                    } catch (APIException e) {
+                        errors.add(e);
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }.start();
+
+            // the daemon closes the connection instead of answering "bundle clear"
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+            assertEquals(1, errors.size());
+            assertFalse(client.isConnected());
+        } finally {
+            client.close();
+            daemon.close();
+        }
+    }
+
+    private static Bundle bundle(EID destination, int size) {
+        Bundle b = new Bundle(destination, 3600);
+        b.appendBlock(new PayloadBlock(new byte[size]));
+        return b;
+    }
+
+    /**
+     * Accepts plain bundle uploads and checks that the data of each block matches its length. A bundle interleaved
+     * with other commands fails the check.
+     */
+    private static class UploadDaemon extends FakeDaemon {
+
+        final List<String> errors = Collections.synchronizedList(new ArrayList<String>());
+        final AtomicInteger sent = new AtomicInteger(0);
+        volatile boolean dropAtClear = false;
+
+        UploadDaemon() throws IOException {
+            start();
+        }
+
+        @Override
+        void serve(Session session) throws IOException {
+            boolean stored = false;
+            String line;
+            while ((line = session.readCommand()) != null) {
+                if (line.equals("bundle clear") && dropAtClear) {
+                    break;
+                } else if (line.equals("bundle clear")) {
+                    stored = false;
+                    session.write("200 BUNDLE CLEARED\n");
+                } else if (line.equals("bundle put plain")) {
+                    session.write("100 PUT BUNDLE PLAIN\n");
+                    stored = readBundle(session);
+                    session.write(stored ? "200 BUNDLE IN REGISTER\n" : "400 BUNDLE REJECTED\n");
+                } else if (line.equals("bundle send") && stored) {
+                    sent.incrementAndGet();
+                    stored = false;
+                    session.write("200 BUNDLE SENT\n");
+                } else {
+                    errors.add(line);
+                    session.write("400 UNKNOWN COMMAND\n");
+                }
+            }
+        }
+
+        private boolean readBundle(Session session) throws IOException {
+            int blocks = 0;
+            String line;
+            while (!(line = session.readLine()).isEmpty()) {
+                if (line.startsWith("Blocks: ")) {
+                    blocks = Integer.parseInt(line.substring(8));
+                }
+            }
+
+            boolean valid = (blocks > 0);
+            for (int i = 0; i < blocks; i++) {
+                int length = -1;
+                while (!(line = session.readLine()).isEmpty()) {
+                    if (line.startsWith("Length: ")) {
+                        length = Integer.parseInt(line.substring(8));
+                    }
+                }
+
+                StringBuilder data = new StringBuilder();
+                while (!(line = session.readLine()).isEmpty()) {
+                    data.append(line);
+                }
+
+                try {
+                    if (Base64.getDecoder().decode(data.toString()).length != length) {
+                        valid = false;
+                    }
+                } catch (IllegalArgumentException e) {
+                    valid = false;
+                }
+            }
+
+            if (!valid) {
+                errors.add("malformed bundle");
+            }
+            return valid;
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package ibrdtn.api.test;
+
+import ibrdtn.api.ExtendedClient;
+import ibrdtn.api.PrefetchingReceiver;
+import ibrdtn.api.SocketAPIConnection;
+import ibrdtn.api.object.Bundle;
+import ibrdtn.api.object.BundleID;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class PrefetchingReceiverTest {
+
+    private static final int BUNDLES = 20;
+
+    @Test
+    public void testReceiveAnnouncedBundles() throws Exception {
+        receive(false);
+    }
+
+    @Test
+    public void testBundleOfOtherLoad() throws Exception {
+        // the daemon accepts the load of bundle 7, but the register still holds bundle 6
+        receive(true);
+    }
+
+    private static void receive(boolean stale) throws Exception {
+        ScriptedDaemon daemon = new ScriptedDaemon(stale);
+        daemon.start();
+
+        final List<String> received = Collections.synchronizedList(new ArrayList<String>());
+        final CountDownLatch done = new CountDownLatch(BUNDLES - 1);
+        final CountDownLatch gate = new CountDownLatch(1);
+
+        ExtendedClient client = new ExtendedClient();
+        client.setConnection(new SocketAPIConnection("127.0.0.1", daemon.getPort()));
+
+        PrefetchingReceiver receiver = new PrefetchingReceiver(client, new PrefetchingReceiver.Consumer() {
+            @Override
+            public void receive(BundleID id, Bundle bundle) {
+                try {
+                    gate.await();
+                } catch (InterruptedException e) {
+                }
+                ByteArrayOutputStream data = new ByteArrayOutputStream();
+                try {
+                    bundle.getPayloadBlock().getData().writeTo(data);
+                } catch (IOException e) {
+                }
+                received.add(id.getSequenceNumber() + ":" + data.toString());
+                done.countDown();
+            }
+        }, 4, 2);
+
+        client.open();
+        receiver.start();
+
+        // the consumers are blocked, so no more bundles than the window are requested
+        long deadline = System.currentTimeMillis() + 10000;
+        while (daemon.requested < 4 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Thread.sleep(200);
+        assertEquals(4, daemon.requested);
+        gate.countDown();
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        receiver.stop();
+        assertTrue(client.isConnected());
+        client.close();
+        daemon.close();
+
+        // bundle 7 could not be loaded and must not be confused with the previous one
+        assertEquals(BUNDLES - 1, received.size());
+        for (int i = 0; i < BUNDLES; i++) {
+            assertEquals(i != 7, received.contains(i + ":payload " + i));
+        }
+    }
+
+    /**
+     * Announces a number of bundles and answers the commands to receive them. Bundle 7 is not found or, if stale,
+     * reported as loaded without replacing the previous bundle in the register.
+     */
+    private static class ScriptedDaemon extends FakeDaemon {
+
+        private final boolean stale;
+        volatile int requested = 0;
+
+        ScriptedDaemon(boolean stale) throws IOException {
+            this.stale = stale;
+        }
+
+        @Override
+        String switched() {
+            StringBuilder sb = new StringBuilder("200 SWITCHED TO EXTENDED\n");
+            for (int i = 0; i < BUNDLES; i++) {
+                sb.append("602 NOTIFY BUNDLE 1000 ").append(i).append(" dtn://node/app\n");
+            }
+            return sb.toString();
+        }
+
+        @Override
+        void serve(Session session) throws IOException {
+            int loaded = -1;
+            String line;
+            while ((line = session.readCommand()) != null) {
+                if (line.startsWith("bundle load ")) {
+                    int seq = Integer.parseInt(line.split(" ")[3]);
+                    requested++;
+                    if (seq == 7 && stale) {
+                        session.write("200 BUNDLE LOADED\n");
+                    } else if (seq == 7) {
+                        session.write("404 BUNDLE NOT FOUND\n");
+                    } else {
+                        loaded = seq;
+                        session.write("200 BUNDLE LOADED\n");
+                    }
+                } else if (line.equals("bundle get")) {
+                    String payload = "payload " + loaded;
+                    session.write("200 BUNDLE GET PLAIN\n"
+                            + "Source: dtn://node/app\n"
+                            + "Destination: dtn://local/app\n"
+                            + "Timestamp: 1000\n"
+                            + "Sequencenumber: " + loaded + "\n"
+                            + "Blocks: 1\n"
+                            + "\n"
+                            + "Block: 1\n"
+                            + "Flags: LAST_BLOCK\n"
+                            + "Length: " + payload.length() + "\n"
+                            + "Encoding: raw\n"
+                            + "\n"
+                            + payload + "\n"
+                            + "\n");
+                } else if (line.startsWith("bundle delivered ")) {
+                    session.write("200 BUNDLE DELIVERED ACCEPTED\n");
+                } else {
+                    session.write("400 UNKNOWN COMMAND\n");
+                }
+            }
+        }
+    }
+}
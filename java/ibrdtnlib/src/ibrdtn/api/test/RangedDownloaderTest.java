@@ -0,0 +1,250 @@
+package ibrdtn.api.test;
+
+import ibrdtn.api.APIException;
+import ibrdtn.api.RangedDownloader;
+import ibrdtn.api.Timestamp;
+import ibrdtn.api.object.BundleID;
+import ibrdtn.api.object.SingletonEndpoint;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+public class RangedDownloaderTest {
+
+    private static final int RANGE = 64 * 1024;
+
+    @Test
+    public void testParallelDownload() throws Exception {
+        byte[] payload = payload(1000 * 1000);
+        ScriptedDaemon daemon = new ScriptedDaemon(payload);
+        daemon.failAt = 5;
+        daemon.start();
+
+        File target = File.createTempFile("ranged", ".bin");
+        try {
+            RangedDownloader downloader = new RangedDownloader("127.0.0.1", daemon.getPort(), bundleId());
+            downloader.setConnections(3);
+            downloader.setRangeSize(RANGE);
+
+            assertEquals(payload.length, downloader.download(target));
+            assertTrue(Arrays.equals(payload, Files.readAllBytes(target.toPath())));
+            assertFalse(new File(target.getPath() + ".part").exists());
+
+            // the interrupted range has been requested again on a new connection
+            assertTrue(daemon.connections.get() > 3);
+        } finally {
+            daemon.close();
+            target.delete();
+        }
+    }
+
+    @Test
+    public void testResume() throws Exception {
+        byte[] payload = payload(10 * RANGE + 100);
+        ScriptedDaemon daemon = new ScriptedDaemon(payload);
+        daemon.start();
+
+        File target = File.createTempFile("ranged", ".bin");
+        File part = new File(target.getPath() + ".part");
+        try {
+            // ranges 0 to 3 have been downloaded before, the entry of range 4 is incomplete
+            OutputStream out = new FileOutputStream(target);
+            out.write(payload, 0, 4 * RANGE);
+            out.close();
+
+            out = new FileOutputStream(part);
+            out.write((header(payload.length) + "\n0\n2\n1\n3\n4").getBytes());
+            out.close();
+
+            RangedDownloader downloader = new RangedDownloader("127.0.0.1", daemon.getPort(), bundleId());
+            downloader.setConnections(2);
+            downloader.setRangeSize(RANGE);
+            downloader.download(target);
+
+            assertTrue(Arrays.equals(payload, Files.readAllBytes(target.toPath())));
+            assertEquals(new HashSet<Long>(Arrays.asList(4L, 5L, 6L, 7L, 8L, 9L, 10L)), daemon.requested);
+            assertFalse(part.exists());
+        } finally {
+            daemon.close();
+            target.delete();
+            part.delete();
+        }
+    }
+
+    @Test
+    public void testPartOfOtherBundle() throws Exception {
+        byte[] payload = payload(4 * RANGE);
+        ScriptedDaemon daemon = new ScriptedDaemon(payload);
+        daemon.start();
+
+        File target = File.createTempFile("ranged", ".bin");
+        File part = new File(target.getPath() + ".part");
+        try {
+            // left by the download of another bundle of the same size
+            BundleID other = new BundleID(new SingletonEndpoint("dtn://node/app"), new Timestamp(1000L), 2L);
+            OutputStream out = new FileOutputStream(part);
+            out.write((other + " 0 " + payload.length + " " + RANGE + "\n0\n1\n").getBytes());
+            out.close();
+
+            RangedDownloader downloader = new RangedDownloader("127.0.0.1", daemon.getPort(), bundleId());
+            downloader.setConnections(1);
+            downloader.setRangeSize(RANGE);
+            downloader.download(target);
+
+            assertTrue(Arrays.equals(payload, Files.readAllBytes(target.toPath())));
+            assertEquals(new HashSet<Long>(Arrays.asList(0L, 1L, 2L, 3L)), daemon.requested);
+        } finally {
+            daemon.close();
+            target.delete();
+            part.delete();
+        }
+    }
+
+    @Test
+    public void testIncomplete() throws Exception {
+        byte[] payload = payload(4 * RANGE);
+        ScriptedDaemon daemon = new ScriptedDaemon(payload);
+        daemon.failAt = 2;
+        daemon.failAlways = true;
+        daemon.start();
+
+        File target = File.createTempFile("ranged", ".bin");
+        File part = new File(target.getPath() + ".part");
+        try {
+            RangedDownloader downloader = new RangedDownloader("127.0.0.1", daemon.getPort(), bundleId());
+            downloader.setConnections(1);
+            downloader.setRangeSize(RANGE);
+            downloader.setRetries(1);
+
+            try {
+                downloader.download(target);
+                fail("download did not fail");
+            } catch (APIException e) {
+            }
+
+            // the first range is kept for the next attempt
+            assertTrue(part.exists());
+            assertEquals(header(payload.length) + "\n0\n", new String(Files.readAllBytes(part.toPath())));
+        } finally {
+            daemon.close();
+            target.delete();
+            part.delete();
+        }
+    }
+
+    @Test
+    public void testTooManyRanges() throws Exception {
+        ScriptedDaemon daemon = new ScriptedDaemon(payload(100));
+        daemon.reported = 3L * Integer.MAX_VALUE;
+        daemon.start();
+
+        File target = File.createTempFile("ranged", ".bin");
+        try {
+            RangedDownloader downloader = new RangedDownloader("127.0.0.1", daemon.getPort(), bundleId());
+            downloader.setRangeSize(1);
+
+            try {
+                downloader.download(target);
+                fail("download with too many ranges succeeded");
+            } catch (APIException e) {
+            }
+
+            assertEquals(0, target.length());
+            assertEquals(0, daemon.requests.get());
+        } finally {
+            daemon.close();
+            target.delete();
+        }
+    }
+
+    private static BundleID bundleId() {
+        return new BundleID(new SingletonEndpoint("dtn://node/app"), new Timestamp(1000L), 1L);
+    }
+
+    /**
+     * @return the first line of the resume log of the payload block of the bundle
+     */
+    private static String header(long length) {
+        return bundleId() + " 0 " + length + " " + RANGE;
+    }
+
+    private static byte[] payload(int length) {
+        byte[] data = new byte[length];
+        new Random(42).nextBytes(data);
+        return data;
+    }
+
+    /**
+     * Serves ranges of a single payload. The n-th payload request may be interrupted by closing the connection
+     * half-way.
+     */
+    private static class ScriptedDaemon extends FakeDaemon {
+
+        private final byte[] payload;
+        final AtomicInteger requests = new AtomicInteger(0);
+        final Set<Long> requested = Collections.synchronizedSet(new HashSet<Long>());
+        volatile int failAt = -1;
+        volatile boolean failAlways = false;
+        // the payload length announced by the bundle info, if not the length of the payload
+        volatile long reported = -1;
+
+        ScriptedDaemon(byte[] payload) throws IOException {
+            this.payload = payload;
+        }
+
+        @Override
+        void serve(Session session) throws IOException {
+            String line;
+            while ((line = session.readCommand()) != null) {
+                String[] cmd = line.split(" ");
+                if (line.equals("set encoding raw")) {
+                    session.write("200 OK\n");
+                } else if (line.equals("bundle load 1000 1 dtn://node/app")) {
+                    session.write("200 BUNDLE LOADED\n");
+                } else if (line.equals("bundle info")) {
+                    session.write("200 BUNDLE INFO 1000 1 dtn://node/app\n"
+                            + "Source: dtn://node/app\n"
+                            + "Timestamp: 1000\n"
+                            + "Sequencenumber: 1\n"
+                            + "Blocks: 1\n"
+                            + "\n"
+                            + "Block: 1\n"
+                            + "Flags: LAST_BLOCK\n"
+                            + "Length: " + (reported < 0 ? payload.length : reported) + "\n"
+                            + "Encoding: skip\n"
+                            + "\n");
+                } else if (cmd.length == 5 && cmd[0].equals("payload") && cmd[1].equals("0") && cmd[2].equals("get")) {
+                    long offset = Long.parseLong(cmd[3]);
+                    int length = (int) Math.min(Long.parseLong(cmd[4]), payload.length - offset);
+                    int n = requests.incrementAndGet();
+
+                    session.write("200 PAYLOAD GET\nLength: " + length + "\nEncoding: raw\n\n");
+                    if (n == failAt || (failAlways && n > failAt)) {
+                        session.write(payload, (int) offset, length / 2);
+                        return;
+                    }
+                    requested.add(offset / RANGE);
+                    session.write(payload, (int) offset, length);
+                    session.write("\n\n");
+                } else {
+                    session.write("400 UNKNOWN COMMAND\n");
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,247 @@
+package ibrdtn.api.test;
+
+import ibrdtn.api.APIConnection;
+import ibrdtn.api.APIException;
+import ibrdtn.api.ConnectionFactory;
+import ibrdtn.api.ReconnectingClient;
+import ibrdtn.api.SocketAPIConnection;
+import ibrdtn.api.Timestamp;
+import ibrdtn.api.object.BundleID;
+import ibrdtn.api.object.GroupEndpoint;
+import ibrdtn.api.object.SingletonEndpoint;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+public class ReconnectingClientTest {
+
+    private static final BundleID ID = new BundleID(new SingletonEndpoint("dtn://node/app"), new Timestamp(1000L), 1L);
+
+    @Test
+    public void testResume() throws Exception {
+        ScriptedDaemon daemon = new ScriptedDaemon();
+        ReconnectingClient client = open(daemon);
+
+        try {
+            assertEquals(Arrays.asList("protocol extended", "set endpoint app", "registration add dtn://group/x",
+                    "registration save 3600"), daemon.commands());
+            assertEquals("reg1", client.getHandle());
+
+            daemon.clearCommands();
+            daemon.disconnect();
+            awaitReconnect(client);
+
+            // the registration is loaded instead of registering the endpoints again, the endpoint of the session
+            // is set after the load as the source of sent bundles
+            assertEquals(Arrays.asList("protocol extended", "registration load reg1", "set endpoint app",
+                    "registration save 3600"), daemon.commands());
+            assertEquals(1, client.getResumes());
+            assertEquals("reg1", client.getHandle());
+        } finally {
+            client.close();
+            daemon.close();
+        }
+    }
+
+    @Test
+    public void testExpiredRegistration() throws Exception {
+        ScriptedDaemon daemon = new ScriptedDaemon();
+        ReconnectingClient client = open(daemon);
+
+        try {
+            daemon.clearCommands();
+            daemon.expire();
+            daemon.disconnect();
+            awaitReconnect(client);
+
+            assertEquals(Arrays.asList("protocol extended", "registration load reg1", "set endpoint app",
+                    "registration save 3600", "registration add dtn://group/x"), daemon.commands());
+            assertEquals(0, client.getResumes());
+            assertEquals("reg2", client.getHandle());
+        } finally {
+            client.close();
+            daemon.close();
+        }
+    }
+
+    @Test
+    public void testRetry() throws Exception {
+        ScriptedDaemon daemon = new ScriptedDaemon();
+        ReconnectingClient client = open(daemon);
+
+        try {
+            daemon.clearCommands();
+            daemon.dropOn("bundle delivered " + ID);
+
+            // the connection fails during the operation, it is completed on the next one
+            client.markDelivered(ID);
+            assertEquals(2, daemon.count("bundle delivered " + ID));
+            assertEquals(1, client.getReconnects());
+            assertTrue(client.isConnected());
+        } finally {
+            client.close();
+            daemon.close();
+        }
+    }
+
+    @Test
+    public void testRejected() throws Exception {
+        ScriptedDaemon daemon = new ScriptedDaemon();
+        ReconnectingClient client = open(daemon);
+
+        try {
+            daemon.clearCommands();
+            daemon.reject("bundle delivered " + ID);
+
+            try {
+                client.markDelivered(ID);
+                fail("rejected operation succeeded");
+            } catch (APIException e) {
+            }
+
+            // a rejected operation is not repeated
+            assertEquals(1, daemon.count("bundle delivered " + ID));
+            assertEquals(0, client.getReconnects());
+        } finally {
+            client.close();
+            daemon.close();
+        }
+
+        assertFalse(client.isConnected());
+    }
+
+    private static ReconnectingClient open(final ScriptedDaemon daemon) throws Exception {
+        ReconnectingClient client = new ReconnectingClient(new ConnectionFactory() {
+            @Override
+            public APIConnection createConnection() {
+                return new SocketAPIConnection("127.0.0.1", daemon.getPort());
+            }
+        }, null);
+        client.setEndpoint("app");
+        client.addRegistration(new GroupEndpoint("dtn://group/x"));
+        client.setReconnectDelay(10, 100, TimeUnit.MILLISECONDS);
+        client.open();
+        return client;
+    }
+
+    private static void awaitReconnect(ReconnectingClient client) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (client.getReconnects() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, client.getReconnects());
+    }
+
+    /**
+     * Answers the registration commands and records all commands. Saved registrations are kept across connections
+     * until they are expired.
+     */
+    private static class ScriptedDaemon extends FakeDaemon {
+
+        private final Set<String> registrations = new HashSet<String>();
+        private final List<Socket> sockets = new ArrayList<Socket>();
+        private int handles = 0;
+        private String drop = null;
+        private String rejected = null;
+
+        ScriptedDaemon() throws IOException {
+            start();
+        }
+
+        int count(String cmd) {
+            int n = 0;
+            for (String c : commands()) {
+                if (c.equals(cmd)) {
+                    n++;
+                }
+            }
+            return n;
+        }
+
+        synchronized void expire() {
+            registrations.clear();
+        }
+
+        /**
+         * Drops the connection instead of answering the next occurrence of the command.
+         */
+        synchronized void dropOn(String cmd) {
+            drop = cmd;
+        }
+
+        synchronized void reject(String cmd) {
+            rejected = cmd;
+        }
+
+        synchronized void disconnect() throws IOException {
+            for (Socket s : sockets) {
+                s.close();
+            }
+            sockets.clear();
+        }
+
+        @Override
+        void close() throws IOException {
+            super.close();
+            disconnect();
+        }
+
+        @Override
+        void serve(Session session) throws IOException {
+            synchronized (this) {
+                sockets.add(session.socket);
+            }
+
+            String registration = null;
+            String line;
+            while ((line = session.readCommand()) != null) {
+                String response = answer(line);
+                if (response == null) {
+                    return;
+                }
+                if (line.startsWith("registration save") || line.startsWith("registration load")) {
+                    synchronized (this) {
+                        if (line.startsWith("registration save")) {
+                            if (registration == null) {
+                                registration = "reg" + (++handles);
+                                registrations.add(registration);
+                            }
+                            response = "200 REGISTRATION SAVE " + registration;
+                        } else if (registrations.contains(line.substring(18))) {
+                            registration = line.substring(18);
+                        } else {
+                            response = "503 REGISTRATION NOT FOUND";
+                        }
+                    }
+                }
+                session.write(response + "\n");
+            }
+        }
+
+        /**
+         * @return the response to a command or null to drop the connection
+         */
+        private synchronized String answer(String cmd) {
+            if (cmd.equals(drop)) {
+                drop = null;
+                return null;
+            }
+            if (cmd.equals(rejected)) {
+                return "400 REJECTED";
+            }
+            return "200 OK";
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package ibrdtn.api.test;
+
+import ibrdtn.api.sab.SABByteHandler;
+import ibrdtn.api.sab.SABByteParser;
+import ibrdtn.api.sab.SABException;
+import ibrdtn.api.sab.SABHandler;
+import ibrdtn.api.sab.SABParser;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class SABByteParserTest {
+
+    private static final String BUNDLE_GET = "200 BUNDLE GET PLAIN\n"
+            + "Processing flags: 144\n"
+            + "Source: dtn://node/app\n"
+            + "Blocks: 2\n"
+            + "\n"
+            + "Block: 20\n"
+            + "Flags: REPLICATE_IN_EVERY_FRAGMENT\n"
+            + "Length: 2\n"
+            + "Encoding: base64\n"
+            + "\n"
+            + "AAA=\n"
+            + "\n"
+            + "Block: 1\n"
+            + "Flags: LAST_BLOCK\n"
+            + "Length: 12\n"
+            + "Encoding: base64\n"
+            + "\n"
+            + "aGVsbG8g\n"
+            + "d29ybGQh\n"
+            + "\n"
+            + "602 NOTIFY BUNDLE 1 2 dtn://node/app\n"
+            + "200 REGISTRATION LIST\n"
+            + "dtn://node/a\n"
+            + "\n";
+
+    @Test
+    public void testSameEventsAsLineParser() throws SABException {
+        RecordingHandler expected = new RecordingHandler();
+        parseLines(BUNDLE_GET, expected);
+
+        RecordingHandler actual = new RecordingHandler();
+        SABByteParser parser = new SABByteParser();
+        byte[] data = BUNDLE_GET.getBytes();
+
+        // feed the stream byte by byte to split every line
+        for (byte b : data) {
+            parser.consume(ByteBuffer.wrap(new byte[]{b}), actual);
+        }
+
+        assertEquals(expected.events, actual.events);
+    }
+
+    @Test
+    public void testBytePayload() throws SABException {
+        RecordingByteHandler handler = new RecordingByteHandler();
+        new SABByteParser().consume(ByteBuffer.wrap(BUNDLE_GET.getBytes()), handler);
+
+        assertEquals("AAA=aGVsbG8gd29ybGQh", handler.data.toString());
+        assertEquals("response(200, REGISTRATION LIST)", handler.events.get(handler.events.size() - 2));
+    }
+
+    @Test
+    public void testRawPayload() throws SABException {
+        String stream = "200 PAYLOAD GET\n"
+                + "Length: 6\n"
+                + "Encoding: raw\n"
+                + "\n"
+                + "a\n\nb\nc\n"
+                + "\n"
+                + "200 BUNDLE SENT\n";
+
+        RecordingByteHandler handler = new RecordingByteHandler();
+        SABByteParser parser = new SABByteParser();
+        byte[] data = stream.getBytes();
+        parser.consume(ByteBuffer.wrap(data, 0, 30), handler);
+        parser.consume(ByteBuffer.wrap(data, 30, data.length - 30), handler);
+
+        assertEquals("a\n\nb\nc", handler.data.toString());
+        assertEquals("endBlock", handler.events.get(handler.events.size() - 2));
+        assertEquals("response(200, BUNDLE SENT)", handler.events.get(handler.events.size() - 1));
+    }
+
+    @Test
+    public void testCarriageReturnAtChunkBoundary() throws SABException {
+        byte[] data = BUNDLE_GET.replace("\n", "\r\n").getBytes();
+
+        RecordingHandler expectedLines = new RecordingHandler();
+        new SABByteParser().consume(ByteBuffer.wrap(BUNDLE_GET.getBytes()), expectedLines);
+        RecordingByteHandler expectedBytes = new RecordingByteHandler();
+        new SABByteParser().consume(ByteBuffer.wrap(BUNDLE_GET.getBytes()), expectedBytes);
+
+        // split the stream at every offset, so that each carriage return ends a chunk once
+        for (int i = 1; i < data.length; i++) {
+            RecordingHandler lines = new RecordingHandler();
+            SABByteParser parser = new SABByteParser();
+            parser.consume(ByteBuffer.wrap(data, 0, i), lines);
+            parser.consume(ByteBuffer.wrap(data, i, data.length - i), lines);
+            assertEquals("split at " + i, expectedLines.events, lines.events);
+
+            RecordingByteHandler bytes = new RecordingByteHandler();
+            parser = new SABByteParser();
+            parser.consume(ByteBuffer.wrap(data, 0, i), bytes);
+            parser.consume(ByteBuffer.wrap(data, i, data.length - i), bytes);
+            assertEquals("split at " + i, expectedBytes.events, bytes.events);
+            assertEquals("split at " + i, "AAA=aGVsbG8gd29ybGQh", bytes.data.toString());
+        }
+
+        // a carriage return which is not followed by a line feed belongs to the data
+        data = "200 PAYLOAD GET\r\nLength: 5\r\n\r\nab\rcd\r\n\r\n200 BUNDLE SENT\r\n".getBytes();
+        for (int i = 1; i < data.length; i++) {
+            RecordingByteHandler bytes = new RecordingByteHandler();
+            SABByteParser parser = new SABByteParser();
+            parser.consume(ByteBuffer.wrap(data, 0, i), bytes);
+            parser.consume(ByteBuffer.wrap(data, i, data.length - i), bytes);
+            assertEquals("split at " + i, "ab\rcd", bytes.data.toString());
+            assertEquals("split at " + i, "response(200, BUNDLE SENT)", bytes.events.get(bytes.events.size() - 1));
+        }
+    }
+
+    private static void parseLines(String stream, SABHandler handler) {
+        try {
+            new SABParser().parse(new ByteArrayInputStream(stream.getBytes()), handler);
+        } catch (SABException e) {
+            // end of stream
+        }
+    }
+
+    private static class RecordingHandler implements SABHandler {
+
+        final List<String> events = new ArrayList<String>();
+
+        @Override
+        public void startStream() {
+        }
+
+        @Override
+        public void endStream() {
+        }
+
+        @Override
+        public void startBundle() {
+            events.add("startBundle");
+        }
+
+        @Override
+        public void endBundle() {
+            events.add("endBundle");
+        }
+
+        @Override
+        public void startBlock(Integer type) {
+            events.add("startBlock(" + type + ")");
+        }
+
+        @Override
+        public void endBlock() {
+            events.add("endBlock");
+        }
+
+        @Override
+        public void attribute(String keyword, String value) {
+            events.add(keyword + "=" + value);
+        }
+
+        @Override
+        public void characters(String data) throws SABException {
+            events.add("characters(" + data + ")");
+        }
+
+        @Override
+        public void notify(Integer type, String data) {
+            events.add("notify(" + type + ", " + data + ")");
+        }
+
+        @Override
+        public void response(Integer type, String data) {
+            events.add("response(" + type + ", " + data + ")");
+        }
+
+        @Override
+        public void response(List<String> data) {
+            events.add("list" + data);
+        }
+    }
+
+    private static class RecordingByteHandler extends RecordingHandler implements SABByteHandler {
+
+        final ByteArrayOutputStream data = new ByteArrayOutputStream();
+
+        @Override
+        public void characters(ByteBuffer buffer) throws SABException {
+            while (buffer.hasRemaining()) {
+                data.write(buffer.get());
+            }
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package ibrdtn.api.test;
+
+import ibrdtn.api.object.ByteArrayBlockData;
+import ibrdtn.api.object.SDNV;
+import ibrdtn.api.object.ScopeControlHopLimitBlock;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+public class SDNVTest {
+
+    private static final long[] VALUES = {0, 1, 127, 128, 16383, 16384, 0xffffffffL, 1L << 56, Long.MAX_VALUE};
+
+    @Test
+    public void testStaticCodec() throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(VALUES.length * SDNV.MAX_SDNV_BYTES);
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+
+        for (long value : VALUES) {
+            byte[] expected = new SDNV(value).getBytes();
+            assertEquals(expected.length, SDNV.encodedLength(value));
+
+            int start = buffer.position();
+            SDNV.encode(value, buffer);
+            byte[] actual = new byte[buffer.position() - start];
+            System.arraycopy(buffer.array(), start, actual, 0, actual.length);
+            assertArrayEquals(expected, actual);
+
+            SDNV.write(value, stream);
+        }
+
+        buffer.flip();
+        ByteArrayInputStream in = new ByteArrayInputStream(stream.toByteArray());
+        for (long value : VALUES) {
+            assertEquals(value, SDNV.decode(buffer));
+            assertEquals(value, SDNV.read(in));
+        }
+        assertEquals(0, buffer.remaining());
+        assertEquals(9, SDNV.encodedLength(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void testIncompleteValue() throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(new byte[]{0x05, (byte) 0x81, (byte) 0x80});
+        assertEquals(5, SDNV.decode(buffer));
+
+        try {
+            SDNV.decode(buffer);
+            fail("incomplete value decoded");
+        } catch (BufferUnderflowException e) {
+            assertEquals(1, buffer.position());
+        }
+
+        try {
+            SDNV.read(new ByteArrayInputStream(new byte[]{(byte) 0x81}));
+            fail("incomplete value read");
+        } catch (EOFException e) {
+        }
+
+        byte[] tooLong = new byte[SDNV.MAX_SDNV_BYTES + 1];
+        Arrays.fill(tooLong, (byte) 0x81);
+        try {
+            SDNV.decode(ByteBuffer.wrap(tooLong));
+            fail("value too long for a long decoded");
+        } catch (NumberFormatException e) {
+        }
+
+        try {
+            SDNV.encode(-1, ByteBuffer.allocate(SDNV.MAX_SDNV_BYTES));
+            fail("negative value encoded");
+        } catch (NumberFormatException e) {
+        }
+    }
+
+    @Test
+    public void testHopLimitBlock() throws Exception {
+        ScopeControlHopLimitBlock block = new ScopeControlHopLimitBlock(3, 300);
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        block.getData().writeTo(data);
+        assertArrayEquals(new byte[]{0x03, (byte) 0x82, 0x2c}, data.toByteArray());
+
+        ScopeControlHopLimitBlock parsed = new ScopeControlHopLimitBlock(new ByteArrayBlockData(data.toByteArray()));
+        assertEquals(3, parsed.getHopCount().getValue());
+        assertEquals(300, parsed.getHopLimit().getValue());
+    }
+}
@@ -0,0 +1,67 @@
+package ibrdtn.speedtest;
+
+import ibrdtn.api.object.Block;
+import ibrdtn.api.object.Bundle;
+import ibrdtn.api.object.BundleID;
+import ibrdtn.api.sab.CallbackHandler;
+import ibrdtn.api.sab.Custody;
+import ibrdtn.api.sab.StatusReport;
+import java.io.OutputStream;
+
+/**
+ * A CallbackHandler that ignores all callbacks and discards received payloads. The clients of the load generator
+ * override the callbacks they are interested in.
+ */
+abstract class CallbackAdapter implements CallbackHandler {
+
+    private static final OutputStream DISCARD = new OutputStream() {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    };
+
+    @Override
+    public void notify(BundleID id) {
+    }
+
+    @Override
+    public void notify(StatusReport r) {
+    }
+
+    @Override
+    public void notify(Custody c) {
+    }
+
+    @Override
+    public void startBundle(Bundle bundle) {
+    }
+
+    @Override
+    public void endBundle() {
+    }
+
+    @Override
+    public void startBlock(Block block) {
+    }
+
+    @Override
+    public void endBlock() {
+    }
+
+    @Override
+    public OutputStream startPayload() {
+        return DISCARD;
+    }
+
+    @Override
+    public void endPayload() {
+    }
+
+    @Override
+    public void progress(long pos, long total) {
+    }
+}
@@ -1,55 +1,100 @@
 package ibrdtn.speedtest;
 
-import ibrdtn.api.object.Bundle;
-import ibrdtn.api.object.EID;
-import ibrdtn.api.object.PayloadBlock;
-import ibrdtn.api.object.SingletonEndpoint;
-import ibrdtn.speedtest.api.APIHandlerType;
-import ibrdtn.speedtest.api.DTNClient;
-import ibrdtn.speedtest.api.PayloadType;
-import java.net.Socket;
 import java.util.concurrent.TimeUnit;
 
 /**
+ * Command line front-end of the LoadGenerator. The results are written to standard output as JSON, so the runs of
+ * different releases can be compared.
  *
  * @author timpner
  */
 public class IbrDtnSpeedtest {
 
-    private static DTNClient dtnClient;
-    private static EID DESTINATION = new SingletonEndpoint("dtn://timpner-lx/bla");
-    private static long LIFETIME = 3600L;
-    private static String DATA = "0xC0FFEE";
-    private static int COUNT = 1000;
+    private static final String USAGE = "usage: IbrDtnSpeedtest [options]\n"
+            + "  -host <host>          daemon host (localhost)\n"
+            + "  -port <port>          daemon API port (4550)\n"
+            + "  -destination <eid>    destination of the bundles\n"
+            + "  -sink <endpoint>      receive the bundles on this endpoint and send them there\n"
+            + "  -clients <n>          number of concurrent connections (1)\n"
+            + "  -rate <bundles/s>     open loop with this total rate, closed loop if omitted\n"
+            + "  -duration <s>         measured time (10)\n"
+            + "  -warmup <s>           time before the measurement (2)\n"
+            + "  -drain <s>            maximum wait for outstanding delivery reports (5)\n"
+            + "  -size <sizes>         payload sizes: 1024, 64-65536 or 64,1024,65536 (1024)\n"
+            + "  -lifetime <s>         bundle lifetime (3600)\n"
+            + "  -raw                  transfer payloads without base64 encoding\n"
+            + "  -pipelining           pipeline the commands of each submission\n"
+            + "  -noreports            do not request delivery reports";
 
     /**
      * @param args the command line arguments
      */
     public static void main(String[] args) {
-        // Init connection to daemon
-        dtnClient = new DTNClient("speedtest", PayloadType.BYTE, APIHandlerType.PASSTHROUGH);
-        System.out.println(dtnClient.getConfiguration());
+        LoadGenerator generator = new LoadGenerator();
 
-        // Create bundle to send
-        Bundle bundle = new Bundle(DESTINATION, LIFETIME);
-        bundle.setPriority(Bundle.Priority.NORMAL);
-        String data = DATA;
-        bundle.appendBlock(new PayloadBlock(data.getBytes()));
-
-        long before = System.currentTimeMillis();
+        try {
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i];
+                if (arg.equals("-raw")) {
+                    generator.setRaw(true);
+                } else if (arg.equals("-pipelining")) {
+                    generator.setPipelining(true);
+                } else if (arg.equals("-noreports")) {
+                    generator.setDeliveryReports(false);
+                } else if (i + 1 < args.length) {
+                    String value = args[++i];
+                    if (arg.equals("-host")) {
+                        generator.setHost(value);
+                    } else if (arg.equals("-port")) {
+                        generator.setPort(Integer.parseInt(value));
+                    } else if (arg.equals("-destination")) {
+                        generator.setDestination(value);
+                    } else if (arg.equals("-sink")) {
+                        generator.setSink(value);
+                    } else if (arg.equals("-clients")) {
+                        generator.setClients(Integer.parseInt(value));
+                    } else if (arg.equals("-rate")) {
+                        generator.setRate(Double.parseDouble(value));
+                    } else if (arg.equals("-duration")) {
+                        generator.setDuration(millis(value), TimeUnit.MILLISECONDS);
+                    } else if (arg.equals("-warmup")) {
+                        generator.setWarmup(millis(value), TimeUnit.MILLISECONDS);
+                    } else if (arg.equals("-drain")) {
+                        generator.setDrain(millis(value), TimeUnit.MILLISECONDS);
+                    } else if (arg.equals("-size")) {
+                        generator.setPayloadSizes(PayloadSizes.parse(value));
+                    } else if (arg.equals("-lifetime")) {
+                        generator.setLifetime(Long.parseLong(value));
+                    } else {
+                        throw new IllegalArgumentException("unknown option " + arg);
+                    }
+                } else {
+                    throw new IllegalArgumentException("missing value of " + arg);
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            System.exit(2);
+        }
 
-        for (int i = 0; i < COUNT; i++) {
-            dtnClient.send(bundle);
+        if (generator.getDestination() == null && generator.getSink() == null) {
+            System.err.println("either -destination or -sink is required");
+            System.err.println(USAGE);
+            System.exit(2);
         }
+
         try {
-            dtnClient.executor.shutdown();
-            dtnClient.executor.awaitTermination(3, TimeUnit.DAYS);
-        } catch (InterruptedException ex) {
-            System.out.println("Interrupted");
+            generator.run();
+        } catch (Exception e) {
+            System.err.println("Load generation failed: " + e.getMessage());
+            System.exit(1);
         }
-        long after = System.currentTimeMillis();
-        long runningTime = after - before;
 
-        System.out.println("Running time: " + runningTime);
+        System.out.print(generator.toJson());
+    }
+
+    private static long millis(String seconds) {
+        return (long) (Double.parseDouble(seconds) * 1000);
     }
 }
@@ -0,0 +1,134 @@
+package ibrdtn.speedtest;
+
+import java.util.Arrays;
+
+/**
+ * A histogram of latencies in nanoseconds with a bounded relative error, in the manner of an HdrHistogram. Each power
+ * of two is divided into 128 linear buckets, so a recorded value is reported with an error of less than 1% while the
+ * histogram covers the whole range of a long in a fixed array.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 7;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = Long.SIZE - SUB_BUCKET_BITS;
+
+    private final long[] counts = new long[(BUCKETS + 1) * SUB_BUCKETS];
+    private long count = 0;
+    private long sum = 0;
+    private long min = Long.MAX_VALUE;
+    private long max = 0;
+
+    /**
+     * Records a latency.
+     *
+     * @param nanos the latency in nanoseconds, negative values are recorded as zero
+     */
+    public synchronized void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+
+        counts[indexOf(nanos)]++;
+        count++;
+        sum += nanos;
+        min = Math.min(min, nanos);
+        max = Math.max(max, nanos);
+    }
+
+    /**
+     * Adds all values recorded by another histogram to this one.
+     *
+     * @param other the histogram to add
+     */
+    public void add(LatencyHistogram other) {
+        long[] c;
+        long n, s, lo, hi;
+        synchronized (other) {
+            c = other.counts.clone();
+            n = other.count;
+            s = other.sum;
+            lo = other.min;
+            hi = other.max;
+        }
+
+        synchronized (this) {
+            for (int i = 0; i < c.length; i++) {
+                counts[i] += c[i];
+            }
+            count += n;
+            sum += s;
+            min = Math.min(min, lo);
+            max = Math.max(max, hi);
+        }
+    }
+
+    /**
+     * Removes all recorded values.
+     */
+    public synchronized void reset() {
+        Arrays.fill(counts, 0);
+        count = 0;
+        sum = 0;
+        min = Long.MAX_VALUE;
+        max = 0;
+    }
+
+    public synchronized long getCount() {
+        return count;
+    }
+
+    public synchronized long getMin() {
+        return (count == 0) ? 0 : min;
+    }
+
+    public synchronized long getMax() {
+        return max;
+    }
+
+    public synchronized double getMean() {
+        return (count == 0) ? 0.0 : (double) sum / count;
+    }
+
+    /**
+     * Returns the value at the given percentile, i.e. the highest value that is equivalent to the bucket in which the
+     * percentile falls.
+     *
+     * @param percentile the percentile between 0 and 100
+     * @return the latency in nanoseconds or 0 if nothing was recorded
+     */
+    public synchronized long getValueAtPercentile(double percentile) {
+        if (count == 0) {
+            return 0;
+        }
+
+        long rank = (long) Math.ceil(Math.min(percentile, 100.0) / 100.0 * count);
+        if (rank < 1) {
+            rank = 1;
+        }
+
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(highestEquivalentValue(i), max);
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Values below 256 are counted exactly. Above, the bucket of a value is determined by its highest bit and the
+     * sub-bucket by the following seven bits.
+     */
+    private static int indexOf(long value) {
+        int bucket = Math.max(0, (Long.SIZE - 1 - Long.numberOfLeadingZeros(value)) - SUB_BUCKET_BITS);
+        return (bucket << SUB_BUCKET_BITS) + (int) (value >>> bucket);
+    }
+
+    private static long highestEquivalentValue(int index) {
+        int bucket = (index < 2 * SUB_BUCKETS) ? 0 : (index >>> SUB_BUCKET_BITS) - 1;
+        long sub = index - ((long) bucket << SUB_BUCKET_BITS);
+        return ((sub + 1) << bucket) - 1;
+    }
+}
@@ -0,0 +1,191 @@
+package ibrdtn.speedtest;
+
+import ibrdtn.api.APIException;
+import ibrdtn.api.ClientConfig;
+import ibrdtn.api.ExtendedClient;
+import ibrdtn.api.object.Bundle;
+import ibrdtn.api.object.EID;
+import ibrdtn.api.object.PayloadBlock;
+import ibrdtn.api.object.SingletonEndpoint;
+import ibrdtn.api.sab.StatusReport;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * One connection of the load generator. The client submits bundles from its own thread, either back-to-back (closed
+ * loop) or at a fixed interval (open loop), and measures the time until the daemon accepted each bundle.
+ *
+ * If delivery reports are requested, the time until the delivery report arrives is measured as well. The daemon does
+ * not return the id of a sent bundle, so the reports are matched to the submissions of this connection in the order
+ * of their arrival.
+ */
+class LoadClient extends CallbackAdapter implements Runnable {
+
+    private static final Logger logger = Logger.getLogger(LoadClient.class.getName());
+
+    private final LoadGenerator config;
+    private final ExtendedClient client = new ExtendedClient();
+    private final Random random;
+    private final byte[] data;
+
+    private SingletonEndpoint reportto = null;
+
+    // the times of the submissions still waiting for a delivery report
+    private final ArrayDeque<Long> pending = new ArrayDeque<Long>();
+
+    // the bounds of the run in System.nanoTime()
+    private long start;
+    private long offset;
+    private long measureStart;
+    private long end;
+
+    final LatencyHistogram submitLatency = new LatencyHistogram();
+    final LatencyHistogram deliveryLatency = new LatencyHistogram();
+    volatile long bundles = 0;
+    volatile long bytes = 0;
+    volatile long errors = 0;
+    volatile long unmatched = 0;
+
+    LoadClient(LoadGenerator config, int index) {
+        this.config = config;
+        this.random = new Random(index);
+        this.data = new byte[config.getPayloadSizes().getMaximum()];
+        random.nextBytes(data);
+    }
+
+    /**
+     * Connects to the daemon and registers the endpoint of this client.
+     */
+    void open(String endpoint) throws IOException, APIException {
+        client.setHost(config.getHost());
+        client.setPort(config.getPort());
+        client.setHandler(this);
+        client.setPipelining(config.isPipelining());
+
+        ClientConfig session = new ClientConfig();
+        session.setEndpoint(endpoint);
+        if (config.isRaw()) {
+            session.setEncoding(ExtendedClient.Encoding.RAW);
+        }
+        client.open(session);
+
+        if (config.isDeliveryReports()) {
+            reportto = new SingletonEndpoint(client.getEndpoint().toString());
+        }
+    }
+
+    /**
+     * Sets the bounds of the run. The client sends from start until end and records its measurements from
+     * measureStart on. In open loop mode the first submission is delayed by the given offset, so the clients do not
+     * submit at the same instant.
+     */
+    void schedule(long start, long offset, long measureStart, long end) {
+        this.start = start;
+        this.offset = offset;
+        this.measureStart = measureStart;
+        this.end = end;
+    }
+
+    @Override
+    public void run() {
+        EID destination = new SingletonEndpoint(config.getDestination());
+        long interval = config.getInterval();
+
+        for (long k = 0;; k++) {
+            int size = config.getPayloadSizes().next(random);
+            Bundle bundle = new Bundle(destination, config.getLifetime());
+            bundle.appendBlock(new PayloadBlock(Arrays.copyOf(data, size)));
+            if (reportto != null) {
+                bundle.setFlag(Bundle.Flags.DELIVERY_REPORT, true);
+                bundle.setReportto(reportto);
+            }
+
+            // in open loop the latency is measured from the intended time of the submission, so a stalled daemon
+            // does not hide the requests which should have been submitted meanwhile
+            long intended;
+            if (interval > 0) {
+                intended = start + offset + k * interval;
+                long wait = intended - System.nanoTime();
+                if (wait > 0) {
+                    LockSupport.parkNanos(wait);
+                }
+            } else {
+                intended = System.nanoTime();
+            }
+
+            if (intended >= end) {
+                break;
+            }
+
+            if (reportto != null) {
+                synchronized (pending) {
+                    pending.addLast(intended);
+                }
+            }
+
+            try {
+                client.send(bundle);
+            } catch (APIException e) {
+                if (reportto != null) {
+                    synchronized (pending) {
+                        pending.pollLast();
+                    }
+                }
+                errors++;
+
+                if (!client.isConnected()) {
+                    logger.log(Level.WARNING, "Connection lost: {0}", e.getMessage());
+                    break;
+                }
+                continue;
+            }
+
+            if (intended >= measureStart) {
+                submitLatency.record(System.nanoTime() - intended);
+                bundles++;
+                bytes += size;
+            }
+        }
+    }
+
+    @Override
+    public void notify(StatusReport r) {
+        if (r.getStatus() != StatusReport.Status.DELIVERY) {
+            return;
+        }
+
+        long now = System.nanoTime();
+        Long submitted;
+        synchronized (pending) {
+            submitted = pending.pollFirst();
+        }
+
+        if (submitted == null) {
+            unmatched++;
+        } else if (submitted >= measureStart) {
+            deliveryLatency.record(now - submitted);
+        }
+    }
+
+    /**
+     * @return the number of submissions still waiting for a delivery report
+     */
+    int getOutstanding() {
+        synchronized (pending) {
+            return pending.size();
+        }
+    }
+
+    void close() {
+        try {
+            client.close();
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Could not close connection: {0}", e.getMessage());
+        }
+    }
+}
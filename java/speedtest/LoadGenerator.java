@@ -0,0 +1,355 @@
+package ibrdtn.speedtest;
+
+import ibrdtn.api.APIException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Generates load on a daemon through a number of concurrent API connections and measures the throughput and the
+ * latencies of the submitted bundles.
+ *
+ * Without a rate the clients submit their bundles back-to-back (closed loop). With a rate the bundles are submitted
+ * at fixed intervals regardless of the response time of the daemon (open loop), and the rate is divided equally among
+ * the clients.
+ *
+ * The latency from the submission until the daemon accepted the bundle is always measured. If delivery reports are
+ * requested, the latency until the delivery report arrived is measured as well. This requires an application which
+ * receives the bundles at the destination, e.g. the sink of the load generator.
+ */
+public class LoadGenerator {
+
+    private static final double[] PERCENTILES = {50.0, 90.0, 99.0, 99.9, 99.99, 100.0};
+
+    private String host = "localhost";
+    private int port = 4550;
+    private String destination = null;
+    private String sink = null;
+    private int clients = 1;
+    private double rate = 0;
+    private long duration = TimeUnit.SECONDS.toNanos(10);
+    private long warmup = TimeUnit.SECONDS.toNanos(2);
+    private long drain = TimeUnit.SECONDS.toNanos(5);
+    private PayloadSizes payloadSizes = PayloadSizes.parse("1024");
+    private long lifetime = 3600;
+    private boolean raw = false;
+    private boolean pipelining = false;
+    private boolean deliveryReports = true;
+
+    // the results of the last run
+    private final LatencyHistogram submitLatency = new LatencyHistogram();
+    private final LatencyHistogram deliveryLatency = new LatencyHistogram();
+    private long bundles = 0;
+    private long bytes = 0;
+    private long errors = 0;
+    private long outstanding = 0;
+    private long unmatched = 0;
+    private long elapsed = 0;
+
+    public String getHost() {
+        return host;
+    }
+
+    public void setHost(String host) {
+        this.host = host;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public void setPort(int port) {
+        this.port = port;
+    }
+
+    public String getDestination() {
+        return destination;
+    }
+
+    /**
+     * @param destination the EID the bundles are sent to
+     */
+    public void setDestination(String destination) {
+        this.destination = destination;
+    }
+
+    public String getSink() {
+        return sink;
+    }
+
+    /**
+     * @param sink the endpoint on which the load generator receives its own bundles, the destination is set
+     * accordingly
+     */
+    public void setSink(String sink) {
+        this.sink = sink;
+    }
+
+    public void setClients(int clients) {
+        if (clients < 1) {
+            throw new IllegalArgumentException("at least one client is required");
+        }
+        this.clients = clients;
+    }
+
+    /**
+     * @param rate the bundles per second submitted by all clients together, 0 for closed loop
+     */
+    public void setRate(double rate) {
+        if (rate < 0) {
+            throw new IllegalArgumentException("negative rate");
+        }
+        this.rate = rate;
+    }
+
+    public void setDuration(long duration, TimeUnit unit) {
+        this.duration = unit.toNanos(duration);
+    }
+
+    /**
+     * @param warmup the time after the start during which nothing is recorded
+     */
+    public void setWarmup(long warmup, TimeUnit unit) {
+        this.warmup = unit.toNanos(warmup);
+    }
+
+    /**
+     * @param drain the maximum time to wait for outstanding delivery reports after the last submission
+     */
+    public void setDrain(long drain, TimeUnit unit) {
+        this.drain = unit.toNanos(drain);
+    }
+
+    public PayloadSizes getPayloadSizes() {
+        return payloadSizes;
+    }
+
+    public void setPayloadSizes(PayloadSizes payloadSizes) {
+        this.payloadSizes = payloadSizes;
+    }
+
+    public long getLifetime() {
+        return lifetime;
+    }
+
+    public void setLifetime(long lifetime) {
+        this.lifetime = lifetime;
+    }
+
+    public boolean isRaw() {
+        return raw;
+    }
+
+    /**
+     * @param raw true to transfer the bundles without base64 encoding
+     */
+    public void setRaw(boolean raw) {
+        this.raw = raw;
+    }
+
+    public boolean isPipelining() {
+        return pipelining;
+    }
+
+    public void setPipelining(boolean pipelining) {
+        this.pipelining = pipelining;
+    }
+
+    public boolean isDeliveryReports() {
+        return deliveryReports;
+    }
+
+    public void setDeliveryReports(boolean deliveryReports) {
+        this.deliveryReports = deliveryReports;
+    }
+
+    /**
+     * @return the interval between two submissions of one client in nanoseconds, 0 in closed loop
+     */
+    long getInterval() {
+        return (rate == 0) ? 0 : (long) (1e9 * clients / rate);
+    }
+
+    /**
+     * Runs the load and collects the results.
+     *
+     * @throws IOException if a connection to the daemon fails
+     * @throws APIException if a client could not be registered
+     * @throws InterruptedException if interrupted while waiting for the clients
+     */
+    public void run() throws IOException, APIException, InterruptedException {
+        LoadSink receiver = null;
+        List<LoadClient> loaders = new ArrayList<LoadClient>();
+        List<Thread> threads = new ArrayList<Thread>();
+
+        try {
+            if (sink != null) {
+                receiver = new LoadSink();
+                destination = receiver.open(this, sink);
+            }
+            if (destination == null) {
+                throw new IllegalStateException("neither a destination nor a sink is set");
+            }
+
+            for (int i = 0; i < clients; i++) {
+                LoadClient c = new LoadClient(this, i);
+                c.open("speedtest-" + i);
+                loaders.add(c);
+                threads.add(new Thread(c, "LoadClient-" + i));
+            }
+
+            long interval = getInterval();
+            long start = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(10);
+            long measureStart = start + warmup;
+            long end = measureStart + duration;
+
+            for (int i = 0; i < clients; i++) {
+                loaders.get(i).schedule(start, i * interval / clients, measureStart, end);
+                threads.get(i).start();
+            }
+            for (Thread t : threads) {
+                t.join();
+            }
+            long stop = System.nanoTime();
+
+            if (deliveryReports) {
+                long deadline = stop + drain;
+                while (count(loaders) > 0 && System.nanoTime() < deadline) {
+                    Thread.sleep(10);
+                }
+            }
+
+            collect(loaders, Math.min(stop, end) - measureStart);
+        } finally {
+            for (LoadClient c : loaders) {
+                c.close();
+            }
+            if (receiver != null) {
+                receiver.close();
+            }
+        }
+    }
+
+    private static int count(List<LoadClient> loaders) {
+        int n = 0;
+        for (LoadClient c : loaders) {
+            n += c.getOutstanding();
+        }
+        return n;
+    }
+
+    private void collect(List<LoadClient> loaders, long elapsed) {
+        submitLatency.reset();
+        deliveryLatency.reset();
+        bundles = bytes = errors = unmatched = 0;
+
+        for (LoadClient c : loaders) {
+            submitLatency.add(c.submitLatency);
+            deliveryLatency.add(c.deliveryLatency);
+            bundles += c.bundles;
+            bytes += c.bytes;
+            errors += c.errors;
+            unmatched += c.unmatched;
+        }
+
+        this.outstanding = count(loaders);
+        this.elapsed = Math.max(elapsed, 1);
+    }
+
+    /**
+     * @return the results of the last run as a JSON object
+     */
+    public String toJson() {
+        double seconds = elapsed / 1e9;
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\n");
+        sb.append("  \"config\": {\n");
+        sb.append("    \"host\": ").append(quote(host)).append(",\n");
+        sb.append("    \"port\": ").append(port).append(",\n");
+        sb.append("    \"destination\": ").append(quote(destination)).append(",\n");
+        sb.append("    \"clients\": ").append(clients).append(",\n");
+        sb.append("    \"mode\": ").append(quote((rate == 0) ? "closed" : "open")).append(",\n");
+        sb.append("    \"rate\": ").append(format(rate)).append(",\n");
+        sb.append("    \"payloadSizes\": ").append(quote(payloadSizes.toString())).append(",\n");
+        sb.append("    \"encoding\": ").append(quote(raw ? "raw" : "base64")).append(",\n");
+        sb.append("    \"pipelining\": ").append(pipelining).append(",\n");
+        sb.append("    \"deliveryReports\": ").append(deliveryReports).append(",\n");
+        sb.append("    \"warmupSeconds\": ").append(format(warmup / 1e9)).append(",\n");
+        sb.append("    \"durationSeconds\": ").append(format(duration / 1e9)).append("\n");
+        sb.append("  },\n");
+        sb.append("  \"elapsedSeconds\": ").append(format(seconds)).append(",\n");
+        sb.append("  \"bundles\": ").append(bundles).append(",\n");
+        sb.append("  \"bytes\": ").append(bytes).append(",\n");
+        sb.append("  \"errors\": ").append(errors).append(",\n");
+        sb.append("  \"throughput\": {\n");
+        sb.append("    \"bundlesPerSecond\": ").append(format(bundles / seconds)).append(",\n");
+        sb.append("    \"bytesPerSecond\": ").append(format(bytes / seconds)).append("\n");
+        sb.append("  },\n");
+        sb.append("  \"submitLatency\": ");
+        append(sb, submitLatency);
+        if (deliveryReports) {
+            sb.append(",\n  \"deliveryLatency\": ");
+            append(sb, deliveryLatency);
+            sb.append(",\n  \"deliveryOutstanding\": ").append(outstanding);
+            sb.append(",\n  \"deliveryUnmatched\": ").append(unmatched);
+        }
+        sb.append("\n}\n");
+        return sb.toString();
+    }
+
+    /**
+     * Appends a histogram with its latencies in microseconds.
+     */
+    private static void append(StringBuilder sb, LatencyHistogram h) {
+        sb.append("{\n");
+        sb.append("    \"unit\": \"us\",\n");
+        sb.append("    \"count\": ").append(h.getCount()).append(",\n");
+        sb.append("    \"min\": ").append(format(h.getMin() / 1e3)).append(",\n");
+        sb.append("    \"mean\": ").append(format(h.getMean() / 1e3)).append(",\n");
+        sb.append("    \"max\": ").append(format(h.getMax() / 1e3)).append(",\n");
+        sb.append("    \"percentiles\": {");
+        for (int i = 0; i < PERCENTILES.length; i++) {
+            sb.append((i == 0) ? "\n" : ",\n");
+            sb.append("      ").append(quote(format(PERCENTILES[i])));
+            sb.append(": ").append(format(h.getValueAtPercentile(PERCENTILES[i]) / 1e3));
+        }
+        sb.append("\n    }\n  }");
+    }
+
+    private static String format(double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            return "0";
+        }
+        if (value == Math.rint(value)) {
+            return String.valueOf((long) value);
+        }
+        String s = String.format(Locale.ROOT, "%.3f", value);
+        int end = s.length();
+        while (s.charAt(end - 1) == '0') {
+            end--;
+        }
+        return s.substring(0, end);
+    }
+
+    private static String quote(String value) {
+        if (value == null) {
+            return "null";
+        }
+
+        StringBuilder sb = new StringBuilder("\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < 0x20) {
+                sb.append(String.format("\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+}
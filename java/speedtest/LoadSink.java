@@ -0,0 +1,90 @@
+package ibrdtn.speedtest;
+
+import ibrdtn.api.APIException;
+import ibrdtn.api.ClientConfig;
+import ibrdtn.api.ExtendedClient;
+import ibrdtn.api.object.BundleID;
+import java.io.IOException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A receiving application for the load generator. It registers the destination endpoint, loads each announced
+ * bundle, receives it and marks it as delivered, which causes the daemon to send the delivery report.
+ *
+ * The commands are issued from a worker thread, because the notifications are dispatched by the receiving thread of
+ * the connection which also has to read the responses.
+ */
+class LoadSink extends CallbackAdapter implements Runnable {
+
+    private static final Logger logger = Logger.getLogger(LoadSink.class.getName());
+
+    private final ExtendedClient client = new ExtendedClient();
+    private final LinkedBlockingQueue<BundleID> ids = new LinkedBlockingQueue<BundleID>();
+    private final Semaphore received = new Semaphore(0);
+    private final Thread worker = new Thread(this, "LoadSink");
+
+    volatile long delivered = 0;
+
+    /**
+     * Connects to the daemon and registers the endpoint.
+     *
+     * @return the EID of the registered endpoint
+     */
+    String open(LoadGenerator config, String endpoint) throws IOException, APIException {
+        client.setHost(config.getHost());
+        client.setPort(config.getPort());
+        client.setHandler(this);
+
+        ClientConfig session = new ClientConfig();
+        session.setEndpoint(endpoint);
+        if (config.isRaw()) {
+            session.setEncoding(ExtendedClient.Encoding.RAW);
+        }
+        client.open(session);
+
+        worker.start();
+        return client.getEndpoint().toString();
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (true) {
+                BundleID id = ids.take();
+                client.loadBundle(id);
+                client.getBundle();
+                received.acquire();
+                client.markDelivered(id);
+                delivered++;
+            }
+        } catch (InterruptedException e) {
+            // closed
+        } catch (APIException e) {
+            if (client.isConnected()) {
+                logger.log(Level.WARNING, "Receiving failed: {0}", e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public void notify(BundleID id) {
+        ids.add(id);
+    }
+
+    @Override
+    public void endBundle() {
+        received.release();
+    }
+
+    void close() {
+        worker.interrupt();
+        try {
+            client.close();
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Could not close connection: {0}", e.getMessage());
+        }
+    }
+}
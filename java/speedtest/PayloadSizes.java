@@ -0,0 +1,82 @@
+package ibrdtn.speedtest;
+
+import java.util.Random;
+
+/**
+ * A distribution of payload sizes. The distribution is given as a string:
+ *
+ * "1024" for a fixed size, "64-65536" for sizes uniformly distributed between both bounds and "64,1024,65536" for
+ * sizes chosen from the list with equal probability.
+ */
+public class PayloadSizes {
+
+    private final String spec;
+    private final int[] sizes;
+    private final boolean uniform;
+
+    private PayloadSizes(String spec, int[] sizes, boolean uniform) {
+        this.spec = spec;
+        this.sizes = sizes;
+        this.uniform = uniform;
+    }
+
+    /**
+     * Parses a distribution.
+     *
+     * @param spec the distribution as described above
+     * @return the distribution
+     * @throws IllegalArgumentException if the distribution is malformed
+     */
+    public static PayloadSizes parse(String spec) {
+        try {
+            if (spec.contains("-")) {
+                String[] bounds = spec.split("-", 2);
+                int lower = Integer.parseInt(bounds[0].trim());
+                int upper = Integer.parseInt(bounds[1].trim());
+                if (lower < 0 || upper < lower) {
+                    throw new IllegalArgumentException("invalid size range " + spec);
+                }
+                return new PayloadSizes(spec, new int[]{lower, upper}, true);
+            }
+
+            String[] values = spec.split(",");
+            int[] sizes = new int[values.length];
+            for (int i = 0; i < values.length; i++) {
+                sizes[i] = Integer.parseInt(values[i].trim());
+                if (sizes[i] < 0) {
+                    throw new IllegalArgumentException("invalid size " + values[i]);
+                }
+            }
+            return new PayloadSizes(spec, sizes, false);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("invalid payload sizes " + spec, e);
+        }
+    }
+
+    /**
+     * @param random the source of randomness of the calling thread
+     * @return the size of the next payload
+     */
+    public int next(Random random) {
+        if (uniform) {
+            return sizes[0] + random.nextInt(sizes[1] - sizes[0] + 1);
+        }
+        return (sizes.length == 1) ? sizes[0] : sizes[random.nextInt(sizes.length)];
+    }
+
+    /**
+     * @return the largest size of the distribution
+     */
+    public int getMaximum() {
+        int max = 0;
+        for (int size : sizes) {
+            max = Math.max(max, size);
+        }
+        return max;
+    }
+
+    @Override
+    public String toString() {
+        return spec;
+    }
+}
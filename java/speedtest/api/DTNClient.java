@@ -3,8 +3,10 @@ package ibrdtn.speedtest.api;
 import ibrdtn.api.APIException;
 import ibrdtn.api.EventClient;
 import ibrdtn.api.ExtendedClient;
+import ibrdtn.api.SendResult;
 import ibrdtn.api.object.Bundle;
 import java.io.IOException;
+import java.util.Collection;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
@@ -127,6 +129,33 @@ public class DTNClient {
         });
     }
 
+    /**
+     * Sends the given Bundles to the daemon as one batch.
+     *
+     * @param bundles
+     */
+    public void sendAll(Collection<Bundle> bundles) {
+
+        final Collection<Bundle> finalBundles = bundles;
+        final ExtendedClient finalClient = this.exClient;
+
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+
+                try {
+                    for (SendResult result : finalClient.sendAll(finalBundles)) {
+                        if (!result.isSuccess()) {
+                            logger.log(Level.SEVERE, "Unable to send bundle", result.getError());
+                        }
+                    }
+                } catch (Exception e) {
+                    logger.log(Level.SEVERE, "Unable to send bundles", e);
+                }
+            }
+        });
+    }
+
     /**
      * Shuts down the API connection.
      */